@@ -22,6 +22,7 @@
 package org.picketbox.core;
 
 import org.jboss.logging.BasicLogger;
+import org.jboss.logging.Cause;
 import org.jboss.logging.LogMessage;
 import org.jboss.logging.Logger;
 import org.jboss.logging.Message;
@@ -45,4 +46,88 @@ public interface PicketBoxLogger extends BasicLogger {
     @LogMessage(level = Logger.Level.INFO)
     @Message(id = 501, value = "Starting PicketBox")
     void startingPicketBox();
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 502, value = "Attribute '%s' of session %s is not serializable and will not be replicated")
+    void nonSerializableSessionAttribute(String key, String sessionId);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 503, value = "Failed to replicate session changes")
+    void failedToReplicateSessions(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 504, value = "Failed to apply replicated session changes")
+    void failedToApplyReplicatedSessions(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 505, value = "Session listener %s failed to handle %s")
+    void failedToDeliverSessionEvent(String listener, String event, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 506, value = "Evicted %s sessions to honour the session memory budget, estimated size is now %s bytes")
+    void debugSessionsEvicted(int count, long totalSize);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 507, value = "Failed to evict sessions")
+    void failedToEvictSessions(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 508, value = "Asynchronous authentication failed")
+    void failedToAuthenticateAsynchronously(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 509, value = "Virtual threads are not available, %s will use platform threads")
+    void virtualThreadsNotAvailable(String executor);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 510, value = "Activated configuration version %s, version %s will stop once drained")
+    void activatedSnapshot(long version, long previousVersion);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 511, value = "Stopping drained configuration version %s")
+    void stoppingRetiredSnapshot(long version);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 512, value = "Failed to save the body of the request to %s, it will be replayed without it")
+    void failedToSaveRequestBody(String requestURI, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 513, value = "Failed to release a resource of session %s")
+    void failedToReleaseSessionResource(String sessionId, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 514, value = "Authorization manager %s did not decide within %s ms, its decision counts as a deny")
+    void authorizationMemberTimedOut(String manager, long timeout);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 515, value = "Authorization manager %s failed, its decision counts as a deny")
+    void authorizationMemberFailed(String manager, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 516, value = "Attribute '%s' of replicated session %s was dropped")
+    void droppedReplicatedSessionAttribute(String key, String sessionId, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 517, value = "The event queue of session listener %s is full (capacity %s), %s events were dropped so far")
+    void droppedSessionEvents(String listener, int capacity, long dropped);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 518, value = "%s session deltas could not be sent and were dropped, the other nodes will request the full state of their sessions")
+    void droppedUnsentSessionDeltas(int count);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 519, value = "Deltas of session %s from node %s are missing, requesting its full state")
+    void missingSessionDeltas(String sessionId, String origin);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 520, value = "Sessions use an estimated %s bytes, over the budget of %s bytes, and none of them can be evicted yet")
+    void sessionMemoryBudgetExceeded(long totalSize, long budget);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 521, value = "Could not register %s, declare it in web.xml so that the state of destroyed sessions is released")
+    void sessionListenerNotRegistered(String listener);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 522, value = "Session listener %s was unregistered while interrupted, %s queued events were dropped")
+    void discardedSessionEvents(String listener, int discarded);
 }
\ No newline at end of file
@@ -22,20 +22,37 @@
 
 package org.picketbox.core;
 
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
 
+import org.picketbox.core.authentication.AuthenticationCallback;
 import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.AsyncHTTPAuthenticationScheme;
 import org.picketbox.core.authentication.http.HTTPAuthenticationScheme;
 import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.BulkAuthorizationManager;
+import org.picketbox.core.authorization.DescriptorAuthorizationManager;
 import org.picketbox.core.authorization.EntitlementsManager;
+import org.picketbox.core.authorization.Resource;
 import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
 import org.picketbox.core.exceptions.AuthenticationException;
 import org.picketbox.core.exceptions.AuthorizationException;
 import org.picketbox.core.identity.IdentityManager;
 import org.picketbox.core.logout.LogoutManager;
+import org.picketbox.core.session.PicketBoxSessionManager;
+import org.picketbox.core.session.PicketBoxSessionResource;
 
 /**
  * <p>
@@ -46,6 +63,8 @@ import org.picketbox.core.logout.LogoutManager;
  */
 public final class PicketBoxManager implements PicketBoxLifecycle {
 
+    private static final String SESSION_SUBJECT = SessionSubject.class.getName();
+
     private HTTPAuthenticationScheme authenticationScheme;
     private AuthorizationManager authorizationManager;
     private EntitlementsManager entitlementsManager;
@@ -91,28 +110,131 @@ public final class PicketBoxManager implements PicketBoxLifecycle {
      */
     public void authenticate(HttpServletRequest servletReq, HttpServletResponse servletResp) throws AuthenticationException {
         checkIfStarted();
-        if (!isAuthenticated(servletReq)) {
+
+        PicketBoxSecurityContext securityContext = getSecurityContext(servletReq);
+
+        if (!securityContext.isAuthenticated()) {
             Principal principal = this.authenticationScheme.authenticate(servletReq, servletResp);
 
             if (principal != null) {
-                PicketBoxSubject subject = this.identityManager.getIdentity(principal);
-                servletReq.getSession(true).setAttribute(PicketBoxConstants.SUBJECT, subject);
+                login(servletReq, securityContext, principal);
             }
         }
     }
 
+    /**
+     * <p>
+     * Starts authenticating a user without blocking the calling thread, when the authentication scheme is an
+     * {@link AsyncHTTPAuthenticationScheme}. The callback is given the outcome, which must then be passed to
+     * {@link #authenticated(HttpServletRequest, HttpServletResponse, Principal)} by the thread allowed to use the request.
+     * </p>
+     *
+     * @param servletReq
+     * @param callback
+     * @return false if the authentication was not started, the user must then be authenticated with
+     *         {@link #authenticate(HttpServletRequest, HttpServletResponse)}
+     * @throws AuthenticationException
+     */
+    public boolean authenticateAsync(HttpServletRequest servletReq, AuthenticationCallback callback)
+            throws AuthenticationException {
+        checkIfStarted();
+
+        if (!(this.authenticationScheme instanceof AsyncHTTPAuthenticationScheme)
+                || getSecurityContext(servletReq).isAuthenticated()) {
+            return false;
+        }
+
+        return ((AsyncHTTPAuthenticationScheme) this.authenticationScheme).authenticate(servletReq, callback) != null;
+    }
+
+    /**
+     * <p>
+     * Completes an authentication started by {@link #authenticateAsync(HttpServletRequest, AuthenticationCallback)}. The
+     * user is logged in, or challenged if the credentials were rejected.
+     * </p>
+     *
+     * @param servletReq
+     * @param servletResp
+     * @param principal the principal given to the callback
+     * @throws AuthenticationException
+     */
+    public void authenticated(HttpServletRequest servletReq, HttpServletResponse servletResp, Principal principal)
+            throws AuthenticationException {
+        checkIfStarted();
+
+        if (principal != null) {
+            login(servletReq, getSecurityContext(servletReq), principal);
+        } else {
+            ((AsyncHTTPAuthenticationScheme) this.authenticationScheme).challenge(servletReq, servletResp);
+        }
+    }
+
+    private void login(HttpServletRequest servletReq, PicketBoxSecurityContext securityContext, Principal principal) {
+        PicketBoxSubject subject = this.identityManager.getIdentity(principal);
+        HttpSession session = servletReq.getSession(true);
+        session.setAttribute(PicketBoxConstants.SUBJECT, subject);
+
+        SessionSubject binding = (SessionSubject) session.getAttribute(SESSION_SUBJECT);
+
+        if (binding == null) {
+            binding = new SessionSubject(session);
+            session.setAttribute(SESSION_SUBJECT, binding);
+        }
+
+        PicketBoxSessionManager.getResourceRegistry().register(binding.sessionId, binding);
+        securityContext.setSubject(subject);
+    }
+
     public PicketBoxSubject getAuthenticatedUser(HttpServletRequest servletReq) {
         checkIfStarted();
 
-        if (servletReq.getSession(false) == null) {
-            return null;
+        return getSecurityContext(servletReq).getSubject();
+    }
+
+    /**
+     * <p>
+     * Returns the {@link PicketBoxSecurityContext} of the specified request. The authenticated subject is read from the
+     * session the first time and cached in the request for the remaining of its processing.
+     * </p>
+     *
+     * @param servletReq
+     * @return
+     */
+    public PicketBoxSecurityContext getSecurityContext(HttpServletRequest servletReq) {
+        PicketBoxSecurityContext securityContext = (PicketBoxSecurityContext) servletReq
+                .getAttribute(PicketBoxConstants.SECURITY_CONTEXT);
+
+        if (securityContext == null) {
+            securityContext = new PicketBoxSecurityContext();
+
+            HttpSession session = servletReq.getSession(false);
+
+            if (session != null) {
+                PicketBoxSubject subject = (PicketBoxSubject) session.getAttribute(PicketBoxConstants.SUBJECT);
+
+                if (subject != null) {
+                    SessionSubject binding = (SessionSubject) session.getAttribute(SESSION_SUBJECT);
+
+                    if (binding != null) {
+                        binding.track(session);
+                    }
+                }
+
+                securityContext.setSubject(subject);
+            }
+
+            servletReq.setAttribute(PicketBoxConstants.SECURITY_CONTEXT, securityContext);
         }
 
-        return (PicketBoxSubject) servletReq.getSession(false).getAttribute(PicketBoxConstants.SUBJECT);
+        return securityContext;
     }
 
     /**
      * <pAuthorizes a user.</p>
+     * <p>
+     * The request is handed to a {@link DescriptorAuthorizationManager} as a {@link WebResourceDescriptor}, and is denied
+     * if its path is rejected by the normalization. Other managers are given a {@link WebResource}.
+     * </p>
      *
      * @param servletReq
      * @param servletResp
@@ -125,16 +247,29 @@ public final class PicketBoxManager implements PicketBoxLifecycle {
         try {
             checkIfStarted();
 
-            if (this.authorizationManager == null || !this.isAuthenticated(httpRequest)) {
+            PicketBoxSubject subject = getSecurityContext(httpRequest).getSubject();
+
+            if (this.authorizationManager == null || subject == null) {
                 return true;
             }
 
-            WebResource resource = new WebResource();
-            resource.setContext(httpRequest.getServletContext());
-            resource.setRequest(httpRequest);
-            resource.setResponse(httpResponse);
+            Resource resource;
+
+            if (this.authorizationManager instanceof DescriptorAuthorizationManager) {
+                resource = WebResourceDescriptor.from(httpRequest);
 
-            boolean isAuthorized = this.authorizationManager.authorize(resource, getAuthenticatedUser(httpRequest));
+                if (resource == null) {
+                    return false;
+                }
+            } else {
+                WebResource webResource = new WebResource();
+                webResource.setContext(httpRequest.getServletContext());
+                webResource.setRequest(httpRequest);
+                webResource.setResponse(httpResponse);
+                resource = webResource;
+            }
+
+            boolean isAuthorized = this.authorizationManager.authorize(resource, subject);
 
             return isAuthorized;
         } catch (Exception e) {
@@ -142,9 +277,67 @@ public final class PicketBoxManager implements PicketBoxLifecycle {
         }
     }
 
+    /**
+     * <p>
+     * Authorizes a user on many resources at once. A {@link BulkAuthorizationManager} decides them in one call, other
+     * managers one resource at a time.
+     * </p>
+     * <p>
+     * A null subject is decided as an anonymous user by the {@link AuthorizationManager}.
+     * </p>
+     *
+     * @param resources
+     * @param subject the subject, or null if the user is not authenticated
+     *
+     * @return the decisions, the bit of a resource at its position in the iteration order is set if it is authorized.
+     *
+     * @throws AuthorizationException if some problem occurs during the authorization process.
+     */
+    public BitSet authorize(Collection<? extends Resource> resources, PicketBoxSubject subject) throws AuthorizationException {
+        try {
+            checkIfStarted();
+
+            BitSet decisions = new BitSet(resources.size());
+
+            if (this.authorizationManager == null) {
+                decisions.set(0, resources.size());
+                return decisions;
+            }
+
+            if (this.authorizationManager instanceof BulkAuthorizationManager) {
+                return ((BulkAuthorizationManager) this.authorizationManager).authorize(resources, subject);
+            }
+
+            int index = 0;
+
+            for (Resource resource : resources) {
+                decisions.set(index++, this.authorizationManager.authorize(resource, subject));
+            }
+
+            return decisions;
+        } catch (Exception e) {
+            throw PicketBoxMessages.MESSAGES.authorizationFailed(e);
+        }
+    }
+
     public void logout(HttpServletRequest request, HttpServletResponse response) {
         checkIfStarted();
         this.logoutManager.logout(request, response);
+
+        request.removeAttribute(PicketBoxConstants.SECURITY_CONTEXT);
+    }
+
+    /**
+     * Log out a request already known to ask for it, see {@link LogoutManager#endSession(HttpServletRequest, HttpServletResponse)}
+     *
+     * @param request
+     * @param response
+     */
+    public void endSession(HttpServletRequest request, HttpServletResponse response) {
+        checkIfStarted();
+        this.logoutManager.endSession(request, response);
+
+        request.removeAttribute(PicketBoxConstants.SECURITY_CONTEXT);
     }
 
     /**
@@ -253,8 +446,11 @@ public final class PicketBoxManager implements PicketBoxLifecycle {
 
         PicketBoxLogger.LOGGER.startingPicketBox();
 
-        if (this.authorizationManager != null) {
-            this.authorizationManager.start();
+        // components shared with another manager may be running already
+        for (PicketBoxLifecycle component : getLifecycleComponents()) {
+            if (!component.started()) {
+                component.start();
+            }
         }
 
         this.started = true;
@@ -278,14 +474,54 @@ public final class PicketBoxManager implements PicketBoxLifecycle {
      */
     @Override
     public void stop() {
+        stop(true);
+    }
+
+    /**
+     * Stop this manager, and its components unless they are still used elsewhere
+     *
+     * @param stopComponents
+     */
+    void stop(boolean stopComponents) {
         if (this.stopped) {
             throw PicketBoxMessages.MESSAGES.picketBoxManagerAlreadyStopped();
         }
 
+        if (stopComponents) {
+            for (PicketBoxLifecycle component : getLifecycleComponents()) {
+                if (!component.stopped()) {
+                    component.stop();
+                }
+            }
+        }
+
         this.started = false;
         this.stopped = true;
     }
 
+    /**
+     * Get the components whose life cycle follows the one of this manager
+     *
+     * @return
+     */
+    List<PicketBoxLifecycle> getLifecycleComponents() {
+        List<PicketBoxLifecycle> components = new ArrayList<PicketBoxLifecycle>(3);
+
+        if (this.authorizationManager != null) {
+            components.add(this.authorizationManager);
+        }
+
+        if (this.identityManager instanceof PicketBoxLifecycle) {
+            components.add((PicketBoxLifecycle) this.identityManager);
+        }
+
+        if (this.entitlementsManager instanceof PicketBoxLifecycle) {
+            components.add((PicketBoxLifecycle) this.entitlementsManager);
+        }
+
+        return components;
+    }
+
     /**
      * <p>
      * Checks if the manager is started.
@@ -296,4 +532,73 @@ public final class PicketBoxManager implements PicketBoxLifecycle {
             throw PicketBoxMessages.MESSAGES.picketBoxManagerNotStarted();
         }
     }
+
+    /**
+     * The subject stored in a session, removed when the state of the session is released. It is bound to the session to
+     * release that state when the session is destroyed, and only holds a weak reference to the session so the registry does
+     * not keep destroyed sessions alive.
+     */
+    private static class SessionSubject implements PicketBoxSessionResource, HttpSessionBindingListener, Serializable {
+
+        private static final long serialVersionUID = -2954213860519846201L;
+
+        private transient WeakReference<HttpSession> session;
+        private volatile String sessionId;
+        private transient volatile boolean released;
+
+        SessionSubject(HttpSession session) {
+            this.session = new WeakReference<HttpSession>(session);
+            this.sessionId = session.getId();
+        }
+
+        /**
+         * Re-key the state of the session when the container changed its id, and refresh the reference to a session that
+         * was passivated.
+         *
+         * @param current
+         */
+        void track(HttpSession current) {
+            String currentId = current.getId();
+            String previousId = this.sessionId;
+
+            if (this.session == null || this.session.get() != current) {
+                this.session = new WeakReference<HttpSession>(current);
+            }
+
+            if (!currentId.equals(previousId)) {
+                this.sessionId = currentId;
+                PicketBoxSessionManager.getResourceRegistry().changeSessionId(previousId, currentId);
+            }
+        }
+
+        @Override
+        public void release(String sessionId) {
+            this.released = true;
+
+            HttpSession session = this.session != null ? this.session.get() : null;
+
+            if (session == null) {
+                return;
+            }
+
+            try {
+                session.removeAttribute(PicketBoxConstants.SUBJECT);
+                session.removeAttribute(SESSION_SUBJECT);
+            } catch (IllegalStateException ignore) {
+                // already invalidated
+            }
+        }
+
+        @Override
+        public void valueBound(HttpSessionBindingEvent event) {
+        }
+
+        @Override
+        public void valueUnbound(HttpSessionBindingEvent event) {
+            if (!this.released) {
+                this.released = true;
+                PicketBoxSessionManager.getResourceRegistry().release(this.sessionId);
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -131,4 +131,52 @@ public interface PicketBoxMessages {
 
     @Message(id = 29, value = "User session is not valid.")
     IllegalStateException invalidUserSession();
+
+    @Message(id = 30, value = "Invalid path pattern: %s")
+    IllegalArgumentException invalidPathPattern(String pattern);
+
+    @Message(id = 31, value = "Authentication rejected: too many authentications in progress")
+    AuthenticationException authenticationExecutorSaturated();
+
+    @Message(id = 32, value = "Authentication manager has not been started")
+    AuthenticationException authenticationManagerNotStarted();
+
+    @Message(id = 33, value = "No authentication scheme applies to the request")
+    AuthenticationException noAuthenticationSchemeSelected();
+
+    @Message(id = 34, value = "Authentication scheme %s is not one of the configured schemes")
+    ServletException unknownAuthenticationScheme(String scheme);
+
+    @Message(id = 35, value = "The argument %s must be greater than zero")
+    IllegalArgumentException invalidNonPositiveArgument(String argName);
+
+    @Message(id = 36, value = "The argument %s cannot be negative")
+    IllegalArgumentException invalidNegativeArgument(String argName);
+
+    @Message(id = 37, value = "Authorization manager has not been started")
+    IllegalStateException authorizationManagerNotStarted();
+
+    @Message(id = 38, value = "Invalid authorization constraint: %s")
+    IllegalArgumentException invalidAuthorizationConstraint(String constraint);
+
+    @Message(id = 39, value = "Invalid role hierarchy definition: %s")
+    IllegalArgumentException invalidRoleHierarchyDefinition(String definition);
+
+    @Message(id = 40, value = "Entitlements evaluation failed.")
+    IllegalStateException entitlementsEvaluationFailed(@Cause Throwable t);
+
+    @Message(id = 41, value = "Entitlements manager has not been started")
+    IllegalStateException entitlementsManagerNotStarted();
+
+    @Message(id = 42, value = "Access denied to method %s")
+    SecurityException methodAccessDenied(String method);
+
+    @Message(id = 43, value = "Invalid request path: %s")
+    IllegalArgumentException invalidRequestPath(String path);
+
+    @Message(id = 44, value = "Invalid XACML policy")
+    IllegalArgumentException invalidXACMLPolicy(@Cause Throwable t);
+
+    @Message(id = 45, value = "Unable to read the roles file %s")
+    IllegalStateException unableToReadRolesFile(String fileName, @Cause Throwable t);
 }
@@ -25,6 +25,10 @@ import java.security.Principal;
 
 /**
  * Class representing security context for applications
+ * <p>
+ * The {@link PicketBoxManager} resolves the context once per request and stores it as a request attribute. During the
+ * filter chain it is also bound to the current thread, see {@link PicketBoxSecurityContextAssociation}.
+ * </p>
  *
  * @author anil saldhana
  * @since Jul 12, 2012
@@ -32,6 +36,8 @@ import java.security.Principal;
 public class PicketBoxSecurityContext {
     protected Principal principal;
 
+    protected PicketBoxSubject subject;
+
     /**
      * Set the authenticated {@link Principal}
      *
@@ -46,7 +52,35 @@ public class PicketBoxSecurityContext {
      *
      * @return
      */
-    Principal getPrincipal() {
+    public Principal getPrincipal() {
         return principal;
     }
+
+    /**
+     * Set the authenticated {@link PicketBoxSubject}. The principal is set to the user of the subject.
+     *
+     * @param subject
+     */
+    public void setSubject(PicketBoxSubject subject) {
+        this.subject = subject;
+        this.principal = subject != null ? subject.getUser() : null;
+    }
+
+    /**
+     * Return the authenticated {@link PicketBoxSubject}
+     *
+     * @return
+     */
+    public PicketBoxSubject getSubject() {
+        return subject;
+    }
+
+    /**
+     * Check if the context holds an authenticated subject
+     *
+     * @return
+     */
+    public boolean isAuthenticated() {
+        return subject != null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * Associates a {@link PicketBoxSecurityContext} with the current thread.
+ * </p>
+ * <p>
+ * The association is not inherited by new threads. Tasks handed to executors or run asynchronously should be wrapped so
+ * that they run with the context of the thread that created them.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public final class PicketBoxSecurityContextAssociation {
+
+    private static final ThreadLocal<PicketBoxSecurityContext> CONTEXT = new ThreadLocal<PicketBoxSecurityContext>();
+
+    private PicketBoxSecurityContextAssociation() {
+    }
+
+    /**
+     * Get the context associated with the current thread
+     *
+     * @return the context or null if none is associated
+     */
+    public static PicketBoxSecurityContext getSecurityContext() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * Associate a context with the current thread
+     *
+     * @param context the context, or null to remove the association
+     * @return the context previously associated with the current thread
+     */
+    public static PicketBoxSecurityContext setSecurityContext(PicketBoxSecurityContext context) {
+        PicketBoxSecurityContext previous = CONTEXT.get();
+
+        if (context == null) {
+            CONTEXT.remove();
+        } else {
+            CONTEXT.set(context);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Wrap a task so that it runs with the context currently associated with the calling thread
+     *
+     * @param task
+     * @return
+     */
+    public static Runnable wrap(final Runnable task) {
+        final PicketBoxSecurityContext context = getSecurityContext();
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                PicketBoxSecurityContext previous = setSecurityContext(context);
+
+                try {
+                    task.run();
+                } finally {
+                    setSecurityContext(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap a task so that it runs with the context currently associated with the calling thread
+     *
+     * @param task
+     * @return
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        final PicketBoxSecurityContext context = getSecurityContext();
+
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                PicketBoxSecurityContext previous = setSecurityContext(context);
+
+                try {
+                    return task.call();
+                } finally {
+                    setSecurityContext(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap an executor so that every task runs with the context associated with the thread that submitted it
+     *
+     * @param executor
+     * @return
+     */
+    public static Executor wrap(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                executor.execute(wrap(task));
+            }
+        };
+    }
+}
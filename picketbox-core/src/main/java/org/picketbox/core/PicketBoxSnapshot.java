@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A started {@link PicketBoxManager} and the version it was published with by a {@link ReloadablePicketBoxManager}.
+ * </p>
+ * <p>
+ * Callers lease a snapshot with {@link ReloadablePicketBoxManager#acquire()} and must {@link #release()} it once their
+ * request is processed. A snapshot that has been replaced is stopped when its last lease is released. Its authorization,
+ * identity and entitlements managers are only stopped if no other snapshot of the {@link ReloadablePicketBoxManager} uses
+ * them.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public final class PicketBoxSnapshot {
+
+    private static final int STOPPED = -1;
+
+    private final long version;
+
+    private final PicketBoxManager manager;
+
+    private final ReloadablePicketBoxManager owner;
+
+    /**
+     * Number of leases in progress, {@link #STOPPED} once the snapshot is retired and drained.
+     */
+    private final AtomicInteger leases = new AtomicInteger();
+
+    private volatile boolean retired;
+
+    PicketBoxSnapshot(long version, PicketBoxManager manager, ReloadablePicketBoxManager owner) {
+        this.version = version;
+        this.manager = manager;
+        this.owner = owner;
+    }
+
+    /**
+     * Get the version of this snapshot
+     *
+     * @return
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Get the {@link PicketBoxManager} of this snapshot
+     *
+     * @return
+     */
+    public PicketBoxManager getManager() {
+        return this.manager;
+    }
+
+    /**
+     * Check if this snapshot has been replaced by a newer one
+     *
+     * @return
+     */
+    public boolean isRetired() {
+        return this.retired;
+    }
+
+    /**
+     * Get the number of leases in progress
+     *
+     * @return
+     */
+    public int getLeaseCount() {
+        return Math.max(this.leases.get(), 0);
+    }
+
+    /**
+     * Release a lease obtained from {@link ReloadablePicketBoxManager#acquire()}
+     */
+    public void release() {
+        if (this.leases.decrementAndGet() == 0 && this.retired) {
+            stopIfDrained();
+        }
+    }
+
+    boolean tryAcquire() {
+        for (;;) {
+            int current = this.leases.get();
+
+            if (current == STOPPED) {
+                return false;
+            }
+
+            if (this.leases.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void retire() {
+        this.retired = true;
+        stopIfDrained();
+    }
+
+    private void stopIfDrained() {
+        if (this.leases.compareAndSet(0, STOPPED)) {
+            PicketBoxLogger.LOGGER.stoppingRetiredSnapshot(this.version);
+
+            this.owner.drained(this);
+        }
+    }
+}
@@ -30,6 +30,8 @@ import java.util.Map;
 
 import javax.security.auth.Subject;
 
+import org.picketbox.core.identity.RoleSet;
+
 /**
  * An Application View of the authenticated/authorized Subject
  *
@@ -46,6 +48,8 @@ public class PicketBoxSubject implements Serializable {
     protected Map<String, Object> attributes = new HashMap<String, Object>();
     protected Map<String, Object> contextData = new HashMap<String, Object>();
 
+    private transient volatile RoleSet roleSet;
+
     // TODO: how to deal with groups/nested groups etc
 
     /**
@@ -72,9 +76,23 @@ public class PicketBoxSubject implements Serializable {
      * @return
      */
     public List<String> getRoleNames() {
+        if (roleNames == null) {
+            return Collections.emptyList();
+        }
+
         return Collections.unmodifiableList(roleNames);
     }
 
+    /**
+     * Check if the user has the given role
+     *
+     * @param roleName
+     * @return
+     */
+    public boolean hasRole(String roleName) {
+        return getRoleSet().contains(roleName);
+    }
+
     /**
      * Set the role names of the user
      *
@@ -82,6 +100,39 @@ public class PicketBoxSubject implements Serializable {
      */
     public void setRoleNames(List<String> rolesNames) {
         this.roleNames = rolesNames;
+        this.roleSet = null;
+    }
+
+    /**
+     * <p>
+     * Get the roles of the user as a {@link RoleSet}. The set is shared by all the users with the same roles whatever their
+     * order, so it can be compared by identity or used as a key.
+     * </p>
+     * <p>
+     * The set is a snapshot of the role names given to {@link #setRoleNames(List)}, later changes to that list are not seen.
+     * </p>
+     *
+     * @return
+     */
+    public RoleSet getRoleSet() {
+        RoleSet roleSet = this.roleSet;
+
+        if (roleSet == null) {
+            roleSet = RoleSet.of(roleNames);
+            this.roleSet = roleSet;
+        }
+
+        return roleSet;
+    }
+
+    /**
+     * Set the roles of the user
+     *
+     * @param roleSet
+     */
+    public void setRoleSet(RoleSet roleSet) {
+        this.roleNames = roleSet.getRoleNames();
+        this.roleSet = roleSet;
     }
 
     /**
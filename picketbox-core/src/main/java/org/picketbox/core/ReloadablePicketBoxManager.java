@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletContext;
+
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.exceptions.ConfigurationException;
+
+/**
+ * <p>
+ * Holds the {@link PicketBoxManager} in use as a versioned {@link PicketBoxSnapshot} that can be replaced while requests
+ * are being processed.
+ * </p>
+ * <p>
+ * A new configuration is built and started by {@link #prepare(PicketBoxConfiguration)}, without affecting the traffic, and
+ * published by {@link #activate(PicketBoxSnapshot)}. Requests that leased the previous snapshot finish on it, and it is
+ * stopped once the last of them released it. {@link #reload(PicketBoxConfiguration)} does both steps.
+ * </p>
+ * <p>
+ * Configurations may share their authorization, identity and entitlements managers. They are started with the first
+ * snapshot using them and stopped with the last one.
+ * </p>
+ * <p>
+ * A published {@link PicketBoxManager} must not be changed through its setters, a new snapshot should be built instead.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class ReloadablePicketBoxManager implements PicketBoxLifecycle {
+
+    private final AtomicLong versions = new AtomicLong();
+
+    private final AtomicReference<PicketBoxSnapshot> current = new AtomicReference<PicketBoxSnapshot>();
+
+    /**
+     * Number of snapshots not stopped yet using each component
+     */
+    private final Map<PicketBoxLifecycle, Integer> componentUsers = new IdentityHashMap<PicketBoxLifecycle, Integer>();
+
+    private ServletContext servletContext;
+
+    private boolean started = false, stopped = true;
+
+    /**
+     * Create an instance publishing the given started manager as its first snapshot
+     *
+     * @param manager
+     */
+    public ReloadablePicketBoxManager(PicketBoxManager manager) {
+        if (manager == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("manager");
+        }
+
+        this.current.set(newSnapshot(manager));
+    }
+
+    /**
+     * Set a {@link ServletContext} whose {@link PicketBoxConstants#PICKETBOX_MANAGER} attribute is kept pointing to the
+     * current manager
+     *
+     * @param servletContext
+     */
+    public void setServletContext(ServletContext servletContext) {
+        this.servletContext = servletContext;
+        publish(this.current.get());
+    }
+
+    /**
+     * Lease the current snapshot. The lease must be released when the request is processed.
+     *
+     * @return
+     * @throws IllegalStateException if this manager is stopped
+     */
+    public PicketBoxSnapshot acquire() {
+        for (;;) {
+            PicketBoxSnapshot snapshot = this.current.get();
+            boolean acquired = snapshot.tryAcquire();
+
+            // a replaced snapshot is retired once the next one is published, only stop() retires the current one
+            if (snapshot.isRetired() && this.current.get() == snapshot) {
+                if (acquired) {
+                    snapshot.release();
+                }
+
+                throw PicketBoxMessages.MESSAGES.picketBoxManagerNotStarted();
+            }
+
+            if (acquired) {
+                return snapshot;
+            }
+        }
+    }
+
+    /**
+     * Get the current snapshot without leasing it
+     *
+     * @return
+     */
+    public PicketBoxSnapshot getSnapshot() {
+        return this.current.get();
+    }
+
+    /**
+     * Build and start a snapshot from the given configuration. The snapshot is not used until it is activated.
+     *
+     * @param configuration
+     * @return
+     * @throws ConfigurationException if the configuration could not be built
+     */
+    public PicketBoxSnapshot prepare(PicketBoxConfiguration configuration) throws ConfigurationException {
+        PicketBoxManager manager = configuration.buildAndStart();
+
+        return newSnapshot(manager);
+    }
+
+    /**
+     * Publish a snapshot returned by {@link #prepare(PicketBoxConfiguration)}. The previous snapshot is stopped once drained.
+     *
+     * @param snapshot
+     */
+    public void activate(PicketBoxSnapshot snapshot) {
+        PicketBoxSnapshot previous = this.current.getAndSet(snapshot);
+
+        publish(snapshot);
+
+        PicketBoxLogger.LOGGER.activatedSnapshot(snapshot.getVersion(), previous.getVersion());
+
+        previous.retire();
+    }
+
+    /**
+     * Build, start and publish a snapshot from the given configuration
+     *
+     * @param configuration
+     * @return the version of the new snapshot
+     * @throws ConfigurationException if the configuration could not be built, the current snapshot is then kept
+     */
+    public long reload(PicketBoxConfiguration configuration) throws ConfigurationException {
+        PicketBoxSnapshot snapshot = prepare(configuration);
+
+        activate(snapshot);
+
+        return snapshot.getVersion();
+    }
+
+    private synchronized PicketBoxSnapshot newSnapshot(PicketBoxManager manager) {
+        for (PicketBoxLifecycle component : manager.getLifecycleComponents()) {
+            Integer users = this.componentUsers.get(component);
+            this.componentUsers.put(component, users == null ? 1 : users + 1);
+        }
+
+        return new PicketBoxSnapshot(this.versions.incrementAndGet(), manager, this);
+    }
+
+    /**
+     * Stop a retired snapshot once its last lease is released, along with the components no other snapshot uses
+     *
+     * @param snapshot
+     */
+    synchronized void drained(PicketBoxSnapshot snapshot) {
+        PicketBoxManager manager = snapshot.getManager();
+
+        if (!manager.stopped()) {
+            manager.stop(false);
+        }
+
+        for (PicketBoxLifecycle component : manager.getLifecycleComponents()) {
+            Integer users = this.componentUsers.remove(component);
+
+            if (users != null && users > 1) {
+                this.componentUsers.put(component, users - 1);
+            } else if (!component.stopped()) {
+                component.stop();
+            }
+        }
+    }
+
+    private void publish(PicketBoxSnapshot snapshot) {
+        if (this.servletContext != null) {
+            this.servletContext.setAttribute(PicketBoxConstants.PICKETBOX_MANAGER, snapshot.getManager());
+        }
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    @Override
+    public void start() {
+        this.started = true;
+        this.stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        this.current.get().retire();
+        this.started = false;
+        this.stopped = true;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authentication;
+
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * An {@link AuthenticationManager} that can also authenticate without blocking the calling thread. The outcome is
+ * reported to the {@link AuthenticationCallback}, if one is given, and through the returned {@link Future}.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public interface AsyncAuthenticationManager extends AuthenticationManager {
+
+    /**
+     * Asynchronously authenticate an user based on a Credential
+     *
+     * @param username
+     * @param credential
+     * @param callback may be null
+     * @return
+     */
+    Future<Principal> authenticate(String username, Object credential, AuthenticationCallback callback);
+
+    /**
+     * Asynchronously authenticate an user using the HTTP/Digest Mechanism
+     *
+     * @param digest
+     * @param callback may be null
+     * @return
+     */
+    Future<Principal> authenticate(DigestHolder digest, AuthenticationCallback callback);
+
+    /**
+     * Asynchronously authenticate using {@link X509Certificate}
+     *
+     * @param certs
+     * @param callback may be null
+     * @return
+     */
+    Future<Principal> authenticate(X509Certificate[] certs, AuthenticationCallback callback);
+}
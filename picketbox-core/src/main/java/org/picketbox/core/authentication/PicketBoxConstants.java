@@ -41,8 +41,24 @@ public interface PicketBoxConstants {
 
     String AUTH_MGR = "org.picketbox.authentication.manager";
 
+    String AUTH_MGR_CONCURRENCY = "org.picketbox.authentication.manager.concurrency";
+
     String AUTHZ_MGR = "org.picketbox.authorization.manager";
 
+    String AUTHZ_CACHE = "org.picketbox.authorization.cache";
+
+    String AUTHZ_CACHE_MAX_ENTRIES = "org.picketbox.authorization.cache.maxEntries";
+
+    String AUTHZ_CACHE_TTL = "org.picketbox.authorization.cache.ttl";
+
+    String AUTHZ_ROLE_HIERARCHY = "org.picketbox.authorization.roleHierarchy";
+
+    String AUTHZ_ROLES_FILE = "org.picketbox.authorization.rolesFile";
+
+    String AUTHZ_URL_CONSTRAINTS = "org.picketbox.authorization.url.constraints";
+
+    String AUTHZ_URL_DEFAULT_PERMIT = "org.picketbox.authorization.url.defaultPermit";
+
     String BASIC = "BASIC";
 
     String CLIENT_CERT = "CLIENT_CERT";
@@ -63,6 +79,24 @@ public interface PicketBoxConstants {
 
     String HTTP_DIGEST_QOP_AUTH = "auth";
 
+    String HTTP_FORM_BASIC_FALLBACK = "org.picketbox.http.form.basicFallback";
+
+    String HTTP_FORM_REQUEST_CACHE_MAX_ENTRIES = "org.picketbox.http.form.requestCache.maxEntries";
+
+    String HTTP_FORM_REQUEST_CACHE_TTL = "org.picketbox.http.form.requestCache.ttl";
+
+    String HTTP_FORM_SAVED_REQUEST_HEADERS = "org.picketbox.http.form.savedRequest.headers";
+
+    String HTTP_FORM_SAVED_REQUEST_PARAMETERS = "org.picketbox.http.form.savedRequest.parameters";
+
+    String HTTP_FORM_SAVED_REQUEST_COOKIES = "org.picketbox.http.form.savedRequest.cookies";
+
+    String HTTP_FORM_SAVED_REQUEST_MAX_BODY_SIZE = "org.picketbox.http.form.savedRequest.maxBodySize";
+
+    String HTTP_FORM_SAVED_REQUEST_BODY_MEMORY_THRESHOLD = "org.picketbox.http.form.savedRequest.bodyMemoryThreshold";
+
+    String HTTP_FORM_SAVED_REQUEST_MAX_SPILLED_SIZE = "org.picketbox.http.form.savedRequest.maxSpilledSize";
+
     String HTTP_FORM_J_SECURITY_CHECK = "/j_security_check";
 
     String HTTP_FORM_J_USERNAME = "j_username";
@@ -71,10 +105,30 @@ public interface PicketBoxConstants {
 
     String HTTP_WWW_AUTHENTICATE = "WWW-Authenticate";
 
+    String HTTP_AUTHENTICATION_PATHS = "org.picketbox.http.authentication.paths";
+
+    String HTTP_PUBLIC_PATHS = "org.picketbox.http.public.paths";
+
+    String HTTP_LOGIN_PATHS = "org.picketbox.http.login.paths";
+
+    String HTTP_LOGOUT_PATHS = "org.picketbox.http.logout.paths";
+
+    String HTTP_ASYNC = "org.picketbox.http.async";
+
+    String HTTP_ASYNC_EXECUTION = "org.picketbox.http.async.execution";
+
+    String HTTP_ASYNC_THREADS = "org.picketbox.http.async.threads";
+
+    String HTTP_ASYNC_QUEUE = "org.picketbox.http.async.queue";
+
+    String HTTP_ASYNC_TIMEOUT = "org.picketbox.http.async.timeout";
+
     String MD5 = "MD5";
 
     String PRINCIPAL = "PRINCIPAL";
 
+    String ROLES_PROPERTIES = "roles.properties";
+
     String SERVLET_CONTEXT = "servletContext";
 
     String USERS_PROPERTIES = "users.properties";
@@ -97,6 +151,14 @@ public interface PicketBoxConstants {
      */
     String PICKETBOX_MANAGER = "PICKETBOX_MANAGER";
 
+    /**
+     * <p>
+     * Defines the {@link ServletContext} attribute name used to store a {@link org.picketbox.core.ReloadablePicketBoxManager}
+     * instance.
+     * </p>
+     */
+    String RELOADABLE_PICKETBOX_MANAGER = "RELOADABLE_PICKETBOX_MANAGER";
+
     /**
      * <p>
      * Defines the {@link HttpSession} attribute name used to store a {@link PicketBoxSubject} instance.
@@ -104,6 +166,13 @@ public interface PicketBoxConstants {
      */
     String SUBJECT = "SUBJECT";
 
+    /**
+     * <p>
+     * Defines the request attribute name used to store the {@link org.picketbox.core.PicketBoxSecurityContext} of a request.
+     * </p>
+     */
+    String SECURITY_CONTEXT = "PICKETBOX_SECURITY_CONTEXT";
+
     /**
      * <p>
      * Defines the default URI used to start the logout process.
@@ -21,10 +21,17 @@
  */
 package org.picketbox.core.authentication.http;
 
+import java.security.Principal;
+
 import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSessionEvent;
 
+import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.authentication.AuthenticationManager;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.exceptions.AuthenticationException;
+import org.picketbox.core.util.Base64;
 
 /**
  * Base class for all the HTTP authentication schemes
@@ -68,6 +75,57 @@ public abstract class AbstractHTTPAuthentication implements HTTPAuthenticationSc
         this.servletContext = servletContext;
     }
 
+    /**
+     * Authenticate the credentials sent in a HTTP Basic <code>Authorization</code> header
+     *
+     * @param request
+     * @return the authenticated principal, or null if the request has no Basic credentials or they were rejected
+     * @throws AuthenticationException
+     */
+    protected Principal authenticateBasic(HttpServletRequest request) throws AuthenticationException {
+        String[] credentials = getBasicCredentials(request);
+
+        if (credentials == null) {
+            return null;
+        }
+
+        if (authManager == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullAuthenticationManager();
+        }
+
+        return authManager.authenticate(credentials[0], credentials[1]);
+    }
+
+    /**
+     * Get the user name and password sent in a HTTP Basic <code>Authorization</code> header
+     *
+     * @param request
+     * @return the user name and password, or null if the request has no Basic credentials
+     */
+    protected String[] getBasicCredentials(HttpServletRequest request) {
+        String authorizationHeader = request.getHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER);
+
+        if (authorizationHeader == null) {
+            return null;
+        }
+
+        int whitespaceIndex = authorizationHeader.indexOf(' ');
+
+        if (whitespaceIndex != PicketBoxConstants.HTTP_BASIC.length()
+                || !authorizationHeader.regionMatches(true, 0, PicketBoxConstants.HTTP_BASIC, 0, whitespaceIndex)) {
+            return null;
+        }
+
+        String credentials = new String(Base64.decode(authorizationHeader.substring(whitespaceIndex + 1)));
+        int indexOfColon = credentials.indexOf(':');
+
+        if (indexOfColon <= 0) {
+            return null;
+        }
+
+        return new String[] { credentials.substring(0, indexOfColon), credentials.substring(indexOfColon + 1) };
+    }
+
     @Override
     public void sessionCreated(HttpSessionEvent se) {
     }
@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authentication.http;
+
+import java.security.Principal;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.picketbox.core.authentication.AsyncAuthenticationManager;
+import org.picketbox.core.authentication.AuthenticationCallback;
+import org.picketbox.core.exceptions.AuthenticationException;
+
+/**
+ * <p>
+ * An {@link HTTPAuthenticationScheme} that can hand the credentials of a request to an
+ * {@link AsyncAuthenticationManager} instead of blocking the calling thread. The credentials are read from the request by
+ * the calling thread, the callback is called by the thread of the authentication manager.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public interface AsyncHTTPAuthenticationScheme extends HTTPAuthenticationScheme {
+
+    /**
+     * Start authenticating the credentials of a request
+     *
+     * @param request
+     * @param callback
+     * @return the pending authentication, or null if it was not started because the request has no credentials or the
+     *         authentication manager is not an {@link AsyncAuthenticationManager}. The request must then be
+     *         authenticated with {@link #authenticate(javax.servlet.ServletRequest, javax.servlet.ServletResponse)}.
+     * @throws AuthenticationException
+     */
+    Future<Principal> authenticate(HttpServletRequest request, AuthenticationCallback callback)
+            throws AuthenticationException;
+
+    /**
+     * Answer a request whose credentials were rejected
+     *
+     * @param request
+     * @param response
+     * @throws AuthenticationException
+     */
+    void challenge(HttpServletRequest request, HttpServletResponse response) throws AuthenticationException;
+}
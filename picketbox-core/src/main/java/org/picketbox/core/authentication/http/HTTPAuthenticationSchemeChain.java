@@ -0,0 +1,244 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authentication.http;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSessionEvent;
+
+import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.authentication.AuthenticationManager;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.exceptions.AuthenticationException;
+import org.picketbox.core.http.RequestClassifier;
+import org.picketbox.core.util.PathPatternMatcher;
+
+/**
+ * <p>
+ * An ordered chain of {@link HTTPAuthenticationScheme} instances. Each request is handed to a single scheme, which is the
+ * only one allowed to challenge the client. The scheme is selected, in this order, by:
+ * </p>
+ * <ul>
+ * <li>the prefix of the <code>Authorization</code> header, for instance <code>Basic</code> or <code>Digest</code></li>
+ * <li>the presence of a client certificate</li>
+ * <li>the path of the request, see {@link PathPatternMatcher} for the pattern syntax</li>
+ * <li>the default scheme, or the first scheme added when there is none, so a client sending no credentials is always
+ * challenged</li>
+ * </ul>
+ * <p>
+ * Selection is a hash lookup, a trie walk over the path and an attribute read, whatever the number of schemes in the chain.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class HTTPAuthenticationSchemeChain implements HTTPAuthenticationScheme {
+
+    private final List<HTTPAuthenticationScheme> schemes = new ArrayList<HTTPAuthenticationScheme>();
+
+    private final Map<String, HTTPAuthenticationScheme> headerSchemes = new HashMap<String, HTTPAuthenticationScheme>();
+
+    private final PathPatternMatcher<HTTPAuthenticationScheme> pathSchemes = new PathPatternMatcher<HTTPAuthenticationScheme>();
+
+    private HTTPAuthenticationScheme certificateScheme;
+
+    private HTTPAuthenticationScheme defaultScheme;
+
+    /**
+     * <p>
+     * Add a scheme to the chain. {@link HTTPBasicAuthentication} and {@link HTTPDigestAuthentication} are selected by the
+     * <code>Authorization</code> header, {@link HTTPClientCertAuthentication} by the presence of a client certificate. The
+     * first scheme added that has none of these criteria becomes the default scheme.
+     * </p>
+     *
+     * @param scheme
+     * @return this chain
+     */
+    public HTTPAuthenticationSchemeChain add(HTTPAuthenticationScheme scheme) {
+        if (scheme instanceof HTTPBasicAuthentication) {
+            return addHeaderScheme(PicketBoxConstants.HTTP_BASIC, scheme);
+        }
+
+        if (scheme instanceof HTTPDigestAuthentication) {
+            return addHeaderScheme(PicketBoxConstants.HTTP_DIGEST, scheme);
+        }
+
+        if (scheme instanceof HTTPClientCertAuthentication) {
+            return setCertificateScheme(scheme);
+        }
+
+        if (this.defaultScheme == null) {
+            return setDefaultScheme(scheme);
+        }
+
+        register(scheme);
+
+        return this;
+    }
+
+    /**
+     * Select a scheme for the requests whose <code>Authorization</code> header starts with the given prefix
+     *
+     * @param prefix the authentication scheme token of the header, matched ignoring case
+     * @param scheme
+     * @return this chain
+     */
+    public HTTPAuthenticationSchemeChain addHeaderScheme(String prefix, HTTPAuthenticationScheme scheme) {
+        this.headerSchemes.put(prefix.toLowerCase(Locale.ENGLISH), scheme);
+        register(scheme);
+        return this;
+    }
+
+    /**
+     * Select a scheme for the requests with a client certificate
+     *
+     * @param scheme
+     * @return this chain
+     */
+    public HTTPAuthenticationSchemeChain setCertificateScheme(HTTPAuthenticationScheme scheme) {
+        this.certificateScheme = scheme;
+        register(scheme);
+        return this;
+    }
+
+    /**
+     * Select a scheme for the requests whose path matches the given pattern
+     *
+     * @param pattern
+     * @param scheme
+     * @return this chain
+     */
+    public HTTPAuthenticationSchemeChain addPathScheme(String pattern, HTTPAuthenticationScheme scheme) {
+        this.pathSchemes.add(pattern, scheme);
+        register(scheme);
+        return this;
+    }
+
+    /**
+     * Select a scheme for the requests that match no other criteria
+     *
+     * @param scheme
+     * @return this chain
+     */
+    public HTTPAuthenticationSchemeChain setDefaultScheme(HTTPAuthenticationScheme scheme) {
+        this.defaultScheme = scheme;
+        register(scheme);
+        return this;
+    }
+
+    /**
+     * Get the schemes of this chain in the order they were added
+     *
+     * @return
+     */
+    public List<HTTPAuthenticationScheme> getSchemes() {
+        return Collections.unmodifiableList(this.schemes);
+    }
+
+    /**
+     * Select the scheme that handles the given request
+     *
+     * @param request
+     * @return the scheme or null if the chain is empty
+     */
+    public HTTPAuthenticationScheme select(HttpServletRequest request) {
+        if (!this.headerSchemes.isEmpty()) {
+            String authorizationHeader = request.getHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER);
+
+            if (authorizationHeader != null) {
+                int whitespaceIndex = authorizationHeader.indexOf(' ');
+                String prefix = whitespaceIndex > 0 ? authorizationHeader.substring(0, whitespaceIndex) : authorizationHeader;
+                HTTPAuthenticationScheme scheme = this.headerSchemes.get(prefix.toLowerCase(Locale.ENGLISH));
+
+                if (scheme != null) {
+                    return scheme;
+                }
+            }
+        }
+
+        if (this.certificateScheme != null && request.getAttribute(PicketBoxConstants.HTTP_CERTIFICATE) != null) {
+            return this.certificateScheme;
+        }
+
+        String path = RequestClassifier.getPath(request);
+        HTTPAuthenticationScheme scheme = path == null ? null : this.pathSchemes.match(path, request.getMethod());
+
+        if (scheme != null) {
+            return scheme;
+        }
+
+        if (this.defaultScheme != null || this.schemes.isEmpty()) {
+            return this.defaultScheme;
+        }
+
+        return this.schemes.get(0);
+    }
+
+    @Override
+    public Principal authenticate(ServletRequest servletReq, ServletResponse servletResp) throws AuthenticationException {
+        HTTPAuthenticationScheme scheme = select((HttpServletRequest) servletReq);
+
+        if (scheme == null) {
+            throw PicketBoxMessages.MESSAGES.noAuthenticationSchemeSelected();
+        }
+
+        return scheme.authenticate(servletReq, servletResp);
+    }
+
+    /**
+     * Set the {@link AuthenticationManager} of all the schemes in the chain
+     */
+    @Override
+    public void setAuthManager(AuthenticationManager authMgr) {
+        for (HTTPAuthenticationScheme scheme : this.schemes) {
+            scheme.setAuthManager(authMgr);
+        }
+    }
+
+    @Override
+    public void sessionCreated(HttpSessionEvent se) {
+        for (HTTPAuthenticationScheme scheme : this.schemes) {
+            scheme.sessionCreated(se);
+        }
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        for (HTTPAuthenticationScheme scheme : this.schemes) {
+            scheme.sessionDestroyed(se);
+        }
+    }
+
+    private void register(HTTPAuthenticationScheme scheme) {
+        if (!this.schemes.contains(scheme)) {
+            this.schemes.add(scheme);
+        }
+    }
+}
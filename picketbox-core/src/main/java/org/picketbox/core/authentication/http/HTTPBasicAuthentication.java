@@ -23,24 +23,26 @@ package org.picketbox.core.authentication.http;
 
 import java.io.IOException;
 import java.security.Principal;
+import java.util.concurrent.Future;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.authentication.AsyncAuthenticationManager;
+import org.picketbox.core.authentication.AuthenticationCallback;
 import org.picketbox.core.authentication.PicketBoxConstants;
 import org.picketbox.core.exceptions.AuthenticationException;
-import org.picketbox.core.util.Base64;
 
 /**
- * Perform HTTP Basic Authentication
+ * Perform HTTP Basic Authentication. The credentials are authenticated without blocking when the authentication manager
+ * is an {@link AsyncAuthenticationManager}, see {@link AsyncHTTPAuthenticationScheme}.
  *
  * @author anil saldhana
  * @since July 5, 2012
  */
-public class HTTPBasicAuthentication extends AbstractHTTPAuthentication {
+public class HTTPBasicAuthentication extends AbstractHTTPAuthentication implements AsyncHTTPAuthenticationScheme {
 
     /**
      * Authenticate an user
@@ -51,45 +53,39 @@ public class HTTPBasicAuthentication extends AbstractHTTPAuthentication {
      * @throws AuthenticationException
      */
     public Principal authenticate(ServletRequest servletReq, ServletResponse servletResp) throws AuthenticationException {
-        String username, password;
-
         HttpServletRequest request = (HttpServletRequest) servletReq;
         HttpServletResponse response = (HttpServletResponse) servletResp;
-        // Get the Authorization Header
-        String authorizationHeader = request.getHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER);
 
-        if (authorizationHeader != null && authorizationHeader.isEmpty() == false) {
+        Principal principal = authenticateBasic(request);
 
-            int whitespaceIndex = authorizationHeader.indexOf(' ');
+        if (principal != null) {
+            return principal;
+        }
 
-            if (whitespaceIndex > 0) {
-                String method = authorizationHeader.substring(0, whitespaceIndex);
+        challengeClient(request, response);
 
-                if (PicketBoxConstants.HTTP_BASIC.equalsIgnoreCase(method)) {
-                    authorizationHeader = authorizationHeader.substring(whitespaceIndex + 1);
-                    authorizationHeader = new String(Base64.decode(authorizationHeader));
-                    int indexOfColon = authorizationHeader.indexOf(':');
-                    if (indexOfColon > 0) {
-                        username = authorizationHeader.substring(0, indexOfColon);
-                        password = authorizationHeader.substring(indexOfColon + 1);
+        return null;
+    }
 
-                        if (authManager == null) {
-                            throw PicketBoxMessages.MESSAGES.invalidNullAuthenticationManager();
-                        }
+    @Override
+    public Future<Principal> authenticate(HttpServletRequest request, AuthenticationCallback callback)
+            throws AuthenticationException {
+        if (!(authManager instanceof AsyncAuthenticationManager)) {
+            return null;
+        }
 
-                        Principal principal = authManager.authenticate(username, password);
+        String[] credentials = getBasicCredentials(request);
 
-                        if (principal != null) {
-                            return principal;
-                        }
-                    }
-                }
-            }
+        if (credentials == null) {
+            return null;
         }
 
-        challengeClient(request, response);
+        return ((AsyncAuthenticationManager) authManager).authenticate(credentials[0], credentials[1], callback);
+    }
 
-        return null;
+    @Override
+    public void challenge(HttpServletRequest request, HttpServletResponse response) throws AuthenticationException {
+        challengeClient(request, response);
     }
 
     private void challengeClient(HttpServletRequest request, HttpServletResponse response) throws AuthenticationException {
@@ -24,6 +24,7 @@ package org.picketbox.core.authentication.http;
 import java.io.IOException;
 import java.security.Principal;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.Future;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -31,17 +32,20 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.authentication.AsyncAuthenticationManager;
+import org.picketbox.core.authentication.AuthenticationCallback;
 import org.picketbox.core.authentication.PicketBoxConstants;
 import org.picketbox.core.exceptions.AuthenticationException;
 import org.picketbox.core.util.Base64;
 
 /**
- * Perform HTTP Client Certificate Authentication
+ * Perform HTTP Client Certificate Authentication. The certificates are authenticated without blocking when the
+ * authentication manager is an {@link AsyncAuthenticationManager}, see {@link AsyncHTTPAuthenticationScheme}.
  *
  * @author anil saldhana
  * @since July 9, 2012
  */
-public class HTTPClientCertAuthentication extends AbstractHTTPAuthentication {
+public class HTTPClientCertAuthentication extends AbstractHTTPAuthentication implements AsyncHTTPAuthenticationScheme {
 
     /**
      * Use Certificate validation directly rather than username/cred model
@@ -104,6 +108,41 @@ public class HTTPClientCertAuthentication extends AbstractHTTPAuthentication {
         return null;
     }
 
+    @Override
+    public Future<Principal> authenticate(HttpServletRequest request, AuthenticationCallback callback)
+            throws AuthenticationException {
+        if (!(authManager instanceof AsyncAuthenticationManager)) {
+            return null;
+        }
+
+        AsyncAuthenticationManager asyncAuthManager = (AsyncAuthenticationManager) authManager;
+        X509Certificate[] certs = (X509Certificate[]) request.getAttribute(PicketBoxConstants.HTTP_CERTIFICATE);
+
+        if (certs == null || certs.length == 0) {
+            return null;
+        }
+
+        if (useCertificateValidation) {
+            return asyncAuthManager.authenticate(certs, callback);
+        }
+
+        // the first certificate identifies the user, like the blocking authentication
+        Principal certprincipal = certs[0].getSubjectDN();
+        if (certprincipal == null) {
+            certprincipal = certs[0].getIssuerDN();
+        }
+        if (certprincipal == null)
+            throw PicketBoxMessages.MESSAGES.unableToIdentifyCertPrincipal();
+
+        return asyncAuthManager.authenticate(certprincipal.getName(), Base64.encodeBytes(certs[0].getSignature()),
+                callback);
+    }
+
+    @Override
+    public void challenge(HttpServletRequest request, HttpServletResponse response) throws AuthenticationException {
+        forbidClient(response);
+    }
+
     private void forbidClient(HttpServletResponse response) throws AuthenticationException {
         try {
             response.sendError(HttpServletResponse.SC_FORBIDDEN);
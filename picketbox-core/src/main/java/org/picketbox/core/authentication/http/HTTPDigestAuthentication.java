@@ -23,11 +23,10 @@ package org.picketbox.core.authentication.http;
 
 import java.io.IOException;
 import java.security.Principal;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -42,7 +41,10 @@ import org.picketbox.core.authentication.PicketBoxConstants;
 import org.picketbox.core.exceptions.AuthenticationException;
 import org.picketbox.core.nonce.NonceGenerator;
 import org.picketbox.core.nonce.UUIDNonceGenerator;
+import org.picketbox.core.session.PicketBoxSessionManager;
+import org.picketbox.core.session.PicketBoxSessionResource;
 import org.picketbox.core.util.HTTPDigestUtil;
+import org.picketbox.core.util.TokenGenerator;
 
 /**
  * Class that handles HTTP/Digest Authentication
@@ -50,8 +52,8 @@ import org.picketbox.core.util.HTTPDigestUtil;
  * @author anil saldhana
  * @since Jul 6, 2012
  */
-public class HTTPDigestAuthentication extends AbstractHTTPAuthentication {
-    protected String opaque = UUID.randomUUID().toString();
+public class HTTPDigestAuthentication extends AbstractHTTPAuthentication implements PicketBoxSessionResource {
+    protected String opaque = TokenGenerator.getDefault().generateId();
 
     protected String qop = PicketBoxConstants.HTTP_DIGEST_QOP_AUTH;
 
@@ -180,8 +182,13 @@ public class HTTPDigestAuthentication extends AbstractHTTPAuthentication {
 
         List<String> storedNonces = idVersusNonce.get(sessionId);
         if (storedNonces == null) {
-            storedNonces = new ArrayList<String>();
-            idVersusNonce.put(sessionId, storedNonces);
+            storedNonces = new CopyOnWriteArrayList<String>();
+            List<String> existing = idVersusNonce.putIfAbsent(sessionId, storedNonces);
+            if (existing == null) {
+                PicketBoxSessionManager.getResourceRegistry().register(sessionId, this);
+            } else {
+                storedNonces = existing;
+            }
         }
         storedNonces.add(newNonce);
 
@@ -226,6 +233,14 @@ public class HTTPDigestAuthentication extends AbstractHTTPAuthentication {
     public void sessionDestroyed(HttpSessionEvent se) {
         HttpSession session = se.getSession();
         String id = session.getId();
-        idVersusNonce.remove(id);
+        release(id);
+    }
+
+    /**
+     * Forget the nonces issued for the session
+     */
+    @Override
+    public void release(String sessionId) {
+        idVersusNonce.remove(sessionId);
     }
 }
\ No newline at end of file
@@ -31,11 +31,11 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionEvent;
 
 import org.picketbox.core.authentication.PicketBoxConstants;
 import org.picketbox.core.exceptions.AuthenticationException;
-import org.picketbox.core.util.Base64;
+import org.picketbox.core.http.RequestClassifier;
 
 /**
  * Perform HTTP Form Authentication
@@ -64,6 +64,11 @@ public class HTTPFormAuthentication extends AbstractHTTPAuthentication {
      */
     protected String formErrorPage = "/error.jsp";
 
+    /**
+     * Accept HTTP Basic credentials
+     */
+    protected boolean basicFallback = false;
+
     /**
      * The FORM login page. It should always start with a '/'
      */
@@ -85,8 +90,31 @@ public class HTTPFormAuthentication extends AbstractHTTPAuthentication {
         this.defaultPage = defaultPage;
     }
 
+    /**
+     * Accept the credentials of a HTTP Basic <code>Authorization</code> header before challenging the client. Default is
+     * false.
+     *
+     * @param basicFallback
+     */
+    public void setBasicFallback(boolean basicFallback) {
+        this.basicFallback = basicFallback;
+    }
+
+    /**
+     * Returns the cache holding the requests saved while the login page is displayed
+     *
+     * @return
+     */
+    public RequestCache getRequestCache() {
+        return this.requestCache;
+    }
+
     /**
      * Authenticate an user
+     * <p>
+     * Only the <code>j_security_check</code> requests have their parameters read. A session is created when the request has
+     * to be saved before the login page is displayed, or once the user is authenticated.
+     * </p>
      *
      * @param servletReq
      * @param servletResp
@@ -94,22 +122,38 @@ public class HTTPFormAuthentication extends AbstractHTTPAuthentication {
      * @throws AuthenticationException
      */
     public Principal authenticate(ServletRequest servletReq, ServletResponse servletResp) throws AuthenticationException {
-        String username, password;
-
         HttpServletRequest request = (HttpServletRequest) servletReq;
         HttpServletResponse response = (HttpServletResponse) servletResp;
-        HttpSession session = request.getSession(true);
 
-        boolean jSecurityCheck = request.getRequestURI().contains(PicketBoxConstants.HTTP_FORM_J_SECURITY_CHECK);
+        if (isSecurityCheck(request)) {
+            return authenticateSecurityCheck(request, response);
+        }
 
-        username = request.getParameter(PicketBoxConstants.HTTP_FORM_J_USERNAME);
-        password = request.getParameter(PicketBoxConstants.HTTP_FORM_J_PASSWORD);
+        if (this.basicFallback) {
+            Principal principal = authenticateBasic(request);
 
-        if (jSecurityCheck == false && principalExists(session) == false) {
-            challengeClient(request, response);
-            return null;
+            if (principal != null) {
+                return principal;
+            }
         }
 
+        challengeClient(request, response);
+
+        return null;
+    }
+
+    private boolean isSecurityCheck(HttpServletRequest request) {
+        // normalized, so URL rewritten sessions (j_security_check;jsessionid=) are recognized
+        String path = RequestClassifier.getPath(request);
+
+        return path != null && path.endsWith(PicketBoxConstants.HTTP_FORM_J_SECURITY_CHECK);
+    }
+
+    private Principal authenticateSecurityCheck(HttpServletRequest request, HttpServletResponse response)
+            throws AuthenticationException {
+        String username = request.getParameter(PicketBoxConstants.HTTP_FORM_J_USERNAME);
+        String password = request.getParameter(PicketBoxConstants.HTTP_FORM_J_PASSWORD);
+
         if (username != null && password != null) {
             if (authManager == null) {
                 throw MESSAGES.invalidNullAuthenticationManager();
@@ -119,48 +163,26 @@ public class HTTPFormAuthentication extends AbstractHTTPAuthentication {
 
             if (principal != null) {
                 // remove from the cache the saved request and store it in the session for further use.
-                String savedRequest = this.requestCache.removeAndStoreSavedRequestInSession(request).getRequestURI();
+                SavedRequest savedRequest = this.requestCache.removeAndStoreSavedRequestInSession(request);
 
                 // if the user has explicit defined a default page url, use it to redirect the user after a successful authentication.
-                if (!this.defaultPage.equals(DEFAULT_PAGE_URL)) {
+                if (!this.defaultPage.equals(DEFAULT_PAGE_URL) || savedRequest == null) {
                     sendRedirect(response, request.getContextPath() + this.defaultPage);
                 } else {
-                    sendRedirect(response, savedRequest);
+                    String queryString = savedRequest.getQueryString();
+
+                    sendRedirect(response, queryString == null ? savedRequest.getRequestURI() : savedRequest.getRequestURI()
+                            + "?" + queryString);
                 }
 
                 return principal;
             }
         }
 
-        // Get the Authorization Header
-        String authorizationHeader = request.getHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER);
-
-        if (authorizationHeader != null && authorizationHeader.isEmpty() == false) {
-
-            int whitespaceIndex = authorizationHeader.indexOf(' ');
-
-            if (whitespaceIndex > 0) {
-                String method = authorizationHeader.substring(0, whitespaceIndex);
-
-                if (PicketBoxConstants.HTTP_BASIC.equalsIgnoreCase(method)) {
-                    authorizationHeader = authorizationHeader.substring(whitespaceIndex + 1);
-                    authorizationHeader = new String(Base64.decode(authorizationHeader));
-                    int indexOfColon = authorizationHeader.indexOf(':');
-                    if (indexOfColon > 0) {
-                        username = authorizationHeader.substring(0, indexOfColon);
-                        password = authorizationHeader.substring(indexOfColon + 1);
-
-                        if (authManager == null) {
-                            throw MESSAGES.invalidNullAuthenticationManager();
-                        }
-
-                        return authManager.authenticate(username, password);
-                    }
-                }
-            }
-        }
+        if (servletContext == null)
+            throw MESSAGES.invalidNullServletContext();
 
-        challengeClient(request, response);
+        forwardRequest(request, response, formErrorPage);
 
         return null;
     }
@@ -173,10 +195,6 @@ public class HTTPFormAuthentication extends AbstractHTTPAuthentication {
         }
     }
 
-    private boolean principalExists(HttpSession session) {
-        return session.getAttribute(PicketBoxConstants.PRINCIPAL) != null;
-    }
-
     private boolean challengeClient(HttpServletRequest request, HttpServletResponse response) throws AuthenticationException {
         if (servletContext == null)
             throw MESSAGES.invalidNullServletContext();
@@ -187,6 +205,14 @@ public class HTTPFormAuthentication extends AbstractHTTPAuthentication {
         return false;
     }
 
+    /**
+     * Discards the request saved for the destroyed session
+     */
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        this.requestCache.release(se.getSession().getId());
+    }
+
     protected void forwardRequest(HttpServletRequest request, HttpServletResponse response, String formAuthPage2)
             throws AuthenticationException {
         RequestDispatcher rd = servletContext.getRequestDispatcher(formAuthPage2);
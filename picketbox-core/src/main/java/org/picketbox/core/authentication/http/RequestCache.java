@@ -22,12 +22,19 @@
 
 package org.picketbox.core.authentication.http;
 
-import java.util.concurrent.ConcurrentHashMap;
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.session.PicketBoxSessionManager;
+import org.picketbox.core.session.PicketBoxSessionResource;
+import org.picketbox.core.session.PicketBoxSessionResourceRegistry;
 
 /**
  * <p>
@@ -35,51 +42,325 @@ import org.picketbox.core.authentication.PicketBoxConstants;
  * is to be used during authentication to help to retrieve previous informations from the request made for the first time before
  * the authentication process begins. It also stores the cached request in the user session for later use, if necessary.
  * </p>
+ * <p>
+ * The cache is bounded. Entries expire after {@link #setTimeToLive(long)} milliseconds and, when {@link #setMaxEntries(int)}
+ * is reached, the oldest entry is evicted. Entries are kept in insertion order, so the expired ones are always found at the
+ * head and are purged whenever a new request is saved. The entry of a destroyed session should be removed with
+ * {@link #removeSavedRequest(String)}.
+ * </p>
+ * <p>
+ * What is copied from a request is defined by a {@link SavedRequestPolicy}. The body of a discarded entry is released.
+ * </p>
+ * <p>
+ * Each entry is registered with the {@link PicketBoxSessionResourceRegistry}, so it is discarded with the rest of the state of
+ * its session. Once moved to the session, the saved request is registered in its place until it is replayed.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
-public class RequestCache {
+public class RequestCache implements PicketBoxSessionResource {
 
-    private ConcurrentHashMap<String, SavedRequest> requestCache = new ConcurrentHashMap<String, SavedRequest>();
+    /**
+     * Default maximum number of cached requests.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Default time to live of a cached request, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000L;
+
+    private final LinkedHashMap<String, CacheEntry> requestCache = new LinkedHashMap<String, CacheEntry>();
+
+    private final PicketBoxSessionResourceRegistry registry = PicketBoxSessionManager.getResourceRegistry();
+
+    private SavedRequestPolicy policy = new SavedRequestPolicy();
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private long estimatedBytes;
+
+    private long evictionCount;
+
+    private long expirationCount;
 
     /**
      * <p>
      * Saves a {@link HttpServletRequest} as a {@link SavedRequest} instance. All the state from the original request will be
-     * copied.
+     * copied. The user session is created if necessary.
      * </p>
      *
      * @param request
      */
     public void saveRequest(HttpServletRequest request) {
-        requestCache.put(getCurrentSession(request).getId(), new SavedRequest(request));
+        String sessionId = request.getSession(true).getId();
+        SavedRequest savedRequest = new SavedRequest(request, this.policy);
+        long now = System.currentTimeMillis();
+
+        synchronized (this.requestCache) {
+            discard(sessionId);
+            purgeExpired(now);
+
+            while (!this.requestCache.isEmpty() && this.requestCache.size() >= this.maxEntries) {
+                Iterator<Map.Entry<String, CacheEntry>> iterator = this.requestCache.entrySet().iterator();
+                Map.Entry<String, CacheEntry> eldest = iterator.next();
+
+                iterator.remove();
+                this.estimatedBytes -= eldest.getValue().size;
+                this.evictionCount++;
+                eldest.getValue().request.release();
+                this.registry.unregister(eldest.getKey(), this);
+            }
+
+            CacheEntry entry = new CacheEntry(savedRequest, now + this.timeToLive);
+
+            this.requestCache.put(sessionId, entry);
+            this.estimatedBytes += entry.size;
+        }
+
+        this.registry.register(sessionId, this);
     }
 
     /**
      * <p>
-     * Returns the user session. If no session was created a exception is raised. A valid session must exist before invoking
-     * this method.
+     * Removes a cached request and stores it in the session. The user session is created if necessary.
      * </p>
+     *
+     * @return the cached request or null if none was saved or if it has expired
      */
-    private HttpSession getCurrentSession(HttpServletRequest request) {
-        HttpSession session = request.getSession(false);
+    public SavedRequest removeAndStoreSavedRequestInSession(HttpServletRequest request) {
+        HttpSession session = request.getSession(true);
+        SavedRequest savedRequest = null;
+
+        synchronized (this.requestCache) {
+            CacheEntry entry = remove(session.getId());
 
-        if (session == null) {
-            throw new IllegalStateException("Unable to cache the request. User session was not created.");
+            if (entry != null) {
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    this.expirationCount++;
+                    entry.request.release();
+                } else {
+                    savedRequest = entry.request;
+                }
+            }
         }
-        return session;
+
+        session.setAttribute(PicketBoxConstants.SAVED_REQUEST, savedRequest);
+
+        if (savedRequest != null) {
+            this.registry.register(session.getId(), savedRequest);
+        }
+
+        return savedRequest;
     }
 
     /**
      * <p>
-     * Removes a cached request and stores it in the session.
+     * Discards the request cached for the given session, if any. Its body is released.
      * </p>
+     *
+     * @param sessionId
+     * @return the discarded request or null if none was saved
      */
-    public SavedRequest removeAndStoreSavedRequestInSession(HttpServletRequest request) {
-        HttpSession session = getCurrentSession(request);
-        SavedRequest savedRequest = this.requestCache.remove(session.getId());
+    public SavedRequest removeSavedRequest(String sessionId) {
+        synchronized (this.requestCache) {
+            return discard(sessionId);
+        }
+    }
 
-        session.setAttribute(PicketBoxConstants.SAVED_REQUEST, savedRequest);
+    /**
+     * <p>
+     * Discards the request cached for the given session when the session ends.
+     * </p>
+     *
+     * @param sessionId
+     */
+    @Override
+    public void release(String sessionId) {
+        removeSavedRequest(sessionId);
+    }
 
-        return savedRequest;
+    /**
+     * <p>
+     * Removes all the expired entries.
+     * </p>
+     */
+    public void purgeExpired() {
+        synchronized (this.requestCache) {
+            purgeExpired(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of cached requests, including the expired ones not yet purged.
+     * </p>
+     *
+     * @return
+     */
+    public int getEntryCount() {
+        synchronized (this.requestCache) {
+            return this.requestCache.size();
+        }
+    }
+
+    /**
+     * <p>
+     * Returns an estimate of the memory retained by the cached requests, in bytes.
+     * </p>
+     *
+     * @return
+     */
+    public long getEstimatedBytes() {
+        synchronized (this.requestCache) {
+            return this.estimatedBytes;
+        }
+    }
+
+    /**
+     * <p>
+     * Returns how many entries were evicted because the cache was full.
+     * </p>
+     *
+     * @return
+     */
+    public long getEvictionCount() {
+        synchronized (this.requestCache) {
+            return this.evictionCount;
+        }
+    }
+
+    /**
+     * <p>
+     * Returns how many entries were discarded because their time to live elapsed.
+     * </p>
+     *
+     * @return
+     */
+    public long getExpirationCount() {
+        synchronized (this.requestCache) {
+            return this.expirationCount;
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the policy defining what is copied from the saved requests.
+     * </p>
+     *
+     * @return
+     */
+    public SavedRequestPolicy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * <p>
+     * Sets the policy defining what is copied from the saved requests.
+     * </p>
+     *
+     * @param policy
+     */
+    public void setPolicy(SavedRequestPolicy policy) {
+        if (policy == null) {
+            throw MESSAGES.invalidNullArgument("policy");
+        }
+
+        this.policy = policy;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of cached requests. Default is {@link #DEFAULT_MAX_ENTRIES}.
+     * </p>
+     *
+     * @param maxEntries
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw MESSAGES.invalidNonPositiveArgument("maxEntries");
+        }
+
+        synchronized (this.requestCache) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    /**
+     * <p>
+     * Sets how long, in milliseconds, a request is kept in the cache. Default is {@link #DEFAULT_TIME_TO_LIVE}.
+     * </p>
+     *
+     * @param timeToLive
+     */
+    public void setTimeToLive(long timeToLive) {
+        if (timeToLive < 1) {
+            throw MESSAGES.invalidNonPositiveArgument("timeToLive");
+        }
+
+        synchronized (this.requestCache) {
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    private SavedRequest discard(String sessionId) {
+        CacheEntry entry = remove(sessionId);
+
+        if (entry == null) {
+            return null;
+        }
+
+        entry.request.release();
+
+        return entry.request;
+    }
+
+    private CacheEntry remove(String sessionId) {
+        CacheEntry entry = this.requestCache.remove(sessionId);
+
+        if (entry != null) {
+            this.estimatedBytes -= entry.size;
+            this.registry.unregister(sessionId, this);
+        }
+
+        return entry;
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Map.Entry<String, CacheEntry>> iterator = this.requestCache.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, CacheEntry> next = iterator.next();
+            CacheEntry entry = next.getValue();
+
+            if (!entry.isExpired(now)) {
+                break;
+            }
+
+            iterator.remove();
+            this.estimatedBytes -= entry.size;
+            this.expirationCount++;
+            entry.request.release();
+            this.registry.unregister(next.getKey(), this);
+        }
+    }
+
+    private static class CacheEntry {
+
+        private final SavedRequest request;
+        private final long expiresAt;
+        private final long size;
+
+        CacheEntry(SavedRequest request, long expiresAt) {
+            this.request = request;
+            this.expiresAt = expiresAt;
+            this.size = request.getEstimatedSize();
+        }
+
+        boolean isExpired(long now) {
+            return now >= this.expiresAt;
+        }
     }
 }
@@ -22,24 +22,39 @@
 
 package org.picketbox.core.authentication.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 
+import org.picketbox.core.PicketBoxLogger;
+import org.picketbox.core.session.PicketBoxSessionResource;
+
 
 /**
  * <p>This class is a representation of the state of a previous {@link HttpServletRequest} instance.</p>
  *
+ * <p>What is captured is defined by a {@link SavedRequestPolicy}. The captured body, if any, is replayed by a
+ * {@link SavedRequestWrapper} once the user is authenticated. When the body was spilled to a temporary file, {@link #release()}
+ * must be called once the instance is no longer needed.</p>
+ *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
-public class SavedRequest {
+public class SavedRequest implements PicketBoxSessionResource {
+
+    private static final SavedRequestPolicy DEFAULT_POLICY = new SavedRequestPolicy();
 
     private List<Cookie> cookies = new ArrayList<Cookie>();
     private Map<String, String> headers = new HashMap<String, String>();
@@ -49,21 +64,43 @@ public class SavedRequest {
     private String requestURI;
     private String scheme;
     private String contextPath;
+    private String characterEncoding;
+    private byte[] body;
+    private File bodyFile;
+    private SavedRequestPolicy bodyFilePolicy;
+    private long bodyLength;
+    private boolean bodyDiscarded;
 
     /**
-     * <p>Create a new instance copying the state from the request passed as argument.</p>
+     * <p>Create a new instance copying the state from the request passed as argument, using the default
+     * {@link SavedRequestPolicy}.</p>
      */
     public SavedRequest(HttpServletRequest request) {
-        copyCookies(request);
-        copyHeaders(request);
-        copyParameters(request);
+        this(request, DEFAULT_POLICY);
+    }
 
+    /**
+     * <p>Create a new instance copying the state allowed by the given policy from the request passed as argument.</p>
+     */
+    public SavedRequest(HttpServletRequest request, SavedRequestPolicy policy) {
         // copy general properties from the original request
         this.method = request.getMethod();
         this.queryString = request.getQueryString();
         this.requestURI = request.getRequestURI();
         this.scheme = request.getScheme();
         this.contextPath = request.getContextPath();
+        this.characterEncoding = request.getCharacterEncoding();
+
+        if (policy.isCaptureCookies()) {
+            copyCookies(request);
+        }
+
+        copyHeaders(request, policy);
+
+        // the body is read before any parameter, the parameters of a replayed body are parsed from it
+        if (!copyBody(request, policy)) {
+            copyParameters(request, policy);
+        }
     }
 
     /**
@@ -123,27 +160,148 @@ public class SavedRequest {
     }
 
     /**
-     * <p>Copy the parameters from the original {@link HttpServletRequest}.</p>
+     * <p>Returns a rough estimate of the memory retained by this instance, in bytes.</p>
      */
-    private void copyParameters(HttpServletRequest request) {
-        Set<Entry<String, String[]>> parametersEntries = request.getParameterMap().entrySet();
+    public long getEstimatedSize() {
+        long size = 96 + sizeOf(this.method) + sizeOf(this.queryString) + sizeOf(this.requestURI) + sizeOf(this.scheme)
+                + sizeOf(this.contextPath) + sizeOf(this.characterEncoding);
 
-        for (Entry<String, String[]> parameter : parametersEntries) {
-            this.getParameters().put(parameter.getKey(), (String[]) parameter.getValue());
+        if (this.body != null) {
+            size += 16 + this.body.length;
         }
+
+        for (Entry<String, String> header : this.headers.entrySet()) {
+            size += 32 + sizeOf(header.getKey()) + sizeOf(header.getValue());
+        }
+
+        for (Entry<String, String[]> parameter : this.parameters.entrySet()) {
+            size += 32 + sizeOf(parameter.getKey());
+
+            if (parameter.getValue() != null) {
+                for (String value : parameter.getValue()) {
+                    size += 8 + sizeOf(value);
+                }
+            }
+        }
+
+        for (Cookie cookie : this.cookies) {
+            size += 64 + sizeOf(cookie.getName()) + sizeOf(cookie.getValue()) + sizeOf(cookie.getDomain())
+                    + sizeOf(cookie.getPath());
+        }
+
+        return size;
+    }
+
+    private static long sizeOf(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    /**
+     * <p>Returns the character encoding of the original request.</p>
+     */
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    /**
+     * <p>Indicates if the body of the original request was captured.</p>
+     */
+    public boolean hasBody() {
+        return this.body != null || this.bodyFile != null;
+    }
+
+    /**
+     * <p>Returns the length of the captured body.</p>
+     */
+    public long getBodyLength() {
+        return this.bodyLength;
     }
 
     /**
-     * <p>Copy the headers from the original {@link HttpServletRequest}.</p>
+     * <p>Indicates if the original request had a body that could not be captured.</p>
      */
-    private void copyHeaders(HttpServletRequest request) {
-        Enumeration<String> headerNames = request.getHeaderNames();
+    public boolean isBodyDiscarded() {
+        return this.bodyDiscarded;
+    }
+
+    /**
+     * <p>Returns a new stream over the captured body.</p>
+     *
+     * @throws IOException if the body was released or can not be read
+     */
+    public InputStream openBody() throws IOException {
+        if (this.body != null) {
+            return new ByteArrayInputStream(this.body);
+        }
+
+        File file = this.bodyFile;
 
-        while (headerNames.hasMoreElements()) {
-            String headerName = (String) headerNames.nextElement();
+        if (file == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        return new FileInputStream(file);
+    }
+
+    /**
+     * <p>Releases the captured body, deleting its temporary file if it was spilled to disk.</p>
+     */
+    public synchronized void release() {
+        File file = this.bodyFile;
+
+        this.body = null;
+        this.bodyFile = null;
+
+        if (file != null) {
+            file.delete();
+            this.bodyFilePolicy.releaseSpilledSize(this.bodyLength);
+            this.bodyFilePolicy = null;
+        }
+    }
+
+    /**
+     * <p>Releases the captured body when the session ends before the request is replayed.</p>
+     */
+    @Override
+    public void release(String sessionId) {
+        release();
+    }
+
+    /**
+     * <p>Copy the parameters allowed by the policy from the original {@link HttpServletRequest}.</p>
+     */
+    private void copyParameters(HttpServletRequest request, SavedRequestPolicy policy) {
+        for (String name : policy.getParameterNames()) {
+            String[] values = request.getParameterValues(name);
+
+            if (values == null) {
+                continue;
+            }
+
+            List<String> allowed = new ArrayList<String>(values.length);
+
+            for (String value : values) {
+                if (value != null && value.length() <= policy.getMaxParameterLength()) {
+                    allowed.add(value);
+                }
+            }
+
+            if (!allowed.isEmpty()) {
+                this.parameters.put(name, allowed.toArray(new String[allowed.size()]));
+            }
+        }
+    }
+
+    /**
+     * <p>Copy the headers allowed by the policy from the original {@link HttpServletRequest}.</p>
+     */
+    private void copyHeaders(HttpServletRequest request, SavedRequestPolicy policy) {
+        for (String headerName : policy.getHeaderNames()) {
             String headerValue = request.getHeader(headerName);
 
-            this.getHeaders().put(headerName, headerValue);
+            if (headerValue != null && headerValue.length() <= policy.getMaxHeaderLength()) {
+                this.headers.put(headerName, headerValue);
+            }
         }
     }
 
@@ -161,4 +319,93 @@ public class SavedRequest {
             this.getCookies().add(cookie);
         }
     }
+
+    /**
+     * <p>Copy the body from the original {@link HttpServletRequest}. Up to the memory threshold of the policy the body is kept
+     * on the heap, beyond it is spilled to a temporary file as long as the spilled size of the policy allows it.</p>
+     *
+     * @return true if the request has a body, whether it was captured or discarded
+     */
+    private boolean copyBody(HttpServletRequest request, SavedRequestPolicy policy) {
+        int contentLength = request.getContentLength();
+
+        if (contentLength == 0 || (contentLength < 0 && request.getHeader("Transfer-Encoding") == null)) {
+            return false;
+        }
+
+        long maxBodySize = policy.getMaxBodySize();
+
+        if (contentLength > maxBodySize) {
+            this.bodyDiscarded = true;
+            return true;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(0, Math.min(contentLength,
+                policy.getBodyMemoryThreshold())));
+        OutputStream out = buffer;
+        File file = null;
+        long length = 0;
+        long reserved = 0;
+
+        try {
+            InputStream in = request.getInputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+
+            while ((read = in.read(chunk)) != -1) {
+                length += read;
+
+                if (length > maxBodySize) {
+                    this.bodyDiscarded = true;
+                    break;
+                }
+
+                if (length > policy.getBodyMemoryThreshold()) {
+                    // the temporary files of the policy are full
+                    if (!policy.reserveSpilledSize(length - reserved)) {
+                        this.bodyDiscarded = true;
+                        break;
+                    }
+
+                    reserved = length;
+
+                    if (file == null) {
+                        file = File.createTempFile("picketbox-request", ".body", policy.getTempDirectory());
+                        out = new FileOutputStream(file);
+                        buffer.writeTo(out);
+                        buffer = null;
+                    }
+                }
+
+                out.write(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            PicketBoxLogger.LOGGER.failedToSaveRequestBody(this.requestURI, e);
+            this.bodyDiscarded = true;
+        } finally {
+            if (file != null) {
+                try {
+                    out.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+
+        if (this.bodyDiscarded) {
+            if (file != null) {
+                file.delete();
+            }
+
+            policy.releaseSpilledSize(reserved);
+        } else if (file != null) {
+            this.bodyFile = file;
+            this.bodyFilePolicy = policy;
+            this.bodyLength = length;
+        } else {
+            this.body = buffer.toByteArray();
+            this.bodyLength = length;
+        }
+
+        return true;
+    }
 }
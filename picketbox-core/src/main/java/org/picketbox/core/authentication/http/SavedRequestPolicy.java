@@ -0,0 +1,343 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.authentication.http;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Defines which parts of a {@link javax.servlet.http.HttpServletRequest} are captured by a {@link SavedRequest} and how much
+ * memory they may retain.
+ * </p>
+ * <p>
+ * Only the allow-listed headers and parameters are captured, and their values are dropped when longer than the configured
+ * caps. Parameters are read only when they are allow-listed, so by default the body of the request is never parsed.
+ * </p>
+ * <p>
+ * Request bodies up to {@link #getMaxBodySize()} bytes are captured so they can be replayed after the login. Bodies larger
+ * than {@link #getBodyMemoryThreshold()} bytes are spilled to a temporary file instead of being kept on the heap. Larger
+ * bodies are discarded, and the request is then replayed without them.
+ * </p>
+ * <p>
+ * The temporary files of all the requests saved with a policy hold at most {@link #getMaxSpilledSize()} bytes together. A
+ * body that would go over it is discarded.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class SavedRequestPolicy {
+
+    private Set<String> headerNames = toSet("Accept", "Accept-Language", "Content-Type");
+
+    private Set<String> parameterNames = Collections.emptySet();
+
+    private boolean captureCookies = false;
+
+    private int maxHeaderLength = 1024;
+
+    private int maxParameterLength = 1024;
+
+    private long maxBodySize = 1024 * 1024;
+
+    private int bodyMemoryThreshold = 8 * 1024;
+
+    private long maxSpilledSize = 64 * 1024 * 1024;
+
+    private final AtomicLong spilledSize = new AtomicLong();
+
+    private File tempDirectory;
+
+    /**
+     * <p>
+     * Returns the names of the headers that are captured.
+     * </p>
+     *
+     * @return
+     */
+    public Set<String> getHeaderNames() {
+        return this.headerNames;
+    }
+
+    /**
+     * <p>
+     * Sets the names of the headers that are captured. Default is <code>Accept</code>, <code>Accept-Language</code> and
+     * <code>Content-Type</code>.
+     * </p>
+     *
+     * @param headerNames
+     */
+    public void setHeaderNames(String... headerNames) {
+        this.headerNames = toSet(headerNames);
+    }
+
+    /**
+     * <p>
+     * Returns the names of the parameters that are captured.
+     * </p>
+     *
+     * @return
+     */
+    public Set<String> getParameterNames() {
+        return this.parameterNames;
+    }
+
+    /**
+     * <p>
+     * Sets the names of the parameters that are captured when the body of the request is not. Default is none.
+     * </p>
+     *
+     * @param parameterNames
+     */
+    public void setParameterNames(String... parameterNames) {
+        this.parameterNames = toSet(parameterNames);
+    }
+
+    /**
+     * <p>
+     * Indicates if the cookies are captured.
+     * </p>
+     *
+     * @return
+     */
+    public boolean isCaptureCookies() {
+        return this.captureCookies;
+    }
+
+    /**
+     * <p>
+     * Capture the cookies of the request. Default is false, the browser sends them again anyway.
+     * </p>
+     *
+     * @param captureCookies
+     */
+    public void setCaptureCookies(boolean captureCookies) {
+        this.captureCookies = captureCookies;
+    }
+
+    /**
+     * <p>
+     * Returns the maximum length of a captured header value.
+     * </p>
+     *
+     * @return
+     */
+    public int getMaxHeaderLength() {
+        return this.maxHeaderLength;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum length of a captured header value. Default is 1024.
+     * </p>
+     *
+     * @param maxHeaderLength
+     */
+    public void setMaxHeaderLength(int maxHeaderLength) {
+        if (maxHeaderLength < 1) {
+            throw MESSAGES.invalidNonPositiveArgument("maxHeaderLength");
+        }
+
+        this.maxHeaderLength = maxHeaderLength;
+    }
+
+    /**
+     * <p>
+     * Returns the maximum length of a captured parameter value.
+     * </p>
+     *
+     * @return
+     */
+    public int getMaxParameterLength() {
+        return this.maxParameterLength;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum length of a captured parameter value. Default is 1024.
+     * </p>
+     *
+     * @param maxParameterLength
+     */
+    public void setMaxParameterLength(int maxParameterLength) {
+        if (maxParameterLength < 1) {
+            throw MESSAGES.invalidNonPositiveArgument("maxParameterLength");
+        }
+
+        this.maxParameterLength = maxParameterLength;
+    }
+
+    /**
+     * <p>
+     * Returns the maximum size, in bytes, of a captured body.
+     * </p>
+     *
+     * @return
+     */
+    public long getMaxBodySize() {
+        return this.maxBodySize;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum size, in bytes, of a captured body. Default is 1 MB, zero disables the capture of bodies.
+     * </p>
+     *
+     * @param maxBodySize
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        if (maxBodySize < 0) {
+            throw MESSAGES.invalidNegativeArgument("maxBodySize");
+        }
+
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * <p>
+     * Returns the size, in bytes, above which a captured body is spilled to a temporary file.
+     * </p>
+     *
+     * @return
+     */
+    public int getBodyMemoryThreshold() {
+        return this.bodyMemoryThreshold;
+    }
+
+    /**
+     * <p>
+     * Sets the size, in bytes, above which a captured body is spilled to a temporary file. Default is 8 KB.
+     * </p>
+     *
+     * @param bodyMemoryThreshold
+     */
+    public void setBodyMemoryThreshold(int bodyMemoryThreshold) {
+        if (bodyMemoryThreshold < 0) {
+            throw MESSAGES.invalidNegativeArgument("bodyMemoryThreshold");
+        }
+
+        this.bodyMemoryThreshold = bodyMemoryThreshold;
+    }
+
+    /**
+     * <p>
+     * Returns the maximum number of bytes the temporary files of the saved requests may hold together.
+     * </p>
+     *
+     * @return
+     */
+    public long getMaxSpilledSize() {
+        return this.maxSpilledSize;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of bytes the temporary files of the saved requests may hold together. Default is 64 MB, zero
+     * disables spilling, the bodies larger than the memory threshold are then discarded.
+     * </p>
+     *
+     * @param maxSpilledSize
+     */
+    public void setMaxSpilledSize(long maxSpilledSize) {
+        if (maxSpilledSize < 0) {
+            throw MESSAGES.invalidNegativeArgument("maxSpilledSize");
+        }
+
+        this.maxSpilledSize = maxSpilledSize;
+    }
+
+    /**
+     * <p>
+     * Returns the number of bytes currently held by the temporary files of the saved requests.
+     * </p>
+     *
+     * @return
+     */
+    public long getSpilledSize() {
+        return this.spilledSize.get();
+    }
+
+    /**
+     * Reserve room for spilled bytes
+     *
+     * @return false if the reservation would go over the maximum
+     */
+    boolean reserveSpilledSize(long bytes) {
+        while (true) {
+            long current = this.spilledSize.get();
+
+            if (current + bytes > this.maxSpilledSize) {
+                return false;
+            }
+
+            if (this.spilledSize.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void releaseSpilledSize(long bytes) {
+        this.spilledSize.addAndGet(-bytes);
+    }
+
+    /**
+     * <p>
+     * Returns the directory of the temporary files, or null for the default temporary directory.
+     * </p>
+     *
+     * @return
+     */
+    public File getTempDirectory() {
+        return this.tempDirectory;
+    }
+
+    /**
+     * <p>
+     * Sets the directory of the temporary files. Default is the <code>java.io.tmpdir</code> directory.
+     * </p>
+     *
+     * @param tempDirectory
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    private static Set<String> toSet(String... names) {
+        Set<String> set = new LinkedHashSet<String>();
+
+        if (names != null) {
+            for (String name : names) {
+                if (name != null && name.trim().length() > 0) {
+                    set.add(name.trim());
+                }
+            }
+        }
+
+        return Collections.unmodifiableSet(set);
+    }
+}
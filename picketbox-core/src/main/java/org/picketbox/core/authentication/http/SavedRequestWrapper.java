@@ -0,0 +1,382 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketbox.core.authentication.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.session.PicketBoxSessionManager;
+
+/**
+ * <p>
+ * A {@link HttpServletRequestWrapper} that replays a {@link SavedRequest} on the request the user is redirected to after a
+ * successful authentication. The method, the captured headers and the captured body of the original request are restored, so
+ * a <code>POST</code> interrupted by the login page is processed as if it had been sent by the authenticated user.
+ * </p>
+ * <p>
+ * The body must be consumed before the request completes, {@link #release()} deletes its temporary file.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class SavedRequestWrapper extends HttpServletRequestWrapper {
+
+    private static final String DEFAULT_CHARACTER_ENCODING = "ISO-8859-1";
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private final SavedRequest savedRequest;
+
+    private Map<String, String[]> parameters;
+
+    private boolean bodyUsed;
+
+    public SavedRequestWrapper(HttpServletRequest request, SavedRequest savedRequest) {
+        super(request);
+        this.savedRequest = savedRequest;
+    }
+
+    /**
+     * <p>
+     * Wraps the given request if it targets the {@link SavedRequest} stored in the session by the form authentication. The saved
+     * request is removed from the session, so it is replayed only once.
+     * </p>
+     *
+     * @param request
+     * @return the wrapper or null if there is nothing to replay
+     */
+    public static SavedRequestWrapper restore(HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+
+        if (session == null) {
+            return null;
+        }
+
+        Object attribute = session.getAttribute(PicketBoxConstants.SAVED_REQUEST);
+
+        if (!(attribute instanceof SavedRequest)) {
+            return null;
+        }
+
+        SavedRequest savedRequest = (SavedRequest) attribute;
+
+        if (!equals(savedRequest.getRequestURI(), request.getRequestURI())
+                || !equals(savedRequest.getQueryString(), request.getQueryString())) {
+            return null;
+        }
+
+        session.removeAttribute(PicketBoxConstants.SAVED_REQUEST);
+        PicketBoxSessionManager.getResourceRegistry().unregister(session.getId(), savedRequest);
+
+        return new SavedRequestWrapper(request, savedRequest);
+    }
+
+    /**
+     * <p>
+     * Returns the replayed request.
+     * </p>
+     *
+     * @return
+     */
+    public SavedRequest getSavedRequest() {
+        return this.savedRequest;
+    }
+
+    /**
+     * <p>
+     * Releases the replayed body.
+     * </p>
+     */
+    public void release() {
+        this.savedRequest.release();
+    }
+
+    @Override
+    public String getMethod() {
+        if (this.savedRequest.isBodyDiscarded()) {
+            return super.getMethod();
+        }
+
+        return this.savedRequest.getMethod();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        String value = getSavedHeader(name);
+
+        return value != null ? value : super.getHeader(name);
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Enumeration getHeaders(String name) {
+        String value = getSavedHeader(name);
+
+        if (value != null) {
+            return Collections.enumeration(Collections.singletonList(value));
+        }
+
+        return super.getHeaders(name);
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Enumeration getHeaderNames() {
+        Set<String> names = new LinkedHashSet<String>(this.savedRequest.getHeaders().keySet());
+        Enumeration<String> current = super.getHeaderNames();
+
+        while (current != null && current.hasMoreElements()) {
+            names.add(current.nextElement());
+        }
+
+        return Collections.enumeration(names);
+    }
+
+    @Override
+    public String getContentType() {
+        if (this.savedRequest.hasBody()) {
+            return getSavedHeader("Content-Type");
+        }
+
+        return super.getContentType();
+    }
+
+    @Override
+    public int getContentLength() {
+        if (this.savedRequest.hasBody()) {
+            return (int) this.savedRequest.getBodyLength();
+        }
+
+        return super.getContentLength();
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        if (this.savedRequest.hasBody()) {
+            return this.savedRequest.getCharacterEncoding();
+        }
+
+        return super.getCharacterEncoding();
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        if (!this.savedRequest.hasBody()) {
+            return super.getInputStream();
+        }
+
+        this.bodyUsed = true;
+
+        final InputStream body = this.savedRequest.openBody();
+
+        return new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return body.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return body.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                body.close();
+            }
+        };
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        if (!this.savedRequest.hasBody()) {
+            return super.getReader();
+        }
+
+        return new BufferedReader(new InputStreamReader(getInputStream(), getEncoding()));
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = getParameterMap().get(name);
+
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return getParameterMap().get(name);
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Enumeration getParameterNames() {
+        return Collections.enumeration(getParameterMap().keySet());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, String[]> getParameterMap() {
+        if (this.parameters == null) {
+            this.parameters = Collections.unmodifiableMap(replayParameters());
+        }
+
+        return this.parameters;
+    }
+
+    private Map<String, String[]> replayParameters() {
+        Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+        String encoding = getEncoding();
+
+        for (Entry<String, String[]> parameter : this.savedRequest.getParameters().entrySet()) {
+            add(values, parameter.getKey(), parameter.getValue());
+        }
+
+        if (isFormBody()) {
+            parse(values, getQueryString(), encoding);
+            parse(values, readBody(encoding), encoding);
+        } else {
+            @SuppressWarnings("unchecked")
+            Map<String, String[]> current = super.getParameterMap();
+
+            for (Entry<String, String[]> parameter : current.entrySet()) {
+                if (!values.containsKey(parameter.getKey())) {
+                    add(values, parameter.getKey(), parameter.getValue());
+                }
+            }
+        }
+
+        Map<String, String[]> parameters = new LinkedHashMap<String, String[]>(values.size());
+
+        for (Entry<String, List<String>> entry : values.entrySet()) {
+            parameters.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+        }
+
+        return parameters;
+    }
+
+    private boolean isFormBody() {
+        String contentType = getContentType();
+
+        return !this.bodyUsed && this.savedRequest.hasBody() && contentType != null
+                && contentType.toLowerCase().startsWith(FORM_CONTENT_TYPE);
+    }
+
+    private String readBody(String encoding) {
+        try {
+            InputStream in = this.savedRequest.openBody();
+
+            try {
+                byte[] body = new byte[(int) this.savedRequest.getBodyLength()];
+                int offset = 0;
+                int read;
+
+                while (offset < body.length && (read = in.read(body, offset, body.length - offset)) != -1) {
+                    offset += read;
+                }
+
+                return new String(body, 0, offset, encoding);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private String getEncoding() {
+        String encoding = getCharacterEncoding();
+
+        return encoding != null ? encoding : DEFAULT_CHARACTER_ENCODING;
+    }
+
+    private String getSavedHeader(String name) {
+        for (Entry<String, String> header : this.savedRequest.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private static void parse(Map<String, List<String>> values, String encoded, String encoding) {
+        if (encoded == null || encoded.length() == 0) {
+            return;
+        }
+
+        for (String pair : encoded.split("&")) {
+            if (pair.length() == 0) {
+                continue;
+            }
+
+            int indexOfEquals = pair.indexOf('=');
+            String name = indexOfEquals < 0 ? pair : pair.substring(0, indexOfEquals);
+            String value = indexOfEquals < 0 ? "" : pair.substring(indexOfEquals + 1);
+
+            try {
+                add(values, URLDecoder.decode(name, encoding), URLDecoder.decode(value, encoding));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            } catch (IllegalArgumentException ignore) {
+                // malformed escape sequences are skipped, as most containers do
+            }
+        }
+    }
+
+    private static void add(Map<String, List<String>> values, String name, String... newValues) {
+        List<String> list = values.get(name);
+
+        if (list == null) {
+            list = new ArrayList<String>();
+            values.put(name, list);
+        }
+
+        for (String value : newValues) {
+            list.add(value);
+        }
+    }
+
+    private static boolean equals(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+}
@@ -31,6 +31,7 @@ import org.picketbox.core.authentication.PicketBoxConstants;
 import org.picketbox.core.authentication.http.HTTPAuthenticationScheme;
 import org.picketbox.core.authentication.http.HTTPAuthenticationSchemeLoader;
 import org.picketbox.core.authentication.http.HTTPFormAuthentication;
+import org.picketbox.core.authentication.http.SavedRequestPolicy;
 
 /**
  * A {@link HTTPAuthenticationSchemeLoader} that can load {@link HTTPFormAuthentication}
@@ -45,6 +46,48 @@ public class HTTPFormAuthenticationSchemeLoader implements HTTPAuthenticationSch
         HTTPFormAuthentication ba = new HTTPFormAuthentication();
         ServletContext sc = (ServletContext) contextData.get(PicketBoxConstants.SERVLET_CONTEXT);
         ba.setServletContext(sc);
+        if (sc != null) {
+            ba.setBasicFallback(Boolean.parseBoolean(sc.getInitParameter(PicketBoxConstants.HTTP_FORM_BASIC_FALLBACK)));
+
+            String maxEntries = sc.getInitParameter(PicketBoxConstants.HTTP_FORM_REQUEST_CACHE_MAX_ENTRIES);
+            if (maxEntries != null) {
+                ba.getRequestCache().setMaxEntries(Integer.parseInt(maxEntries.trim()));
+            }
+
+            String timeToLive = sc.getInitParameter(PicketBoxConstants.HTTP_FORM_REQUEST_CACHE_TTL);
+            if (timeToLive != null) {
+                ba.getRequestCache().setTimeToLive(Long.parseLong(timeToLive.trim()));
+            }
+
+            SavedRequestPolicy policy = ba.getRequestCache().getPolicy();
+
+            String headers = sc.getInitParameter(PicketBoxConstants.HTTP_FORM_SAVED_REQUEST_HEADERS);
+            if (headers != null) {
+                policy.setHeaderNames(headers.split(","));
+            }
+
+            String parameters = sc.getInitParameter(PicketBoxConstants.HTTP_FORM_SAVED_REQUEST_PARAMETERS);
+            if (parameters != null) {
+                policy.setParameterNames(parameters.split(","));
+            }
+
+            policy.setCaptureCookies(Boolean.parseBoolean(sc.getInitParameter(PicketBoxConstants.HTTP_FORM_SAVED_REQUEST_COOKIES)));
+
+            String maxBodySize = sc.getInitParameter(PicketBoxConstants.HTTP_FORM_SAVED_REQUEST_MAX_BODY_SIZE);
+            if (maxBodySize != null) {
+                policy.setMaxBodySize(Long.parseLong(maxBodySize.trim()));
+            }
+
+            String bodyMemoryThreshold = sc.getInitParameter(PicketBoxConstants.HTTP_FORM_SAVED_REQUEST_BODY_MEMORY_THRESHOLD);
+            if (bodyMemoryThreshold != null) {
+                policy.setBodyMemoryThreshold(Integer.parseInt(bodyMemoryThreshold.trim()));
+            }
+
+            String maxSpilledSize = sc.getInitParameter(PicketBoxConstants.HTTP_FORM_SAVED_REQUEST_MAX_SPILLED_SIZE);
+            if (maxSpilledSize != null) {
+                policy.setMaxSpilledSize(Long.parseLong(maxSpilledSize.trim()));
+            }
+        }
         ba.setAuthManager((AuthenticationManager) contextData.get(PicketBoxConstants.AUTH_MGR));
         return ba;
     }
@@ -0,0 +1,335 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authentication.impl;
+
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.PicketBoxSecurityContextAssociation;
+import org.picketbox.core.authentication.AsyncAuthenticationManager;
+import org.picketbox.core.authentication.AuthenticationCallback;
+import org.picketbox.core.authentication.AuthenticationManager;
+import org.picketbox.core.authentication.DigestHolder;
+import org.picketbox.core.exceptions.AuthenticationException;
+import org.picketbox.core.util.ThreadPools;
+import org.picketbox.core.util.ThreadPools.ExecutionMode;
+
+/**
+ * <p>
+ * Adapts a blocking {@link AuthenticationManager} to the {@link AsyncAuthenticationManager} contract by running it on a
+ * bounded executor. When the executor is saturated the authentication fails immediately instead of queueing without limit.
+ * </p>
+ * <p>
+ * The blocking methods are delegated on the calling thread.
+ * </p>
+ * <p>
+ * Slow backends such as LDAP or a database can be run in {@link ExecutionMode#VIRTUAL} mode, so that logins waiting for the
+ * backend do not each hold a platform thread. {@link #setMaxConcurrency(int)} bounds the number of calls in flight against
+ * the delegate, whatever the mode and whether they come from the blocking or the asynchronous methods.
+ * </p>
+ * <p>
+ * Asynchronous authentications and their callbacks run with the security context of the submitting thread.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class ExecutorAuthenticationManager implements AsyncAuthenticationManager {
+
+    private final AuthenticationManager delegate;
+
+    private ExecutorService executor;
+
+    private boolean ownsExecutor;
+
+    private int maxThreads = 16;
+
+    private int queueCapacity = 256;
+
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+    private int maxConcurrency;
+
+    private Semaphore permits;
+
+    private boolean started = false, stopped = true;
+
+    /**
+     * Create an adapter that creates its own bounded executor on {@link #start()}
+     *
+     * @param delegate
+     */
+    public ExecutorAuthenticationManager(AuthenticationManager delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * Create an adapter running the delegate on the given executor
+     *
+     * @param delegate
+     * @param executor
+     */
+    public ExecutorAuthenticationManager(AuthenticationManager delegate, ExecutorService executor) {
+        if (delegate == null) {
+            throw PicketBoxMessages.MESSAGES.invalidNullArgument("delegate");
+        }
+
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    /**
+     * Set the number of threads of the executor created by this adapter
+     *
+     * @param maxThreads
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Set the number of authentications that can wait for a thread before new ones are rejected
+     *
+     * @param queueCapacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Set the kind of threads the delegate runs on
+     *
+     * @param executionMode
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Set the maximum number of concurrent calls to the delegate, 0 for no limit
+     *
+     * @param maxConcurrency
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Get the adapted {@link AuthenticationManager}
+     *
+     * @return
+     */
+    public AuthenticationManager getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    public Principal authenticate(String username, Object credential) throws AuthenticationException {
+        return invoke(credentialAuthentication(username, credential));
+    }
+
+    @Override
+    public Principal authenticate(DigestHolder digest) throws AuthenticationException {
+        return invoke(digestAuthentication(digest));
+    }
+
+    @Override
+    public Principal authenticate(X509Certificate[] certs) throws AuthenticationException {
+        return invoke(certificateAuthentication(certs));
+    }
+
+    @Override
+    public Future<Principal> authenticate(String username, Object credential, AuthenticationCallback callback) {
+        return submit(credentialAuthentication(username, credential), callback);
+    }
+
+    @Override
+    public Future<Principal> authenticate(DigestHolder digest, AuthenticationCallback callback) {
+        return submit(digestAuthentication(digest), callback);
+    }
+
+    @Override
+    public Future<Principal> authenticate(X509Certificate[] certs, AuthenticationCallback callback) {
+        return submit(certificateAuthentication(certs), callback);
+    }
+
+    private Callable<Principal> credentialAuthentication(final String username, final Object credential) {
+        return new Callable<Principal>() {
+            @Override
+            public Principal call() throws AuthenticationException {
+                return delegate.authenticate(username, credential);
+            }
+        };
+    }
+
+    private Callable<Principal> digestAuthentication(final DigestHolder digest) {
+        return new Callable<Principal>() {
+            @Override
+            public Principal call() throws AuthenticationException {
+                return delegate.authenticate(digest);
+            }
+        };
+    }
+
+    private Callable<Principal> certificateAuthentication(final X509Certificate[] certs) {
+        return new Callable<Principal>() {
+            @Override
+            public Principal call() throws AuthenticationException {
+                return delegate.authenticate(certs);
+            }
+        };
+    }
+
+    /**
+     * Call the delegate once a permit is available
+     */
+    private Principal invoke(Callable<Principal> authentication) throws AuthenticationException {
+        Semaphore permits = this.permits;
+
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw PicketBoxMessages.MESSAGES.authenticationFailed(e);
+            }
+        }
+
+        try {
+            return authentication.call();
+        } catch (AuthenticationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw PicketBoxMessages.MESSAGES.authenticationFailed(e);
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    private Future<Principal> submit(final Callable<Principal> authentication, final AuthenticationCallback callback) {
+        if (!started()) {
+            return failed(PicketBoxMessages.MESSAGES.authenticationManagerNotStarted(), callback);
+        }
+
+        FutureTask<Principal> task = new FutureTask<Principal>(new Callable<Principal>() {
+            @Override
+            public Principal call() throws AuthenticationException {
+                Principal principal;
+
+                try {
+                    principal = invoke(authentication);
+                } catch (AuthenticationException e) {
+                    notifyFailure(e, callback);
+                    throw e;
+                }
+
+                if (callback != null) {
+                    callback.authenticated(principal);
+                }
+
+                return principal;
+            }
+        });
+
+        try {
+            this.executor.execute(PicketBoxSecurityContextAssociation.wrap(task));
+        } catch (RejectedExecutionException e) {
+            return failed(PicketBoxMessages.MESSAGES.authenticationExecutorSaturated(), callback);
+        }
+
+        return task;
+    }
+
+    private Future<Principal> failed(final AuthenticationException e, AuthenticationCallback callback) {
+        FutureTask<Principal> task = new FutureTask<Principal>(new Callable<Principal>() {
+            @Override
+            public Principal call() throws AuthenticationException {
+                throw e;
+            }
+        });
+
+        task.run();
+        notifyFailure(e, callback);
+
+        return task;
+    }
+
+    private void notifyFailure(AuthenticationException e, AuthenticationCallback callback) {
+        if (callback != null) {
+            callback.failed(e);
+        }
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    @Override
+    public void start() {
+        if (this.executor == null) {
+            this.executor = ThreadPools.newExecutor(this.executionMode, "picketbox-authentication", this.maxThreads,
+                    this.queueCapacity);
+            this.ownsExecutor = true;
+        }
+
+        if (this.maxConcurrency > 0) {
+            this.permits = new Semaphore(this.maxConcurrency, true);
+        }
+
+        if (!this.delegate.started()) {
+            this.delegate.start();
+        }
+
+        this.started = true;
+        this.stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        if (this.ownsExecutor) {
+            this.executor.shutdown();
+            this.executor = null;
+            this.ownsExecutor = false;
+        }
+
+        if (!this.delegate.stopped()) {
+            this.delegate.stop();
+        }
+
+        this.started = false;
+        this.stopped = true;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.exceptions.AuthorizationException;
+
+/**
+ * <p>
+ * An {@link AuthorizationManager} able to decide many resources at once, for instance all the links of a page. The subject
+ * is evaluated once per call and implementations may decide the resources sharing the same policy only once.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public interface BulkAuthorizationManager extends AuthorizationManager {
+
+    /**
+     * Bulk enforcement API
+     *
+     * @param resources resources for which we need to check access decisions
+     * @param subject subject (user/process) that is performing an action on the resources
+     * @return the decisions, the bit of a resource at its position in the iteration order is set if it is authorized
+     * @throws AuthorizationException if some problem occurs during the authorization process.
+     */
+    BitSet authorize(Collection<? extends Resource> resources, PicketBoxSubject subject) throws AuthorizationException;
+}
@@ -0,0 +1,259 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.picketbox.core.PicketBoxLifecycle;
+import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.PicketBoxSecurityContextAssociation;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.BulkEntitlementsManager;
+import org.picketbox.core.authorization.EntitlementsManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.util.ThreadPools;
+
+/**
+ * <p>
+ * Base class for {@link EntitlementsManager} implementations. The subject is turned once per call into an evaluation context
+ * by {@link #prepare(PicketBoxSubject)}, which batches share across all their resources.
+ * </p>
+ * <p>
+ * Batches are evaluated by the calling thread unless {@link #setParallelism(int)} is above 1. Then batches of at least
+ * twice {@link #setParallelThreshold(int)} resources are split in chunks evaluated in parallel, the calling thread evaluating
+ * the first one. Evaluating a resource is cheap, only chunks of thousands of resources are worth handing to another thread.
+ * The executor is created on {@link #start()} unless one is given, and chunks it rejects are evaluated by the calling
+ * thread.
+ * </p>
+ *
+ * @param <C> the type of the evaluation context
+ * @author Stefan Guilhen
+ */
+public abstract class AbstractEntitlementsManager<C> implements BulkEntitlementsManager, PicketBoxLifecycle {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+    private ExecutorService executor;
+
+    private boolean ownsExecutor;
+
+    private int parallelism = 1;
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    private boolean started = false, stopped = true;
+
+    /**
+     * Create a manager that creates its own executor on {@link #start()}
+     */
+    protected AbstractEntitlementsManager() {
+        this(null);
+    }
+
+    /**
+     * Create a manager evaluating large batches on the given executor
+     *
+     * @param executor
+     */
+    protected AbstractEntitlementsManager(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the maximum number of chunks a batch is split in. Default is 1, batches are never evaluated in parallel.
+     *
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw PicketBoxMessages.MESSAGES.invalidNonPositiveArgument("parallelism");
+        }
+
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Set the minimum number of resources of a chunk. Default is {@link #DEFAULT_PARALLEL_THRESHOLD}.
+     *
+     * @param parallelThreshold
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold <= 0) {
+            throw PicketBoxMessages.MESSAGES.invalidNonPositiveArgument("parallelThreshold");
+        }
+
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Prepare the evaluation context of a subject
+     *
+     * @param subject
+     * @return
+     */
+    protected abstract C prepare(PicketBoxSubject subject);
+
+    /**
+     * Get the entitlements of a resource
+     *
+     * @param resource
+     * @param context the evaluation context of the subject
+     * @return
+     */
+    protected abstract Entitlement[] entitlements(Resource resource, C context);
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.authorization.EntitlementsManager#entitlements(org.picketbox.core.authorization.Resource,
+     * org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    public Entitlement[] entitlements(Resource resource, PicketBoxSubject subject) {
+        return entitlements(resource, prepare(subject));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.authorization.BulkEntitlementsManager#entitlements(java.util.Collection,
+     * org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    public List<Entitlement[]> entitlements(Collection<? extends Resource> resources, PicketBoxSubject subject) {
+        C context = prepare(subject);
+        Resource[] batch = resources.toArray(new Resource[resources.size()]);
+        Entitlement[][] results = new Entitlement[batch.length][];
+        ExecutorService executor = this.executor;
+        int chunks = executor == null ? 1 : Math.min(this.parallelism, batch.length / this.parallelThreshold);
+
+        if (chunks <= 1) {
+            evaluate(batch, results, context, 0, batch.length);
+        } else {
+            int chunkSize = (batch.length + chunks - 1) / chunks;
+            List<Future<?>> futures = new ArrayList<Future<?>>(chunks - 1);
+
+            try {
+                for (int from = chunkSize; from < batch.length; from += chunkSize) {
+                    Chunk chunk = new Chunk(batch, results, context, from, Math.min(batch.length, from + chunkSize));
+
+                    try {
+                        futures.add(executor.submit(PicketBoxSecurityContextAssociation.wrap(chunk)));
+                    } catch (RejectedExecutionException e) {
+                        chunk.run();
+                    }
+                }
+
+                evaluate(batch, results, context, 0, chunkSize);
+
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw PicketBoxMessages.MESSAGES.entitlementsEvaluationFailed(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+
+                throw PicketBoxMessages.MESSAGES.entitlementsEvaluationFailed(e.getCause());
+            } finally {
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private void evaluate(Resource[] batch, Entitlement[][] results, C context, int from, int to) {
+        for (int i = from; i < to; i++) {
+            results[i] = entitlements(batch[i], context);
+        }
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    @Override
+    public void start() {
+        if (this.executor == null && this.parallelism > 1) {
+            this.executor = ThreadPools.newBoundedExecutor("picketbox-entitlements", this.parallelism, 256);
+            this.ownsExecutor = true;
+        }
+
+        this.started = true;
+        this.stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        if (this.ownsExecutor) {
+            this.executor.shutdown();
+            this.executor = null;
+            this.ownsExecutor = false;
+        }
+
+        this.started = false;
+        this.stopped = true;
+    }
+
+    /**
+     * A slice of a batch evaluated by the executor
+     */
+    private class Chunk implements Runnable {
+        private final Resource[] batch;
+        private final Entitlement[][] results;
+        private final C context;
+        private final int from;
+        private final int to;
+
+        Chunk(Resource[] batch, Entitlement[][] results, C context, int from, int to) {
+            this.batch = batch;
+            this.results = results;
+            this.context = context;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            evaluate(this.batch, this.results, this.context, this.from, this.to);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.impl;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.BulkAuthorizationManager;
+import org.picketbox.core.authorization.CacheableAuthorizationManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.core.exceptions.AuthorizationException;
+import org.picketbox.core.http.RequestClassifier;
+import org.picketbox.core.identity.RoleSet;
+
+/**
+ * <p>
+ * An {@link AuthorizationManager} that caches the decisions of another one. Decisions are keyed by the role set of the
+ * subject, see {@link PicketBoxSubject#getRoleSet()}, and by a key of the resource:
+ * </p>
+ * <ul>
+ * <li>the one returned by the delegate when it is a {@link CacheableAuthorizationManager}. A null key marks a
+ * decision that must not be cached.</li>
+ * <li>otherwise the HTTP method and the path of a {@link WebResource}, or the {@link WebResourceDescriptor} itself.
+ * Other resources are not cached.</li>
+ * </ul>
+ * <p>
+ * Only a delegate whose decisions depend on nothing but the roles of the subject and the resource key should be
+ * wrapped. Decisions expire after {@link #setTimeToLive(long)} milliseconds and, once {@link #setMaxEntries(int)} is
+ * reached, the least recently used ones are evicted. The decisions are spread over up to 16 segments, each an access
+ * ordered map with its share of the entries and its own lock, so an eviction drops the eldest entry of one segment in
+ * constant time. {@link #invalidate()} discards all the decisions when the policies of the delegate change, including
+ * the ones being evaluated.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class CachingAuthorizationManager implements BulkAuthorizationManager {
+
+    /**
+     * Default maximum number of cached decisions.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Default time to live of a cached decision, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 60 * 1000L;
+
+    private final AuthorizationManager delegate;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The minimum number of entries of a segment, fewer entries share fewer segments
+     */
+    private static final int MIN_SEGMENT_ENTRIES = 16;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile Segment[] segments = newSegments(DEFAULT_MAX_ENTRIES);
+
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    public CachingAuthorizationManager(AuthorizationManager delegate) {
+        if (delegate == null) {
+            throw MESSAGES.invalidNullArgument("delegate");
+        }
+
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+        return authorize(resource, subject, subject == null ? null : subject.getRoleSet(), getResourceKey(resource));
+    }
+
+    /**
+     * Resources sharing a resource key are decided once per call.
+     *
+     * @see org.picketbox.core.authorization.BulkAuthorizationManager#authorize(java.util.Collection,
+     *      org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    public BitSet authorize(Collection<? extends Resource> resources, PicketBoxSubject subject) throws AuthorizationException {
+        RoleSet roles = subject == null ? null : subject.getRoleSet();
+        BitSet decisions = new BitSet(resources.size());
+        Map<Object, Boolean> evaluated = new HashMap<Object, Boolean>();
+        int index = 0;
+
+        for (Resource resource : resources) {
+            Object resourceKey = getResourceKey(resource);
+            Boolean decision = resourceKey == null ? null : evaluated.get(resourceKey);
+
+            if (decision == null) {
+                decision = authorize(resource, subject, roles, resourceKey);
+
+                if (resourceKey != null) {
+                    evaluated.put(resourceKey, decision);
+                }
+            } else {
+                this.hits.incrementAndGet();
+                resource.setAuthorized(decision);
+            }
+
+            decisions.set(index++, decision);
+        }
+
+        return decisions;
+    }
+
+    private boolean authorize(Resource resource, PicketBoxSubject subject, RoleSet roles, Object resourceKey)
+            throws AuthorizationException {
+        if (resourceKey == null) {
+            this.misses.incrementAndGet();
+            return this.delegate.authorize(resource, subject);
+        }
+
+        DecisionKey key = new DecisionKey(roles, resourceKey);
+        long generation = this.generation.get();
+        Segment segment = segmentFor(key);
+        Decision decision;
+
+        synchronized (segment) {
+            decision = segment.entries.get(key);
+        }
+
+        if (decision != null && decision.generation == generation && decision.expiresAt > System.currentTimeMillis()) {
+            this.hits.incrementAndGet();
+            resource.setAuthorized(decision.authorized);
+            return decision.authorized;
+        }
+
+        this.misses.incrementAndGet();
+
+        boolean authorized = this.delegate.authorize(resource, subject);
+
+        // a decision evaluated against policies replaced in the meantime is not cached
+        if (generation == this.generation.get()) {
+            segment.put(key, new Decision(authorized, generation, System.currentTimeMillis() + this.timeToLive));
+        }
+
+        return authorized;
+    }
+
+    /**
+     * Discard all the cached decisions. Call it when the policies of the delegate change.
+     */
+    public void invalidate() {
+        this.generation.incrementAndGet();
+
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the wrapped manager
+     *
+     * @return
+     */
+    public AuthorizationManager getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Set the maximum number of cached decisions. Default is {@link #DEFAULT_MAX_ENTRIES}. The cached decisions are
+     * discarded.
+     *
+     * @param maxEntries
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw MESSAGES.invalidNonPositiveArgument("maxEntries");
+        }
+
+        this.segments = newSegments(maxEntries);
+    }
+
+    /**
+     * Set how long, in milliseconds, a decision is cached. Default is {@link #DEFAULT_TIME_TO_LIVE}.
+     *
+     * @param timeToLive
+     */
+    public void setTimeToLive(long timeToLive) {
+        if (timeToLive < 1) {
+            throw MESSAGES.invalidNonPositiveArgument("timeToLive");
+        }
+
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Get the number of cached decisions
+     *
+     * @return
+     */
+    public int getEntryCount() {
+        int count = 0;
+
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                count += segment.entries.size();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the number of decisions served from the cache
+     *
+     * @return
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of decisions evaluated by the delegate
+     *
+     * @return
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    @Override
+    public boolean started() {
+        return this.delegate.started();
+    }
+
+    /**
+     * Start the delegate. A restart reloads its policies, so the cache is invalidated.
+     *
+     * @see org.picketbox.core.PicketBoxLifecycle#start()
+     */
+    @Override
+    public void start() {
+        invalidate();
+        this.delegate.start();
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.delegate.stopped();
+    }
+
+    @Override
+    public void stop() {
+        this.delegate.stop();
+        invalidate();
+    }
+
+    private Object getResourceKey(Resource resource) {
+        if (this.delegate instanceof CacheableAuthorizationManager) {
+            return ((CacheableAuthorizationManager) this.delegate).getDecisionKey(resource);
+        }
+
+        if (resource instanceof WebResourceDescriptor) {
+            return resource;
+        }
+
+        if (resource instanceof WebResource) {
+            HttpServletRequest request = ((WebResource) resource).getRequest();
+
+            if (request == null || request.getRequestURI() == null) {
+                return null;
+            }
+
+            String path = RequestClassifier.getPath(request);
+
+            return path == null ? null : request.getMethod() + " " + path;
+        }
+
+        return null;
+    }
+
+    private Segment segmentFor(DecisionKey key) {
+        Segment[] segments = this.segments;
+        int hash = key.hashCode;
+
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * Split the entries over a power of two number of segments, each holding at least {@link #MIN_SEGMENT_ENTRIES} unless
+     * there is a single one
+     */
+    private static Segment[] newSegments(int maxEntries) {
+        int count = Math.max(1, Integer.highestOneBit(Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_ENTRIES)));
+        Segment[] segments = new Segment[count];
+
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0));
+        }
+
+        return segments;
+    }
+
+    /**
+     * A share of the decisions, in access order, guarded by its own lock
+     */
+    private static final class Segment {
+        private final Map<DecisionKey, Decision> entries = new LinkedHashMap<DecisionKey, Decision>(16, 0.75f, true);
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        synchronized void put(DecisionKey key, Decision decision) {
+            this.entries.put(key, decision);
+
+            // the least recently used decisions come first, stale ones are never used again and get there too
+            if (this.entries.size() > this.maxEntries) {
+                Iterator<Decision> eldest = this.entries.values().iterator();
+
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private static final class DecisionKey {
+        private final Object roles;
+        private final Object resource;
+        private final int hashCode;
+
+        DecisionKey(Object roles, Object resource) {
+            this.roles = roles;
+            this.resource = resource;
+            this.hashCode = 31 * (roles == null ? 0 : roles.hashCode()) + resource.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+
+            DecisionKey other = (DecisionKey) obj;
+
+            return this.hashCode == other.hashCode && (this.roles == null ? other.roles == null : this.roles.equals(other.roles))
+                    && this.resource.equals(other.resource);
+        }
+    }
+
+    private static final class Decision {
+        private final boolean authorized;
+        private final long generation;
+        private final long expiresAt;
+
+        Decision(boolean authorized, long generation, long expiresAt) {
+            this.authorized = authorized;
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
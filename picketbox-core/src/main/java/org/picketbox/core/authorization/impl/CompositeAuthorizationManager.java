@@ -0,0 +1,520 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.impl;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.picketbox.core.PicketBoxLogger;
+import org.picketbox.core.PicketBoxSecurityContextAssociation;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.core.exceptions.AuthorizationException;
+import org.picketbox.core.util.ThreadPools;
+import org.picketbox.core.util.ThreadPools.ExecutionMode;
+
+/**
+ * <p>
+ * An {@link AuthorizationManager} combining the decisions of several others, its members, with a
+ * {@link CombiningAlgorithm}. The evaluation stops as soon as the algorithm has an answer: the first deny under
+ * {@link CombiningAlgorithm#DENY_OVERRIDES}, the first permit under {@link CombiningAlgorithm#PERMIT_OVERRIDES}.
+ * </p>
+ * <p>
+ * Members added with {@link #addMember(AuthorizationManager, int)} are evaluated by the calling thread, cheapest first.
+ * Slow members added with {@link #addParallelMember(AuthorizationManager, long)} are submitted to an executor before the
+ * others are evaluated, and are cancelled once the decision is known. A parallel member that does not decide within its
+ * timeout, or any member that fails, counts as a deny. A composite without members denies.
+ * </p>
+ * <p>
+ * The executor is created on {@link #start()} unless one is given, see {@link #setExecutionMode(ExecutionMode)} to run the
+ * parallel members on virtual threads. Parallel members the executor rejects are evaluated by the calling thread.
+ * </p>
+ * <p>
+ * Web requests are described by a {@link WebResourceDescriptor}, which holds no servlet objects, so that the parallel
+ * members never read a request or response on another thread. A {@link WebResource} given to {@link #authorize(Resource,
+ * PicketBoxSubject)} is handed to the parallel members as its descriptor, and is denied if its path is rejected by the
+ * normalization. The members evaluated by the calling thread are given the resource as it is, a {@link WebResource} keeps
+ * its request and response for them.
+ * </p>
+ * <p>
+ * A cancelled member may still set the authorized flag of the resource after the decision, rely on the returned decision.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class CompositeAuthorizationManager implements AuthorizationManager {
+
+    /**
+     * How the decisions of the members are combined
+     */
+    public enum CombiningAlgorithm {
+
+        /**
+         * Permit if all the members permit
+         */
+        DENY_OVERRIDES,
+
+        /**
+         * Permit if any member permits
+         */
+        PERMIT_OVERRIDES
+    }
+
+    private final CombiningAlgorithm algorithm;
+
+    private final List<Member> members = new ArrayList<Member>();
+
+    private volatile Snapshot snapshot;
+
+    private ExecutorService executor;
+
+    private boolean ownsExecutor;
+
+    private int maxThreads = 16;
+
+    private int queueCapacity = 256;
+
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+    private boolean started;
+    private boolean stopped = true;
+
+    /**
+     * Create a deny-overrides composite
+     */
+    public CompositeAuthorizationManager() {
+        this(CombiningAlgorithm.DENY_OVERRIDES);
+    }
+
+    /**
+     * Create a composite that creates its own executor on {@link #start()}
+     *
+     * @param algorithm
+     */
+    public CompositeAuthorizationManager(CombiningAlgorithm algorithm) {
+        this(algorithm, null);
+    }
+
+    /**
+     * Create a composite running its parallel members on the given executor
+     *
+     * @param algorithm
+     * @param executor
+     */
+    public CompositeAuthorizationManager(CombiningAlgorithm algorithm, ExecutorService executor) {
+        if (algorithm == null) {
+            throw MESSAGES.invalidNullArgument("algorithm");
+        }
+
+        this.algorithm = algorithm;
+        this.executor = executor;
+    }
+
+    /**
+     * Add a member evaluated by the calling thread. Takes effect on the next {@link #start()}.
+     *
+     * @param manager
+     * @param cost the relative cost of the member, cheaper members are evaluated first
+     */
+    public void addMember(AuthorizationManager manager, int cost) {
+        addMember(new Member(manager, cost, 0));
+    }
+
+    /**
+     * Add a member evaluated in parallel with the others. Takes effect on the next {@link #start()}.
+     *
+     * @param manager
+     * @param timeout how long, in milliseconds, the decision of the member is waited for
+     */
+    public void addParallelMember(AuthorizationManager manager, long timeout) {
+        if (timeout < 1) {
+            throw MESSAGES.invalidNonPositiveArgument("timeout");
+        }
+
+        addMember(new Member(manager, 0, timeout));
+    }
+
+    private void addMember(Member member) {
+        if (member.manager == null) {
+            throw MESSAGES.invalidNullArgument("manager");
+        }
+
+        synchronized (this.members) {
+            this.members.add(member);
+        }
+    }
+
+    /**
+     * Set the number of threads of the executor created by this composite
+     *
+     * @param maxThreads
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Set the number of parallel evaluations that can wait for a thread before new ones are evaluated by the calling thread
+     *
+     * @param queueCapacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Set the kind of threads the parallel members run on
+     *
+     * @param executionMode
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.authorization.AuthorizationManager#authorize(org.picketbox.core.authorization.Resource,
+     * org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+        Snapshot snapshot = this.snapshot;
+
+        if (snapshot == null) {
+            throw MESSAGES.authorizationManagerNotStarted();
+        }
+
+        Member[] inlineMembers = snapshot.inlineMembers;
+        Member[] parallelMembers = snapshot.parallelMembers;
+
+        // a composite without members has nothing to permit
+        if (inlineMembers.length == 0 && parallelMembers.length == 0) {
+            resource.setAuthorized(false);
+            return false;
+        }
+
+        Resource parallelResource = resource;
+
+        if (parallelMembers.length > 0 && resource instanceof WebResource) {
+            parallelResource = describe((WebResource) resource);
+
+            if (parallelResource == null) {
+                resource.setAuthorized(false);
+                return false;
+            }
+        }
+
+        // the decision that ends the evaluation
+        boolean decisive = this.algorithm == CombiningAlgorithm.PERMIT_OVERRIDES;
+        boolean authorized = false;
+        CompletionService<Boolean> completion = null;
+        List<Evaluation> pending = new ArrayList<Evaluation>(parallelMembers.length);
+
+        try {
+            if (parallelMembers.length > 0) {
+                completion = new ExecutorCompletionService<Boolean>(snapshot.executor);
+
+                for (Member member : parallelMembers) {
+                    try {
+                        pending.add(new Evaluation(member, completion.submit(PicketBoxSecurityContextAssociation
+                                .wrap(member.evaluation(parallelResource, subject)))));
+                    } catch (RejectedExecutionException e) {
+                        if (member.authorize(parallelResource, subject) == decisive) {
+                            authorized = decisive;
+                            return authorized;
+                        }
+                    }
+                }
+            }
+
+            for (Member member : inlineMembers) {
+                if (member.authorize(resource, subject) == decisive) {
+                    authorized = decisive;
+                    return authorized;
+                }
+            }
+
+            authorized = completion != null && await(completion, pending, decisive) ? decisive : !decisive;
+
+            return authorized;
+        } finally {
+            for (Evaluation evaluation : pending) {
+                evaluation.future.cancel(true);
+            }
+
+            resource.setAuthorized(authorized);
+        }
+    }
+
+    /**
+     * Describe a web request for the parallel members, null if its path is rejected by the normalization
+     */
+    private WebResourceDescriptor describe(WebResource resource) {
+        if (resource.getRequest() == null) {
+            return null;
+        }
+
+        return WebResourceDescriptor.from(resource.getRequest());
+    }
+
+    /**
+     * Wait for the parallel members until one of them returns the decisive decision
+     *
+     * @return true if the decisive decision was returned
+     */
+    private boolean await(CompletionService<Boolean> completion, List<Evaluation> pending, boolean decisive)
+            throws AuthorizationException {
+        while (!pending.isEmpty()) {
+            long deadline = Long.MAX_VALUE;
+
+            for (Evaluation evaluation : pending) {
+                deadline = Math.min(deadline, evaluation.deadline);
+            }
+
+            Future<Boolean> done;
+
+            try {
+                done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw MESSAGES.authorizationFailed(e);
+            }
+
+            if (done == null) {
+                long now = System.nanoTime();
+
+                for (int i = pending.size() - 1; i >= 0; i--) {
+                    Evaluation evaluation = pending.get(i);
+
+                    if (evaluation.deadline - now <= 0) {
+                        PicketBoxLogger.LOGGER.authorizationMemberTimedOut(evaluation.member.getName(),
+                                evaluation.member.timeout);
+                        evaluation.future.cancel(true);
+                        pending.remove(i);
+
+                        if (!decisive) {
+                            return true;
+                        }
+                    }
+                }
+
+                continue;
+            }
+
+            Evaluation evaluation = remove(pending, done);
+
+            // cancelled evaluations of timed out members are completed too
+            if (evaluation != null && evaluation.member.decision(done) == decisive) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Evaluation remove(List<Evaluation> pending, Future<Boolean> future) {
+        for (int i = 0; i < pending.size(); i++) {
+            if (pending.get(i).future == future) {
+                return pending.remove(i);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    /**
+     * Start the members and order them by cost
+     *
+     * @see org.picketbox.core.PicketBoxLifecycle#start()
+     */
+    @Override
+    public void start() {
+        List<Member> inlineMembers = new ArrayList<Member>();
+        List<Member> parallelMembers = new ArrayList<Member>();
+
+        synchronized (this.members) {
+            for (Member member : this.members) {
+                if (!member.manager.started()) {
+                    member.manager.start();
+                }
+
+                if (member.timeout > 0) {
+                    parallelMembers.add(member);
+                } else {
+                    inlineMembers.add(member);
+                }
+            }
+        }
+
+        Collections.sort(inlineMembers, new Comparator<Member>() {
+            @Override
+            public int compare(Member first, Member second) {
+                return first.cost < second.cost ? -1 : (first.cost == second.cost ? 0 : 1);
+            }
+        });
+
+        if (this.executor == null && !parallelMembers.isEmpty()) {
+            this.executor = ThreadPools.newExecutor(this.executionMode, "picketbox-authorization", this.maxThreads,
+                    this.queueCapacity);
+            this.ownsExecutor = true;
+        }
+
+        this.snapshot = new Snapshot(inlineMembers.toArray(new Member[inlineMembers.size()]),
+                parallelMembers.toArray(new Member[parallelMembers.size()]), this.executor);
+        this.started = true;
+        this.stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        this.snapshot = null;
+
+        if (this.ownsExecutor) {
+            this.executor.shutdownNow();
+            this.executor = null;
+            this.ownsExecutor = false;
+        }
+
+        synchronized (this.members) {
+            for (Member member : this.members) {
+                if (!member.manager.stopped()) {
+                    member.manager.stop();
+                }
+            }
+        }
+
+        this.started = false;
+        this.stopped = true;
+    }
+
+    /**
+     * The members and executor of a started composite, published together so that an evaluation never sees a partly
+     * stopped composite
+     */
+    private static class Snapshot {
+        private final Member[] inlineMembers;
+        private final Member[] parallelMembers;
+        private final ExecutorService executor;
+
+        Snapshot(Member[] inlineMembers, Member[] parallelMembers, ExecutorService executor) {
+            this.inlineMembers = inlineMembers;
+            this.parallelMembers = parallelMembers;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * A member of the composite
+     */
+    private static class Member {
+        private final AuthorizationManager manager;
+        private final int cost;
+        private final long timeout;
+
+        Member(AuthorizationManager manager, int cost, long timeout) {
+            this.manager = manager;
+            this.cost = cost;
+            this.timeout = timeout;
+        }
+
+        String getName() {
+            return this.manager.getClass().getName();
+        }
+
+        /**
+         * Get the decision of the member, a failure counts as a deny
+         */
+        boolean authorize(Resource resource, PicketBoxSubject subject) {
+            try {
+                return this.manager.authorize(resource, subject);
+            } catch (Exception e) {
+                PicketBoxLogger.LOGGER.authorizationMemberFailed(getName(), e);
+                return false;
+            }
+        }
+
+        /**
+         * Get the decision of a completed parallel evaluation, a failure counts as a deny
+         */
+        boolean decision(Future<Boolean> future) {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                PicketBoxLogger.LOGGER.authorizationMemberFailed(getName(), e.getCause());
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        Callable<Boolean> evaluation(final Resource resource, final PicketBoxSubject subject) {
+            return new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return manager.authorize(resource, subject);
+                }
+            };
+        }
+    }
+
+    /**
+     * A parallel evaluation in progress
+     */
+    private static class Evaluation {
+        private final Member member;
+        private final Future<Boolean> future;
+        private final long deadline;
+
+        Evaluation(Member member, Future<Boolean> future) {
+            this.member = member;
+            this.future = future;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(member.timeout);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.impl;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.core.http.RequestClassifier;
+import org.picketbox.core.identity.RoleSet;
+
+/**
+ * <p>
+ * An {@link org.picketbox.core.authorization.EntitlementsManager} backed by an index of grants. Each grant gives an
+ * entitlement on a resource key to some roles. {@link #start()} compiles the grants into an index holding, for each resource
+ * key, its entitlements and the {@link RoleSet} of the roles they are granted to, so the entitlements of a resource cost one
+ * map lookup and one role set intersection per entitlement.
+ * </p>
+ * <p>
+ * The resource key of a {@link WebResource} or a {@link WebResourceDescriptor} is its normalized path, relative to the
+ * context path. A web resource whose path is rejected by the normalization has no entitlements. Other resources are their
+ * own key, see {@link #getResourceKey(Resource)}.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class IndexedEntitlementsManager extends AbstractEntitlementsManager<RoleSet> {
+
+    private static final Entitlement[] NO_ENTITLEMENTS = new Entitlement[0];
+
+    private final Map<Object, Map<Entitlement, Set<String>>> grants = new LinkedHashMap<Object, Map<Entitlement, Set<String>>>();
+
+    private volatile Map<Object, Grant[]> index;
+
+    /**
+     * Create a manager that creates its own executor on {@link #start()}
+     */
+    public IndexedEntitlementsManager() {
+        super();
+    }
+
+    /**
+     * Create a manager evaluating large batches on the given executor
+     *
+     * @param executor
+     */
+    public IndexedEntitlementsManager(ExecutorService executor) {
+        super(executor);
+    }
+
+    /**
+     * Grant an entitlement on a resource to some roles. Takes effect on the next {@link #start()}.
+     *
+     * @param resourceKey
+     * @param entitlement
+     * @param roles
+     */
+    public void grant(Object resourceKey, Entitlement entitlement, String... roles) {
+        if (resourceKey == null) {
+            throw MESSAGES.invalidNullArgument("resourceKey");
+        }
+
+        if (entitlement == null) {
+            throw MESSAGES.invalidNullArgument("entitlement");
+        }
+
+        synchronized (this.grants) {
+            Map<Entitlement, Set<String>> entitlements = this.grants.get(resourceKey);
+
+            if (entitlements == null) {
+                entitlements = new LinkedHashMap<Entitlement, Set<String>>();
+                this.grants.put(resourceKey, entitlements);
+            }
+
+            Set<String> grantedRoles = entitlements.get(entitlement);
+
+            if (grantedRoles == null) {
+                grantedRoles = new LinkedHashSet<String>();
+                entitlements.put(entitlement, grantedRoles);
+            }
+
+            for (String role : roles) {
+                grantedRoles.add(role);
+            }
+        }
+    }
+
+    /**
+     * Get the key a resource is indexed by. A {@link WebResource} is keyed by the path normalized by
+     * {@link RequestClassifier#getPath(HttpServletRequest)}, like a {@link WebResourceDescriptor}.
+     *
+     * @param resource
+     * @return the key or null if the path of a web resource is rejected
+     */
+    protected Object getResourceKey(Resource resource) {
+        if (resource instanceof WebResourceDescriptor) {
+            return ((WebResourceDescriptor) resource).getPath();
+        }
+
+        if (resource instanceof WebResource) {
+            HttpServletRequest request = ((WebResource) resource).getRequest();
+
+            if (request == null) {
+                return null;
+            }
+
+            return RequestClassifier.getPath(request);
+        }
+
+        return resource;
+    }
+
+    /**
+     * The evaluation context is the role set of the subject
+     *
+     * @see org.picketbox.core.authorization.impl.AbstractEntitlementsManager#prepare(org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    protected RoleSet prepare(PicketBoxSubject subject) {
+        if (this.index == null) {
+            throw MESSAGES.entitlementsManagerNotStarted();
+        }
+
+        return subject == null ? RoleSet.EMPTY : subject.getRoleSet();
+    }
+
+    @Override
+    protected Entitlement[] entitlements(Resource resource, RoleSet roles) {
+        Map<Object, Grant[]> index = this.index;
+
+        if (index == null) {
+            throw MESSAGES.entitlementsManagerNotStarted();
+        }
+
+        Object key = getResourceKey(resource);
+        Grant[] grants = key == null ? null : index.get(key);
+
+        if (grants == null || roles.isEmpty()) {
+            return NO_ENTITLEMENTS;
+        }
+
+        List<Entitlement> entitlements = null;
+
+        for (Grant grant : grants) {
+            if (roles.intersects(grant.roles)) {
+                if (entitlements == null) {
+                    entitlements = new ArrayList<Entitlement>(grants.length);
+                }
+
+                entitlements.add(grant.entitlement);
+            }
+        }
+
+        return entitlements == null ? NO_ENTITLEMENTS : entitlements.toArray(new Entitlement[entitlements.size()]);
+    }
+
+    /**
+     * Compile the grants
+     *
+     * @see org.picketbox.core.authorization.impl.AbstractEntitlementsManager#start()
+     */
+    @Override
+    public void start() {
+        Map<Object, Grant[]> index = new HashMap<Object, Grant[]>();
+
+        synchronized (this.grants) {
+            for (Map.Entry<Object, Map<Entitlement, Set<String>>> resourceGrants : this.grants.entrySet()) {
+                List<Grant> compiled = new ArrayList<Grant>(resourceGrants.getValue().size());
+
+                for (Map.Entry<Entitlement, Set<String>> grant : resourceGrants.getValue().entrySet()) {
+                    compiled.add(new Grant(grant.getKey(), RoleSet.of(grant.getValue())));
+                }
+
+                index.put(resourceGrants.getKey(), compiled.toArray(new Grant[compiled.size()]));
+            }
+        }
+
+        this.index = index;
+
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        this.index = null;
+
+        super.stop();
+    }
+
+    /**
+     * A compiled grant
+     */
+    private static class Grant {
+        private final Entitlement entitlement;
+        private final RoleSet roles;
+
+        Grant(Entitlement entitlement, RoleSet roles) {
+            this.entitlement = entitlement;
+            this.roles = roles;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.impl;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.picketbox.core.PicketBoxSecurityContext;
+import org.picketbox.core.PicketBoxSecurityContextAssociation;
+import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.resource.MethodResource;
+
+/**
+ * <p>
+ * An {@link InvocationHandler} authorizing the invocations of a proxy before forwarding them to the target. Each invocation
+ * is decided by an {@link AuthorizationManager}, usually a {@link MethodAuthorizationManager}, for the subject of the
+ * {@link PicketBoxSecurityContext} associated with the calling thread. Denied invocations throw a
+ * {@link SecurityException}.
+ * </p>
+ * <p>
+ * The methods declared by {@link Object}, such as <code>equals</code>, are not authorized.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class MethodAuthorizationInterceptor implements InvocationHandler {
+
+    private final Object target;
+
+    private final AuthorizationManager authorizationManager;
+
+    public MethodAuthorizationInterceptor(Object target, AuthorizationManager authorizationManager) {
+        if (target == null) {
+            throw MESSAGES.invalidNullArgument("target");
+        }
+
+        if (authorizationManager == null) {
+            throw MESSAGES.invalidNullArgument("authorizationManager");
+        }
+
+        this.target = target;
+        this.authorizationManager = authorizationManager;
+    }
+
+    /**
+     * Create a proxy authorizing the invocations of the given interface on the target
+     *
+     * @param target
+     * @param type
+     * @param authorizationManager
+     * @return
+     */
+    public static <T> T secure(T target, Class<T> type, AuthorizationManager authorizationManager) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                new MethodAuthorizationInterceptor(target, authorizationManager)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() != Object.class) {
+            PicketBoxSecurityContext securityContext = PicketBoxSecurityContextAssociation.getSecurityContext();
+            MethodResource resource = new MethodResource(method, this.target, args);
+
+            if (!this.authorizationManager.authorize(resource, securityContext == null ? null : securityContext.getSubject())) {
+                throw MESSAGES.methodAccessDenied(resource.toString());
+            }
+        }
+
+        try {
+            return method.invoke(this.target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.impl;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.CacheableAuthorizationManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.annotation.DenyAll;
+import org.picketbox.core.authorization.annotation.PermitAll;
+import org.picketbox.core.authorization.annotation.RolesAllowed;
+import org.picketbox.core.authorization.resource.MethodResource;
+import org.picketbox.core.exceptions.AuthorizationException;
+import org.picketbox.core.identity.RoleSet;
+
+/**
+ * <p>
+ * An {@link AuthorizationManager} deciding {@link MethodResource} instances with the {@link RolesAllowed},
+ * {@link PermitAll} and {@link DenyAll} annotations. The annotations of the method take precedence over the ones of its
+ * class, and the annotations of the class of the target over the ones of the interface the method was invoked through.
+ * Methods without annotations are decided by {@link #setDefaultPermit(boolean)}. Other resources, and method resources
+ * without their {@link Method} such as deserialized ones, are denied.
+ * </p>
+ * <p>
+ * The annotations of a method are read on its first invocation and compiled into a requirement cached by class and
+ * method, so the following invocations only test the {@link RoleSet} of the subject. The cache is cleared by
+ * {@link #stop()}. See {@link MethodAuthorizationInterceptor} to secure the methods of an object.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class MethodAuthorizationManager implements CacheableAuthorizationManager {
+
+    /**
+     * The role allowing any authenticated user
+     */
+    public static final String ANY_AUTHENTICATED = "*";
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, Requirement>> requirements =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, Requirement>>();
+
+    private volatile boolean defaultPermit = true;
+
+    private volatile boolean started;
+    private boolean stopped = true;
+
+    /**
+     * Permit the methods without annotations. Default is true.
+     *
+     * @param defaultPermit
+     */
+    public void setDefaultPermit(boolean defaultPermit) {
+        this.defaultPermit = defaultPermit;
+    }
+
+    /**
+     * Get the number of methods whose requirement is cached
+     *
+     * @return
+     */
+    public int getCachedMethodCount() {
+        int count = 0;
+
+        for (ConcurrentMap<Method, Requirement> methods : this.requirements.values()) {
+            count += methods.size();
+        }
+
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.authorization.AuthorizationManager#authorize(org.picketbox.core.authorization.Resource,
+     * org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+        if (!this.started) {
+            throw MESSAGES.authorizationManagerNotStarted();
+        }
+
+        boolean authorized = getRequirement(resource).permits(subject, this.defaultPermit);
+
+        resource.setAuthorized(authorized);
+
+        return authorized;
+    }
+
+    /**
+     * Methods with the same requirement are decided alike, the requirement is the key.
+     *
+     * @see org.picketbox.core.authorization.CacheableAuthorizationManager#getDecisionKey(org.picketbox.core.authorization.Resource)
+     */
+    @Override
+    public Object getDecisionKey(Resource resource) {
+        return this.started ? getRequirement(resource) : null;
+    }
+
+    private Requirement getRequirement(Resource resource) {
+        // only the invocation of a known method can be checked against its annotations
+        if (!(resource instanceof MethodResource)) {
+            return Requirement.DENY_ALL;
+        }
+
+        MethodResource invocation = (MethodResource) resource;
+        Method method = invocation.getMethod();
+
+        if (method == null) {
+            return Requirement.DENY_ALL;
+        }
+
+        Class<?> type = invocation.getTarget() == null ? method.getDeclaringClass() : invocation.getTarget().getClass();
+        ConcurrentMap<Method, Requirement> methods = this.requirements.get(type);
+
+        if (methods == null) {
+            methods = new ConcurrentHashMap<Method, Requirement>();
+
+            ConcurrentMap<Method, Requirement> existing = this.requirements.putIfAbsent(type, methods);
+
+            if (existing != null) {
+                methods = existing;
+            }
+        }
+
+        Requirement requirement = methods.get(method);
+
+        if (requirement == null) {
+            requirement = resolve(type, method);
+            methods.put(method, requirement);
+        }
+
+        return requirement;
+    }
+
+    /**
+     * Read the annotations of a method invoked on an instance of the given type
+     */
+    private Requirement resolve(Class<?> type, Method method) {
+        Method implementation = method;
+
+        if (type != method.getDeclaringClass()) {
+            try {
+                implementation = type.getMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                implementation = method;
+            }
+        }
+
+        AnnotatedElement[] elements = new AnnotatedElement[] { implementation, method, type, method.getDeclaringClass() };
+
+        for (AnnotatedElement element : elements) {
+            Requirement requirement = Requirement.of(element);
+
+            if (requirement != null) {
+                return requirement;
+            }
+        }
+
+        return Requirement.UNANNOTATED;
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    @Override
+    public void start() {
+        this.started = true;
+        this.stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        this.requirements.clear();
+        this.started = false;
+        this.stopped = true;
+    }
+
+    /**
+     * The compiled annotations of a method
+     */
+    private static final class Requirement {
+        private static final Requirement UNANNOTATED = new Requirement(false, false, false, null);
+        private static final Requirement PERMIT_ALL = new Requirement(true, true, false, null);
+        private static final Requirement DENY_ALL = new Requirement(true, false, false, null);
+
+        private final boolean annotated;
+        private final boolean permitAll;
+        private final boolean anyAuthenticated;
+        private final RoleSet roles;
+
+        private Requirement(boolean annotated, boolean permitAll, boolean anyAuthenticated, RoleSet roles) {
+            this.annotated = annotated;
+            this.permitAll = permitAll;
+            this.anyAuthenticated = anyAuthenticated;
+            this.roles = roles;
+        }
+
+        /**
+         * Compile the annotations of a method or a class, null if it has none
+         */
+        static Requirement of(AnnotatedElement element) {
+            if (element.isAnnotationPresent(DenyAll.class)) {
+                return DENY_ALL;
+            }
+
+            if (element.isAnnotationPresent(PermitAll.class)) {
+                return PERMIT_ALL;
+            }
+
+            RolesAllowed rolesAllowed = element.getAnnotation(RolesAllowed.class);
+
+            if (rolesAllowed == null) {
+                return null;
+            }
+
+            Set<String> roles = new LinkedHashSet<String>();
+
+            for (String role : rolesAllowed.value()) {
+                roles.add(role);
+            }
+
+            boolean anyAuthenticated = roles.remove(ANY_AUTHENTICATED);
+
+            return new Requirement(true, false, anyAuthenticated, RoleSet.of(roles));
+        }
+
+        boolean permits(PicketBoxSubject subject, boolean defaultPermit) {
+            if (!this.annotated) {
+                return defaultPermit;
+            }
+
+            if (this.roles == null) {
+                return this.permitAll;
+            }
+
+            if (subject == null) {
+                return false;
+            }
+
+            return this.anyAuthenticated || subject.getRoleSet().intersects(this.roles);
+        }
+    }
+}
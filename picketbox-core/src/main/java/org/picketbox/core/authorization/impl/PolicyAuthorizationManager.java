@@ -0,0 +1,953 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.impl;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.jboss.security.xacml.core.JBossPDP;
+import org.jboss.security.xacml.core.model.context.ActionType;
+import org.jboss.security.xacml.core.model.context.EnvironmentType;
+import org.jboss.security.xacml.core.model.context.RequestType;
+import org.jboss.security.xacml.core.model.context.ResourceType;
+import org.jboss.security.xacml.core.model.context.SubjectType;
+import org.jboss.security.xacml.factories.PolicyFactory;
+import org.jboss.security.xacml.factories.RequestAttributeFactory;
+import org.jboss.security.xacml.factories.RequestResponseContextFactory;
+import org.jboss.security.xacml.interfaces.PolicyDecisionPoint;
+import org.jboss.security.xacml.interfaces.PolicyLocator;
+import org.jboss.security.xacml.interfaces.RequestContext;
+import org.jboss.security.xacml.interfaces.XACMLConstants;
+import org.jboss.security.xacml.interfaces.XACMLPolicy;
+import org.jboss.security.xacml.locators.JBossPolicyLocator;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.CacheableAuthorizationManager;
+import org.picketbox.core.authorization.DescriptorAuthorizationManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.core.exceptions.AuthorizationException;
+import org.picketbox.core.http.RequestClassifier;
+import org.picketbox.core.identity.RoleSet;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * <p>
+ * An {@link AuthorizationManager} evaluating XACML 2.0 policies with the JBoss XACML {@link PolicyDecisionPoint}. Policies are
+ * either XACML documents added with {@link #addPolicy(InputStream)}, or simple policies added with
+ * {@link #addPolicy(Effect, String, Set, String...)} which are turned into XACML documents with a target made of a resource
+ * id, actions and subject roles. The policies that apply to a request are combined with the deny-overrides algorithm, and a
+ * request no policy applies to is decided by {@link #setDefaultPermit(boolean)}.
+ * </p>
+ * <p>
+ * {@link #start()} indexes the policies by the resource ids, actions and roles their targets match with
+ * <code>string-equal</code>. A decision looks up the candidate policies of its resource and action in two maps, skips the
+ * ones whose roles the subject does not have, and evaluates the others, each through its own PDP. The cost of a decision does
+ * not depend on the total number of policies. A target section the index does not understand, for instance another match
+ * function or attribute, matches any value as far as the index is concerned and the PDP decides. A policy is parsed by the
+ * PDP on its first evaluation.
+ * </p>
+ * <p>
+ * A request carries the roles of the subject as <code>urn:oasis:names:tc:xacml:2.0:subject:role</code>, the resource id as
+ * <code>urn:oasis:names:tc:xacml:1.0:resource:resource-id</code> and the action as
+ * <code>urn:oasis:names:tc:xacml:1.0:action:action-id</code>, all strings. The request contexts are cached by roles,
+ * resource id and action, see {@link #setRequestCacheSize(int)}.
+ * </p>
+ * <p>
+ * The resource id of a {@link WebResource} or a {@link WebResourceDescriptor} is its path relative to the context path,
+ * normalized by {@link RequestClassifier#normalize(String)}, and its action is the HTTP method, see
+ * {@link #getResourceId(Resource)} and {@link #getAction(Resource)}. A trailing slash is ignored, so a policy of
+ * <code>/admin</code> also applies to <code>/admin/</code>. The resource ids a policy document matches with
+ * <code>string-equal</code> are written without their trailing slash before the document reaches the PDP. Web requests
+ * whose path is rejected by the normalization are denied.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class PolicyAuthorizationManager implements CacheableAuthorizationManager, DescriptorAuthorizationManager {
+
+    /**
+     * The resource id or action matching any value
+     */
+    public static final String ANY = "*";
+
+    /**
+     * The attribute carrying the roles of the subject
+     */
+    public static final String ROLE = "urn:oasis:names:tc:xacml:2.0:subject:role";
+
+    /**
+     * The attribute carrying the resource id
+     */
+    public static final String RESOURCE_ID = "urn:oasis:names:tc:xacml:1.0:resource:resource-id";
+
+    /**
+     * The attribute carrying the action
+     */
+    public static final String ACTION_ID = "urn:oasis:names:tc:xacml:1.0:action:action-id";
+
+    private static final String POLICY_NAMESPACE = "urn:oasis:names:tc:xacml:2.0:policy:schema:os";
+
+    private static final String FIRST_APPLICABLE = "urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable";
+
+    private static final String STRING_EQUAL = "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+
+    private static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int DEFAULT_REQUEST_CACHE_SIZE = 1024;
+
+    private static final Policy[] NO_POLICIES = new Policy[0];
+
+    /**
+     * The effect of a policy
+     */
+    public enum Effect {
+        PERMIT, DENY
+    }
+
+    private final List<Policy> policies = new ArrayList<Policy>();
+
+    /**
+     * Candidates of the web requests whose path is rejected by the normalization
+     */
+    private static final Candidates REJECTED = new Candidates(NO_POLICIES, NO_POLICIES, true);
+
+    private volatile Index index;
+
+    private volatile RequestContexts requestContexts;
+
+    private int requestCacheSize = DEFAULT_REQUEST_CACHE_SIZE;
+
+    private boolean defaultPermit;
+
+    private boolean started;
+    private boolean stopped = true;
+
+    /**
+     * Add a policy. Takes effect on the next {@link #start()}.
+     *
+     * @param effect
+     * @param resourceId the resource id, or {@link #ANY}
+     * @param actions the actions, or null for any action
+     * @param roles the roles the policy applies to, none for any subject
+     */
+    public void addPolicy(Effect effect, String resourceId, Set<String> actions, String... roles) {
+        if (effect == null) {
+            throw MESSAGES.invalidNullArgument("effect");
+        }
+
+        if (resourceId == null) {
+            throw MESSAGES.invalidNullArgument("resourceId");
+        }
+
+        // applies to no action at all
+        if (actions != null && actions.isEmpty()) {
+            return;
+        }
+
+        resourceId = trimTrailingSlash(resourceId);
+        actions = actions == null || actions.contains(ANY) ? null : new HashSet<String>(actions);
+
+        synchronized (this.policies) {
+            String policyId = "urn:picketbox:policy:" + this.policies.size();
+
+            this.policies.add(new Policy(resourceId.equals(ANY) ? null : Collections.singleton(resourceId), actions,
+                    roles.length == 0 ? null : RoleSet.of(roles), toXACML(policyId, effect, resourceId, actions, roles), true));
+        }
+    }
+
+    /**
+     * Add an XACML 2.0 policy document. Takes effect on the next {@link #start()}. The document is indexed on the
+     * <code>string-equal</code> matches of its target, and parsed by the PDP when it is first evaluated. A trailing slash
+     * is removed from the resource ids matched with <code>string-equal</code>, like it is from the requests.
+     *
+     * @param policy
+     * @throws IllegalArgumentException if the document is not a policy
+     */
+    public void addPolicy(InputStream policy) {
+        if (policy == null) {
+            throw MESSAGES.invalidNullArgument("policy");
+        }
+
+        byte[] document;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = policy.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+
+            document = bytes.toByteArray();
+        } catch (IOException e) {
+            throw MESSAGES.invalidXACMLPolicy(e);
+        }
+
+        Element root = readPolicy(document);
+
+        // the PDP compares the resource ids as they are written
+        if (trimResourceIds(root)) {
+            document = write(root.getOwnerDocument());
+        }
+
+        Element target = getChild(root, "Target");
+        Set<String> resourceIds = getMatchedValues(target, "Resources", "ResourceAttributeDesignator", RESOURCE_ID);
+        Set<String> roles = getMatchedValues(target, "Subjects", "SubjectAttributeDesignator", ROLE);
+
+        synchronized (this.policies) {
+            this.policies.add(new Policy(resourceIds, getMatchedValues(target, "Actions", "ActionAttributeDesignator",
+                    ACTION_ID), roles == null ? null : RoleSet.of(roles), document, false));
+        }
+    }
+
+    /**
+     * Permit the requests no policy applies to. Default is false.
+     *
+     * @param defaultPermit
+     */
+    public void setDefaultPermit(boolean defaultPermit) {
+        this.defaultPermit = defaultPermit;
+    }
+
+    /**
+     * Set how many request contexts are cached, the least recently used are dropped beyond that. Takes effect on the next
+     * {@link #start()}. Default is 1024.
+     *
+     * @param requestCacheSize
+     */
+    public void setRequestCacheSize(int requestCacheSize) {
+        this.requestCacheSize = requestCacheSize;
+    }
+
+    /**
+     * Get the id of a resource, null if unknown or if the path of a web request is rejected by the normalization
+     *
+     * @param resource
+     * @return
+     */
+    protected String getResourceId(Resource resource) {
+        if (resource instanceof WebResourceDescriptor) {
+            return ((WebResourceDescriptor) resource).getPath();
+        }
+
+        if (resource instanceof WebResource) {
+            HttpServletRequest request = ((WebResource) resource).getRequest();
+
+            return request == null ? null : RequestClassifier.getPath(request);
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the action performed on a resource, null if unknown
+     *
+     * @param resource
+     * @return
+     */
+    protected String getAction(Resource resource) {
+        if (resource instanceof WebResourceDescriptor) {
+            return ((WebResourceDescriptor) resource).getMethod();
+        }
+
+        if (resource instanceof WebResource) {
+            HttpServletRequest request = ((WebResource) resource).getRequest();
+
+            return request == null ? null : request.getMethod();
+        }
+
+        return null;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketbox.core.authorization.AuthorizationManager#authorize(org.picketbox.core.authorization.Resource,
+     * org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+        Index index = this.index;
+        RequestContexts requestContexts = this.requestContexts;
+
+        if (index == null || requestContexts == null) {
+            throw MESSAGES.authorizationManagerNotStarted();
+        }
+
+        String resourceId = getResourceId(resource);
+        String action = getAction(resource);
+        Candidates candidates = candidates(index, resource, resourceId, action);
+
+        boolean authorized = candidates.decide(new Request(requestContexts, subject == null ? null : subject.getRoleSet(),
+                resourceId == null ? "" : trimTrailingSlash(resourceId), action == null ? "" : action), this.defaultPermit);
+
+        resource.setAuthorized(authorized);
+
+        return authorized;
+    }
+
+    /**
+     * Resources with the same candidate policies are decided alike when the index fully describes their targets, the
+     * candidates are the key. Otherwise the resource id and action are part of the key.
+     *
+     * @see org.picketbox.core.authorization.CacheableAuthorizationManager#getDecisionKey(org.picketbox.core.authorization.Resource)
+     */
+    @Override
+    public Object getDecisionKey(Resource resource) {
+        Index index = this.index;
+
+        if (index == null) {
+            return null;
+        }
+
+        String resourceId = getResourceId(resource);
+        String action = getAction(resource);
+        Candidates candidates = candidates(index, resource, resourceId, action);
+
+        if (candidates.exact) {
+            return candidates;
+        }
+
+        return Arrays.asList(candidates, resourceId == null ? null : trimTrailingSlash(resourceId), action);
+    }
+
+    private Candidates candidates(Index index, Resource resource, String resourceId, String action) {
+        if (resourceId == null && resource instanceof WebResource) {
+            return REJECTED;
+        }
+
+        ActionIndex actions = resourceId == null ? null : index.resources.get(trimTrailingSlash(resourceId));
+
+        if (actions == null) {
+            actions = index.anyResource;
+        }
+
+        return actions.get(action);
+    }
+
+    private static String trimTrailingSlash(String resourceId) {
+        if (resourceId.length() > 1 && resourceId.endsWith("/")) {
+            return resourceId.substring(0, resourceId.length() - 1);
+        }
+
+        return resourceId;
+    }
+
+    /**
+     * Write a policy with a single rule as an XACML document
+     */
+    private static byte[] toXACML(String policyId, Effect effect, String resourceId, Set<String> actions, String[] roles) {
+        StringBuilder xml = new StringBuilder();
+
+        xml.append("<Policy xmlns=\"").append(POLICY_NAMESPACE).append("\" PolicyId=\"").append(policyId)
+                .append("\" RuleCombiningAlgId=\"").append(FIRST_APPLICABLE).append("\"><Target>");
+
+        if (roles.length > 0) {
+            xml.append("<Subjects>");
+
+            for (String role : roles) {
+                appendMatch(xml, "Subject", ROLE, role);
+            }
+
+            xml.append("</Subjects>");
+        }
+
+        if (!resourceId.equals(ANY)) {
+            xml.append("<Resources>");
+            appendMatch(xml, "Resource", RESOURCE_ID, resourceId);
+            xml.append("</Resources>");
+        }
+
+        if (actions != null) {
+            xml.append("<Actions>");
+
+            for (String action : actions) {
+                appendMatch(xml, "Action", ACTION_ID, action);
+            }
+
+            xml.append("</Actions>");
+        }
+
+        xml.append("</Target><Rule RuleId=\"").append(policyId).append(":rule\" Effect=\"")
+                .append(effect == Effect.PERMIT ? "Permit" : "Deny").append("\"/></Policy>");
+
+        return xml.toString().getBytes(UTF_8);
+    }
+
+    private static void appendMatch(StringBuilder xml, String element, String attributeId, String value) {
+        xml.append('<').append(element).append("><").append(element).append("Match MatchId=\"").append(STRING_EQUAL)
+                .append("\"><AttributeValue DataType=\"").append(STRING).append("\">").append(escape(value))
+                .append("</AttributeValue><").append(element).append("AttributeDesignator AttributeId=\"").append(attributeId)
+                .append("\" DataType=\"").append(STRING).append("\"/></").append(element).append("Match></").append(element)
+                .append('>');
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    /**
+     * Get the root of a policy document
+     */
+    private static Element readPolicy(byte[] document) {
+        Element root;
+
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+
+            root = factory.newDocumentBuilder().parse(new ByteArrayInputStream(document)).getDocumentElement();
+        } catch (Exception e) {
+            throw MESSAGES.invalidXACMLPolicy(e);
+        }
+
+        if (!"Policy".equals(root.getLocalName())) {
+            throw MESSAGES.invalidXACMLPolicy(null);
+        }
+
+        return root;
+    }
+
+    /**
+     * Remove the trailing slash of the resource ids matched with <code>string-equal</code>, in the targets of the policy
+     * and of its rules
+     *
+     * @return true if the document was changed
+     */
+    private static boolean trimResourceIds(Element root) {
+        boolean changed = false;
+        NodeList matches = root.getElementsByTagNameNS("*", "ResourceMatch");
+
+        for (int i = 0; i < matches.getLength(); i++) {
+            Element match = (Element) matches.item(i);
+            Element designatorElement = getChild(match, "ResourceAttributeDesignator");
+            Element valueElement = getChild(match, "AttributeValue");
+
+            if (STRING_EQUAL.equals(match.getAttribute("MatchId")) && designatorElement != null && valueElement != null
+                    && RESOURCE_ID.equals(designatorElement.getAttribute("AttributeId"))) {
+                String value = valueElement.getTextContent();
+                String trimmed = trimTrailingSlash(value.trim());
+
+                if (!trimmed.equals(value)) {
+                    valueElement.setTextContent(trimmed);
+                    changed = true;
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    private static byte[] write(Document document) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try {
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(bytes));
+        } catch (Exception e) {
+            throw MESSAGES.invalidXACMLPolicy(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Get the values a section of a target matches with <code>string-equal</code> on an attribute
+     *
+     * @return the values, or null if the section may match any value
+     */
+    private static Set<String> getMatchedValues(Element target, String section, String designator, String attributeId) {
+        Element sectionElement = target == null ? null : getChild(target, section);
+
+        if (sectionElement == null) {
+            return null;
+        }
+
+        Set<String> values = new HashSet<String>();
+
+        // the alternatives of the section, each one is a conjunction of matches
+        for (Element alternative : getChildren(sectionElement)) {
+            String value = null;
+
+            for (Element match : getChildren(alternative)) {
+                Element designatorElement = getChild(match, designator);
+                Element valueElement = getChild(match, "AttributeValue");
+
+                if (STRING_EQUAL.equals(match.getAttribute("MatchId")) && designatorElement != null && valueElement != null
+                        && attributeId.equals(designatorElement.getAttribute("AttributeId"))) {
+                    value = valueElement.getTextContent().trim();
+                }
+            }
+
+            if (value == null) {
+                return null;
+            }
+
+            values.add(value);
+        }
+
+        return values.isEmpty() ? null : values;
+    }
+
+    private static Element getChild(Element element, String localName) {
+        for (Element child : getChildren(element)) {
+            if (localName.equals(child.getLocalName())) {
+                return child;
+            }
+        }
+
+        return null;
+    }
+
+    private static List<Element> getChildren(Element element) {
+        List<Element> children = new ArrayList<Element>();
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                children.add((Element) child);
+            }
+        }
+
+        return children;
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    /**
+     * Index the policies
+     *
+     * @see org.picketbox.core.PicketBoxLifecycle#start()
+     */
+    @Override
+    public void start() {
+        Map<String, List<Policy>> byResource = new HashMap<String, List<Policy>>();
+        List<Policy> anyResource = new ArrayList<Policy>();
+
+        synchronized (this.policies) {
+            for (Policy policy : this.policies) {
+                if (policy.resourceIds == null) {
+                    anyResource.add(policy);
+                    continue;
+                }
+
+                for (String resourceId : policy.resourceIds) {
+                    List<Policy> resourcePolicies = byResource.get(resourceId);
+
+                    if (resourcePolicies == null) {
+                        resourcePolicies = new ArrayList<Policy>();
+                        byResource.put(resourceId, resourcePolicies);
+                    }
+
+                    resourcePolicies.add(policy);
+                }
+            }
+        }
+
+        ActionIndex anyResourceIndex = new ActionIndex(anyResource, null);
+        Map<String, ActionIndex> resources = new HashMap<String, ActionIndex>(byResource.size() * 4 / 3 + 1);
+
+        for (Map.Entry<String, List<Policy>> resourcePolicies : byResource.entrySet()) {
+            resources.put(resourcePolicies.getKey(), new ActionIndex(resourcePolicies.getValue(), anyResourceIndex));
+        }
+
+        this.requestContexts = new RequestContexts(this.requestCacheSize);
+        this.index = new Index(resources, anyResourceIndex);
+        this.started = true;
+        this.stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        this.index = null;
+        this.requestContexts = null;
+        this.started = false;
+        this.stopped = true;
+    }
+
+    /**
+     * A policy, the values its target matches and its PDP
+     */
+    private static class Policy {
+        private final Set<String> resourceIds;
+        private final Set<String> actions;
+        private final RoleSet roles;
+        private final byte[] document;
+
+        /**
+         * Is the policy decided by its indexed target alone?
+         */
+        private final boolean exact;
+
+        private volatile PolicyDecisionPoint pdp;
+
+        Policy(Set<String> resourceIds, Set<String> actions, RoleSet roles, byte[] document, boolean exact) {
+            this.resourceIds = resourceIds;
+            this.actions = actions;
+            this.roles = roles;
+            this.document = document;
+            this.exact = exact;
+        }
+
+        boolean appliesTo(String action) {
+            return this.actions == null || this.actions.contains(action);
+        }
+
+        boolean mayApplyTo(RoleSet subjectRoles) {
+            return this.roles == null || (subjectRoles != null && subjectRoles.intersects(this.roles));
+        }
+
+        int evaluate(RequestContext request) {
+            return getPDP().evaluate(request).getDecision();
+        }
+
+        private PolicyDecisionPoint getPDP() {
+            PolicyDecisionPoint pdp = this.pdp;
+
+            if (pdp == null) {
+                synchronized (this) {
+                    pdp = this.pdp;
+
+                    if (pdp == null) {
+                        XACMLPolicy policy;
+
+                        try {
+                            policy = PolicyFactory.createPolicy(new ByteArrayInputStream(this.document));
+                        } catch (Exception e) {
+                            throw MESSAGES.authorizationFailed(e);
+                        }
+
+                        Set<XACMLPolicy> policies = new HashSet<XACMLPolicy>();
+                        policies.add(policy);
+
+                        PolicyLocator locator = new JBossPolicyLocator();
+                        locator.setPolicies(policies);
+
+                        Set<PolicyLocator> locators = new HashSet<PolicyLocator>();
+                        locators.add(locator);
+
+                        pdp = new JBossPDP();
+                        pdp.setPolicies(policies);
+                        pdp.setLocators(locators);
+
+                        this.pdp = pdp;
+                    }
+                }
+            }
+
+            return pdp;
+        }
+    }
+
+    /**
+     * A decision request, its context is only built if a candidate policy has to be evaluated
+     */
+    private static class Request {
+        private final RequestContexts requestContexts;
+        private final RoleSet roles;
+        private final String resourceId;
+        private final String action;
+        private RequestContext context;
+
+        Request(RequestContexts requestContexts, RoleSet roles, String resourceId, String action) {
+            this.requestContexts = requestContexts;
+            this.roles = roles;
+            this.resourceId = resourceId;
+            this.action = action;
+        }
+
+        RequestContext getContext() {
+            if (this.context == null) {
+                this.context = this.requestContexts.get(this.roles, this.resourceId, this.action);
+            }
+
+            return this.context;
+        }
+    }
+
+    /**
+     * The request contexts, built from the roles, resource id and action and cached with a least recently used policy
+     */
+    private static class RequestContexts {
+        private final Map<List<Object>, RequestContext> cache;
+
+        RequestContexts(final int maxEntries) {
+            this.cache = new LinkedHashMap<List<Object>, RequestContext>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, RequestContext> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        RequestContext get(RoleSet roles, String resourceId, String action) {
+            List<Object> key = Arrays.<Object> asList(roles, resourceId, action);
+            RequestContext context;
+
+            synchronized (this.cache) {
+                context = this.cache.get(key);
+            }
+
+            if (context == null) {
+                context = create(roles, resourceId, action);
+
+                synchronized (this.cache) {
+                    this.cache.put(key, context);
+                }
+            }
+
+            return context;
+        }
+
+        private static RequestContext create(RoleSet roles, String resourceId, String action) {
+            SubjectType subject = new SubjectType();
+
+            if (roles != null) {
+                for (String role : roles.getRoleNames()) {
+                    subject.getAttribute().add(RequestAttributeFactory.createStringAttributeType(ROLE, null, role));
+                }
+            }
+
+            ResourceType resource = new ResourceType();
+            resource.getAttribute().add(RequestAttributeFactory.createStringAttributeType(RESOURCE_ID, null, resourceId));
+
+            ActionType actionType = new ActionType();
+            actionType.getAttribute().add(RequestAttributeFactory.createStringAttributeType(ACTION_ID, null, action));
+
+            RequestType request = new RequestType();
+            request.getSubject().add(subject);
+            request.getResource().add(resource);
+            request.setAction(actionType);
+            request.setEnvironment(new EnvironmentType());
+
+            RequestContext context = RequestResponseContextFactory.createRequestCtx();
+
+            try {
+                context.setRequest(request);
+            } catch (IOException e) {
+                throw MESSAGES.authorizationFailed(e);
+            }
+
+            return context;
+        }
+    }
+
+    /**
+     * The policies that may apply to a resource and action, the ones of the resource and the ones of any resource
+     */
+    private static class Candidates {
+        private final Policy[] policies;
+        private final Policy[] anyResource;
+        private final boolean denied;
+        private final boolean exact;
+
+        Candidates(Policy[] policies, Policy[] anyResource, boolean denied) {
+            this.policies = policies;
+            this.anyResource = anyResource;
+            this.denied = denied;
+            this.exact = isExact(policies) && isExact(anyResource);
+        }
+
+        /**
+         * Combine the policies applying to the request, deny overrides
+         */
+        boolean decide(Request request, boolean defaultPermit) {
+            if (this.denied) {
+                return false;
+            }
+
+            int resource = decide(this.policies, request);
+
+            if (resource < 0) {
+                return false;
+            }
+
+            int anyResource = decide(this.anyResource, request);
+
+            if (anyResource < 0) {
+                return false;
+            }
+
+            return resource > 0 || anyResource > 0 || defaultPermit;
+        }
+
+        /**
+         * @return -1 if a policy denies, 1 if a policy permits, 0 if no policy applies
+         */
+        private static int decide(Policy[] policies, Request request) {
+            int applicable = 0;
+
+            for (Policy policy : policies) {
+                if (!policy.mayApplyTo(request.roles)) {
+                    continue;
+                }
+
+                int decision = policy.evaluate(request.getContext());
+
+                if (decision == XACMLConstants.DECISION_PERMIT) {
+                    applicable = 1;
+                } else if (decision != XACMLConstants.DECISION_NOT_APPLICABLE) {
+                    // deny, or indeterminate which deny-overrides treats as a deny
+                    return -1;
+                }
+            }
+
+            return applicable;
+        }
+
+        private static boolean isExact(Policy[] policies) {
+            for (Policy policy : policies) {
+                if (!policy.exact) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * The candidate policies of a resource, by action. The policies of any resource are shared, not copied.
+     */
+    private static class ActionIndex {
+        private final Map<String, Candidates> actions = new HashMap<String, Candidates>();
+        private final Candidates otherActions;
+
+        ActionIndex(List<Policy> policies, ActionIndex anyResource) {
+            Set<String> names = new HashSet<String>();
+
+            for (Policy policy : policies) {
+                if (policy.actions != null) {
+                    names.addAll(policy.actions);
+                }
+            }
+
+            if (anyResource != null) {
+                names.addAll(anyResource.actions.keySet());
+            }
+
+            for (String name : names) {
+                Candidates shared = anyResource == null ? null : anyResource.get(name);
+
+                this.actions.put(name, new Candidates(select(policies, name), shared == null ? NO_POLICIES : shared.policies,
+                        false));
+            }
+
+            this.otherActions = new Candidates(select(policies, null), anyResource == null ? NO_POLICIES
+                    : anyResource.otherActions.policies, false);
+        }
+
+        Candidates get(String action) {
+            Candidates candidates = action == null ? null : this.actions.get(action);
+
+            return candidates == null ? this.otherActions : candidates;
+        }
+
+        /**
+         * Select the policies applying to an action, or to any action if null
+         */
+        private static Policy[] select(List<Policy> policies, String action) {
+            List<Policy> selected = new ArrayList<Policy>();
+
+            for (Policy policy : policies) {
+                if (action == null ? policy.actions == null : policy.appliesTo(action)) {
+                    selected.add(policy);
+                }
+            }
+
+            return selected.isEmpty() ? NO_POLICIES : selected.toArray(new Policy[selected.size()]);
+        }
+    }
+
+    /**
+     * The compiled policies
+     */
+    private static class Index {
+        private final Map<String, ActionIndex> resources;
+        private final ActionIndex anyResource;
+
+        Index(Map<String, ActionIndex> resources, ActionIndex anyResource) {
+            this.resources = resources;
+            this.anyResource = anyResource;
+        }
+    }
+}
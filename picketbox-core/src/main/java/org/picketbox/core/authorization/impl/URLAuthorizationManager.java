@@ -0,0 +1,353 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.impl;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.BulkAuthorizationManager;
+import org.picketbox.core.authorization.CacheableAuthorizationManager;
+import org.picketbox.core.authorization.DescriptorAuthorizationManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.core.exceptions.AuthorizationException;
+import org.picketbox.core.http.RequestClassifier;
+import org.picketbox.core.identity.RoleSet;
+import org.picketbox.core.util.PathPatternMatcher;
+
+/**
+ * <p>
+ * An {@link AuthorizationManager} that decides {@link WebResource} instances from URL constraints, each one made of a path
+ * pattern, optional HTTP methods and the roles allowed to access the matching requests. See {@link PathPatternMatcher} for
+ * the pattern syntax and precedence.
+ * </p>
+ * <p>
+ * Constraints can be configured from a string with entries separated by commas:
+ * <code>/admin/*=admin, GET|HEAD /reports/*=manager|auditor, /account/*=*, /closed/*=</code>. <code>*</code> allows any
+ * authenticated user and an empty role list denies everyone. Requests matching no constraint are denied unless
+ * {@link #setDefaultPermit(boolean)} says otherwise.
+ * </p>
+ * <p>
+ * Constraints are matched against the request path normalized by {@link RequestClassifier#normalize(String)}, so path
+ * parameters, percent-encoding and dot segments cannot be used to escape them. Requests whose path is rejected by the
+ * normalization are denied.
+ * </p>
+ * <p>
+ * The constraints are compiled into a path trie by {@link #start()}, so a decision costs one pass over the request path and a
+ * few role lookups.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class URLAuthorizationManager implements CacheableAuthorizationManager, BulkAuthorizationManager,
+        DescriptorAuthorizationManager {
+
+    private static final String ANY_AUTHENTICATED = "*";
+
+    /**
+     * Decision key of the resources matching no constraint
+     */
+    private static final Object UNCONSTRAINED = new Object();
+
+    /**
+     * Constraint of the requests whose path is rejected by the normalization
+     */
+    private static final Constraint REJECTED = new Constraint(new String[0]);
+
+    private final List<ConstraintDefinition> definitions = new ArrayList<ConstraintDefinition>();
+
+    private volatile PathPatternMatcher<Constraint> matcher;
+
+    private boolean defaultPermit;
+
+    private boolean started = false;
+
+    private boolean stopped = true;
+
+    /**
+     * Add a constraint. Takes effect on the next {@link #start()}.
+     *
+     * @param pattern the path pattern, relative to the context path
+     * @param methods the HTTP methods the constraint applies to, or null for all methods
+     * @param roles the roles allowed, <code>*</code> for any authenticated user, none to deny everyone
+     */
+    public void addConstraint(String pattern, Set<String> methods, String... roles) {
+        synchronized (this.definitions) {
+            this.definitions.add(new ConstraintDefinition(pattern, methods, roles));
+        }
+    }
+
+    /**
+     * Add the constraints of a configuration string. See the class documentation for the syntax.
+     *
+     * @param config
+     */
+    public void addConstraints(String config) {
+        if (config == null) {
+            return;
+        }
+
+        for (String entry : config.split(",")) {
+            entry = entry.trim();
+
+            if (entry.isEmpty()) {
+                continue;
+            }
+
+            int equals = entry.lastIndexOf('=');
+
+            if (equals <= 0) {
+                throw MESSAGES.invalidAuthorizationConstraint(entry);
+            }
+
+            String target = entry.substring(0, equals).trim();
+            List<String> roles = new ArrayList<String>();
+
+            for (String role : entry.substring(equals + 1).split("\\|")) {
+                if (!role.trim().isEmpty()) {
+                    roles.add(role.trim());
+                }
+            }
+
+            int separator = target.lastIndexOf(' ');
+            Set<String> methods = null;
+
+            if (separator >= 0) {
+                methods = new HashSet<String>();
+
+                for (String method : target.substring(0, separator).split("\\|")) {
+                    if (!method.trim().isEmpty()) {
+                        methods.add(method.trim());
+                    }
+                }
+
+                target = target.substring(separator + 1);
+            }
+
+            addConstraint(target, methods, roles.toArray(new String[roles.size()]));
+        }
+    }
+
+    /**
+     * Permit the requests that match no constraint. Default is false.
+     *
+     * @param defaultPermit
+     */
+    public void setDefaultPermit(boolean defaultPermit) {
+        this.defaultPermit = defaultPermit;
+    }
+
+    /**
+     * Decide a {@link WebResource} or a {@link WebResourceDescriptor}. Other resources are decided by the default permission.
+     *
+     * @see org.picketbox.core.authorization.AuthorizationManager#authorize(org.picketbox.core.authorization.Resource,
+     *      org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+        PathPatternMatcher<Constraint> matcher = this.matcher;
+
+        if (matcher == null) {
+            throw MESSAGES.authorizationManagerNotStarted();
+        }
+
+        Constraint constraint = match(matcher, resource);
+        boolean authorized = constraint == null ? this.defaultPermit : constraint.permits(subject);
+
+        resource.setAuthorized(authorized);
+
+        return authorized;
+    }
+
+    /**
+     * Each constraint matched by the resources is evaluated once.
+     *
+     * @see org.picketbox.core.authorization.BulkAuthorizationManager#authorize(java.util.Collection,
+     *      org.picketbox.core.PicketBoxSubject)
+     */
+    @Override
+    public BitSet authorize(Collection<? extends Resource> resources, PicketBoxSubject subject) throws AuthorizationException {
+        PathPatternMatcher<Constraint> matcher = this.matcher;
+
+        if (matcher == null) {
+            throw MESSAGES.authorizationManagerNotStarted();
+        }
+
+        BitSet decisions = new BitSet(resources.size());
+        Map<Constraint, Boolean> evaluated = new IdentityHashMap<Constraint, Boolean>();
+        int index = 0;
+
+        for (Resource resource : resources) {
+            Constraint constraint = match(matcher, resource);
+            boolean authorized = this.defaultPermit;
+
+            if (constraint != null) {
+                Boolean decision = evaluated.get(constraint);
+
+                if (decision == null) {
+                    decision = constraint.permits(subject);
+                    evaluated.put(constraint, decision);
+                }
+
+                authorized = decision;
+            }
+
+            resource.setAuthorized(authorized);
+            decisions.set(index++, authorized);
+        }
+
+        return decisions;
+    }
+
+    /**
+     * Resources matching the same constraint are decided alike, the matched constraint is the key.
+     *
+     * @see org.picketbox.core.authorization.CacheableAuthorizationManager#getDecisionKey(org.picketbox.core.authorization.Resource)
+     */
+    @Override
+    public Object getDecisionKey(Resource resource) {
+        PathPatternMatcher<Constraint> matcher = this.matcher;
+
+        if (matcher == null) {
+            return null;
+        }
+
+        Constraint constraint = match(matcher, resource);
+
+        return constraint == null ? UNCONSTRAINED : constraint;
+    }
+
+    private Constraint match(PathPatternMatcher<Constraint> matcher, Resource resource) {
+        if (resource instanceof WebResourceDescriptor) {
+            WebResourceDescriptor descriptor = (WebResourceDescriptor) resource;
+
+            return matcher.match(descriptor.getPath(), 0, descriptor.getMethod());
+        }
+
+        if (!(resource instanceof WebResource)) {
+            return null;
+        }
+
+        HttpServletRequest request = ((WebResource) resource).getRequest();
+        String path = RequestClassifier.getPath(request);
+
+        if (path == null) {
+            return REJECTED;
+        }
+
+        return matcher.match(path, request.getMethod());
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    /**
+     * Compile the constraints
+     *
+     * @see org.picketbox.core.PicketBoxLifecycle#start()
+     */
+    @Override
+    public void start() {
+        PathPatternMatcher<Constraint> matcher = new PathPatternMatcher<Constraint>();
+
+        synchronized (this.definitions) {
+            for (ConstraintDefinition definition : this.definitions) {
+                matcher.add(definition.pattern, definition.methods, new Constraint(definition.roles));
+            }
+        }
+
+        this.matcher = matcher;
+        this.started = true;
+        this.stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        this.matcher = null;
+        this.started = false;
+        this.stopped = true;
+    }
+
+    private static class ConstraintDefinition {
+        private final String pattern;
+        private final Set<String> methods;
+        private final String[] roles;
+
+        ConstraintDefinition(String pattern, Set<String> methods, String[] roles) {
+            this.pattern = pattern;
+            this.methods = methods == null ? null : new HashSet<String>(methods);
+            this.roles = roles == null ? new String[0] : roles.clone();
+        }
+    }
+
+    /**
+     * A compiled constraint
+     */
+    private static class Constraint {
+        private final boolean anyAuthenticated;
+        private final RoleSet roles;
+
+        Constraint(String[] roles) {
+            Set<String> distinct = new LinkedHashSet<String>();
+
+            for (String role : roles) {
+                distinct.add(role);
+            }
+
+            this.anyAuthenticated = distinct.remove(ANY_AUTHENTICATED);
+            this.roles = RoleSet.of(distinct);
+        }
+
+        boolean permits(PicketBoxSubject subject) {
+            if (subject == null) {
+                return false;
+            }
+
+            if (this.anyAuthenticated) {
+                return true;
+            }
+
+            return subject.getRoleSet().intersects(this.roles);
+        }
+    }
+}
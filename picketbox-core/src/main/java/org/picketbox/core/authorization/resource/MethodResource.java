@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.resource;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+
+import org.picketbox.core.authorization.Resource;
+
+/**
+ * <p>
+ * An instance of {@link Resource} that represents the invocation of a method. The target and the arguments of the
+ * invocation are not serialized, only the class, name and parameter types of the method are. They are only computed when
+ * first needed, creating a resource costs no reflection.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class MethodResource extends AbstractPicketBoxResource {
+
+    private static final long serialVersionUID = -2813559148224736412L;
+
+    private String className;
+
+    private String methodName;
+
+    private String[] parameterTypes;
+
+    private final transient Method method;
+
+    private final transient Object target;
+
+    private final transient Object[] arguments;
+
+    public MethodResource(Method method, Object target, Object[] arguments) {
+        this.method = method;
+        this.target = target;
+        this.arguments = arguments;
+    }
+
+    private void describe() {
+        if (this.methodName != null) {
+            return;
+        }
+
+        Class<?>[] types = this.method.getParameterTypes();
+        String[] parameterTypes = new String[types.length];
+
+        for (int i = 0; i < types.length; i++) {
+            parameterTypes[i] = types[i].getName();
+        }
+
+        this.className = (this.target == null ? this.method.getDeclaringClass() : this.target.getClass()).getName();
+        this.parameterTypes = parameterTypes;
+        this.methodName = this.method.getName();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        describe();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Get the invoked method, null after deserialization
+     *
+     * @return
+     */
+    public Method getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Get the object the method is invoked on, null for static methods or after deserialization
+     *
+     * @return
+     */
+    public Object getTarget() {
+        return this.target;
+    }
+
+    /**
+     * Get the arguments of the invocation, null after deserialization
+     *
+     * @return
+     */
+    public Object[] getArguments() {
+        return this.arguments;
+    }
+
+    /**
+     * Get the name of the class of the target, or of the class declaring the method for static methods
+     *
+     * @return
+     */
+    public String getClassName() {
+        describe();
+        return this.className;
+    }
+
+    /**
+     * Get the name of the method
+     *
+     * @return
+     */
+    public String getMethodName() {
+        describe();
+        return this.methodName;
+    }
+
+    /**
+     * Get the names of the parameter types of the method
+     *
+     * @return
+     */
+    public String[] getParameterTypes() {
+        describe();
+        return this.parameterTypes.clone();
+    }
+
+    @Override
+    public String toString() {
+        describe();
+
+        StringBuilder builder = new StringBuilder(this.className).append('.').append(this.methodName).append('(');
+
+        for (int i = 0; i < this.parameterTypes.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+
+            builder.append(this.parameterTypes[i]);
+        }
+
+        return builder.append(')').toString();
+    }
+}
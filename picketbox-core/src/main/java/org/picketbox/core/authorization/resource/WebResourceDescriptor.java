@@ -0,0 +1,259 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.authorization.resource;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.http.RequestClassifier;
+
+/**
+ * <p>
+ * An immutable description of a web request: its method, its normalized path relative to the context path, the context
+ * path and some selected request attributes. Unlike {@link WebResource} it holds no servlet object, so it can be serialized,
+ * sent to a remote decision point, kept across requests and used as a cache key.
+ * </p>
+ * <p>
+ * The path is normalized by {@link RequestClassifier#normalize(String)}: path parameters such as <code>;jsessionid=</code>
+ * are removed, segments are percent-decoded, empty and <code>.</code> segments removed and <code>..</code> segments
+ * resolved. Paths with an encoded <code>/</code> or <code>\</code> are rejected. Attributes whose values are not
+ * {@link Serializable} are not captured. A deserialized descriptor is checked like a constructed one: its path must be
+ * normalized and its attributes are copied again.
+ * </p>
+ * <p>
+ * The authorized flag of {@link Resource} takes no part in equality. It is not meaningful on a descriptor shared between
+ * threads, the decision returned by the authorization manager should be used instead.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public final class WebResourceDescriptor extends AbstractPicketBoxResource {
+
+    private static final long serialVersionUID = 5164307287621436421L;
+
+    private String method;
+
+    private String path;
+
+    private String contextPath;
+
+    private Map<String, Serializable> attributes;
+
+    private transient int hashCode;
+
+    /**
+     * Describe a request
+     *
+     * @param method
+     * @param path the path relative to the context path, normalized by the descriptor
+     * @param contextPath
+     * @param attributes
+     * @throws IllegalArgumentException if the path is rejected by the normalization
+     */
+    public WebResourceDescriptor(String method, String path, String contextPath, Map<String, Serializable> attributes) {
+        init(method, normalize(path == null ? "" : path), contextPath, attributes);
+    }
+
+    private WebResourceDescriptor() {
+    }
+
+    /**
+     * Describe a request whose path is already normalized, normalizing again would decode twice
+     */
+    private static WebResourceDescriptor ofNormalizedPath(String method, String path, String contextPath,
+            Map<String, Serializable> attributes) {
+        WebResourceDescriptor descriptor = new WebResourceDescriptor();
+        descriptor.init(method, path, contextPath, attributes);
+        return descriptor;
+    }
+
+    private void init(String method, String path, String contextPath, Map<String, Serializable> attributes) {
+        this.method = method;
+        this.path = path;
+        this.contextPath = contextPath == null ? "" : contextPath;
+
+        if (attributes == null || attributes.isEmpty()) {
+            this.attributes = Collections.emptyMap();
+        } else {
+            this.attributes = Collections.unmodifiableMap(new HashMap<String, Serializable>(attributes));
+        }
+
+        this.hashCode = computeHashCode();
+    }
+
+    /**
+     * Describe a request
+     *
+     * @param request
+     * @param attributeNames the names of the request attributes to capture
+     * @return the descriptor or null if the path of the request is rejected by the normalization
+     */
+    public static WebResourceDescriptor from(HttpServletRequest request, String... attributeNames) {
+        String path = RequestClassifier.getPath(request);
+
+        if (path == null) {
+            return null;
+        }
+
+        Map<String, Serializable> attributes = null;
+
+        for (String attributeName : attributeNames) {
+            Object value = request.getAttribute(attributeName);
+
+            if (value instanceof Serializable) {
+                if (attributes == null) {
+                    attributes = new HashMap<String, Serializable>();
+                }
+
+                attributes.put(attributeName, (Serializable) value);
+            }
+        }
+
+        return ofNormalizedPath(request.getMethod(), path, request.getContextPath(), attributes);
+    }
+
+    /**
+     * Get the HTTP method
+     *
+     * @return
+     */
+    public String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Get the normalized path, relative to the context path
+     *
+     * @return
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * Get the context path
+     *
+     * @return
+     */
+    public String getContextPath() {
+        return this.contextPath;
+    }
+
+    /**
+     * Get the captured request attributes
+     *
+     * @return
+     */
+    public Map<String, Serializable> getAttributes() {
+        return this.attributes;
+    }
+
+    private static String normalize(String path) {
+        String normalized = RequestClassifier.normalize(path);
+
+        if (normalized == null) {
+            throw PicketBoxMessages.MESSAGES.invalidRequestPath(path);
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Check that a path is in the form returned by {@link RequestClassifier#normalize(String)}. Normalizing it again is no
+     * check, a decoded segment may still contain escapes.
+     */
+    private static boolean isNormalized(String path) {
+        if (path.indexOf('\\') >= 0) {
+            return false;
+        }
+
+        String[] segments = path.split("/", -1);
+
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+
+            // only the first and the last segments are empty, for a leading and a trailing slash
+            if ((segment.isEmpty() && i > 0 && i < segments.length - 1) || segment.equals(".") || segment.equals("..")) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        if (this.path == null || !isNormalized(this.path)) {
+            throw new InvalidObjectException(PicketBoxMessages.MESSAGES.invalidRequestPath(this.path).getMessage());
+        }
+
+        // the serialized map may be any map, it is copied and wrapped again
+        init(this.method, this.path, this.contextPath, this.attributes);
+    }
+
+    private int computeHashCode() {
+        int result = this.method == null ? 0 : this.method.hashCode();
+
+        result = 31 * result + this.path.hashCode();
+        result = 31 * result + this.contextPath.hashCode();
+        result = 31 * result + this.attributes.hashCode();
+
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof WebResourceDescriptor)) {
+            return false;
+        }
+
+        WebResourceDescriptor other = (WebResourceDescriptor) obj;
+
+        return hashCode() == other.hashCode() && (this.method == null ? other.method == null : this.method.equals(other.method))
+                && this.path.equals(other.path) && this.contextPath.equals(other.contextPath)
+                && this.attributes.equals(other.attributes);
+    }
+
+    @Override
+    public String toString() {
+        return this.method + " " + this.contextPath + this.path;
+    }
+}
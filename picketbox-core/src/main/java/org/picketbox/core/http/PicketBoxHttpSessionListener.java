@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.http;
+
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+import org.picketbox.core.session.PicketBoxSessionManager;
+import org.picketbox.core.session.PicketBoxSessionResourceRegistry;
+
+/**
+ * <p>
+ * Releases the state PicketBox allocated for a HTTP session when the container destroys it, whether it was invalidated or
+ * timed out. See {@link PicketBoxSessionResourceRegistry}.
+ * </p>
+ * <p>
+ * The listener is registered by the {@link org.picketbox.core.http.filters.DelegatingSecurityFilter} when it is initialized
+ * with the application, so it only runs in the applications PicketBox secures. It must be declared in <code>web.xml</code>
+ * when the container refuses the registration, for instance when the filter is initialized on the first request. The
+ * subject PicketBox stores in a session is released when the session is destroyed even without the listener.
+ * </p>
+ * <p>
+ * {@link #sessionIdChanged(HttpSessionEvent, String)} has the signature of the Servlet 3.1
+ * <code>HttpSessionIdListener</code>, so a subclass implementing that interface keeps the state registered with the new id
+ * of a session. Otherwise the change is detected on the next authenticated request of the session.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxHttpSessionListener implements HttpSessionListener {
+
+    @Override
+    public void sessionCreated(HttpSessionEvent se) {
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        PicketBoxSessionManager.getResourceRegistry().release(se.getSession().getId());
+    }
+
+    /**
+     * Move the state of a session to its new id.
+     *
+     * @param se
+     * @param oldSessionId
+     */
+    public void sessionIdChanged(HttpSessionEvent se, String oldSessionId) {
+        PicketBoxSessionManager.getResourceRegistry().changeSessionId(oldSessionId, se.getSession().getId());
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.picketbox.core.util.PathPatternMatcher;
+
+/**
+ * <p>
+ * Classifies HTTP requests by matching their path and method against compiled patterns. See {@link PathPatternMatcher} for
+ * the supported pattern syntax.
+ * </p>
+ * <p>
+ * Patterns can be configured from a string with entries separated by commas, each entry optionally preceded by the HTTP
+ * methods it applies to: <code>/static/*, *.css, GET|HEAD /health</code>.
+ * </p>
+ * <p>
+ * Requests are matched on their path relative to the context path, normalized by {@link #normalize(String)}. Requests that
+ * match no pattern, or whose path is rejected by the normalization, are {@link RequestType#PROTECTED}.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class RequestClassifier {
+
+    /**
+     * The kinds of requests recognized by the classifier.
+     */
+    public enum RequestType {
+
+        /**
+         * Requests that do not require any security processing.
+         */
+        PUBLIC,
+
+        /**
+         * Requests that submit credentials.
+         */
+        LOGIN,
+
+        /**
+         * Requests that start the logout process.
+         */
+        LOGOUT,
+
+        /**
+         * Requests that must be authenticated and authorized.
+         */
+        PROTECTED
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final PathPatternMatcher<RequestType> matcher = new PathPatternMatcher<RequestType>();
+
+    /**
+     * Add the patterns defined by a configuration string
+     *
+     * @param config
+     * @param type
+     */
+    public void addPatterns(String config, RequestType type) {
+        if (config == null) {
+            return;
+        }
+
+        for (String entry : config.split(",")) {
+            entry = entry.trim();
+
+            if (entry.isEmpty()) {
+                continue;
+            }
+
+            int separator = entry.lastIndexOf(' ');
+
+            if (separator < 0) {
+                addPattern(entry, null, type);
+            } else {
+                Set<String> methods = new HashSet<String>();
+
+                for (String method : entry.substring(0, separator).split("\\|")) {
+                    if (!method.trim().isEmpty()) {
+                        methods.add(method.trim());
+                    }
+                }
+
+                addPattern(entry.substring(separator + 1), methods, type);
+            }
+        }
+    }
+
+    /**
+     * Add a pattern
+     *
+     * @param pattern
+     * @param methods the HTTP methods the pattern applies to, or null for all methods
+     * @param type
+     */
+    public void addPattern(String pattern, Set<String> methods, RequestType type) {
+        this.matcher.add(pattern, methods, type);
+    }
+
+    /**
+     * Classify the given request
+     *
+     * @param request
+     * @return
+     */
+    public RequestType classify(HttpServletRequest request) {
+        String path = getPath(request);
+        RequestType type = path == null ? null : this.matcher.match(path, request.getMethod());
+
+        if (type == null) {
+            return RequestType.PROTECTED;
+        }
+
+        return type;
+    }
+
+    /**
+     * Get the path of the request relative to the context path, normalized by {@link #normalize(String)}
+     *
+     * @param request
+     * @return the path or null if it is rejected by the normalization
+     */
+    public static String getPath(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+
+        if (uri == null) {
+            return "";
+        }
+
+        return normalize(uri.substring(getPathOffset(uri, request.getContextPath())));
+    }
+
+    /**
+     * <p>
+     * Normalize a path taken from a request URI so it can be matched against patterns: path parameters such as
+     * <code>;jsessionid=</code> are removed, each segment is percent-decoded as UTF-8, then empty and <code>.</code>
+     * segments are removed and <code>..</code> segments resolved.
+     * </p>
+     * <p>
+     * Paths that cannot be normalized safely are rejected: encoded <code>/</code> or <code>\</code>, backslashes, invalid
+     * or null escapes and <code>..</code> segments going above the root.
+     * </p>
+     *
+     * @param path
+     * @return the normalized path or null if it is rejected
+     */
+    public static String normalize(String path) {
+        if (path.indexOf(';') < 0 && path.indexOf('%') < 0 && path.indexOf('\\') < 0 && path.indexOf("//") < 0
+                && path.indexOf("/.") < 0) {
+            return path;
+        }
+
+        List<String> segments = new ArrayList<String>();
+        boolean trailingSlash = false;
+
+        for (String segment : path.split("/", -1)) {
+            int parameters = segment.indexOf(';');
+
+            if (parameters >= 0) {
+                segment = segment.substring(0, parameters);
+            }
+
+            segment = decode(segment);
+
+            if (segment == null) {
+                return null;
+            }
+
+            trailingSlash = segment.isEmpty() || segment.equals(".") || segment.equals("..");
+
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+
+            if (segment.equals("..")) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+
+                segments.remove(segments.size() - 1);
+            } else {
+                segments.add(segment);
+            }
+        }
+
+        StringBuilder normalized = new StringBuilder(path.length());
+
+        for (String segment : segments) {
+            normalized.append('/').append(segment);
+        }
+
+        if (normalized.length() == 0 || trailingSlash) {
+            normalized.append('/');
+        }
+
+        return normalized.toString();
+    }
+
+    /**
+     * Get the index where the path relative to the context path starts in the request URI
+     *
+     * @param uri
+     * @param contextPath
+     * @return
+     */
+    public static int getPathOffset(String uri, String contextPath) {
+        if (contextPath != null && !contextPath.isEmpty() && uri.startsWith(contextPath)) {
+            return contextPath.length();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Percent-decode a path segment
+     *
+     * @param segment
+     * @return the decoded segment or null if it is invalid or decodes to a separator
+     */
+    private static String decode(String segment) {
+        if (segment.indexOf('\\') >= 0) {
+            return null;
+        }
+
+        if (segment.indexOf('%') < 0) {
+            return segment;
+        }
+
+        StringBuilder decoded = new StringBuilder(segment.length());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int length = segment.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = segment.charAt(i);
+
+            if (c != '%') {
+                decoded.append(c);
+                continue;
+            }
+
+            bytes.reset();
+
+            // consecutive escapes form a single UTF-8 sequence
+            while (i < length && segment.charAt(i) == '%') {
+                int high = i + 2 < length ? Character.digit(segment.charAt(i + 1), 16) : -1;
+                int low = i + 2 < length ? Character.digit(segment.charAt(i + 2), 16) : -1;
+                int b = (high << 4) | low;
+
+                if (high < 0 || low < 0 || b == 0 || b == '/' || b == '\\') {
+                    return null;
+                }
+
+                bytes.write(b);
+                i += 3;
+            }
+
+            i--;
+            decoded.append(new String(bytes.toByteArray(), UTF_8));
+        }
+
+        return decoded.toString();
+    }
+}
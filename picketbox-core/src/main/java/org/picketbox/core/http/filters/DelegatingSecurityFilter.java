@@ -22,9 +22,17 @@
 package org.picketbox.core.http.filters;
 
 import java.io.IOException;
+import java.security.Principal;
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -36,38 +44,114 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.picketbox.core.PicketBoxConfiguration;
+import org.picketbox.core.PicketBoxLogger;
 import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.PicketBoxSecurityContext;
+import org.picketbox.core.PicketBoxSecurityContextAssociation;
+import org.picketbox.core.PicketBoxSnapshot;
+import org.picketbox.core.ReloadablePicketBoxManager;
 import org.picketbox.core.PicketBoxMessages;
+import org.picketbox.core.authentication.AsyncAuthenticationManager;
+import org.picketbox.core.authentication.AuthenticationCallback;
 import org.picketbox.core.authentication.AuthenticationManager;
 import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.AsyncHTTPAuthenticationScheme;
 import org.picketbox.core.authentication.http.HTTPAuthenticationScheme;
+import org.picketbox.core.authentication.http.HTTPAuthenticationSchemeChain;
 import org.picketbox.core.authentication.http.HTTPAuthenticationSchemeLoader;
+import org.picketbox.core.authentication.http.SavedRequestWrapper;
 import org.picketbox.core.authentication.http.impl.HTTPBasicAuthenticationSchemeLoader;
 import org.picketbox.core.authentication.http.impl.HTTPClientCertAuthenticationSchemeLoader;
 import org.picketbox.core.authentication.http.impl.HTTPDigestAuthenticationSchemeLoader;
 import org.picketbox.core.authentication.http.impl.HTTPFormAuthenticationSchemeLoader;
+import org.picketbox.core.authentication.impl.ExecutorAuthenticationManager;
 import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
 import org.picketbox.core.authentication.impl.SimpleCredentialAuthenticationManager;
 import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.impl.CachingAuthorizationManager;
+import org.picketbox.core.authorization.impl.URLAuthorizationManager;
 import org.picketbox.core.exceptions.AuthenticationException;
+import org.picketbox.core.http.PicketBoxHttpSessionListener;
+import org.picketbox.core.http.RequestClassifier;
+import org.picketbox.core.http.RequestClassifier.RequestType;
+import org.picketbox.core.identity.DefaultIdentityManager;
+import org.picketbox.core.identity.RoleHierarchy;
+import org.picketbox.core.util.ThreadPools;
+import org.picketbox.core.util.ThreadPools.ExecutionMode;
 
 /**
  * A {@link Filter} that delegates to the PicketBox Security Infrastructure
+ * <p>
+ * {@link PicketBoxConstants#AUTHENTICATION_KEY} can list several schemes separated by commas, for instance
+ * <code>FORM,BASIC,DIGEST</code>. They are combined in a {@link HTTPAuthenticationSchemeChain} and
+ * {@link PicketBoxConstants#HTTP_AUTHENTICATION_PATHS} assigns schemes to paths: <code>/api/*=BASIC</code>.
+ * </p>
+ * <p>
+ * Requests matching the patterns defined by {@link PicketBoxConstants#HTTP_PUBLIC_PATHS} are passed down the chain without
+ * any security processing. {@link PicketBoxConstants#HTTP_LOGIN_PATHS} and {@link PicketBoxConstants#HTTP_LOGOUT_PATHS}
+ * override the default login and logout patterns, the default logout pattern being the logout URL of the
+ * {@link org.picketbox.core.logout.LogoutManager}. A request matching the logout patterns logs out if there is a session to
+ * end, otherwise it is protected like any other request.
+ * </p>
+ * <p>
+ * When {@link PicketBoxConstants#HTTP_ASYNC} is <code>true</code> and the request supports it, authentication and
+ * authorization run on a bounded executor while the container thread is released through an {@link AsyncContext}. The
+ * request is then dispatched again to resume the filter chain. A scheme implementing
+ * {@link AsyncHTTPAuthenticationScheme} hands the credentials to its {@link AsyncAuthenticationManager}, such as the one
+ * set up by {@link PicketBoxConstants#AUTH_MGR_CONCURRENCY}, without holding a thread of the executor while it waits.
+ * Login requests are processed by the container thread, the form authentication forwards and redirects them. A request
+ * that timed out or failed is left to the container, it is no longer used once its authentication completes. Setting
+ * {@link PicketBoxConstants#HTTP_ASYNC_EXECUTION} to <code>VIRTUAL</code> runs them on virtual threads when the JVM
+ * supports it. Either way at most {@link PicketBoxConstants#HTTP_ASYNC_THREADS} plus
+ * {@link PicketBoxConstants#HTTP_ASYNC_QUEUE} requests are processed at once, the others get a 503.
+ * {@link PicketBoxConstants#AUTH_MGR_CONCURRENCY} additionally bounds the calls in flight against the authentication
+ * backend.
+ * </p>
+ * <p>
+ * Each client request is processed by the {@link PicketBoxManager} current when it arrived. The manager can be replaced
+ * without interrupting traffic through the {@link ReloadablePicketBoxManager} stored in the
+ * {@link PicketBoxConstants#RELOADABLE_PICKETBOX_MANAGER} context attribute. A reload only replaces the manager. The
+ * settings read by the filter itself from its init parameters are kept until the filter is destroyed: the public, login
+ * and logout patterns, the asynchronous executor and the concurrency limit wrapped around the authentication manager of the
+ * initial configuration.
+ * </p>
+ * <p>
+ * The filter registers the {@link PicketBoxHttpSessionListener} of the application when it is initialized, see
+ * {@link ServletContext#addListener(Class)}, so that the state PicketBox keeps for a session is released when the
+ * container destroys it.
+ * </p>
+ * <p>
+ * The security processing happens once per client request. When the filter is also mapped for FORWARD, INCLUDE, ERROR or
+ * ASYNC dispatches, those dispatches reuse the outcome of the original request, including the forwards issued by the
+ * authentication schemes themselves.
+ * </p>
  *
  * @author anil saldhana
  * @since Jul 10, 2012
  */
 public class DelegatingSecurityFilter implements Filter {
-    private PicketBoxManager securityManager;
+    private static final String REQUEST_TYPE = DelegatingSecurityFilter.class.getName() + ".requestType";
+
+    private ReloadablePicketBoxManager securityManager;
 
     private FilterConfig filterConfig;
 
+    private RequestClassifier requestClassifier;
+
+    private ExecutorService asyncExecutor;
+
+    private long asyncTimeout;
+
+    private ExecutorAuthenticationManager limitedAuthenticationManager;
+
     @Override
     public void init(FilterConfig fc) throws ServletException {
         this.filterConfig = fc;
 
         ServletContext sc = filterConfig.getServletContext();
 
+        registerSessionListener(sc);
+
         Map<String, Object> contextData = new HashMap<String, Object>();
         contextData.put(PicketBoxConstants.SERVLET_CONTEXT, sc);
 
@@ -83,12 +167,11 @@ public class DelegatingSecurityFilter implements Filter {
             String authzMgrStr = sc.getInitParameter(PicketBoxConstants.AUTHZ_MGR);
 
             if (authzMgrStr != null) {
-                authorizationManager = getAuthzMgr(authzMgrStr);
-                authorizationManager.start();
+                authorizationManager = cacheDecisions(getAuthzMgr(authzMgrStr, sc), sc);
                 contextData.put(PicketBoxConstants.AUTHZ_MGR, authorizationManager);
             }
 
-            contextData.put(PicketBoxConstants.AUTH_MGR, getAuthMgr(authMgrStr));
+            contextData.put(PicketBoxConstants.AUTH_MGR, limitConcurrency(getAuthMgr(authMgrStr), sc));
 
             authenticationScheme = getAuthenticationScheme(authValue, contextData);
         } else {
@@ -98,13 +181,12 @@ public class DelegatingSecurityFilter implements Filter {
             }
             String authManagerStr = filterConfig.getInitParameter(PicketBoxConstants.AUTH_MGR);
             if (authManagerStr != null && authManagerStr.isEmpty() == false) {
-                AuthenticationManager am = getAuthMgr(authManagerStr);
+                AuthenticationManager am = limitConcurrency(getAuthMgr(authManagerStr), sc);
                 contextData.put(PicketBoxConstants.AUTH_MGR, am);
             }
             String authzManagerStr = filterConfig.getInitParameter(PicketBoxConstants.AUTHZ_MGR);
             if (authzManagerStr != null && authzManagerStr.isEmpty() == false) {
-                authorizationManager = getAuthzMgr(authzManagerStr);
-                authorizationManager.start();
+                authorizationManager = cacheDecisions(getAuthzMgr(authzManagerStr, sc), sc);
                 contextData.put(PicketBoxConstants.AUTHZ_MGR, authorizationManager);
             }
             HTTPAuthenticationSchemeLoader authLoader = (HTTPAuthenticationSchemeLoader) SecurityActions.instance(getClass(),
@@ -112,10 +194,28 @@ public class DelegatingSecurityFilter implements Filter {
             authenticationScheme = authLoader.get(contextData);
         }
 
-        this.securityManager = new PicketBoxConfiguration().authentication(authenticationScheme)
-                .authorization(authorizationManager).buildAndStart();
+        PicketBoxManager manager = new PicketBoxConfiguration().authentication(authenticationScheme)
+                .authorization(authorizationManager).identityManager(getIdentityMgr(sc)).buildAndStart();
+
+        this.securityManager = new ReloadablePicketBoxManager(manager);
+        this.securityManager.setServletContext(sc);
+        this.securityManager.start();
+
+        sc.setAttribute(PicketBoxConstants.RELOADABLE_PICKETBOX_MANAGER, this.securityManager);
+
+        this.requestClassifier = createRequestClassifier(sc, manager);
+
+        if (Boolean.parseBoolean(getInitParameter(sc, PicketBoxConstants.HTTP_ASYNC))) {
+            int threads = getIntInitParameter(sc, PicketBoxConstants.HTTP_ASYNC_THREADS, 16);
+            int queue = getIntInitParameter(sc, PicketBoxConstants.HTTP_ASYNC_QUEUE, 256);
+
+            String execution = getInitParameter(sc, PicketBoxConstants.HTTP_ASYNC_EXECUTION);
+            ExecutionMode mode = execution == null ? ExecutionMode.PLATFORM : ExecutionMode.valueOf(execution.trim()
+                    .toUpperCase());
 
-        sc.setAttribute(PicketBoxConstants.PICKETBOX_MANAGER, this.securityManager);
+            this.asyncExecutor = ThreadPools.newExecutor(mode, "picketbox-filter", threads, queue);
+            this.asyncTimeout = getIntInitParameter(sc, PicketBoxConstants.HTTP_ASYNC_TIMEOUT, 30000);
+        }
     }
 
     @Override
@@ -124,19 +224,131 @@ public class DelegatingSecurityFilter implements Filter {
         HttpServletRequest httpRequest = (HttpServletRequest) request;
         HttpServletResponse httpResponse = (HttpServletResponse) response;
 
-        logout(httpRequest, httpResponse);
+        PicketBoxSnapshot snapshot = this.securityManager.acquire();
+
+        try {
+            doFilter(snapshot.getManager(), httpRequest, httpResponse, chain);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    private void doFilter(PicketBoxManager securityManager, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse, FilterChain chain) throws IOException, ServletException {
+        RequestType requestType = (RequestType) httpRequest.getAttribute(REQUEST_TYPE);
+
+        // internal dispatches reuse the security processing of the client request
+        if (requestType != null) {
+            DispatcherType dispatcherType = httpRequest.getDispatcherType();
+
+            if (dispatcherType != DispatcherType.REQUEST) {
+                proceed(securityManager, httpRequest, httpResponse, chain, requestType, dispatcherType == DispatcherType.ASYNC);
+                return;
+            }
+        }
+
+        requestType = this.requestClassifier.classify(httpRequest);
 
-        authenticate(httpRequest, httpResponse);
+        // the classifier decides what a logout request is, there must also be a session to end
+        if (requestType == RequestType.LOGOUT && httpRequest.getSession(false) == null) {
+            requestType = RequestType.PROTECTED;
+        }
 
-        authorize(httpRequest, httpResponse);
+        httpRequest.setAttribute(REQUEST_TYPE, requestType);
+
+        switch (requestType) {
+            case PUBLIC:
+                chain.doFilter(httpRequest, httpResponse);
+                return;
+            case LOGIN:
+                // the form authentication forwards and redirects, it stays on the container thread
+                authenticate(securityManager, httpRequest, httpResponse);
+
+                // a login request the authentication did not answer goes on to a resource, it is authorized like any other
+                if (!httpResponse.isCommitted()) {
+                    authorize(securityManager, httpRequest, httpResponse);
+                }
+                break;
+            case LOGOUT:
+                logout(securityManager, httpRequest, httpResponse);
+
+                if (httpResponse.isCommitted()) {
+                    return;
+                }
+
+                // the logout did not answer the request, what is left of it is protected
+            default:
+                if (isAsync(httpRequest)) {
+                    authenticateAsync(httpRequest, httpResponse);
+                    return;
+                }
+                authenticate(securityManager, httpRequest, httpResponse);
+                authorize(securityManager, httpRequest, httpResponse);
+        }
 
-        if (!response.isCommitted()) {
-            chain.doFilter(httpRequest, response);
+        if (!httpResponse.isCommitted()) {
+            proceed(securityManager, httpRequest, httpResponse, chain, requestType, true);
         }
     }
 
-    private void authorize(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
-        boolean authorize = this.securityManager.authorize(httpRequest, httpResponse);
+    /**
+     * Continue the chain with the security context of the request bound to the current thread. Once per client request, the
+     * request saved before the login page is replayed if it is the one the user was redirected to.
+     */
+    private void proceed(PicketBoxManager securityManager, HttpServletRequest httpRequest, HttpServletResponse httpResponse,
+            FilterChain chain, RequestType requestType, boolean replay) throws IOException, ServletException {
+        if (requestType == RequestType.PUBLIC) {
+            chain.doFilter(httpRequest, httpResponse);
+            return;
+        }
+
+        PicketBoxSecurityContext securityContext = securityManager.getSecurityContext(httpRequest);
+        PicketBoxSecurityContext previous = PicketBoxSecurityContextAssociation.setSecurityContext(securityContext);
+
+        SavedRequestWrapper savedRequest = null;
+
+        if (replay && securityContext != null && securityContext.isAuthenticated()) {
+            savedRequest = SavedRequestWrapper.restore(httpRequest);
+        }
+
+        try {
+            chain.doFilter(savedRequest != null ? savedRequest : httpRequest, httpResponse);
+        } finally {
+            PicketBoxSecurityContextAssociation.setSecurityContext(previous);
+
+            if (savedRequest != null) {
+                savedRequest.release();
+            }
+        }
+    }
+
+    private boolean isAsync(HttpServletRequest httpRequest) {
+        return this.asyncExecutor != null && httpRequest.isAsyncSupported();
+    }
+
+    private void authenticateAsync(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
+        AsyncContext asyncContext = httpRequest.startAsync(httpRequest, httpResponse);
+
+        asyncContext.setTimeout(this.asyncTimeout);
+
+        new AsyncAuthentication(httpRequest, httpResponse, asyncContext).start();
+    }
+
+    private void completeWithError(AsyncContext asyncContext, HttpServletResponse httpResponse, int status) {
+        try {
+            if (!httpResponse.isCommitted()) {
+                httpResponse.sendError(status);
+            }
+        } catch (IOException e) {
+            PicketBoxLogger.LOGGER.failedToAuthenticateAsynchronously(e);
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    private void authorize(PicketBoxManager securityManager, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) throws IOException {
+        boolean authorize = securityManager.authorize(httpRequest, httpResponse);
 
         if (!authorize) {
             if (!httpResponse.isCommitted()) {
@@ -145,30 +357,186 @@ public class DelegatingSecurityFilter implements Filter {
         }
     }
 
-    private void authenticate(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws ServletException {
+    private void authenticate(PicketBoxManager securityManager, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) throws ServletException {
         if (httpResponse.isCommitted()) {
             return;
         }
 
         try {
-            this.securityManager.authenticate(httpRequest, httpResponse);
+            securityManager.authenticate(httpRequest, httpResponse);
         } catch (AuthenticationException e) {
             throw new ServletException(e);
         }
     }
 
-    private void logout(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws ServletException {
-        this.securityManager.logout(httpRequest, httpResponse);
+    private void logout(PicketBoxManager securityManager, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) {
+        securityManager.endSession(httpRequest, httpResponse);
     }
 
     @Override
     public void destroy() {
         this.filterConfig = null;
+
+        // the queued authentications still need the manager
+        if (this.asyncExecutor != null) {
+            this.asyncExecutor.shutdown();
+
+            try {
+                this.asyncExecutor.awaitTermination(this.asyncTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         this.securityManager.stop();
+
+        if (this.limitedAuthenticationManager != null) {
+            this.limitedAuthenticationManager.stop();
+        }
+    }
+
+    /**
+     * Register the listener releasing the state of destroyed sessions, containers only accept it while the application starts
+     */
+    private void registerSessionListener(ServletContext sc) {
+        try {
+            sc.addListener(PicketBoxHttpSessionListener.class);
+        } catch (IllegalStateException e) {
+            PicketBoxLogger.LOGGER.sessionListenerNotRegistered(PicketBoxHttpSessionListener.class.getName());
+        } catch (UnsupportedOperationException e) {
+            PicketBoxLogger.LOGGER.sessionListenerNotRegistered(PicketBoxHttpSessionListener.class.getName());
+        }
+    }
+
+    private RequestClassifier createRequestClassifier(ServletContext sc, PicketBoxManager manager) {
+        RequestClassifier classifier = new RequestClassifier();
+
+        classifier.addPatterns(getInitParameter(sc, PicketBoxConstants.HTTP_PUBLIC_PATHS), RequestType.PUBLIC);
+
+        String loginPaths = getInitParameter(sc, PicketBoxConstants.HTTP_LOGIN_PATHS);
+
+        if (loginPaths == null) {
+            loginPaths = "*" + PicketBoxConstants.HTTP_FORM_J_SECURITY_CHECK;
+        }
+
+        classifier.addPatterns(loginPaths, RequestType.LOGIN);
+
+        String logoutPaths = getInitParameter(sc, PicketBoxConstants.HTTP_LOGOUT_PATHS);
+
+        if (logoutPaths == null) {
+            String logoutUrl = manager.getLogoutManager().getLogoutUrl();
+
+            if (logoutUrl == null) {
+                logoutUrl = PicketBoxConstants.LOGOUT_URI;
+            }
+
+            logoutPaths = "*" + logoutUrl;
+        }
+
+        classifier.addPatterns(logoutPaths, RequestType.LOGOUT);
+
+        return classifier;
+    }
+
+    private String getInitParameter(ServletContext sc, String name) {
+        String value = this.filterConfig.getInitParameter(name);
+
+        if (value == null) {
+            value = sc.getInitParameter(name);
+        }
+
+        return value;
+    }
+
+    private AuthenticationManager limitConcurrency(AuthenticationManager authenticationManager, ServletContext sc) {
+        int maxConcurrency = getIntInitParameter(sc, PicketBoxConstants.AUTH_MGR_CONCURRENCY, 0);
+
+        if (maxConcurrency <= 0) {
+            return authenticationManager;
+        }
+
+        this.limitedAuthenticationManager = new ExecutorAuthenticationManager(authenticationManager);
+        this.limitedAuthenticationManager.setMaxConcurrency(maxConcurrency);
+        this.limitedAuthenticationManager.start();
+
+        return this.limitedAuthenticationManager;
+    }
+
+    private AuthorizationManager cacheDecisions(AuthorizationManager authorizationManager, ServletContext sc) {
+        if (!Boolean.parseBoolean(getInitParameter(sc, PicketBoxConstants.AUTHZ_CACHE))) {
+            return authorizationManager;
+        }
+
+        CachingAuthorizationManager cachingAuthorizationManager = new CachingAuthorizationManager(authorizationManager);
+
+        cachingAuthorizationManager.setMaxEntries(getIntInitParameter(sc, PicketBoxConstants.AUTHZ_CACHE_MAX_ENTRIES,
+                CachingAuthorizationManager.DEFAULT_MAX_ENTRIES));
+
+        String timeToLive = getInitParameter(sc, PicketBoxConstants.AUTHZ_CACHE_TTL);
+        if (timeToLive != null) {
+            cachingAuthorizationManager.setTimeToLive(Long.parseLong(timeToLive.trim()));
+        }
+
+        return cachingAuthorizationManager;
+    }
+
+    private int getIntInitParameter(ServletContext sc, String name, int defaultValue) {
+        String value = getInitParameter(sc, name);
+
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        return Integer.parseInt(value.trim());
     }
 
     private HTTPAuthenticationScheme getAuthenticationScheme(String value, Map<String, Object> contextData)
             throws ServletException {
+        if (value.indexOf(',') < 0) {
+            return loadAuthenticationScheme(value.trim(), contextData);
+        }
+
+        // several schemes, in the order they are listed
+        HTTPAuthenticationSchemeChain chain = new HTTPAuthenticationSchemeChain();
+        Map<String, HTTPAuthenticationScheme> schemes = new HashMap<String, HTTPAuthenticationScheme>();
+
+        for (String name : value.split(",")) {
+            name = name.trim();
+
+            if (!name.isEmpty()) {
+                HTTPAuthenticationScheme scheme = loadAuthenticationScheme(name, contextData);
+                schemes.put(name, scheme);
+                chain.add(scheme);
+            }
+        }
+
+        ServletContext sc = (ServletContext) contextData.get(PicketBoxConstants.SERVLET_CONTEXT);
+        String paths = getInitParameter(sc, PicketBoxConstants.HTTP_AUTHENTICATION_PATHS);
+
+        if (paths != null) {
+            for (String entry : paths.split(",")) {
+                int separator = entry.lastIndexOf('=');
+
+                if (separator > 0) {
+                    String name = entry.substring(separator + 1).trim();
+                    HTTPAuthenticationScheme scheme = schemes.get(name);
+
+                    if (scheme == null) {
+                        throw PicketBoxMessages.MESSAGES.unknownAuthenticationScheme(name);
+                    }
+
+                    chain.addPathScheme(entry.substring(0, separator).trim(), scheme);
+                }
+            }
+        }
+
+        return chain;
+    }
+
+    private HTTPAuthenticationScheme loadAuthenticationScheme(String value, Map<String, Object> contextData)
+            throws ServletException {
         if (value.equals(PicketBoxConstants.BASIC)) {
             return new HTTPBasicAuthenticationSchemeLoader().get(contextData);
         }
@@ -197,13 +565,220 @@ public class DelegatingSecurityFilter implements Filter {
         return (AuthenticationManager) SecurityActions.instance(getClass(), value);
     }
 
-    private AuthorizationManager getAuthzMgr(String value) {
+    /**
+     * Create an identity manager reading the configured roles file and applying the configured role hierarchy, it is started
+     * with the {@link PicketBoxManager}
+     */
+    private DefaultIdentityManager getIdentityMgr(ServletContext sc) {
+        String definitions = getInitParameter(sc, PicketBoxConstants.AUTHZ_ROLE_HIERARCHY);
+        String rolesFile = getInitParameter(sc, PicketBoxConstants.AUTHZ_ROLES_FILE);
+        boolean hasDefinitions = definitions != null && !definitions.trim().isEmpty();
+        boolean hasRolesFile = rolesFile != null && !rolesFile.trim().isEmpty();
+
+        if (!hasDefinitions && !hasRolesFile) {
+            return null;
+        }
+
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+
+        if (hasDefinitions) {
+            RoleHierarchy roleHierarchy = new RoleHierarchy();
+            roleHierarchy.addDefinitions(definitions);
+
+            identityManager.setRoleHierarchy(roleHierarchy);
+        }
+
+        if (hasRolesFile) {
+            identityManager.setRolesFile(rolesFile.trim());
+        }
+
+        return identityManager;
+    }
+
+    /**
+     * Create the configured authorization manager, it is started with the {@link PicketBoxManager}
+     */
+    private AuthorizationManager getAuthzMgr(String value, ServletContext sc) {
+        if (value.isEmpty() || value.equalsIgnoreCase("URL")) {
+            URLAuthorizationManager authorizationManager = new URLAuthorizationManager();
+
+            authorizationManager.addConstraints(getInitParameter(sc, PicketBoxConstants.AUTHZ_URL_CONSTRAINTS));
+
+            String defaultPermit = getInitParameter(sc, PicketBoxConstants.AUTHZ_URL_DEFAULT_PERMIT);
+            if (defaultPermit != null) {
+                authorizationManager.setDefaultPermit(Boolean.parseBoolean(defaultPermit.trim()));
+            }
+
+            return authorizationManager;
+        }
+
         if (value.equalsIgnoreCase("Drools")) {
             return (AuthorizationManager) SecurityActions.instance(getClass(),
                     "org.picketbox.drools.authorization.PicketBoxDroolsAuthorizationManager");
         }
 
-        return (AuthorizationManager) SecurityActions.instance(getClass(),
-                "org.picketbox.drools.authorization.PicketBoxDroolsAuthorizationManager");
+        return (AuthorizationManager) SecurityActions.instance(getClass(), value);
+    }
+
+    /**
+     * <p>
+     * The authentication and authorization of a request processed asynchronously, by the
+     * {@link AsyncAuthenticationManager} of the scheme when it has one, by the executor of the filter otherwise.
+     * </p>
+     * <p>
+     * Once the request timed out or failed the container recycles it, the request, the response and the
+     * {@link AsyncContext} must then be left alone. They are only used holding the lock of this instance, which the
+     * listener takes to mark the request as finished.
+     * </p>
+     */
+    private class AsyncAuthentication implements Runnable, AuthenticationCallback, AsyncListener {
+        private final HttpServletRequest httpRequest;
+        private final HttpServletResponse httpResponse;
+        private final AsyncContext asyncContext;
+        private PicketBoxSnapshot snapshot;
+        private boolean finished;
+
+        AsyncAuthentication(HttpServletRequest httpRequest, HttpServletResponse httpResponse, AsyncContext asyncContext) {
+            this.httpRequest = httpRequest;
+            this.httpResponse = httpResponse;
+            this.asyncContext = asyncContext;
+        }
+
+        void start() {
+            this.asyncContext.addListener(this);
+
+            try {
+                this.snapshot = securityManager.acquire();
+            } catch (IllegalStateException e) {
+                // the filter is being destroyed
+                unavailable();
+                return;
+            }
+
+            boolean started;
+
+            try {
+                started = this.snapshot.getManager().authenticateAsync(this.httpRequest, this);
+            } catch (Exception e) {
+                failed(e);
+                return;
+            }
+
+            if (!started) {
+                try {
+                    asyncExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    unavailable();
+                }
+            }
+        }
+
+        /**
+         * Authenticate with the blocking scheme
+         */
+        @Override
+        public synchronized void run() {
+            try {
+                if (!this.finished) {
+                    authenticate(this.snapshot.getManager(), this.httpRequest, this.httpResponse);
+                    resume();
+                }
+            } catch (Exception e) {
+                error(e);
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public synchronized void authenticated(Principal principal) {
+            try {
+                if (!this.finished) {
+                    this.snapshot.getManager().authenticated(this.httpRequest, this.httpResponse, principal);
+                    resume();
+                }
+            } catch (Exception e) {
+                error(e);
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public void failed(AuthenticationException e) {
+            failed((Exception) e);
+        }
+
+        private synchronized void failed(Exception e) {
+            try {
+                error(e);
+            } finally {
+                release();
+            }
+        }
+
+        private synchronized void unavailable() {
+            if (!this.finished) {
+                this.finished = true;
+                completeWithError(this.asyncContext, this.httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+
+            release();
+        }
+
+        /**
+         * Authorize the authenticated request and hand it back to the container
+         */
+        private void resume() throws IOException {
+            if (!this.httpResponse.isCommitted()) {
+                authorize(this.snapshot.getManager(), this.httpRequest, this.httpResponse);
+            }
+
+            this.finished = true;
+
+            if (this.httpResponse.isCommitted()) {
+                this.asyncContext.complete();
+            } else {
+                this.asyncContext.dispatch();
+            }
+        }
+
+        private void error(Exception e) {
+            PicketBoxLogger.LOGGER.failedToAuthenticateAsynchronously(e);
+
+            if (!this.finished) {
+                this.finished = true;
+                completeWithError(this.asyncContext, this.httpResponse, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+
+        private void release() {
+            if (this.snapshot != null) {
+                this.snapshot.release();
+                this.snapshot = null;
+            }
+        }
+
+        @Override
+        public synchronized void onComplete(AsyncEvent event) {
+            this.finished = true;
+        }
+
+        @Override
+        public synchronized void onTimeout(AsyncEvent event) {
+            if (!this.finished) {
+                this.finished = true;
+                completeWithError(this.asyncContext, this.httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+
+        @Override
+        public synchronized void onError(AsyncEvent event) {
+            this.finished = true;
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
     }
 }
\ No newline at end of file
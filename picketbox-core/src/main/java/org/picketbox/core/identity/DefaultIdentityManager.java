@@ -22,18 +22,50 @@
 
 package org.picketbox.core.identity;
 
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.picketbox.core.PicketBoxLifecycle;
 import org.picketbox.core.PicketBoxSubject;
 
 /**
  * <p>
  * Default implementation for the {@link IdentityManager} interface.
  * </p>
+ * <p>
+ * The roles of a user are the ones added with {@link #addUserRoles(String, String...)} and, if a roles file is set with
+ * {@link #setRolesFile(String)}, the ones read from that file on the classpath, with entries such as
+ * <code>Aladdin=admin,user</code>. No file is read unless one is set. The file is read when the manager is started.
+ * </p>
+ * <p>
+ * The roles returned by {@link #getRoleNames(Principal)} are expanded by the {@link RoleHierarchy}, if any, so that the
+ * subject holds its effective roles. The hierarchy is started and stopped with this manager.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
-public class DefaultIdentityManager implements IdentityManager {
+public class DefaultIdentityManager implements IdentityManager, PicketBoxLifecycle {
+
+    private final Map<String, List<String>> userRoles = new ConcurrentHashMap<String, List<String>>();
+
+    private volatile Map<String, List<String>> storedRoles = Collections.emptyMap();
+
+    private RoleHierarchy roleHierarchy;
+
+    private String rolesFile;
+
+    private boolean started;
+    private boolean stopped = true;
 
     /*
      * (non-Javadoc)
@@ -46,7 +78,175 @@ public class DefaultIdentityManager implements IdentityManager {
 
         subject.setUser(principal);
 
+        List<String> roleNames = getRoleNames(principal);
+
+        if (roleNames != null && !roleNames.isEmpty()) {
+            RoleSet roles = RoleSet.of(roleNames);
+
+            if (this.roleHierarchy != null) {
+                roles = this.roleHierarchy.getEffectiveRoles(roles);
+            }
+
+            subject.setRoleSet(roles);
+        }
+
         return subject;
     }
 
+    /**
+     * Grant roles to a user
+     *
+     * @param userName
+     * @param roles
+     */
+    public void addUserRoles(String userName, String... roles) {
+        synchronized (this.userRoles) {
+            List<String> granted = new ArrayList<String>();
+            List<String> previous = this.userRoles.get(userName);
+
+            if (previous != null) {
+                granted.addAll(previous);
+            }
+
+            Collections.addAll(granted, roles);
+
+            this.userRoles.put(userName, Collections.unmodifiableList(granted));
+        }
+    }
+
+    /**
+     * Get the roles granted to the user, before the {@link RoleHierarchy} is applied. Override to read them from another
+     * identity store.
+     *
+     * @param principal
+     * @return
+     */
+    protected List<String> getRoleNames(Principal principal) {
+        List<String> stored = this.storedRoles.get(principal.getName());
+        List<String> added = this.userRoles.get(principal.getName());
+
+        if (stored == null) {
+            return added == null ? Collections.<String> emptyList() : added;
+        }
+
+        if (added == null) {
+            return stored;
+        }
+
+        List<String> roleNames = new ArrayList<String>(stored);
+        roleNames.addAll(added);
+
+        return roleNames;
+    }
+
+    /**
+     * @return the roleHierarchy
+     */
+    public RoleHierarchy getRoleHierarchy() {
+        return this.roleHierarchy;
+    }
+
+    /**
+     * @param roleHierarchy the roleHierarchy to set
+     */
+    public void setRoleHierarchy(RoleHierarchy roleHierarchy) {
+        this.roleHierarchy = roleHierarchy;
+    }
+
+    /**
+     * @return the rolesFile
+     */
+    public String getRolesFile() {
+        return this.rolesFile;
+    }
+
+    /**
+     * Set the properties file on the classpath granting roles to users, for instance <code>roles.properties</code>. Takes
+     * effect on the next {@link #start()}.
+     *
+     * @param rolesFile the file, or null for none
+     */
+    public void setRolesFile(String rolesFile) {
+        this.rolesFile = rolesFile;
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    /**
+     * Read the roles file, if any, and compile the {@link RoleHierarchy}
+     *
+     * @see org.picketbox.core.PicketBoxLifecycle#start()
+     */
+    @Override
+    public void start() {
+        this.storedRoles = loadRoles();
+
+        if (this.roleHierarchy != null) {
+            this.roleHierarchy.start();
+        }
+
+        this.started = true;
+        this.stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        if (this.roleHierarchy != null && !this.roleHierarchy.stopped()) {
+            this.roleHierarchy.stop();
+        }
+
+        this.started = false;
+        this.stopped = true;
+    }
+
+    private Map<String, List<String>> loadRoles() {
+        if (this.rolesFile == null) {
+            return Collections.emptyMap();
+        }
+
+        ClassLoader classLoader = DefaultIdentityManager.class.getClassLoader();
+        InputStream is = classLoader.getResourceAsStream(this.rolesFile);
+
+        if (is == null) {
+            throw MESSAGES.unableToFindPropertiesFile(this.rolesFile);
+        }
+
+        Properties properties = new Properties();
+
+        try {
+            properties.load(is);
+        } catch (IOException e) {
+            throw MESSAGES.unableToReadRolesFile(this.rolesFile, e);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        Map<String, List<String>> roles = new HashMap<String, List<String>>();
+
+        for (String userName : properties.stringPropertyNames()) {
+            List<String> roleNames = new ArrayList<String>();
+
+            for (String roleName : properties.getProperty(userName).split(",")) {
+                if (!roleName.trim().isEmpty()) {
+                    roleNames.add(roleName.trim());
+                }
+            }
+
+            roles.put(userName, Collections.unmodifiableList(roleNames));
+        }
+
+        return roles;
+    }
+
 }
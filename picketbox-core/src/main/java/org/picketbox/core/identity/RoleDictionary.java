@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.identity;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Maps role names to small integer ids, shared by all the {@link RoleSet} instances of the JVM. Ids are assigned in
+ * registration order starting at zero and are never reused, so they can index bitsets.
+ * </p>
+ * <p>
+ * Ids are local to the JVM. Anything serialized must carry role names, not ids.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public final class RoleDictionary {
+
+    private static final RoleDictionary DEFAULT = new RoleDictionary();
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+    private volatile String[] names = new String[16];
+
+    private int size;
+
+    /**
+     * Get the dictionary shared by the JVM
+     *
+     * @return
+     */
+    public static RoleDictionary getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the id of a role, registering it if needed
+     *
+     * @param roleName
+     * @return
+     */
+    public int getId(String roleName) {
+        Integer id = this.ids.get(roleName);
+
+        if (id != null) {
+            return id;
+        }
+
+        if (roleName == null) {
+            throw MESSAGES.invalidNullArgument("roleName");
+        }
+
+        synchronized (this) {
+            id = this.ids.get(roleName);
+
+            if (id == null) {
+                String[] names = this.names;
+
+                if (this.size == names.length) {
+                    String[] grown = new String[names.length * 2];
+                    System.arraycopy(names, 0, grown, 0, names.length);
+                    names = grown;
+                }
+
+                // the name is published before the id, so the id of a name can always be resolved back
+                names[this.size] = roleName;
+                this.names = names;
+                id = this.size++;
+                this.ids.put(roleName, id);
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * Get the id of a role without registering it
+     *
+     * @param roleName
+     * @return the id or -1 if the role was never registered
+     */
+    public int lookup(String roleName) {
+        Integer id = roleName == null ? null : this.ids.get(roleName);
+
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the name of a role
+     *
+     * @param id
+     * @return
+     */
+    public String getName(int id) {
+        return this.names[id];
+    }
+
+    /**
+     * Get the number of registered roles
+     *
+     * @return
+     */
+    public int size() {
+        return this.ids.size();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.identity;
+
+import static org.picketbox.core.PicketBoxMessages.MESSAGES;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.picketbox.core.PicketBoxLifecycle;
+
+/**
+ * <p>
+ * Role inheritance, such as <code>admin</code> implying <code>manager</code> implying <code>user</code>. The definitions are
+ * compiled by {@link #start()} into a table holding, for each role, the role itself and all the roles it implies directly
+ * or not. Cycles are allowed, the roles of a cycle imply each other.
+ * </p>
+ * <p>
+ * The definitions can be given as a configuration string, entries being separated by commas:
+ * </p>
+ *
+ * <pre>
+ * admin=manager, manager=user|auditor
+ * </pre>
+ * <p>
+ * {@link #getEffectiveRoles(RoleSet)} expands the roles of a user. It is meant to be called once at login, see
+ * {@link DefaultIdentityManager}, so that authorization checks only look at the effective roles. The expansion of each
+ * distinct role set is cached until the next {@link #start()}.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class RoleHierarchy implements PicketBoxLifecycle {
+
+    /**
+     * Beyond this number of distinct role sets the expansions are no longer cached
+     */
+    private static final int MAX_CACHED_EXPANSIONS = 10000;
+
+    private final Map<String, Set<String>> definitions = new LinkedHashMap<String, Set<String>>();
+
+    private volatile Table table;
+
+    private boolean started;
+    private boolean stopped = true;
+
+    /**
+     * Define the roles implied by a role. Takes effect on the next {@link #start()}.
+     *
+     * @param roleName
+     * @param impliedRoles
+     */
+    public void addRole(String roleName, String... impliedRoles) {
+        if (roleName == null) {
+            throw MESSAGES.invalidNullArgument("roleName");
+        }
+
+        synchronized (this.definitions) {
+            Set<String> implied = this.definitions.get(roleName);
+
+            if (implied == null) {
+                implied = new LinkedHashSet<String>();
+                this.definitions.put(roleName, implied);
+            }
+
+            for (String impliedRole : impliedRoles) {
+                implied.add(impliedRole);
+            }
+        }
+    }
+
+    /**
+     * Add the definitions of a configuration string. See the class documentation for the syntax.
+     *
+     * @param config
+     */
+    public void addDefinitions(String config) {
+        if (config == null) {
+            return;
+        }
+
+        for (String entry : config.split(",")) {
+            entry = entry.trim();
+
+            if (entry.isEmpty()) {
+                continue;
+            }
+
+            int equals = entry.indexOf('=');
+
+            if (equals <= 0) {
+                throw MESSAGES.invalidRoleHierarchyDefinition(entry);
+            }
+
+            List<String> impliedRoles = new ArrayList<String>();
+
+            for (String role : entry.substring(equals + 1).split("\\|")) {
+                if (!role.trim().isEmpty()) {
+                    impliedRoles.add(role.trim());
+                }
+            }
+
+            addRole(entry.substring(0, equals).trim(), impliedRoles.toArray(new String[impliedRoles.size()]));
+        }
+    }
+
+    /**
+     * Get the roles implied by the given ones, including themselves. The roles are returned unchanged when the hierarchy is
+     * not started.
+     *
+     * @param roles
+     * @return
+     */
+    public RoleSet getEffectiveRoles(RoleSet roles) {
+        Table table = this.table;
+
+        if (table == null || roles.isEmpty()) {
+            return roles;
+        }
+
+        RoleSet effectiveRoles = table.expansions.get(roles);
+
+        if (effectiveRoles == null) {
+            Set<String> names = new LinkedHashSet<String>();
+
+            for (String roleName : roles.getRoleNames()) {
+                List<String> closure = table.closures.get(roleName);
+
+                if (closure == null) {
+                    names.add(roleName);
+                } else {
+                    names.addAll(closure);
+                }
+            }
+
+            effectiveRoles = names.size() == roles.size() ? roles : RoleSet.of(names);
+
+            if (table.expansions.size() < MAX_CACHED_EXPANSIONS) {
+                table.expansions.put(roles, effectiveRoles);
+            }
+        }
+
+        return effectiveRoles;
+    }
+
+    /**
+     * Get the roles implied by the given ones, including themselves
+     *
+     * @param roleNames
+     * @return
+     */
+    public List<String> getEffectiveRoles(List<String> roleNames) {
+        return getEffectiveRoles(RoleSet.of(roleNames)).getRoleNames();
+    }
+
+    @Override
+    public boolean started() {
+        return this.started;
+    }
+
+    /**
+     * Compile the definitions, discarding the previous table
+     *
+     * @see org.picketbox.core.PicketBoxLifecycle#start()
+     */
+    @Override
+    public void start() {
+        Map<String, List<String>> closures = new HashMap<String, List<String>>();
+
+        synchronized (this.definitions) {
+            for (String roleName : this.definitions.keySet()) {
+                Set<String> closure = new LinkedHashSet<String>();
+
+                collect(roleName, closure);
+
+                closures.put(roleName, Collections.unmodifiableList(new ArrayList<String>(closure)));
+            }
+        }
+
+        this.table = new Table(closures);
+        this.started = true;
+        this.stopped = false;
+    }
+
+    private void collect(String roleName, Set<String> closure) {
+        if (!closure.add(roleName)) {
+            return;
+        }
+
+        Set<String> implied = this.definitions.get(roleName);
+
+        if (implied != null) {
+            for (String impliedRole : implied) {
+                collect(impliedRole, closure);
+            }
+        }
+    }
+
+    @Override
+    public boolean stopped() {
+        return this.stopped;
+    }
+
+    @Override
+    public void stop() {
+        this.table = null;
+        this.started = false;
+        this.stopped = true;
+    }
+
+    /**
+     * A compiled hierarchy
+     */
+    private static class Table {
+        private final Map<String, List<String>> closures;
+        private final ConcurrentMap<RoleSet, RoleSet> expansions = new ConcurrentHashMap<RoleSet, RoleSet>();
+
+        Table(Map<String, List<String>> closures) {
+            this.closures = closures;
+        }
+    }
+}
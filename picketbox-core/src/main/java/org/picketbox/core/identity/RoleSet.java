@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.identity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * An immutable set of roles, stored as a bitset indexed by the ids of a {@link RoleDictionary}. Membership checks are single
+ * bit tests, and {@link #intersects(RoleSet)} and {@link #containsAll(RoleSet)} compare a whole set, such as the roles
+ * required by a constraint, one word at a time.
+ * </p>
+ * <p>
+ * Role sets are canonicalized: the users sharing the same roles share the same instance, including its list of names.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public final class RoleSet {
+
+    /**
+     * Beyond this number of distinct role sets new ones are no longer canonicalized
+     */
+    private static final int MAX_CANONICAL_SETS = 10000;
+
+    private static final ConcurrentMap<RoleSet, RoleSet> CANONICAL_SETS = new ConcurrentHashMap<RoleSet, RoleSet>();
+
+    /**
+     * The set without roles
+     */
+    public static final RoleSet EMPTY = new RoleSet(new long[0], Collections.<String> emptyList());
+
+    private final long[] words;
+
+    private final List<String> roleNames;
+
+    private final int hashCode;
+
+    private RoleSet(long[] words, List<String> roleNames) {
+        this.words = words;
+        this.roleNames = roleNames;
+        this.hashCode = Arrays.hashCode(words);
+    }
+
+    /**
+     * Get the canonical set of the given roles, registering them with the default {@link RoleDictionary}
+     *
+     * @param roleNames
+     * @return
+     */
+    public static RoleSet of(Collection<String> roleNames) {
+        if (roleNames == null || roleNames.isEmpty()) {
+            return EMPTY;
+        }
+
+        RoleDictionary dictionary = RoleDictionary.getDefault();
+        long[] words = new long[0];
+        List<String> names = new ArrayList<String>(roleNames.size());
+
+        for (String roleName : roleNames) {
+            int id = dictionary.getId(roleName);
+            int word = id >>> 6;
+
+            if (word >= words.length) {
+                words = Arrays.copyOf(words, word + 1);
+            }
+
+            long bit = 1L << id;
+
+            if ((words[word] & bit) == 0) {
+                words[word] |= bit;
+                names.add(roleName);
+            }
+        }
+
+        RoleSet roleSet = new RoleSet(words, Collections.unmodifiableList(names));
+        RoleSet canonical = CANONICAL_SETS.get(roleSet);
+
+        if (canonical != null) {
+            return canonical;
+        }
+
+        if (CANONICAL_SETS.size() >= MAX_CANONICAL_SETS) {
+            return roleSet;
+        }
+
+        canonical = CANONICAL_SETS.putIfAbsent(roleSet, roleSet);
+
+        return canonical != null ? canonical : roleSet;
+    }
+
+    /**
+     * Get the canonical set of the given roles
+     *
+     * @param roleNames
+     * @return
+     */
+    public static RoleSet of(String... roleNames) {
+        return of(Arrays.asList(roleNames));
+    }
+
+    /**
+     * Check if the set contains the role with the given id
+     *
+     * @param id
+     * @return
+     */
+    public boolean contains(int id) {
+        int word = id >>> 6;
+
+        return id >= 0 && word < this.words.length && (this.words[word] & (1L << id)) != 0;
+    }
+
+    /**
+     * Check if the set contains the given role
+     *
+     * @param roleName
+     * @return
+     */
+    public boolean contains(String roleName) {
+        return contains(RoleDictionary.getDefault().lookup(roleName));
+    }
+
+    /**
+     * Check if the set contains at least one of the roles of another set
+     *
+     * @param other
+     * @return
+     */
+    public boolean intersects(RoleSet other) {
+        int length = Math.min(this.words.length, other.words.length);
+
+        for (int i = 0; i < length; i++) {
+            if ((this.words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the set contains all the roles of another set
+     *
+     * @param other
+     * @return
+     */
+    public boolean containsAll(RoleSet other) {
+        for (int i = 0; i < other.words.length; i++) {
+            long word = i < this.words.length ? this.words[i] : 0;
+
+            if ((word & other.words[i]) != other.words[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if the set has no role
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return this.roleNames.isEmpty();
+    }
+
+    /**
+     * Get the number of roles
+     *
+     * @return
+     */
+    public int size() {
+        return this.roleNames.size();
+    }
+
+    /**
+     * Get the names of the roles, in the order they were first given
+     *
+     * @return
+     */
+    public List<String> getRoleNames() {
+        return this.roleNames;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof RoleSet)) {
+            return false;
+        }
+
+        RoleSet other = (RoleSet) obj;
+
+        return this.hashCode == other.hashCode && Arrays.equals(this.words, other.words);
+    }
+
+    @Override
+    public String toString() {
+        return this.roleNames.toString();
+    }
+}
@@ -30,6 +30,8 @@ import javax.servlet.http.HttpSession;
 
 import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.http.RequestClassifier;
+import org.picketbox.core.session.PicketBoxSessionManager;
 
 /**
  * <p>This class provides the basic functionalities for the logout process.</p>
@@ -57,42 +59,59 @@ public class LogoutManager {
      */
     public void logout(HttpServletRequest request, HttpServletResponse response) {
         if (isLogoutRequest(request)) {
-            HttpSession session = request.getSession(false);
+            endSession(request, response);
+        }
+    }
 
-            if (session == null) {
-                throw PicketBoxMessages.MESSAGES.invalidUserSession();
-            }
+    /**
+     * <p>End the session of a request already known to ask for a logout, for instance one the
+     * {@link org.picketbox.core.http.filters.DelegatingSecurityFilter} classified as a logout request, and redirect to the
+     * logout page.</p>
+     *
+     * @param request
+     * @param response
+     */
+    public void endSession(HttpServletRequest request, HttpServletResponse response) {
+        HttpSession session = request.getSession(false);
 
-            session.invalidate();
+        if (session == null) {
+            throw PicketBoxMessages.MESSAGES.invalidUserSession();
+        }
 
-            try {
-                String logoutPage = getLogoutPage();
+        // free the state of the session before the container gets to it
+        PicketBoxSessionManager.getResourceRegistry().release(session.getId());
+        session.invalidate();
 
-                if (getLogoutPage() == null) {
-                    logoutPage = request.getContextPath();
-                }
+        try {
+            String logoutPage = getLogoutPage();
 
-                response.sendRedirect(logoutPage);
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (getLogoutPage() == null) {
+                logoutPage = request.getContextPath();
             }
+
+            response.sendRedirect(logoutPage);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     /**
-     * <p>Checks if the request is asking for a logout.</p>
+     * <p>Checks if the request is asking for a logout. The normalized request path is matched, see
+     * {@link RequestClassifier#getPath(HttpServletRequest)}.</p>
      *
      * @param request
      * @return
      */
-    private boolean isLogoutRequest(HttpServletRequest request) {
+    public boolean isLogoutRequest(HttpServletRequest request) {
         String logoutUrl = getLogoutUrl();
 
         if (logoutUrl == null) {
             logoutUrl = PicketBoxConstants.LOGOUT_URI;
         }
 
-        return request.getRequestURI().contains(logoutUrl);
+        String path = RequestClassifier.getPath(request);
+
+        return path != null && path.contains(logoutUrl);
     }
 
     /**
@@ -21,35 +21,77 @@
  */
 package org.picketbox.core.nonce;
 
-import java.util.UUID;
-
 import org.picketbox.core.util.Base64;
+import org.picketbox.core.util.TokenGenerator;
+import org.picketbox.core.util.TokenGenerator.Encoding;
 
 /**
- * An instance of {@link NonceGenerator} that uses {@link UUID} level 4
+ * An instance of {@link NonceGenerator} that combines the current time with random bytes from the shared
+ * {@link TokenGenerator}. The nonce has the form <code>{hex_time}.{base64url_random}</code>.
  *
  * @author anil saldhana
  */
 public class UUIDNonceGenerator implements NonceGenerator {
+
+    private static final int RANDOM_BYTES = 16;
+
+    private static final char SEPARATOR = '.';
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
     /*
-     * Returns a nonce that is base64 encoded version of {current_time:uuid-level4}
+     * Returns a nonce of the form {hex_time}.{base64url_random}, written in one char buffer
      *
      * @see org.picketbox.nonce.NonceGenerator#get()
      */
     @Override
     public String get() {
-        StringBuilder sb = new StringBuilder(System.currentTimeMillis() + ":");
-        sb.append(UUID.randomUUID().toString());
-        return Base64.encodeBytes(sb.toString().getBytes());
+        char[] nonce = new char[16 + 1 + TokenGenerator.encodedLength(RANDOM_BYTES, Encoding.BASE64URL)];
+
+        long time = System.currentTimeMillis();
+        int digits = Math.max(1, (64 - Long.numberOfLeadingZeros(time) + 3) / 4);
+        int pos = 0;
+
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            nonce[pos++] = HEX_CHARS[(int) (time >>> shift) & 0x0f];
+        }
+
+        nonce[pos++] = SEPARATOR;
+        pos += TokenGenerator.getDefault().generate(RANDOM_BYTES, Encoding.BASE64URL, nonce, pos);
+
+        return new String(nonce, 0, pos);
     }
 
     /*
-     * The nonceValue should be base64 encoded version of {current_time:uuid-level4}
+     * The nonceValue should be {hex_time}.{base64url_random}. Nonces in the previous format, the base64 encoded version of
+     * {current_time:uuid-level4}, are still accepted.
      *
      * @see org.picketbox.nonce.NonceGenerator#hasExpired(java.lang.String, long)
      */
     @Override
     public boolean hasExpired(String nonceValue, long maxValue) {
+        int separatorIndex = nonceValue.indexOf(SEPARATOR);
+        if (separatorIndex < 0)
+            return hasLegacyNonceExpired(nonceValue, maxValue);
+        if (separatorIndex == 0 || separatorIndex > 16)
+            return true;
+
+        long parsedTimeValue = 0;
+        for (int i = 0; i < separatorIndex; i++) {
+            int digit = Character.digit(nonceValue.charAt(i), 16);
+            if (digit < 0)
+                return true;
+            parsedTimeValue = (parsedTimeValue << 4) | digit;
+        }
+
+        long ms = System.currentTimeMillis() - parsedTimeValue;
+        if (ms > maxValue) {
+            return true;
+        }
+        return false;
+    }
+
+    private boolean hasLegacyNonceExpired(String nonceValue, long maxValue) {
         nonceValue = new String(Base64.decode(nonceValue));
         int colonIndex = nonceValue.indexOf(":");
         if (colonIndex < 0)
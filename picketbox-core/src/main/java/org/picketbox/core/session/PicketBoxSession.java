@@ -21,16 +21,20 @@
  */
 package org.picketbox.core.session;
 
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Map.Entry;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.picketbox.core.PicketBoxMessages;
 import org.picketbox.core.exceptions.PicketBoxSessionException;
+import org.picketbox.core.util.TokenGenerator;
 
 /**
  * A session that is capable of storing attributes
@@ -40,16 +44,33 @@ import org.picketbox.core.exceptions.PicketBoxSessionException;
  */
 public class PicketBoxSession {
     protected ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
-    //Level 4 UUID based id
-    protected String id = UUID.randomUUID().toString();
+    //Level 4 UUID formatted id
+    protected String id = TokenGenerator.getDefault().generateId();
 
     protected boolean invalid = false;
 
-    protected List<PicketBoxSessionListener> listeners = new ArrayList<PicketBoxSessionListener>();
+    protected List<PicketBoxSessionListener> listeners = new CopyOnWriteArrayList<PicketBoxSessionListener>();
+
+    /**
+     * Estimated size of each attribute, kept to update the session size incrementally
+     */
+    protected ConcurrentMap<String, Long> attributeSizes = new ConcurrentHashMap<String, Long>();
+
+    protected AtomicLong estimatedSize = new AtomicLong();
+
+    protected volatile long lastAccessedTime = System.currentTimeMillis();
+
+    protected volatile boolean passivated = false;
+
+    volatile TimerTask expiryTask;
 
     PicketBoxSession() {
     }
 
+    PicketBoxSession(String id) {
+        this.id = id;
+    }
+
     /**
      * Add a session listener
      *
@@ -76,12 +97,30 @@ public class PicketBoxSession {
      * @throws PicketBoxSessionException
      */
     public void setAttribute(String key, Object val) throws PicketBoxSessionException {
+        setAttribute(key, val, null);
+    }
+
+    /**
+     * Add an attribute on behalf of a change made elsewhere. The origin is carried by the event raised for the change, so
+     * listeners can tell it from the changes made locally.
+     *
+     * @param key
+     * @param val
+     * @param origin
+     * @throws PicketBoxSessionException
+     */
+    public void setAttribute(String key, Object val, String origin) throws PicketBoxSessionException {
         if (invalid)
             throw PicketBoxMessages.MESSAGES.invalidatedSession();
-        attributes.put(key, val);
-        for (PicketBoxSessionListener listener : listeners) {
-            listener.onSetAttribute(this, key, val);
+        access();
+        PicketBoxSessionMemoryManager memoryManager = PicketBoxSessionManager.getMemoryManager();
+        long size = memoryManager.estimate(key, val);
+        synchronized (this) {
+            attributes.put(key, val);
+            Long previousSize = attributeSizes.put(key, size);
+            adjustSize(memoryManager, size - (previousSize != null ? previousSize : 0));
         }
+        publish(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.SET_ATTRIBUTE, this, key, val, origin));
     }
 
     /**
@@ -93,6 +132,7 @@ public class PicketBoxSession {
     public Map<String, Object> getAttributes() throws PicketBoxSessionException {
         if (invalid)
             throw PicketBoxMessages.MESSAGES.invalidatedSession();
+        access();
         return Collections.unmodifiableMap(attributes);
     }
 
@@ -106,6 +146,7 @@ public class PicketBoxSession {
     public Object getAttribute(String key) throws PicketBoxSessionException {
         if (invalid)
             throw PicketBoxMessages.MESSAGES.invalidatedSession();
+        access();
         return attributes.get(key);
     }
 
@@ -122,20 +163,136 @@ public class PicketBoxSession {
      * Invalidate the session
      */
     public void invalidate() {
-        for (PicketBoxSessionListener listener : listeners) {
-            listener.onInvalidate(this);
+        invalidate(null);
+    }
+
+    /**
+     * Invalidate the session on behalf of a change made elsewhere
+     *
+     * @param origin
+     */
+    public void invalidate(String origin) {
+        publish(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.INVALIDATE, this, null, null, origin));
+        PicketBoxSessionMemoryManager memoryManager = PicketBoxSessionManager.getMemoryManager();
+        synchronized (this) {
+            attributes.clear();
+            attributeSizes.clear();
+            memoryManager.sizeChanged(-estimatedSize.getAndSet(0));
+            if (passivated && memoryManager.getStore() != null) {
+                memoryManager.getStore().remove(id);
+            }
+            passivated = false;
+            invalid = true;
         }
-        attributes.clear();
-        invalid = true;
+        memoryManager.unregister(this);
+        PicketBoxSessionManager.cancelTimer(this);
+        PicketBoxSessionManager.getResourceRegistry().release(id);
     }
 
     /**
      * Expire the session
      */
     public void expire() {
-        invalidate();
-        for (PicketBoxSessionListener listener : listeners) {
-            listener.onExpiration(this);
+        expire(null);
+    }
+
+    /**
+     * Expire the session on behalf of a change made elsewhere
+     *
+     * @param origin
+     */
+    public void expire(String origin) {
+        invalidate(origin);
+        publish(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.EXPIRE, this, null, null, origin));
+    }
+
+    /**
+     * Get the estimated heap used by the attributes of this session
+     *
+     * @return the size in bytes
+     */
+    public long getEstimatedSize() {
+        return estimatedSize.get();
+    }
+
+    /**
+     * Get the last time, in milliseconds, the attributes of this session were read or written
+     *
+     * @return
+     */
+    public long getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+    /**
+     * Are the attributes of this session moved out of the heap? They are loaded back on the next access.
+     *
+     * @return
+     */
+    public boolean isPassivated() {
+        return passivated;
+    }
+
+    /**
+     * Move the attributes to the store, unless the session was used after <code>idleSince</code>
+     *
+     * @param store
+     * @param idleSince
+     * @return true if the session was passivated
+     */
+    synchronized boolean passivate(PicketBoxSessionStore store, long idleSince) {
+        if (invalid || passivated || lastAccessedTime > idleSince) {
+            return false;
+        }
+
+        store.store(id, new HashMap<String, Object>(attributes));
+
+        attributes.clear();
+        attributeSizes.clear();
+        PicketBoxSessionManager.getMemoryManager().sizeChanged(-estimatedSize.getAndSet(0));
+        passivated = true;
+
+        return true;
+    }
+
+    private void access() {
+        lastAccessedTime = System.currentTimeMillis();
+
+        if (passivated) {
+            activate();
+        }
+    }
+
+    private synchronized void activate() {
+        if (!passivated) {
+            return;
+        }
+
+        PicketBoxSessionMemoryManager memoryManager = PicketBoxSessionManager.getMemoryManager();
+        Map<String, Object> stored = memoryManager.getStore() != null ? memoryManager.getStore().load(id) : null;
+
+        if (stored != null) {
+            for (Entry<String, Object> attribute : stored.entrySet()) {
+                long size = memoryManager.estimate(attribute.getKey(), attribute.getValue());
+                attributes.put(attribute.getKey(), attribute.getValue());
+                attributeSizes.put(attribute.getKey(), size);
+                adjustSize(memoryManager, size);
+            }
+        }
+
+        passivated = false;
+    }
+
+    private void adjustSize(PicketBoxSessionMemoryManager memoryManager, long delta) {
+        if (delta != 0) {
+            estimatedSize.addAndGet(delta);
+            memoryManager.sizeChanged(delta);
+        }
+    }
+
+    private void publish(PicketBoxSessionEvent event) {
+        if (!listeners.isEmpty()) {
+            PicketBoxSessionManager.getEventBus().publish(event, listeners);
         }
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.util.Collections;
+
+/**
+ * <p>
+ * An event raised by a {@link PicketBoxSession}. Events are delivered to the {@link PicketBoxSessionListener} instances by the
+ * {@link PicketBoxSessionEventBus}.
+ * </p>
+ * <p>
+ * Listeners that receive events asynchronously must rely on the key and value carried by the event, the state of the
+ * session may have changed by the time the event is delivered.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionEvent {
+
+    public static enum Type {
+        CREATE, SET_ATTRIBUTE, INVALIDATE, EXPIRE
+    }
+
+    private final Type type;
+    private final PicketBoxSession session;
+    private final String key;
+    private final Object value;
+    private final String origin;
+
+    public PicketBoxSessionEvent(Type type, PicketBoxSession session) {
+        this(type, session, null, null, null);
+    }
+
+    public PicketBoxSessionEvent(Type type, PicketBoxSession session, String key, Object value) {
+        this(type, session, key, value, null);
+    }
+
+    public PicketBoxSessionEvent(Type type, PicketBoxSession session, String key, Object value, String origin) {
+        this.type = type;
+        this.session = session;
+        this.key = key;
+        this.value = value;
+        this.origin = origin;
+    }
+
+    /**
+     * Get the type of the event
+     *
+     * @return
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the session that raised the event
+     *
+     * @return
+     */
+    public PicketBoxSession getSession() {
+        return session;
+    }
+
+    /**
+     * Get the attribute key of a {@link Type#SET_ATTRIBUTE} event
+     *
+     * @return
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the attribute value of a {@link Type#SET_ATTRIBUTE} event
+     *
+     * @return
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Get where the change was made. Null when it was made by this node, otherwise the id given by whoever applied a change
+     * made elsewhere, for example the node a replicated change came from.
+     *
+     * @return
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Deliver this event to a listener
+     *
+     * @param listener
+     */
+    void deliverTo(PicketBoxSessionListener listener) {
+        if (listener instanceof PicketBoxSessionBatchListener) {
+            ((PicketBoxSessionBatchListener) listener).onEvents(Collections.singletonList(this));
+            return;
+        }
+
+        switch (type) {
+            case CREATE:
+                listener.onCreate(session);
+                break;
+            case SET_ATTRIBUTE:
+                listener.onSetAttribute(session, key, value);
+                break;
+            case INVALIDATE:
+                listener.onInvalidate(session);
+                break;
+            case EXPIRE:
+                listener.onExpiration(session);
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + session.getId() + (key != null ? ", " + key : "") + (origin != null ? ", from " + origin : "")
+                + "]";
+    }
+}
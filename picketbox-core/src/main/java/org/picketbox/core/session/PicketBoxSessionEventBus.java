@@ -0,0 +1,383 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketbox.core.PicketBoxLogger;
+
+/**
+ * <p>
+ * Delivers the {@link PicketBoxSessionEvent} raised by {@link PicketBoxSession} instances to their listeners. Each listener is
+ * registered with a {@link DeliveryMode}:
+ * </p>
+ * <ul>
+ * <li>{@link DeliveryMode#SYNCHRONOUS}: the listener is called on the thread that changed the session. This is the default
+ * for listeners that were not registered explicitly.</li>
+ * <li>{@link DeliveryMode#ASYNCHRONOUS}: the event is put in a bounded queue and the listener is called by a dedicated thread.
+ * The thread changing the session only pays for the enqueue.</li>
+ * <li>{@link DeliveryMode#BATCHED}: like asynchronous, but events are handed over in batches of up to
+ * <code>batchSize</code> events, waiting at most <code>batchDelay</code> milliseconds for a batch to fill up.</li>
+ * </ul>
+ * <p>
+ * When the queue of a listener is full new events for that listener are discarded, counted as dropped in its
+ * {@link PicketBoxSessionEventMetrics} and logged. The first drop of a listener is logged, then every thousandth.
+ * </p>
+ * <p>
+ * Replacing or removing a registration, or stopping the bus, delivers the events still queued for the listener before it
+ * returns. Events published meanwhile are handed to the new registration, or delivered synchronously if there is none.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionEventBus {
+
+    public static enum DeliveryMode {
+        SYNCHRONOUS, ASYNCHRONOUS, BATCHED
+    }
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final long DEFAULT_BATCH_DELAY = 50;
+
+    private static final int DROP_LOG_INTERVAL = 1000;
+
+    private final ConcurrentMap<PicketBoxSessionListener, Registration> registrations = new ConcurrentHashMap<PicketBoxSessionListener, Registration>();
+
+    /**
+     * Register a listener with the default queue capacity and batch settings
+     *
+     * @param listener
+     * @param mode
+     */
+    public void register(PicketBoxSessionListener listener, DeliveryMode mode) {
+        register(listener, mode, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_DELAY);
+    }
+
+    /**
+     * Register a listener. If the listener was already registered the previous registration is replaced, after the events
+     * already queued for it are delivered.
+     *
+     * @param listener
+     * @param mode
+     * @param queueCapacity maximum number of events waiting for delivery. Ignored for synchronous listeners.
+     * @param batchSize maximum number of events per batch. Only used by batched listeners.
+     * @param batchDelay maximum time in milliseconds to wait for a batch to fill up. Only used by batched listeners.
+     */
+    public void register(PicketBoxSessionListener listener, DeliveryMode mode, int queueCapacity, int batchSize,
+            long batchDelay) {
+        Registration registration;
+
+        if (mode == DeliveryMode.SYNCHRONOUS) {
+            registration = new Registration(listener);
+        } else {
+            registration = new QueuedRegistration(listener, mode, queueCapacity, batchSize, batchDelay);
+        }
+
+        Registration previous = registrations.put(listener, registration);
+
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * Remove the registration of a listener. Events already queued for it are delivered before this method returns.
+     *
+     * @param listener
+     */
+    public void unregister(PicketBoxSessionListener listener) {
+        Registration registration = registrations.remove(listener);
+
+        if (registration != null) {
+            registration.stop();
+        }
+    }
+
+    /**
+     * Remove all the registrations. Events already queued are delivered before this method returns.
+     */
+    public void stop() {
+        for (PicketBoxSessionListener listener : registrations.keySet()) {
+            unregister(listener);
+        }
+    }
+
+    /**
+     * Get the delivery metrics of a listener
+     *
+     * @param listener
+     * @return the metrics or null if the listener is not registered
+     */
+    public PicketBoxSessionEventMetrics getMetrics(PicketBoxSessionListener listener) {
+        Registration registration = registrations.get(listener);
+
+        if (registration == null) {
+            return null;
+        }
+
+        return registration.getMetrics();
+    }
+
+    /**
+     * Deliver an event to the given listeners
+     *
+     * @param event
+     * @param listeners
+     */
+    void publish(PicketBoxSessionEvent event, List<PicketBoxSessionListener> listeners) {
+        for (PicketBoxSessionListener listener : listeners) {
+            Registration registration = registrations.get(listener);
+
+            // a stopped registration refuses the event, it was already replaced or removed
+            while (registration != null && !registration.publish(event)) {
+                registration = registrations.get(listener);
+            }
+
+            if (registration == null) {
+                event.deliverTo(listener);
+            }
+        }
+    }
+
+    /**
+     * A synchronous registration
+     */
+    private static class Registration {
+        protected final PicketBoxSessionListener listener;
+        protected final AtomicLong delivered = new AtomicLong();
+        protected final AtomicLong dropped = new AtomicLong();
+        protected final AtomicLong failed = new AtomicLong();
+
+        Registration(PicketBoxSessionListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * @return false if the registration was stopped and the event must be published elsewhere
+         */
+        boolean publish(PicketBoxSessionEvent event) {
+            try {
+                event.deliverTo(listener);
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                throw e;
+            }
+
+            return true;
+        }
+
+        PicketBoxSessionEventMetrics getMetrics() {
+            return new PicketBoxSessionEventMetrics(0, 0, 0, delivered.get(), dropped.get(), failed.get());
+        }
+
+        void stop() {
+        }
+    }
+
+    /**
+     * An asynchronous or batched registration, with its own queue and delivery thread
+     */
+    private static class QueuedRegistration extends Registration implements Runnable {
+        private final DeliveryMode mode;
+        private final BlockingQueue<PicketBoxSessionEvent> queue;
+        private final int queueCapacity;
+        private final int batchSize;
+        private final long batchDelay;
+        private final AtomicInteger highWaterMark = new AtomicInteger();
+        private final Thread worker;
+        private volatile boolean running = true;
+
+        QueuedRegistration(PicketBoxSessionListener listener, DeliveryMode mode, int queueCapacity, int batchSize,
+                long batchDelay) {
+            super(listener);
+            this.mode = mode;
+            this.queue = new ArrayBlockingQueue<PicketBoxSessionEvent>(queueCapacity);
+            this.queueCapacity = queueCapacity;
+            this.batchSize = mode == DeliveryMode.BATCHED ? batchSize : 1;
+            this.batchDelay = batchDelay;
+            this.worker = new Thread(this, "PicketBox Session Events " + listener.getClass().getName());
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+
+        @Override
+        boolean publish(PicketBoxSessionEvent event) {
+            if (!running) {
+                return false;
+            }
+
+            if (!queue.offer(event)) {
+                long count = dropped.incrementAndGet();
+
+                if (count == 1 || count % DROP_LOG_INTERVAL == 0) {
+                    PicketBoxLogger.LOGGER.droppedSessionEvents(listener.getClass().getName(), queueCapacity, count);
+                }
+
+                return true;
+            }
+
+            // stopped while enqueuing, take the event back unless the worker or stop() already got it
+            if (!running && queue.remove(event)) {
+                return false;
+            }
+
+            int size = queue.size();
+            int mark = highWaterMark.get();
+
+            while (size > mark && !highWaterMark.compareAndSet(mark, size)) {
+                mark = highWaterMark.get();
+            }
+
+            return true;
+        }
+
+        @Override
+        PicketBoxSessionEventMetrics getMetrics() {
+            return new PicketBoxSessionEventMetrics(queue.size(), queueCapacity, highWaterMark.get(), delivered.get(),
+                    dropped.get(), failed.get());
+        }
+
+        @Override
+        void stop() {
+            running = false;
+
+            if (Thread.currentThread() == worker) {
+                // called by the listener itself, the worker delivers what is left once it returns
+                return;
+            }
+
+            boolean joined = true;
+
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                joined = false;
+                Thread.currentThread().interrupt();
+            }
+
+            List<PicketBoxSessionEvent> remaining = new ArrayList<PicketBoxSessionEvent>();
+
+            queue.drainTo(remaining);
+
+            if (remaining.isEmpty()) {
+                return;
+            }
+
+            if (joined) {
+                // enqueued after the worker exited
+                deliver(remaining);
+            } else {
+                // the worker may still be delivering, the listener is not called concurrently
+                dropped.addAndGet(remaining.size());
+                PicketBoxLogger.LOGGER.discardedSessionEvents(listener.getClass().getName(), remaining.size());
+            }
+        }
+
+        @Override
+        public void run() {
+            List<PicketBoxSessionEvent> batch = new ArrayList<PicketBoxSessionEvent>(batchSize);
+
+            while (running || !queue.isEmpty()) {
+                try {
+                    PicketBoxSessionEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                    if (first == null) {
+                        continue;
+                    }
+
+                    batch.add(first);
+
+                    if (mode == DeliveryMode.BATCHED) {
+                        fillBatch(batch);
+                    }
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+
+                deliver(batch);
+                batch.clear();
+            }
+        }
+
+        private void fillBatch(List<PicketBoxSessionEvent> batch) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + batchDelay;
+
+            queue.drainTo(batch, batchSize - batch.size());
+
+            while (batch.size() < batchSize && running) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0) {
+                    break;
+                }
+
+                PicketBoxSessionEvent next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+
+                if (next == null) {
+                    break;
+                }
+
+                batch.add(next);
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+        }
+
+        private void deliver(List<PicketBoxSessionEvent> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            if (listener instanceof PicketBoxSessionBatchListener) {
+                try {
+                    ((PicketBoxSessionBatchListener) listener).onEvents(new ArrayList<PicketBoxSessionEvent>(batch));
+                    delivered.addAndGet(batch.size());
+                } catch (RuntimeException e) {
+                    failed.addAndGet(batch.size());
+                    PicketBoxLogger.LOGGER.failedToDeliverSessionEvent(listener.getClass().getName(), batch.toString(), e);
+                }
+                return;
+            }
+
+            for (PicketBoxSessionEvent event : batch) {
+                try {
+                    event.deliverTo(listener);
+                    delivered.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    PicketBoxLogger.LOGGER.failedToDeliverSessionEvent(listener.getClass().getName(), event.toString(), e);
+                }
+            }
+        }
+    }
+}
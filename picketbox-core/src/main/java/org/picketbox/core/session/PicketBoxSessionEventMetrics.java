@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+/**
+ * A snapshot of the delivery counters of a listener registered in the {@link PicketBoxSessionEventBus}.
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionEventMetrics {
+
+    private final int queueSize;
+    private final int queueCapacity;
+    private final int highWaterMark;
+    private final long delivered;
+    private final long dropped;
+    private final long failed;
+
+    PicketBoxSessionEventMetrics(int queueSize, int queueCapacity, int highWaterMark, long delivered, long dropped,
+            long failed) {
+        this.queueSize = queueSize;
+        this.queueCapacity = queueCapacity;
+        this.highWaterMark = highWaterMark;
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.failed = failed;
+    }
+
+    /**
+     * Get the number of events waiting to be delivered
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Get the maximum number of events that can wait to be delivered. Zero for synchronous listeners.
+     *
+     * @return
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Get the largest number of events that were waiting to be delivered at the same time
+     *
+     * @return
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Get the number of events delivered to the listener
+     *
+     * @return
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Get the number of events discarded because the queue was full
+     *
+     * @return
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the number of events whose delivery raised an exception
+     *
+     * @return
+     */
+    public long getFailed() {
+        return failed;
+    }
+}
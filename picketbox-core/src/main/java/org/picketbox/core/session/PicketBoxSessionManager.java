@@ -21,8 +21,10 @@
  */
 package org.picketbox.core.session;
 
+import java.util.Collections;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A manager capable of creating PicketBox sessions
@@ -34,6 +36,19 @@ public class PicketBoxSessionManager {
 
     private static Timer timer = new Timer();
 
+    private static final PicketBoxSessionEventBus eventBus = new PicketBoxSessionEventBus();
+
+    private static final PicketBoxSessionMemoryManager memoryManager = new PicketBoxSessionMemoryManager(timer);
+
+    private static final PicketBoxSessionResourceRegistry resourceRegistry = new PicketBoxSessionResourceRegistry();
+
+    /**
+     * Cancelled expiry tasks stay in the timer queue until purged, purge them every so many cancellations
+     */
+    private static final int PURGE_INTERVAL = 1000;
+
+    private static final AtomicInteger cancelledExpiries = new AtomicInteger();
+
     private static long expiryValue = 5 * 60 * 1000; //5 minutes
 
     public static enum Expiry {seconds, minutes, hours}
@@ -56,6 +71,36 @@ public class PicketBoxSessionManager {
 
     }
 
+    /**
+     * Get the {@link PicketBoxSessionEventBus} used to deliver the events of all sessions. Register listeners with it to
+     * choose how they receive events.
+     *
+     * @return
+     */
+    public static PicketBoxSessionEventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Get the {@link PicketBoxSessionMemoryManager} that tracks the estimated size of all sessions and enforces the memory
+     * budget.
+     *
+     * @return
+     */
+    public static PicketBoxSessionMemoryManager getMemoryManager() {
+        return memoryManager;
+    }
+
+    /**
+     * Get the {@link PicketBoxSessionResourceRegistry} holding the state allocated for each session, released when the session
+     * is invalidated or expires.
+     *
+     * @return
+     */
+    public static PicketBoxSessionResourceRegistry getResourceRegistry() {
+        return resourceRegistry;
+    }
+
     /**
      * Create a new instance of {@link PicketBoxSession}
      *
@@ -64,6 +109,7 @@ public class PicketBoxSessionManager {
     public static PicketBoxSession create() {
         PicketBoxSession session = new PicketBoxSession();
         setTimer(session);
+        memoryManager.register(session);
         return session;
     }
 
@@ -75,8 +121,41 @@ public class PicketBoxSessionManager {
     public static PicketBoxSession create(PicketBoxSessionListener listener) {
         PicketBoxSession session = new PicketBoxSession();
         setTimer(session);
+        memoryManager.register(session);
         session.addListener(listener);
-        listener.onCreate(session);
+        eventBus.publish(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.CREATE, session),
+                Collections.singletonList(listener));
+        return session;
+    }
+
+    /**
+     * Create a new instance of {@link PicketBoxSession} with a known id. Used to recreate sessions that were created by
+     * another node.
+     *
+     * @param id
+     * @param listener
+     * @return
+     */
+    public static PicketBoxSession create(String id, PicketBoxSessionListener listener) {
+        return create(id, listener, null);
+    }
+
+    /**
+     * Create a new instance of {@link PicketBoxSession} with a known id on behalf of another node. The origin is carried by
+     * the {@link PicketBoxSessionEvent.Type#CREATE} event.
+     *
+     * @param id
+     * @param listener
+     * @param origin
+     * @return
+     */
+    public static PicketBoxSession create(String id, PicketBoxSessionListener listener, String origin) {
+        PicketBoxSession session = new PicketBoxSession(id);
+        setTimer(session);
+        memoryManager.register(session);
+        session.addListener(listener);
+        eventBus.publish(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.CREATE, session, null, null, origin),
+                Collections.singletonList(listener));
         return session;
     }
 
@@ -86,13 +165,31 @@ public class PicketBoxSessionManager {
      * @param session
      */
     private static void setTimer(final PicketBoxSession session) {
-        timer.schedule(new TimerTask() {
+        TimerTask expiryTask = new TimerTask() {
             @Override
             public void run() {
                 if (session.isValid()) {
                     session.expire();
                 }
             }
-        }, expiryValue);
+        };
+
+        session.expiryTask = expiryTask;
+        timer.schedule(expiryTask, expiryValue);
+    }
+
+    /**
+     * Cancel the expiry of an invalidated session, so the timer does not keep it reachable until it would have expired
+     *
+     * @param session
+     */
+    static void cancelTimer(PicketBoxSession session) {
+        TimerTask expiryTask = session.expiryTask;
+
+        session.expiryTask = null;
+
+        if (expiryTask != null && expiryTask.cancel() && cancelledExpiries.incrementAndGet() % PURGE_INTERVAL == 0) {
+            timer.purge();
+        }
     }
 }
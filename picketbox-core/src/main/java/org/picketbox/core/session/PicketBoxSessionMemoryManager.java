@@ -0,0 +1,304 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketbox.core.PicketBoxLogger;
+
+/**
+ * <p>
+ * Keeps track of the estimated heap used by all the live {@link PicketBoxSession} instances and enforces a global memory
+ * budget. Sizes are updated incrementally when attributes are set, using a {@link PicketBoxSessionSizeEstimator}.
+ * </p>
+ * <p>
+ * When the total goes over the budget, the least recently used sessions that were idle for at least
+ * <code>minIdleTime</code> milliseconds are evicted until the total is back under 90% of the budget. Eviction runs on the
+ * session timer, never on the thread that set the attribute, and at most once per <code>evictionInterval</code>
+ * milliseconds however many attributes are set meanwhile. If a {@link PicketBoxSessionStore} is configured evicted sessions
+ * are passivated, otherwise they are expired.
+ * </p>
+ * <p>
+ * The budget is soft: sessions used within <code>minIdleTime</code> are never evicted. When the total is still over the
+ * budget after an eviction, a warning is logged once and the eviction is scheduled again for the moment the least
+ * recently used remaining session becomes idle. Without such a session it runs again when the total grows.
+ * </p>
+ * <p>
+ * The budget is unlimited by default. Sizes are tracked anyway so they can be monitored.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionMemoryManager {
+
+    private static final double LOW_WATERMARK = 0.9;
+
+    private final Timer timer;
+
+    private final ConcurrentMap<String, PicketBoxSession> sessions = new ConcurrentHashMap<String, PicketBoxSession>();
+
+    private final AtomicLong totalSize = new AtomicLong();
+
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    private final AtomicLong passivatedCount = new AtomicLong();
+
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
+    private volatile long memoryBudget = Long.MAX_VALUE;
+
+    private volatile long minIdleTime = 30 * 1000;
+
+    private volatile long evictionInterval = 1000;
+
+    private volatile long lastEviction;
+
+    private boolean overBudgetReported;
+
+    private volatile PicketBoxSessionSizeEstimator sizeEstimator = new PicketBoxSessionSizeEstimator();
+
+    private volatile PicketBoxSessionStore store;
+
+    PicketBoxSessionMemoryManager(Timer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Set the maximum estimated heap, in bytes, that all sessions together may use
+     *
+     * @param memoryBudget
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set how long, in milliseconds, a session must not be used before it can be evicted. Default is 30 seconds.
+     *
+     * @param minIdleTime
+     */
+    public void setMinIdleTime(long minIdleTime) {
+        this.minIdleTime = minIdleTime;
+    }
+
+    /**
+     * Set the minimum time, in milliseconds, between two evictions. Default is 1 second.
+     *
+     * @param evictionInterval
+     */
+    public void setEvictionInterval(long evictionInterval) {
+        this.evictionInterval = evictionInterval;
+    }
+
+    public void setSizeEstimator(PicketBoxSessionSizeEstimator sizeEstimator) {
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    /**
+     * Set the store used to passivate evicted sessions. When not set evicted sessions are expired.
+     *
+     * @param store
+     */
+    public void setStore(PicketBoxSessionStore store) {
+        this.store = store;
+    }
+
+    PicketBoxSessionStore getStore() {
+        return store;
+    }
+
+    /**
+     * Get the estimated heap used by all the live sessions
+     *
+     * @return the size in bytes
+     */
+    public long getTotalSize() {
+        return totalSize.get();
+    }
+
+    /**
+     * Get the number of live sessions, including the passivated ones
+     *
+     * @return
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Get the number of sessions expired to honour the budget
+     *
+     * @return
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Get the number of sessions passivated to honour the budget
+     *
+     * @return
+     */
+    public long getPassivatedCount() {
+        return passivatedCount.get();
+    }
+
+    /**
+     * Evict sessions until the total size is back under the budget. Normally called from the session timer.
+     */
+    public synchronized void evict() {
+        long budget = this.memoryBudget;
+
+        if (totalSize.get() <= budget) {
+            this.overBudgetReported = false;
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long target = (long) (budget * LOW_WATERMARK);
+        long idleSince = now - this.minIdleTime;
+
+        this.lastEviction = now;
+
+        List<PicketBoxSession> candidates = new ArrayList<PicketBoxSession>();
+
+        // the last access of the least recently used session that is not idle yet
+        long nextIdle = Long.MAX_VALUE;
+
+        for (PicketBoxSession session : sessions.values()) {
+            if (session.isPassivated()) {
+                continue;
+            }
+
+            long lastAccessedTime = session.getLastAccessedTime();
+
+            if (lastAccessedTime <= idleSince) {
+                candidates.add(session);
+            } else {
+                nextIdle = Math.min(nextIdle, lastAccessedTime);
+            }
+        }
+
+        Collections.sort(candidates, new Comparator<PicketBoxSession>() {
+            @Override
+            public int compare(PicketBoxSession s1, PicketBoxSession s2) {
+                long t1 = s1.getLastAccessedTime();
+                long t2 = s2.getLastAccessedTime();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        int evicted = 0;
+        PicketBoxSessionStore store = this.store;
+
+        for (PicketBoxSession session : candidates) {
+            if (totalSize.get() <= target) {
+                break;
+            }
+
+            if (store != null) {
+                if (session.passivate(store, idleSince)) {
+                    passivatedCount.incrementAndGet();
+                    evicted++;
+                }
+            } else if (session.isValid() && session.getLastAccessedTime() <= idleSince) {
+                session.expire();
+                evictedCount.incrementAndGet();
+                evicted++;
+            }
+        }
+
+        PicketBoxLogger.LOGGER.debugSessionsEvicted(evicted, totalSize.get());
+
+        if (totalSize.get() <= budget) {
+            this.overBudgetReported = false;
+            return;
+        }
+
+        if (!this.overBudgetReported) {
+            this.overBudgetReported = true;
+            PicketBoxLogger.LOGGER.sessionMemoryBudgetExceeded(totalSize.get(), budget);
+        }
+
+        if (nextIdle != Long.MAX_VALUE) {
+            scheduleEviction(nextIdle + this.minIdleTime - now);
+        }
+    }
+
+    long estimate(String key, Object value) {
+        return sizeEstimator.estimate(key, value);
+    }
+
+    void register(PicketBoxSession session) {
+        sessions.put(session.getId(), session);
+    }
+
+    void unregister(PicketBoxSession session) {
+        sessions.remove(session.getId());
+    }
+
+    void sizeChanged(long delta) {
+        long total = totalSize.addAndGet(delta);
+
+        if (delta > 0 && total > this.memoryBudget) {
+            scheduleEviction(0);
+        }
+    }
+
+    /**
+     * Schedule an eviction on the session timer, unless one is already scheduled, no sooner than the eviction interval
+     * after the last one
+     */
+    private void scheduleEviction(long delay) {
+        if (!evictionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        long throttle = this.lastEviction + this.evictionInterval - System.currentTimeMillis();
+
+        this.timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                evictionScheduled.set(false);
+                try {
+                    evict();
+                } catch (RuntimeException e) {
+                    // never let the exception kill the session timer
+                    PicketBoxLogger.LOGGER.failedToEvictSessions(e);
+                }
+            }
+        }, Math.max(0, Math.max(delay, throttle)));
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketbox.core.PicketBoxLogger;
+
+/**
+ * <p>
+ * A registry of the state PicketBox allocates for each session, keyed by session id. Each component registers the
+ * {@link PicketBoxSessionResource} it allocates for a session, and everything is released in one pass when the session is
+ * destroyed, logged out or expires.
+ * </p>
+ * <p>
+ * Registering the same resource twice for a session is a no-op, so components can register on every allocation without
+ * tracking what they already registered.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionResourceRegistry {
+
+    private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<String, Registration>();
+
+    private final AtomicInteger resourceCount = new AtomicInteger();
+
+    private final AtomicLong releasedCount = new AtomicLong();
+
+    /**
+     * Register a resource allocated for a session
+     *
+     * @param sessionId
+     * @param resource
+     */
+    public void register(String sessionId, PicketBoxSessionResource resource) {
+        while (true) {
+            Registration registration = this.registrations.get(sessionId);
+
+            if (registration == null) {
+                Registration newRegistration = new Registration();
+                registration = this.registrations.putIfAbsent(sessionId, newRegistration);
+
+                if (registration == null) {
+                    registration = newRegistration;
+                }
+            }
+
+            synchronized (registration) {
+                if (!registration.released) {
+                    if (!registration.resources.contains(resource)) {
+                        registration.resources.add(resource);
+                        this.resourceCount.incrementAndGet();
+                    }
+                    return;
+                }
+            }
+
+            // released concurrently, retry with a new registration
+            this.registrations.remove(sessionId, registration);
+        }
+    }
+
+    /**
+     * Unregister a resource whose state was freed by its owner
+     *
+     * @param sessionId
+     * @param resource
+     */
+    public void unregister(String sessionId, PicketBoxSessionResource resource) {
+        Registration registration = this.registrations.get(sessionId);
+
+        if (registration == null) {
+            return;
+        }
+
+        synchronized (registration) {
+            if (registration.released || !registration.resources.remove(resource)) {
+                return;
+            }
+
+            this.resourceCount.decrementAndGet();
+
+            if (!registration.resources.isEmpty()) {
+                return;
+            }
+
+            registration.released = true;
+        }
+
+        this.registrations.remove(sessionId, registration);
+    }
+
+    /**
+     * Release all the resources registered for a session
+     *
+     * @param sessionId
+     * @return the number of released resources
+     */
+    public int release(String sessionId) {
+        Registration registration = this.registrations.remove(sessionId);
+
+        if (registration == null) {
+            return 0;
+        }
+
+        List<PicketBoxSessionResource> resources;
+
+        synchronized (registration) {
+            if (registration.released) {
+                return 0;
+            }
+
+            registration.released = true;
+            resources = registration.resources;
+        }
+
+        this.resourceCount.addAndGet(-resources.size());
+
+        for (PicketBoxSessionResource resource : resources) {
+            try {
+                resource.release(sessionId);
+            } catch (RuntimeException e) {
+                PicketBoxLogger.LOGGER.failedToReleaseSessionResource(sessionId, e);
+            }
+        }
+
+        this.releasedCount.addAndGet(resources.size());
+
+        return resources.size();
+    }
+
+    /**
+     * Move the resources registered for a session to its new id, when the container changed the id of the session to
+     * prevent session fixation. The resources are merged if some were already registered with the new id.
+     *
+     * @param oldSessionId
+     * @param newSessionId
+     */
+    public void changeSessionId(String oldSessionId, String newSessionId) {
+        if (oldSessionId.equals(newSessionId)) {
+            return;
+        }
+
+        Registration registration = this.registrations.remove(oldSessionId);
+
+        if (registration == null) {
+            return;
+        }
+
+        synchronized (registration) {
+            if (registration.released) {
+                return;
+            }
+
+            if (this.registrations.putIfAbsent(newSessionId, registration) == null) {
+                return;
+            }
+
+            registration.released = true;
+        }
+
+        this.resourceCount.addAndGet(-registration.resources.size());
+
+        for (PicketBoxSessionResource resource : registration.resources) {
+            register(newSessionId, resource);
+        }
+    }
+
+    /**
+     * Release the resources of all the sessions
+     */
+    public void releaseAll() {
+        for (String sessionId : this.registrations.keySet()) {
+            release(sessionId);
+        }
+    }
+
+    /**
+     * Get the number of sessions holding resources
+     *
+     * @return
+     */
+    public int getSessionCount() {
+        return this.registrations.size();
+    }
+
+    /**
+     * Get the number of registered resources
+     *
+     * @return
+     */
+    public int getResourceCount() {
+        return this.resourceCount.get();
+    }
+
+    /**
+     * Get the number of resources released since the registry was created
+     *
+     * @return
+     */
+    public long getReleasedCount() {
+        return this.releasedCount.get();
+    }
+
+    private static class Registration {
+        private final List<PicketBoxSessionResource> resources = new ArrayList<PicketBoxSessionResource>(2);
+        private boolean released;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.picketbox.core.PicketBoxSubject;
+
+/**
+ * <p>
+ * Estimates how much heap a session attribute uses. The estimation walks the most common value types (strings, boxed
+ * primitives, arrays, collections, maps, {@link Principal} and {@link PicketBoxSubject}) up to a fixed depth, sampling large
+ * collections. Any other object is counted as {@link #DEFAULT_OBJECT_SIZE} bytes.
+ * </p>
+ * <p>
+ * Estimations are meant to be cheap enough to run on every {@link PicketBoxSession#setAttribute(String, Object)}, not to be
+ * exact. Subclass and override {@link #estimate(Object, int)} to account for application specific types.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionSizeEstimator {
+
+    protected static final int OBJECT_OVERHEAD = 16;
+
+    protected static final int REFERENCE_SIZE = 8;
+
+    protected static final int DEFAULT_OBJECT_SIZE = 64;
+
+    /**
+     * Overhead of one entry in the attributes map of the session
+     */
+    protected static final int ENTRY_OVERHEAD = 48;
+
+    private static final int MAX_DEPTH = 4;
+
+    private static final int MAX_SAMPLED_ELEMENTS = 32;
+
+    /**
+     * Estimate the size of a session attribute, including its key
+     *
+     * @param key
+     * @param value
+     * @return the estimated size in bytes
+     */
+    public long estimate(String key, Object value) {
+        return ENTRY_OVERHEAD + estimate(key, 0) + estimate(value, 0);
+    }
+
+    /**
+     * Estimate the size of a value
+     *
+     * @param value
+     * @param depth how deep in the object graph the value is
+     * @return the estimated size in bytes
+     */
+    protected long estimate(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+
+        if (value instanceof String) {
+            return align(OBJECT_OVERHEAD + 24 + 2 * ((String) value).length());
+        }
+
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return 24;
+        }
+
+        if (value instanceof byte[]) {
+            return align(OBJECT_OVERHEAD + ((byte[]) value).length);
+        }
+
+        if (value instanceof char[]) {
+            return align(OBJECT_OVERHEAD + 2 * ((char[]) value).length);
+        }
+
+        if (depth >= MAX_DEPTH) {
+            return DEFAULT_OBJECT_SIZE;
+        }
+
+        if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            return align(OBJECT_OVERHEAD + REFERENCE_SIZE * array.length) + estimateElements(array, depth + 1);
+        }
+
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            return align(OBJECT_OVERHEAD + 2 * REFERENCE_SIZE * collection.size())
+                    + estimateElements(collection.toArray(), depth + 1);
+        }
+
+        if (value instanceof Map) {
+            return estimateMap((Map<?, ?>) value, depth + 1);
+        }
+
+        if (value instanceof PicketBoxSubject) {
+            PicketBoxSubject subject = (PicketBoxSubject) value;
+            long size = OBJECT_OVERHEAD + 5 * REFERENCE_SIZE;
+
+            size += estimate(subject.getUser(), depth + 1);
+            size += subject.getRoleNames() != null ? estimate(subject.getRoleNames(), depth + 1) : 0;
+            size += estimateMap(subject.getAttributes(), depth + 1);
+            size += estimateMap(subject.getContextData(), depth + 1);
+
+            return size;
+        }
+
+        if (value instanceof Principal) {
+            return OBJECT_OVERHEAD + REFERENCE_SIZE + estimate(((Principal) value).getName(), depth + 1);
+        }
+
+        return DEFAULT_OBJECT_SIZE;
+    }
+
+    private long estimateMap(Map<?, ?> map, int depth) {
+        if (map == null) {
+            return 0;
+        }
+
+        long size = align(OBJECT_OVERHEAD + 4 * REFERENCE_SIZE * map.size());
+        int sampled = 0;
+        long sampledSize = 0;
+
+        for (Entry<?, ?> entry : map.entrySet()) {
+            if (sampled == MAX_SAMPLED_ELEMENTS) {
+                break;
+            }
+            sampledSize += estimate(entry.getKey(), depth) + estimate(entry.getValue(), depth);
+            sampled++;
+        }
+
+        return size + extrapolate(sampledSize, sampled, map.size());
+    }
+
+    private long estimateElements(Object[] elements, int depth) {
+        int sampled = Math.min(elements.length, MAX_SAMPLED_ELEMENTS);
+        long sampledSize = 0;
+
+        for (int i = 0; i < sampled; i++) {
+            sampledSize += estimate(elements[i], depth);
+        }
+
+        return extrapolate(sampledSize, sampled, elements.length);
+    }
+
+    private long extrapolate(long sampledSize, int sampled, int total) {
+        if (sampled == 0 || sampled == total) {
+            return sampledSize;
+        }
+        return sampledSize * total / sampled;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
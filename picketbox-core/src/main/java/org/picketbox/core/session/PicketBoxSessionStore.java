@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session;
+
+import java.util.Map;
+
+/**
+ * A store where the {@link PicketBoxSessionMemoryManager} moves the attributes of the sessions it passivates to free heap.
+ * The attributes are loaded back the next time the session is used.
+ *
+ * @author Stefan Guilhen
+ */
+public interface PicketBoxSessionStore {
+
+    /**
+     * Store the attributes of a session
+     *
+     * @param sessionId
+     * @param attributes
+     */
+    void store(String sessionId, Map<String, Object> attributes);
+
+    /**
+     * Load and remove the attributes of a session
+     *
+     * @param sessionId
+     * @return the stored attributes or null if the store has nothing for the session
+     */
+    Map<String, Object> load(String sessionId);
+
+    /**
+     * Discard the attributes of a session that was invalidated while passivated
+     *
+     * @param sessionId
+     */
+    void remove(String sessionId);
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session.replication;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>
+ * A {@link SessionReplicationTransport} that delivers payloads to the other transports joined to the same channel in the
+ * same JVM. Delivery happens synchronously on the sender's thread. Useful to run several nodes in a single test.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class LoopbackReplicationTransport implements SessionReplicationTransport {
+
+    private static final ConcurrentMap<String, List<LoopbackReplicationTransport>> channels = new ConcurrentHashMap<String, List<LoopbackReplicationTransport>>();
+
+    private final String channel;
+
+    private volatile SessionReplicationReceiver receiver;
+
+    private boolean started = false, stopped = true;
+
+    public LoopbackReplicationTransport(String channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void send(byte[] payload) {
+        List<LoopbackReplicationTransport> members = channels.get(this.channel);
+
+        if (members == null) {
+            return;
+        }
+
+        for (LoopbackReplicationTransport member : members) {
+            SessionReplicationReceiver memberReceiver = member.receiver;
+
+            if (member != this && memberReceiver != null) {
+                memberReceiver.receive(payload);
+            }
+        }
+    }
+
+    @Override
+    public void setReceiver(SessionReplicationReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public boolean started() {
+        return started;
+    }
+
+    @Override
+    public void start() {
+        List<LoopbackReplicationTransport> members = channels.get(this.channel);
+
+        if (members == null) {
+            members = new CopyOnWriteArrayList<LoopbackReplicationTransport>();
+            List<LoopbackReplicationTransport> existing = channels.putIfAbsent(this.channel, members);
+            if (existing != null) {
+                members = existing;
+            }
+        }
+
+        members.add(this);
+
+        started = true;
+        stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return stopped;
+    }
+
+    @Override
+    public void stop() {
+        List<LoopbackReplicationTransport> members = channels.get(this.channel);
+
+        if (members != null) {
+            members.remove(this);
+        }
+
+        started = false;
+        stopped = true;
+    }
+}
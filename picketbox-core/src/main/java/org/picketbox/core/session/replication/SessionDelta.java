@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session.replication;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * <p>
+ * The changes made to a {@link org.picketbox.core.session.PicketBoxSession} between two flushes of the
+ * {@link SessionReplicationManager}. Only the attributes that were set since the last flush are carried, never the whole
+ * session.
+ * </p>
+ * <p>
+ * Deltas are numbered per session by the node that produced them so the receiving side can apply them in order. A full
+ * delta carries all the attributes of the session instead. It is sent when a receiving node lost track of the changes,
+ * and replaces everything that node received before it.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class SessionDelta implements Serializable {
+
+    private static final long serialVersionUID = 3245125236893318453L;
+
+    private final String sessionId;
+    private final long sequence;
+    private final boolean created;
+    private final Map<String, Object> attributes;
+    private final boolean invalidated;
+    private final boolean expired;
+    private final boolean full;
+
+    public SessionDelta(String sessionId, long sequence, boolean created, Map<String, Object> attributes,
+            boolean invalidated, boolean expired) {
+        this(sessionId, sequence, created, attributes, invalidated, expired, false);
+    }
+
+    public SessionDelta(String sessionId, long sequence, boolean created, Map<String, Object> attributes,
+            boolean invalidated, boolean expired, boolean full) {
+        this.sessionId = sessionId;
+        this.sequence = sequence;
+        this.created = created;
+        this.attributes = attributes;
+        this.invalidated = invalidated;
+        this.expired = expired;
+        this.full = full;
+    }
+
+    /**
+     * Get the id of the session this delta applies to
+     *
+     * @return
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Get the position of this delta in the stream of deltas produced for the session. The first delta has sequence 1.
+     *
+     * @return
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Was the session created since the last flush?
+     *
+     * @return
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Get a read only view of the attributes set since the last flush, in the order they were first set
+     *
+     * @return
+     */
+    public Map<String, Object> getAttributes() {
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    /**
+     * Was the session invalidated since the last flush?
+     *
+     * @return
+     */
+    public boolean isInvalidated() {
+        return invalidated;
+    }
+
+    /**
+     * Did the session expire since the last flush?
+     *
+     * @return
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Does this delta carry the whole state of the session rather than the changes since the previous delta?
+     *
+     * @return
+     */
+    public boolean isFull() {
+        return full;
+    }
+}
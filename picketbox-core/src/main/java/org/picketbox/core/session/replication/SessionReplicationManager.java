@@ -0,0 +1,1083 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.picketbox.core.PicketBoxLifecycle;
+import org.picketbox.core.PicketBoxLogger;
+import org.picketbox.core.exceptions.PicketBoxSessionException;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.PicketBoxSessionBatchListener;
+import org.picketbox.core.session.PicketBoxSessionEvent;
+import org.picketbox.core.session.PicketBoxSessionEventBus;
+import org.picketbox.core.session.PicketBoxSessionListener;
+import org.picketbox.core.session.PicketBoxSessionManager;
+
+/**
+ * <p>
+ * Replicates {@link PicketBoxSession} instances across the nodes of a cluster. Register it as the
+ * {@link PicketBoxSessionListener} of the sessions to be replicated:
+ * </p>
+ *
+ * <pre>
+ * PicketBoxSession session = PicketBoxSessionManager.create(replicationManager);
+ * </pre>
+ *
+ * <p>
+ * Changes are not sent as they happen. They are accumulated per session and shipped every <code>flushInterval</code>
+ * milliseconds as a batch of {@link SessionDelta}, optionally GZIP compressed. Setting the same attribute several times
+ * between two flushes only ships the last value. Deltas are numbered per session so the receiving nodes apply them in the
+ * order they were produced, even if the transport delivers them out of order or more than once.
+ * </p>
+ * <p>
+ * Batches the transport fails to send are sent again on the next flush, at most <code>maxUnsentDeltas</code> deltas are
+ * kept for that. A receiving node that misses a delta for longer than <code>gapTimeout</code> milliseconds, or buffers more
+ * than <code>maxBufferedDeltas</code> deltas of a session behind a missing one, applies what it has and asks the origin node
+ * for the full state of the session, which is sent with its next flush. Each start of a node begins a new incarnation, so
+ * the deltas of a node restarted with the same id are not mistaken for old ones.
+ * </p>
+ * <p>
+ * Payloads are written in an explicit format, only attribute values go through Java serialization. Received values are
+ * only deserialized if their classes, and the classes of everything they reference, are allowed. The JDK value types and
+ * collections are allowed by default, use {@link #addAllowedAttributeType(String)} for application types. Attributes with
+ * other types are dropped.
+ * </p>
+ * <p>
+ * Sessions invalidated or expired on any node are remembered for <code>tombstoneTimeout</code> milliseconds. Deltas for
+ * these sessions that are delivered late or redelivered by the transport are discarded instead of bringing the session
+ * back.
+ * </p>
+ * <p>
+ * Changes applied on behalf of other nodes are made with the origin node as the {@link PicketBoxSessionEvent#getOrigin()}
+ * of their events, so they are not shipped back. This holds whatever {@link PicketBoxSessionEventBus.DeliveryMode} the
+ * manager is registered with. Recording a change is cheap, the expensive work happens on the flush thread.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class SessionReplicationManager implements PicketBoxSessionBatchListener, SessionReplicationReceiver, PicketBoxLifecycle {
+
+    private static final long DEFAULT_FLUSH_INTERVAL = 100;
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private static final long DEFAULT_TOMBSTONE_TIMEOUT = 10 * 60 * 1000;
+
+    private static final long DEFAULT_GAP_TIMEOUT = 5000;
+
+    private static final int DEFAULT_MAX_BUFFERED_DELTAS = 64;
+
+    private static final int DEFAULT_MAX_UNSENT_DELTAS = 4096;
+
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * First byte of a payload
+     */
+    private static final byte DELTAS = 0, COMPRESSED_DELTAS = 1, FULL_STATE_REQUEST = 2;
+
+    /**
+     * Classes attribute values may be made of unless configured otherwise
+     */
+    private static final String[] DEFAULT_ALLOWED_TYPES = { "java.lang.String", "java.lang.Boolean", "java.lang.Character",
+            "java.lang.Number", "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float",
+            "java.lang.Double", "java.lang.Enum", "java.math.BigInteger", "java.math.BigDecimal", "java.util.Date",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet" };
+
+    private final String nodeId;
+
+    private final SessionReplicationTransport transport;
+
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private boolean compressed = true;
+
+    private long tombstoneTimeout = DEFAULT_TOMBSTONE_TIMEOUT;
+
+    private long gapTimeout = DEFAULT_GAP_TIMEOUT;
+
+    private int maxBufferedDeltas = DEFAULT_MAX_BUFFERED_DELTAS;
+
+    private int maxUnsentDeltas = DEFAULT_MAX_UNSENT_DELTAS;
+
+    /**
+     * Incarnation of this node, the time it was started
+     */
+    private volatile long epoch;
+
+    private final Set<String> allowedTypes = new CopyOnWriteArraySet<String>(Arrays.asList(DEFAULT_ALLOWED_TYPES));
+
+    /**
+     * Sessions known by this node, either created locally or replicated from other nodes
+     */
+    private final ConcurrentMap<String, PicketBoxSession> sessions = new ConcurrentHashMap<String, PicketBoxSession>();
+
+    /**
+     * Changes made locally that were not shipped yet
+     */
+    private final ConcurrentMap<String, PendingDelta> pending = new ConcurrentHashMap<String, PendingDelta>();
+
+    /**
+     * Guard the pending deltas, a session always uses the same lock
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Last sequence shipped for each session. Only used while flushing.
+     */
+    private final Map<String, Long> outboundSequences = new HashMap<String, Long>();
+
+    /**
+     * Deltas the transport failed to send, oldest first. Only used while flushing.
+     */
+    private final LinkedList<SessionDelta> unsent = new LinkedList<SessionDelta>();
+
+    /**
+     * Sessions whose full state other nodes asked for
+     */
+    private final Set<String> fullStateRequested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Ordering state of the deltas received from other nodes, keyed by origin node and session id
+     */
+    private final ConcurrentMap<String, InboundState> inbound = new ConcurrentHashMap<String, InboundState>();
+
+    /**
+     * Time at which each invalidated or expired session ended, kept for <code>tombstoneTimeout</code> milliseconds
+     */
+    private final ConcurrentMap<String, Long> tombstones = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicBoolean earlyFlushScheduled = new AtomicBoolean();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            earlyFlushScheduled.set(false);
+            try {
+                flush();
+            } catch (Throwable t) {
+                PicketBoxLogger.LOGGER.failedToReplicateSessions(t);
+            }
+        }
+    };
+
+    private ScheduledExecutorService flusher;
+
+    private boolean started = false, stopped = true;
+
+    public SessionReplicationManager(String nodeId, SessionReplicationTransport transport) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Set how often, in milliseconds, the pending changes are shipped. Default is 100.
+     *
+     * @param flushInterval
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Set the maximum number of session deltas sent in one payload. When more sessions than this have pending changes a
+     * flush is triggered before the interval elapses. Default is 256.
+     *
+     * @param maxBatchSize
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Set whether payloads are GZIP compressed. Default is true.
+     *
+     * @param compressed
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Set for how long, in milliseconds, invalidated sessions are remembered so late deltas do not bring them back. It
+     * should be larger than the longest time the transport may take to deliver a payload. Default is 10 minutes.
+     *
+     * @param tombstoneTimeout
+     */
+    public void setTombstoneTimeout(long tombstoneTimeout) {
+        this.tombstoneTimeout = tombstoneTimeout;
+    }
+
+    /**
+     * Set for how long, in milliseconds, a missing delta is waited for before asking for the full state of the session.
+     * Default is 5 seconds.
+     *
+     * @param gapTimeout
+     */
+    public void setGapTimeout(long gapTimeout) {
+        this.gapTimeout = gapTimeout;
+    }
+
+    /**
+     * Set how many deltas of a session are buffered behind a missing one before asking for the full state of the session.
+     * Default is 64.
+     *
+     * @param maxBufferedDeltas
+     */
+    public void setMaxBufferedDeltas(int maxBufferedDeltas) {
+        this.maxBufferedDeltas = maxBufferedDeltas;
+    }
+
+    /**
+     * Set how many deltas the transport failed to send are kept to be sent again. The oldest are dropped beyond that and
+     * the other nodes recover by asking for the full state of their sessions. Default is 4096.
+     *
+     * @param maxUnsentDeltas
+     */
+    public void setMaxUnsentDeltas(int maxUnsentDeltas) {
+        this.maxUnsentDeltas = maxUnsentDeltas;
+    }
+
+    /**
+     * Allow attribute values received from other nodes to contain instances of a type. Use a fully qualified class name, or
+     * a package name followed by <code>.*</code> to allow all the classes of the package.
+     *
+     * @param type
+     */
+    public void addAllowedAttributeType(String type) {
+        this.allowedTypes.add(type);
+    }
+
+    /**
+     * Get the id of this node
+     *
+     * @return
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Get a session known by this node, either local or replicated
+     *
+     * @param id
+     * @return the session or null if this node does not know the session
+     */
+    public PicketBoxSession getSession(String id) {
+        return sessions.get(id);
+    }
+
+    @Override
+    public void onCreate(PicketBoxSession session) {
+        onEvent(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.CREATE, session));
+    }
+
+    @Override
+    public void onSetAttribute(PicketBoxSession session, String key, Object value) {
+        onEvent(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.SET_ATTRIBUTE, session, key, value));
+    }
+
+    @Override
+    public void onInvalidate(PicketBoxSession session) {
+        onEvent(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.INVALIDATE, session));
+    }
+
+    @Override
+    public void onExpiration(PicketBoxSession session) {
+        onEvent(new PicketBoxSessionEvent(PicketBoxSessionEvent.Type.EXPIRE, session));
+    }
+
+    @Override
+    public void onEvents(List<PicketBoxSessionEvent> events) {
+        for (PicketBoxSessionEvent event : events) {
+            onEvent(event);
+        }
+    }
+
+    /**
+     * Ship all the pending changes to the other nodes.
+     */
+    public synchronized void flush() {
+        expireTombstones();
+        checkInbound();
+
+        if (pending.isEmpty() && unsent.isEmpty() && fullStateRequested.isEmpty()) {
+            return;
+        }
+
+        List<SessionDelta> batch = new ArrayList<SessionDelta>();
+
+        // failed batches go first, a failure while sending them puts them back
+        List<SessionDelta> retries = new ArrayList<SessionDelta>(unsent);
+        unsent.clear();
+
+        for (SessionDelta delta : retries) {
+            batch = addToBatch(batch, delta);
+        }
+
+        Set<String> sessionIds = new LinkedHashSet<String>(pending.keySet());
+        sessionIds.addAll(fullStateRequested);
+
+        for (String sessionId : sessionIds) {
+            PendingDelta pendingDelta;
+
+            synchronized (lockFor(sessionId)) {
+                pendingDelta = pending.remove(sessionId);
+            }
+
+            SessionDelta delta = null;
+
+            if (fullStateRequested.remove(sessionId)) {
+                delta = fullState(sessionId, pendingDelta);
+            }
+
+            if (delta == null) {
+                if (pendingDelta == null) {
+                    continue;
+                }
+
+                delta = pendingDelta.drain(sessionId, nextSequence(sessionId));
+            }
+
+            if (delta.isInvalidated() || delta.isExpired()) {
+                outboundSequences.remove(sessionId);
+            }
+
+            batch = addToBatch(batch, delta);
+        }
+
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    @Override
+    public void receive(byte[] payload) {
+        try {
+            InputStream in = new ByteArrayInputStream(payload, 1, payload.length - 1);
+
+            if (payload[0] == FULL_STATE_REQUEST) {
+                receiveFullStateRequest(new DataInputStream(in));
+                return;
+            }
+
+            if (payload[0] == COMPRESSED_DELTAS) {
+                in = new GZIPInputStream(in);
+            }
+
+            DataInputStream dis = new DataInputStream(in);
+
+            String origin = dis.readUTF();
+            long originEpoch = dis.readLong();
+            int count = dis.readInt();
+
+            for (int i = 0; i < count; i++) {
+                apply(origin, originEpoch, readDelta(dis));
+            }
+        } catch (Exception e) {
+            PicketBoxLogger.LOGGER.failedToApplyReplicatedSessions(e);
+        }
+    }
+
+    @Override
+    public boolean started() {
+        return started;
+    }
+
+    @Override
+    public void start() {
+        synchronized (this) {
+            // a new incarnation numbers its deltas from the start
+            this.epoch = System.currentTimeMillis();
+            this.outboundSequences.clear();
+            this.unsent.clear();
+        }
+
+        this.transport.setReceiver(this);
+        this.transport.start();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PicketBox Session Replication " + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.flusher.scheduleWithFixedDelay(this.flushTask, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+
+        started = true;
+        stopped = false;
+    }
+
+    @Override
+    public boolean stopped() {
+        return stopped;
+    }
+
+    @Override
+    public void stop() {
+        if (this.flusher != null) {
+            this.flusher.shutdown();
+        }
+
+        flush();
+
+        this.transport.stop();
+
+        started = false;
+        stopped = true;
+    }
+
+    private void onEvent(PicketBoxSessionEvent event) {
+        PicketBoxSession session = event.getSession();
+        String sessionId = session.getId();
+
+        // changes made on behalf of other nodes were applied to the local state already, see applyInOrder
+        boolean local = event.getOrigin() == null;
+
+        switch (event.getType()) {
+            case CREATE:
+                if (!local) {
+                    return;
+                }
+
+                // the event may be delivered after the session was invalidated
+                if (session.isValid() && !tombstones.containsKey(sessionId)) {
+                    sessions.putIfAbsent(sessionId, session);
+                }
+
+                record(event);
+
+                flushEarlyIfNeeded();
+                break;
+            case SET_ATTRIBUTE:
+                if (!local) {
+                    return;
+                }
+
+                Object value = event.getValue();
+
+                if (value != null && !(value instanceof Serializable)) {
+                    PicketBoxLogger.LOGGER.nonSerializableSessionAttribute(event.getKey(), sessionId);
+                    return;
+                }
+
+                record(event);
+
+                flushEarlyIfNeeded();
+                break;
+            case INVALIDATE:
+                sessions.remove(sessionId, session);
+                tombstones.put(sessionId, System.currentTimeMillis());
+
+                if (!local) {
+                    return;
+                }
+
+                record(event);
+                break;
+            case EXPIRE:
+                if (!local) {
+                    return;
+                }
+
+                record(event);
+                break;
+        }
+    }
+
+    /**
+     * Add a local change to the pending delta of its session. The lock of the session is held while the delta is looked up
+     * and changed, so a flush never drains a delta that is being changed.
+     */
+    private void record(PicketBoxSessionEvent event) {
+        String sessionId = event.getSession().getId();
+
+        synchronized (lockFor(sessionId)) {
+            PendingDelta pendingDelta = pending.get(sessionId);
+
+            if (pendingDelta == null) {
+                pendingDelta = new PendingDelta();
+                pending.put(sessionId, pendingDelta);
+            }
+
+            pendingDelta.record(event);
+        }
+    }
+
+    private Object lockFor(String sessionId) {
+        return locks[(sessionId.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+
+    private void flushEarlyIfNeeded() {
+        if (pending.size() >= maxBatchSize && this.flusher != null && earlyFlushScheduled.compareAndSet(false, true)) {
+            this.flusher.execute(this.flushTask);
+        }
+    }
+
+    private long nextSequence(String sessionId) {
+        Long last = outboundSequences.get(sessionId);
+        long next = last == null ? 1 : last + 1;
+        outboundSequences.put(sessionId, next);
+        return next;
+    }
+
+    private List<SessionDelta> addToBatch(List<SessionDelta> batch, SessionDelta delta) {
+        batch.add(delta);
+
+        if (batch.size() < maxBatchSize) {
+            return batch;
+        }
+
+        send(batch);
+
+        return new ArrayList<SessionDelta>();
+    }
+
+    /**
+     * Send a batch, keeping it to be sent again by the next flush if the transport fails
+     */
+    private void send(List<SessionDelta> batch) {
+        byte[] payload;
+
+        try {
+            payload = encode(batch);
+        } catch (IOException e) {
+            // sending it again would fail the same way, the other nodes will ask for the full state
+            PicketBoxLogger.LOGGER.failedToReplicateSessions(e);
+            return;
+        }
+
+        try {
+            this.transport.send(payload);
+        } catch (RuntimeException e) {
+            PicketBoxLogger.LOGGER.failedToReplicateSessions(e);
+
+            unsent.addAll(batch);
+
+            int dropped = unsent.size() - maxUnsentDeltas;
+
+            if (dropped > 0) {
+                for (int i = 0; i < dropped; i++) {
+                    unsent.removeFirst();
+                }
+
+                PicketBoxLogger.LOGGER.droppedUnsentSessionDeltas(dropped);
+            }
+        }
+    }
+
+    /**
+     * Build a delta carrying all the attributes of a session this node produced deltas for
+     *
+     * @return the delta, or null if this node cannot tell the state of the session
+     */
+    private SessionDelta fullState(String sessionId, PendingDelta pendingDelta) {
+        // the pending delta ends the session, that is all the other nodes need to know
+        if (pendingDelta != null && pendingDelta.ends()) {
+            return null;
+        }
+
+        if (tombstones.containsKey(sessionId)) {
+            return new SessionDelta(sessionId, Long.MAX_VALUE, false, new LinkedHashMap<String, Object>(), true, false, true);
+        }
+
+        PicketBoxSession session = sessions.get(sessionId);
+
+        // the sequence is only known by the node that produced the deltas
+        if (session == null || !outboundSequences.containsKey(sessionId)) {
+            return null;
+        }
+
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+
+        try {
+            synchronized (session) {
+                attributes.putAll(session.getAttributes());
+            }
+        } catch (PicketBoxSessionException e) {
+            // invalidated meanwhile, its invalidation is shipped with the next flush
+            return null;
+        }
+
+        for (Iterator<Object> iterator = attributes.values().iterator(); iterator.hasNext();) {
+            Object value = iterator.next();
+
+            if (value != null && !(value instanceof Serializable)) {
+                iterator.remove();
+            }
+        }
+
+        boolean created = pendingDelta != null && pendingDelta.created;
+
+        return new SessionDelta(sessionId, nextSequence(sessionId), created, attributes, false, false, true);
+    }
+
+    private void receiveFullStateRequest(DataInputStream dis) throws IOException {
+        if (!nodeId.equals(dis.readUTF())) {
+            return;
+        }
+
+        int count = dis.readInt();
+
+        for (int i = 0; i < count; i++) {
+            fullStateRequested.add(dis.readUTF());
+        }
+    }
+
+    /**
+     * Skip the deltas missing for too long and ask their origin nodes for the full state of the sessions concerned
+     */
+    private void checkInbound() {
+        long now = System.currentTimeMillis();
+        Map<String, List<InboundState>> requests = new HashMap<String, List<InboundState>>();
+
+        for (InboundState state : inbound.values()) {
+            synchronized (state) {
+                if (!state.ended && state.gapSince != 0 && now - state.gapSince >= gapTimeout) {
+                    try {
+                        skipGap(state);
+                    } catch (Exception e) {
+                        PicketBoxLogger.LOGGER.failedToApplyReplicatedSessions(e);
+                    }
+                }
+
+                if (state.fullStateNeeded) {
+                    state.fullStateNeeded = false;
+
+                    List<InboundState> states = requests.get(state.origin);
+
+                    if (states == null) {
+                        states = new ArrayList<InboundState>();
+                        requests.put(state.origin, states);
+                    }
+
+                    states.add(state);
+                }
+            }
+        }
+
+        for (Entry<String, List<InboundState>> request : requests.entrySet()) {
+            try {
+                this.transport.send(encodeFullStateRequest(request.getKey(), request.getValue()));
+            } catch (Exception e) {
+                PicketBoxLogger.LOGGER.failedToReplicateSessions(e);
+
+                // asked again by the next flush
+                for (InboundState state : request.getValue()) {
+                    synchronized (state) {
+                        state.fullStateNeeded = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private byte[] encodeFullStateRequest(String origin, List<InboundState> states) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        bytes.write(FULL_STATE_REQUEST);
+
+        DataOutputStream dos = new DataOutputStream(bytes);
+
+        dos.writeUTF(origin);
+        dos.writeInt(states.size());
+
+        for (InboundState state : states) {
+            dos.writeUTF(state.sessionId);
+        }
+
+        dos.close();
+
+        return bytes.toByteArray();
+    }
+
+    private byte[] encode(List<SessionDelta> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        bytes.write(compressed ? COMPRESSED_DELTAS : DELTAS);
+
+        OutputStream out = compressed ? new GZIPOutputStream(bytes) : bytes;
+        DataOutputStream dos = new DataOutputStream(out);
+
+        dos.writeUTF(nodeId);
+        dos.writeLong(epoch);
+        dos.writeInt(batch.size());
+
+        for (SessionDelta delta : batch) {
+            writeDelta(dos, delta);
+        }
+
+        dos.close();
+
+        return bytes.toByteArray();
+    }
+
+    private void writeDelta(DataOutputStream dos, SessionDelta delta) throws IOException {
+        dos.writeUTF(delta.getSessionId());
+        dos.writeLong(delta.getSequence());
+        dos.writeBoolean(delta.isCreated());
+        dos.writeBoolean(delta.isInvalidated());
+        dos.writeBoolean(delta.isExpired());
+        dos.writeBoolean(delta.isFull());
+        dos.writeInt(delta.getAttributes().size());
+
+        for (Entry<String, Object> attribute : delta.getAttributes().entrySet()) {
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(value);
+
+            oos.writeObject(attribute.getValue());
+            oos.close();
+
+            dos.writeUTF(attribute.getKey());
+            dos.writeInt(value.size());
+            value.writeTo(dos);
+        }
+    }
+
+    private SessionDelta readDelta(DataInputStream dis) throws IOException {
+        String sessionId = dis.readUTF();
+        long sequence = dis.readLong();
+        boolean created = dis.readBoolean();
+        boolean invalidated = dis.readBoolean();
+        boolean expired = dis.readBoolean();
+        boolean full = dis.readBoolean();
+        int count = dis.readInt();
+
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+
+        for (int i = 0; i < count; i++) {
+            String key = dis.readUTF();
+            byte[] value = new byte[dis.readInt()];
+
+            dis.readFully(value);
+
+            try {
+                attributes.put(key, new AllowListObjectInputStream(new ByteArrayInputStream(value), allowedTypes).readObject());
+            } catch (Exception e) {
+                // the value is framed, dropping it leaves the rest of the payload readable
+                PicketBoxLogger.LOGGER.droppedReplicatedSessionAttribute(key, sessionId, e);
+            }
+        }
+
+        return new SessionDelta(sessionId, sequence, created, attributes, invalidated, expired, full);
+    }
+
+    private void apply(String origin, long originEpoch, SessionDelta delta) throws PicketBoxSessionException {
+        if (tombstones.containsKey(delta.getSessionId())) {
+            return;
+        }
+
+        String key = origin + '/' + delta.getSessionId();
+
+        InboundState state = inbound.get(key);
+
+        if (state == null) {
+            state = new InboundState(origin, delta.getSessionId(), originEpoch);
+            InboundState existing = inbound.putIfAbsent(key, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+
+        synchronized (state) {
+            if (originEpoch < state.epoch) {
+                // sent before the origin node restarted
+                return;
+            }
+
+            if (originEpoch > state.epoch) {
+                // the origin node restarted and numbers its deltas from the start again
+                state.epoch = originEpoch;
+                state.lastApplied = 0;
+                state.ended = false;
+                state.gapSince = 0;
+                state.buffered.clear();
+            }
+
+            if (state.ended || delta.getSequence() <= state.lastApplied) {
+                return;
+            }
+
+            if (delta.isFull()) {
+                // replaces everything before it
+                state.buffered.headMap(delta.getSequence()).clear();
+                state.lastApplied = delta.getSequence() - 1;
+            }
+
+            state.buffered.put(delta.getSequence(), delta);
+
+            applyBuffered(state);
+
+            if (state.buffered.size() > maxBufferedDeltas) {
+                skipGap(state);
+            }
+        }
+    }
+
+    /**
+     * Apply the buffered deltas that follow the last one applied. Must hold the lock of the state.
+     */
+    private void applyBuffered(InboundState state) throws PicketBoxSessionException {
+        SessionDelta next;
+
+        while ((next = state.buffered.remove(state.lastApplied + 1)) != null) {
+            applyInOrder(state.origin, next);
+            state.lastApplied = next.getSequence();
+
+            if (next.isInvalidated() || next.isExpired()) {
+                // keep the state as a tombstone, deltas redelivered later are older than lastApplied
+                state.ended = true;
+                state.buffered.clear();
+                tombstones.put(state.sessionId, System.currentTimeMillis());
+                break;
+            }
+        }
+
+        if (state.buffered.isEmpty()) {
+            state.gapSince = 0;
+        } else if (state.gapSince == 0) {
+            state.gapSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Give up on the missing deltas, apply the buffered ones and ask the origin node for the full state of the session.
+     * Must hold the lock of the state.
+     */
+    private void skipGap(InboundState state) throws PicketBoxSessionException {
+        PicketBoxLogger.LOGGER.missingSessionDeltas(state.sessionId, state.origin);
+
+        state.lastApplied = state.buffered.firstKey() - 1;
+        state.gapSince = 0;
+        state.fullStateNeeded = true;
+
+        applyBuffered(state);
+    }
+
+    private void applyInOrder(String origin, SessionDelta delta) throws PicketBoxSessionException {
+        String sessionId = delta.getSessionId();
+        PicketBoxSession session = sessions.get(sessionId);
+
+        if (session == null) {
+            if (delta.isInvalidated() || delta.isExpired() || tombstones.containsKey(sessionId)) {
+                return;
+            }
+
+            session = PicketBoxSessionManager.create(sessionId, this, origin);
+
+            // the session is tracked here, not when the create event is delivered, which may happen on another thread
+            sessions.put(sessionId, session);
+        }
+
+        if (!session.isValid()) {
+            return;
+        }
+
+        for (Entry<String, Object> attribute : delta.getAttributes().entrySet()) {
+            session.setAttribute(attribute.getKey(), attribute.getValue(), origin);
+        }
+
+        if (delta.isInvalidated() || delta.isExpired()) {
+            sessions.remove(sessionId, session);
+            tombstones.put(sessionId, System.currentTimeMillis());
+
+            if (delta.isExpired()) {
+                session.expire(origin);
+            } else {
+                session.invalidate(origin);
+            }
+        }
+    }
+
+    private void expireTombstones() {
+        long limit = System.currentTimeMillis() - tombstoneTimeout;
+
+        for (Iterator<Entry<String, Long>> iterator = tombstones.entrySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().getValue() < limit) {
+                iterator.remove();
+            }
+        }
+
+        for (Iterator<InboundState> iterator = inbound.values().iterator(); iterator.hasNext();) {
+            InboundState state = iterator.next();
+
+            synchronized (state) {
+                // ended states live as long as the tombstone, the others are useless once the session has one
+                if (state.ended != tombstones.containsKey(state.sessionId)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes made to a session since the last flush. Changed under the lock of the session while it is in the pending map,
+     * drained once removed from it.
+     */
+    private static class PendingDelta {
+        private boolean created, invalidated, expired;
+        private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+
+        void record(PicketBoxSessionEvent event) {
+            switch (event.getType()) {
+                case CREATE:
+                    created = true;
+                    break;
+                case SET_ATTRIBUTE:
+                    attributes.put(event.getKey(), event.getValue());
+                    break;
+                case INVALIDATE:
+                    // attributes of an invalidated session are gone, no need to ship them
+                    attributes.clear();
+                    invalidated = true;
+                    break;
+                case EXPIRE:
+                    attributes.clear();
+                    expired = true;
+                    break;
+            }
+        }
+
+        boolean ends() {
+            return invalidated || expired;
+        }
+
+        SessionDelta drain(String sessionId, long sequence) {
+            return new SessionDelta(sessionId, sequence, created, attributes, invalidated, expired);
+        }
+    }
+
+    /**
+     * Ordering state for the deltas of one session received from one node
+     */
+    private static class InboundState {
+        private final String origin;
+        private final String sessionId;
+        private long epoch;
+        private long lastApplied;
+        private boolean ended;
+        private long gapSince;
+        private boolean fullStateNeeded;
+        private final TreeMap<Long, SessionDelta> buffered = new TreeMap<Long, SessionDelta>();
+
+        InboundState(String origin, String sessionId, long epoch) {
+            this.origin = origin;
+            this.sessionId = sessionId;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * Deserializes an attribute value, refusing any class that is not allowed before it is loaded
+     */
+    private static class AllowListObjectInputStream extends ObjectInputStream {
+        private final Set<String> allowedTypes;
+
+        AllowListObjectInputStream(InputStream in, Set<String> allowedTypes) throws IOException {
+            super(in);
+            this.allowedTypes = allowedTypes;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            String type = name;
+
+            while (type.startsWith("[")) {
+                type = type.substring(1);
+            }
+
+            if (type.startsWith("L") && type.endsWith(";")) {
+                type = type.substring(1, type.length() - 1);
+            } else if (type.length() == 1) {
+                // array of primitives
+                return super.resolveClass(desc);
+            }
+
+            if (!isAllowed(type)) {
+                throw new InvalidClassException(name, "not an allowed session attribute type");
+            }
+
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("proxy", "not an allowed session attribute type");
+        }
+
+        private boolean isAllowed(String type) {
+            if (allowedTypes.contains(type)) {
+                return true;
+            }
+
+            int index = type.lastIndexOf('.');
+
+            return index > 0 && allowedTypes.contains(type.substring(0, index) + ".*");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.session.replication;
+
+import org.picketbox.core.PicketBoxLifecycle;
+
+/**
+ * <p>
+ * Pluggable transport used by the {@link SessionReplicationManager} to ship session deltas to the other nodes of the
+ * cluster. Payloads are opaque to the transport.
+ * </p>
+ * <p>
+ * Implementations must deliver the payloads sent by one node to each receiver in the order they were sent.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public interface SessionReplicationTransport extends PicketBoxLifecycle {
+
+    /**
+     * Send a payload to all the other nodes
+     *
+     * @param payload
+     */
+    void send(byte[] payload);
+
+    /**
+     * Set the {@link SessionReplicationReceiver} that will be called for the payloads sent by the other nodes
+     *
+     * @param receiver
+     */
+    void setReceiver(SessionReplicationReceiver receiver);
+}
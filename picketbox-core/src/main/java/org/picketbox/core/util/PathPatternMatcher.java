@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.picketbox.core.PicketBoxMessages;
+
+/**
+ * <p>
+ * Matches request paths against a set of patterns, each one associated with a value. Three kinds of patterns are
+ * supported:
+ * </p>
+ * <ul>
+ * <li>exact: <code>/health</code></li>
+ * <li>prefix, ending with <code>*</code>: <code>/static/*</code>. A prefix ending with <code>/*</code> also matches the path
+ * without its trailing slash, <code>/static</code> here, like Servlet mappings. <code>*</code> alone matches every path.</li>
+ * <li>suffix, starting with <code>*</code>: <code>*.css</code>, <code>*&#47;j_security_check</code></li>
+ * </ul>
+ * <p>
+ * A pattern can be restricted to a set of HTTP methods. When several patterns match a path the exact one wins, then the
+ * longest prefix, then the longest suffix.
+ * </p>
+ * <p>
+ * Patterns are compiled into character tries, prefixes and exact patterns walked from the start of the path and suffixes
+ * from its end, so matching costs one pass over the path whatever the number of patterns and does not allocate. Patterns
+ * must all be added before the matcher is shared between threads.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public class PathPatternMatcher<T> {
+
+    private final Node<T> forward = new Node<T>();
+
+    private final Node<T> backward = new Node<T>();
+
+    private final List<String> patterns = new ArrayList<String>();
+
+    /**
+     * Add a pattern that matches all HTTP methods
+     *
+     * @param pattern
+     * @param value
+     */
+    public void add(String pattern, T value) {
+        add(pattern, null, value);
+    }
+
+    /**
+     * Add a pattern
+     *
+     * @param pattern
+     * @param methods the HTTP methods the pattern applies to, or null for all methods
+     * @param value
+     */
+    public void add(String pattern, Set<String> methods, T value) {
+        if (pattern == null || pattern.length() == 0) {
+            throw PicketBoxMessages.MESSAGES.invalidPathPattern(pattern);
+        }
+
+        int wildcard = pattern.indexOf('*');
+
+        if (wildcard >= 0 && wildcard != pattern.length() - 1 && wildcard != 0) {
+            throw PicketBoxMessages.MESSAGES.invalidPathPattern(pattern);
+        }
+
+        if (wildcard >= 0 && pattern.indexOf('*', wildcard + 1) >= 0 && pattern.length() > 1) {
+            throw PicketBoxMessages.MESSAGES.invalidPathPattern(pattern);
+        }
+
+        Entry<T> entry = new Entry<T>(methods == null ? null : upperCase(methods), value);
+
+        if (pattern.equals("*") || wildcard == pattern.length() - 1) {
+            Node<T> node = forward;
+            for (int i = 0; i < pattern.length() - 1; i++) {
+                node = node.childOrCreate(pattern.charAt(i));
+            }
+            node.prefixEntries = append(node.prefixEntries, entry);
+        } else if (wildcard == 0) {
+            Node<T> node = backward;
+            for (int i = pattern.length() - 1; i > 0; i--) {
+                node = node.childOrCreate(pattern.charAt(i));
+            }
+            node.suffixEntries = append(node.suffixEntries, entry);
+        } else {
+            Node<T> node = forward;
+            for (int i = 0; i < pattern.length(); i++) {
+                node = node.childOrCreate(pattern.charAt(i));
+            }
+            node.exactEntries = append(node.exactEntries, entry);
+        }
+
+        patterns.add(pattern);
+    }
+
+    /**
+     * Find the value of the most specific pattern matching the path and method
+     *
+     * @param path
+     * @param method the HTTP method, or null to only match patterns without method restrictions
+     * @return the value or null if no pattern matches
+     */
+    public T match(String path, String method) {
+        return match(path, 0, method);
+    }
+
+    /**
+     * Find the value of the most specific pattern matching the part of the path that starts at the given offset, typically
+     * a request URI past its context path
+     *
+     * @param path
+     * @param offset the index of the first character of the path to match
+     * @param method the HTTP method, or null to only match patterns without method restrictions
+     * @return the value or null if no pattern matches
+     */
+    public T match(String path, int offset, String method) {
+        int length = path.length();
+
+        Node<T> node = forward;
+        T best = find(node.prefixEntries, method);
+
+        for (int i = offset; i < length && node != null; i++) {
+            node = node.child(path.charAt(i));
+
+            if (node != null) {
+                T prefixMatch = find(node.prefixEntries, method);
+                if (prefixMatch != null) {
+                    best = prefixMatch;
+                }
+            }
+        }
+
+        if (node != null) {
+            T exactMatch = find(node.exactEntries, method);
+            if (exactMatch != null) {
+                return exactMatch;
+            }
+
+            // /static/* matches /static
+            Node<T> directory = node.child('/');
+            T directoryMatch = directory == null ? null : find(directory.prefixEntries, method);
+            if (directoryMatch != null) {
+                return directoryMatch;
+            }
+        }
+
+        if (best != null) {
+            return best;
+        }
+
+        node = backward;
+
+        for (int i = length - 1; i >= offset && node != null; i--) {
+            node = node.child(path.charAt(i));
+
+            if (node != null) {
+                T suffixMatch = find(node.suffixEntries, method);
+                if (suffixMatch != null) {
+                    best = suffixMatch;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Get the patterns added to this matcher
+     *
+     * @return
+     */
+    public List<String> getPatterns() {
+        return Collections.unmodifiableList(patterns);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] append(Entry<T>[] entries, Entry<T> entry) {
+        if (entries == null) {
+            return new Entry[] { entry };
+        }
+
+        Entry<T>[] result = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, result, 0, entries.length);
+        result[entries.length] = entry;
+
+        // entries restricted to methods take precedence over the unrestricted ones
+        for (int i = result.length - 1; i > 0 && result[i].methods != null && result[i - 1].methods == null; i--) {
+            Entry<T> swap = result[i - 1];
+            result[i - 1] = result[i];
+            result[i] = swap;
+        }
+
+        return result;
+    }
+
+    private static <T> T find(Entry<T>[] entries, String method) {
+        if (entries == null) {
+            return null;
+        }
+
+        for (Entry<T> entry : entries) {
+            if (entry.methods == null || (method != null && entry.methods.contains(method))) {
+                return entry.value;
+            }
+        }
+
+        return null;
+    }
+
+    private static Set<String> upperCase(Set<String> methods) {
+        Set<String> result = new HashSet<String>();
+
+        for (String method : methods) {
+            result.add(method.toUpperCase());
+        }
+
+        return result;
+    }
+
+    private static class Entry<T> {
+        private final Set<String> methods;
+        private final T value;
+
+        Entry(Set<String> methods, T value) {
+            this.methods = methods;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A trie node. Children are kept in parallel arrays sorted by character.
+     */
+    private static class Node<T> {
+        private char[] keys = new char[0];
+        private Node<T>[] children = newArray(0);
+        private Entry<T>[] exactEntries;
+        private Entry<T>[] prefixEntries;
+        private Entry<T>[] suffixEntries;
+
+        Node<T> child(char c) {
+            int index = indexOf(c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node<T> childOrCreate(char c) {
+            int index = indexOf(c);
+
+            if (index >= 0) {
+                return children[index];
+            }
+
+            int insertAt = -(index + 1);
+            Node<T> child = new Node<T>();
+
+            char[] newKeys = new char[keys.length + 1];
+            Node<T>[] newChildren = newArray(children.length + 1);
+
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newKeys[insertAt] = c;
+            newChildren[insertAt] = child;
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+
+            keys = newKeys;
+            children = newChildren;
+
+            return child;
+        }
+
+        private int indexOf(char c) {
+            int low = 0;
+            int high = keys.length - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char key = keys[mid];
+
+                if (key < c) {
+                    low = mid + 1;
+                } else if (key > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newArray(int size) {
+            return new Node[size];
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.util;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.picketbox.core.PicketBoxLogger;
+
+/**
+ * Factory methods for the thread pools used by PicketBox.
+ *
+ * @author Stefan Guilhen
+ */
+public final class ThreadPools {
+
+    /**
+     * The kind of threads an executor runs its tasks on.
+     */
+    public enum ExecutionMode {
+
+        /**
+         * A bounded pool of platform threads.
+         */
+        PLATFORM,
+
+        /**
+         * One virtual thread per task, with a bounded number of tasks in flight. Requires JDK 21 or later, {@link #PLATFORM}
+         * is used otherwise.
+         */
+        VIRTUAL
+    }
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+
+    private ThreadPools() {
+    }
+
+    /**
+     * Check if the running JVM supports virtual threads
+     *
+     * @return
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * <p>
+     * Create an executor for the given mode. In {@link ExecutionMode#VIRTUAL} mode every task gets its own virtual thread
+     * and there is no queue, but the executor accepts at most <code>maxThreads + queueCapacity</code> tasks in flight, the
+     * number of tasks a platform executor would hold. Tasks submitted past that limit are rejected with a
+     * {@link RejectedExecutionException}. When virtual threads are not supported a bounded platform executor is returned.
+     * </p>
+     *
+     * @param mode
+     * @param name prefix of the thread names of platform executors
+     * @param maxThreads
+     * @param queueCapacity
+     * @return
+     */
+    public static ExecutorService newExecutor(ExecutionMode mode, String name, int maxThreads, int queueCapacity) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            if (isVirtualThreadSupported()) {
+                try {
+                    return new BoundedExecutor((ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null), maxThreads
+                            + queueCapacity);
+                } catch (Exception e) {
+                    PicketBoxLogger.LOGGER.virtualThreadsNotAvailable(name);
+                }
+            } else {
+                PicketBoxLogger.LOGGER.virtualThreadsNotAvailable(name);
+            }
+        }
+
+        return newBoundedExecutor(name, maxThreads, queueCapacity);
+    }
+
+    /**
+     * <p>
+     * Create an executor with at most <code>maxThreads</code> threads and <code>queueCapacity</code> waiting tasks. Tasks
+     * submitted when the queue is full are rejected with a {@link java.util.concurrent.RejectedExecutionException}. Idle
+     * threads are released after a minute.
+     * </p>
+     *
+     * @param name prefix of the thread names
+     * @param maxThreads
+     * @param queueCapacity
+     * @return
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(String name, int maxThreads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), newDaemonThreadFactory(name));
+
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     * Create a {@link ThreadFactory} for daemon threads named after the given prefix
+     *
+     * @param name
+     * @return
+     */
+    public static ThreadFactory newDaemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Rejects tasks once a given number of them are submitted and not yet completed
+     */
+    private static class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int maxTasks) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxTasks);
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException();
+            }
+
+            try {
+                delegate.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            command.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    private static Method findVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
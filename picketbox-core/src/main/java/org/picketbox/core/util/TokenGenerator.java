@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.core.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Generates random tokens and identifiers for session ids, nonces and other security sensitive values.
+ * </p>
+ * <p>
+ * {@link java.util.UUID#randomUUID()} and a plain shared {@link SecureRandom} serialize all the callers on one generator,
+ * which becomes a contention point when many threads authenticate at once. This class spreads the callers over several
+ * independent {@link SecureRandom} stripes, selected by thread, and reads the random bytes of each stripe in bulk into a
+ * buffer. Tokens are encoded straight into a char buffer without intermediate strings.
+ * </p>
+ *
+ * @author Stefan Guilhen
+ */
+public final class TokenGenerator {
+
+    public static enum Encoding {
+        /**
+         * Lower case hexadecimal, two chars per byte
+         */
+        HEX,
+        /**
+         * URL safe Base64 without padding, four chars per three bytes
+         */
+        BASE64URL
+    }
+
+    private static final String DEFAULT_ALGORITHM = "SHA1PRNG";
+
+    private static final int DEFAULT_BUFFER_SIZE = 256;
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    private static final char[] BASE64URL_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .toCharArray();
+
+    private static final TokenGenerator defaultInstance = new TokenGenerator(DEFAULT_ALGORITHM, Runtime.getRuntime()
+            .availableProcessors() * 2, DEFAULT_BUFFER_SIZE);
+
+    private final Stripe[] stripes;
+
+    private final int mask;
+
+    /**
+     * Create a generator
+     *
+     * @param algorithm the {@link SecureRandom} algorithm. If not available the platform default is used.
+     * @param concurrency number of independent stripes. Rounded up to a power of two.
+     * @param bufferSize number of random bytes read at once by each stripe
+     */
+    public TokenGenerator(String algorithm, int concurrency, int bufferSize) {
+        int size = 1;
+
+        while (size < concurrency) {
+            size <<= 1;
+        }
+
+        this.stripes = new Stripe[size];
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe(newSecureRandom(algorithm), bufferSize);
+        }
+    }
+
+    /**
+     * Get the generator shared by all PicketBox components
+     *
+     * @return
+     */
+    public static TokenGenerator getDefault() {
+        return defaultInstance;
+    }
+
+    /**
+     * Fill a byte array region with random bytes
+     *
+     * @param dest
+     * @param offset
+     * @param length
+     */
+    public void nextBytes(byte[] dest, int offset, int length) {
+        stripes[(int) Thread.currentThread().getId() & mask].take(dest, offset, length);
+    }
+
+    /**
+     * Generate a token of <code>numBytes</code> random bytes
+     *
+     * @param numBytes
+     * @param encoding
+     * @return
+     */
+    public String generate(int numBytes, Encoding encoding) {
+        char[] token = new char[encodedLength(numBytes, encoding)];
+        generate(numBytes, encoding, token, 0);
+        return new String(token);
+    }
+
+    /**
+     * Generate a token of <code>numBytes</code> random bytes directly into a char buffer. The buffer must have room for
+     * {@link #encodedLength(int, Encoding)} chars after the offset.
+     *
+     * @param numBytes
+     * @param encoding
+     * @param dest
+     * @param offset
+     * @return the number of chars written
+     */
+    public int generate(int numBytes, Encoding encoding, char[] dest, int offset) {
+        byte[] bytes = new byte[numBytes];
+        nextBytes(bytes, 0, numBytes);
+        return encode(bytes, 0, numBytes, encoding, dest, offset);
+    }
+
+    /**
+     * Generate a random identifier with the format of a version 4 {@link java.util.UUID}
+     *
+     * @return
+     */
+    public String generateId() {
+        byte[] bytes = new byte[16];
+        nextBytes(bytes, 0, 16);
+
+        // version 4, IETF variant
+        bytes[6] = (byte) ((bytes[6] & 0x0f) | 0x40);
+        bytes[8] = (byte) ((bytes[8] & 0x3f) | 0x80);
+
+        char[] id = new char[36];
+        int pos = 0;
+
+        for (int i = 0; i < 16; i++) {
+            if (i == 4 || i == 6 || i == 8 || i == 10) {
+                id[pos++] = '-';
+            }
+            id[pos++] = HEX_CHARS[(bytes[i] >> 4) & 0x0f];
+            id[pos++] = HEX_CHARS[bytes[i] & 0x0f];
+        }
+
+        return new String(id);
+    }
+
+    /**
+     * Get the number of chars needed to encode <code>numBytes</code> bytes
+     *
+     * @param numBytes
+     * @param encoding
+     * @return
+     */
+    public static int encodedLength(int numBytes, Encoding encoding) {
+        if (encoding == Encoding.HEX) {
+            return numBytes * 2;
+        }
+        return (numBytes * 4 + 2) / 3;
+    }
+
+    /**
+     * Encode a byte array region into a char buffer
+     *
+     * @param src
+     * @param srcOffset
+     * @param length
+     * @param encoding
+     * @param dest
+     * @param destOffset
+     * @return the number of chars written
+     */
+    public static int encode(byte[] src, int srcOffset, int length, Encoding encoding, char[] dest, int destOffset) {
+        int pos = destOffset;
+        int end = srcOffset + length;
+
+        if (encoding == Encoding.HEX) {
+            for (int i = srcOffset; i < end; i++) {
+                dest[pos++] = HEX_CHARS[(src[i] >> 4) & 0x0f];
+                dest[pos++] = HEX_CHARS[src[i] & 0x0f];
+            }
+            return pos - destOffset;
+        }
+
+        int i = srcOffset;
+
+        for (; i + 2 < end; i += 3) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dest[pos++] = BASE64URL_CHARS[(bits >> 18) & 0x3f];
+            dest[pos++] = BASE64URL_CHARS[(bits >> 12) & 0x3f];
+            dest[pos++] = BASE64URL_CHARS[(bits >> 6) & 0x3f];
+            dest[pos++] = BASE64URL_CHARS[bits & 0x3f];
+        }
+
+        int remaining = end - i;
+
+        if (remaining > 0) {
+            int bits = (src[i] & 0xff) << 16 | (remaining == 2 ? (src[i + 1] & 0xff) << 8 : 0);
+            dest[pos++] = BASE64URL_CHARS[(bits >> 18) & 0x3f];
+            dest[pos++] = BASE64URL_CHARS[(bits >> 12) & 0x3f];
+            if (remaining == 2) {
+                dest[pos++] = BASE64URL_CHARS[(bits >> 6) & 0x3f];
+            }
+        }
+
+        return pos - destOffset;
+    }
+
+    private static SecureRandom newSecureRandom(String algorithm) {
+        if (algorithm != null) {
+            try {
+                return SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                // fall back to the platform default
+            }
+        }
+        return new SecureRandom();
+    }
+
+    /**
+     * A {@link SecureRandom} with a buffer of bytes read ahead
+     */
+    private static final class Stripe {
+        private final SecureRandom random;
+        private final byte[] buffer;
+        private int position;
+
+        Stripe(SecureRandom random, int bufferSize) {
+            this.random = random;
+            this.buffer = new byte[bufferSize];
+            this.position = bufferSize;
+        }
+
+        synchronized void take(byte[] dest, int offset, int length) {
+            while (length > 0) {
+                if (position == buffer.length) {
+                    random.nextBytes(buffer);
+                    position = 0;
+                }
+
+                int count = Math.min(length, buffer.length - position);
+                System.arraycopy(buffer, position, dest, offset, count);
+
+                // do not keep handed out bytes around
+                Arrays.fill(buffer, position, position + count, (byte) 0);
+
+                position += count;
+                offset += count;
+                length -= count;
+            }
+        }
+    }
+}
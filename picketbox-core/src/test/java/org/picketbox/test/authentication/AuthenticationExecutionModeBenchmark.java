@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authentication;
+
+import static org.junit.Assert.assertEquals;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxPrincipal;
+import org.picketbox.core.authentication.AbstractAuthenticationManager;
+import org.picketbox.core.authentication.impl.ExecutorAuthenticationManager;
+import org.picketbox.core.exceptions.AuthenticationException;
+import org.picketbox.core.util.ThreadPools;
+import org.picketbox.core.util.ThreadPools.ExecutionMode;
+
+/**
+ * Compare the time the {@link ExecutorAuthenticationManager} takes against a slow backend on platform and virtual threads.
+ * Skipped on JVMs without virtual threads, where both runs would use platform threads. Not part of the unit tests, run
+ * with <code>mvn test -Pbenchmark</code>.
+ *
+ * @author Stefan Guilhen
+ */
+public class AuthenticationExecutionModeBenchmark {
+
+    private static final int LOGINS = 400;
+
+    private static final int LATENCY = 20;
+
+    private static final int PLATFORM_THREADS = 16;
+
+    private static final int MAX_CONCURRENCY = 100;
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        Assume.assumeTrue(ThreadPools.isVirtualThreadSupported());
+
+        long platform = run(ExecutionMode.PLATFORM, PLATFORM_THREADS);
+        long virtual = run(ExecutionMode.VIRTUAL, MAX_CONCURRENCY);
+
+        // 16 threads need 25 rounds of 20ms, 100 permits need 4
+        System.out.println("ExecutorAuthenticationManager: " + LOGINS + " logins in " + platform + " ms on "
+                + PLATFORM_THREADS + " platform threads, " + virtual + " ms on virtual threads");
+    }
+
+    private long run(ExecutionMode mode, int maxConcurrency) throws Exception {
+        SlowAuthenticationManager backend = new SlowAuthenticationManager();
+
+        ExecutorAuthenticationManager am = new ExecutorAuthenticationManager(backend);
+        am.setExecutionMode(mode);
+        am.setMaxThreads(PLATFORM_THREADS);
+        am.setQueueCapacity(LOGINS);
+        am.setMaxConcurrency(maxConcurrency);
+        am.start();
+
+        try {
+            long start = System.nanoTime();
+            List<Future<Principal>> logins = new ArrayList<Future<Principal>>();
+
+            for (int i = 0; i < LOGINS; i++) {
+                logins.add(am.authenticate("user" + i, "secret", null));
+            }
+
+            for (int i = 0; i < LOGINS; i++) {
+                assertEquals("user" + i, logins.get(i).get(30, TimeUnit.SECONDS).getName());
+            }
+
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(LOGINS, backend.calls.get());
+
+            return elapsed;
+        } finally {
+            am.stop();
+        }
+    }
+
+    /**
+     * A backend that takes {@link #LATENCY} milliseconds to answer, like a remote LDAP server or database would.
+     */
+    private static class SlowAuthenticationManager extends AbstractAuthenticationManager {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public Principal authenticate(String username, Object credential) throws AuthenticationException {
+            try {
+                Thread.sleep(LATENCY);
+                calls.incrementAndGet();
+
+                return new PicketBoxPrincipal(username);
+            } catch (InterruptedException e) {
+                throw new AuthenticationException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxPrincipal;
+import org.picketbox.core.authentication.AbstractAuthenticationManager;
+import org.picketbox.core.authentication.impl.ExecutorAuthenticationManager;
+import org.picketbox.core.exceptions.AuthenticationException;
+import org.picketbox.core.util.ThreadPools.ExecutionMode;
+
+/**
+ * Load test the {@link ExecutorAuthenticationManager} against a slow backend, on platform and virtual threads. The time
+ * both take is compared by {@link AuthenticationExecutionModeBenchmark}.
+ *
+ * @author Stefan Guilhen
+ */
+public class AuthenticationExecutionModeLoadTestCase {
+
+    private static final int LOGINS = 400;
+
+    private static final int LATENCY = 20;
+
+    private static final int PLATFORM_THREADS = 16;
+
+    private static final int MAX_CONCURRENCY = 100;
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        run(ExecutionMode.PLATFORM, PLATFORM_THREADS);
+        run(ExecutionMode.VIRTUAL, MAX_CONCURRENCY);
+    }
+
+    private void run(ExecutionMode mode, int maxConcurrency) throws Exception {
+        SlowAuthenticationManager backend = new SlowAuthenticationManager();
+
+        ExecutorAuthenticationManager am = new ExecutorAuthenticationManager(backend);
+        am.setExecutionMode(mode);
+        am.setMaxThreads(PLATFORM_THREADS);
+        am.setQueueCapacity(LOGINS);
+        am.setMaxConcurrency(maxConcurrency);
+        am.start();
+
+        try {
+            List<Future<Principal>> logins = new ArrayList<Future<Principal>>();
+
+            for (int i = 0; i < LOGINS; i++) {
+                logins.add(am.authenticate("user" + i, "secret", null));
+            }
+
+            for (int i = 0; i < LOGINS; i++) {
+                assertEquals("user" + i, logins.get(i).get(30, TimeUnit.SECONDS).getName());
+            }
+
+            assertEquals(LOGINS, backend.calls.get());
+            assertTrue("Concurrency limit exceeded: " + backend.maxInFlight.get(), backend.maxInFlight.get() <= maxConcurrency);
+        } finally {
+            am.stop();
+        }
+    }
+
+    /**
+     * A backend that takes {@link #LATENCY} milliseconds to answer, like a remote LDAP server or database would.
+     */
+    private static class SlowAuthenticationManager extends AbstractAuthenticationManager {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public Principal authenticate(String username, Object credential) throws AuthenticationException {
+            int current = inFlight.incrementAndGet();
+
+            try {
+                int max;
+                while (current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+                    continue;
+                }
+
+                Thread.sleep(LATENCY);
+                calls.incrementAndGet();
+
+                return new PicketBoxPrincipal(username);
+            } catch (InterruptedException e) {
+                throw new AuthenticationException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.Principal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxPrincipal;
+import org.picketbox.core.authentication.AbstractAuthenticationManager;
+import org.picketbox.core.authentication.AuthenticationCallback;
+import org.picketbox.core.authentication.impl.ExecutorAuthenticationManager;
+import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.exceptions.AuthenticationException;
+
+/**
+ * Unit test the {@link ExecutorAuthenticationManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class ExecutorAuthenticationManagerTestCase {
+
+    @Test
+    public void testCallback() throws Exception {
+        ExecutorAuthenticationManager am = new ExecutorAuthenticationManager(new PropertiesFileBasedAuthenticationManager());
+        am.start();
+
+        try {
+            final AtomicReference<Principal> result = new AtomicReference<Principal>();
+            final CountDownLatch done = new CountDownLatch(1);
+
+            Future<Principal> future = am.authenticate("Aladdin", "Open Sesame", new AuthenticationCallback() {
+                @Override
+                public void authenticated(Principal principal) {
+                    result.set(principal);
+                    done.countDown();
+                }
+
+                @Override
+                public void failed(AuthenticationException e) {
+                    done.countDown();
+                }
+            });
+
+            assertNotNull(future.get(5, TimeUnit.SECONDS));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals("Aladdin", result.get().getName());
+
+            assertNull(am.authenticate("Aladdin", "Open", null).get(5, TimeUnit.SECONDS));
+        } finally {
+            am.stop();
+        }
+    }
+
+    @Test
+    public void testSaturation() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorAuthenticationManager am = new ExecutorAuthenticationManager(new AbstractAuthenticationManager() {
+            @Override
+            public Principal authenticate(String username, Object credential) throws AuthenticationException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AuthenticationException(e);
+                }
+                return new PicketBoxPrincipal(username);
+            }
+        });
+        am.setMaxThreads(1);
+        am.setQueueCapacity(1);
+        am.start();
+
+        try {
+            Future<Principal> running = am.authenticate("a", "a", null);
+            Future<Principal> queued = am.authenticate("b", "b", null);
+            Future<Principal> rejected = am.authenticate("c", "c", null);
+
+            assertTrue(rejected.isDone());
+
+            try {
+                rejected.get();
+                fail("Authentication should have been rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof AuthenticationException);
+            }
+
+            release.countDown();
+
+            assertEquals("a", running.get(5, TimeUnit.SECONDS).getName());
+            assertEquals("b", queued.get(5, TimeUnit.SECONDS).getName());
+        } finally {
+            am.stop();
+        }
+    }
+}
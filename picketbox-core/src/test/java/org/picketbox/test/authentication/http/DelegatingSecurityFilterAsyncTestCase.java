@@ -0,0 +1,350 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authentication.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.http.filters.DelegatingSecurityFilter;
+import org.picketbox.core.session.PicketBoxSessionManager;
+import org.picketbox.core.util.Base64;
+import org.picketbox.test.http.TestHttpSession;
+import org.picketbox.test.http.TestServletContext;
+import org.picketbox.test.http.TestServletRequest;
+import org.picketbox.test.http.TestServletResponse;
+
+/**
+ * Unit test the asynchronous processing of the {@link DelegatingSecurityFilter}
+ *
+ * @author Stefan Guilhen
+ */
+public class DelegatingSecurityFilterAsyncTestCase {
+
+    private int chainCalls;
+
+    private FilterChain chain = new FilterChain() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            chainCalls++;
+        }
+    };
+
+    @After
+    public void releaseAll() {
+        // the container would destroy the sessions logged in
+        PicketBoxSessionManager.getResourceRegistry().releaseAll();
+    }
+
+    @Test
+    public void testAsyncAuthenticationManagerIsUsed() throws Exception {
+        HashMap<String, String> params = newParams();
+        params.put(PicketBoxConstants.AUTH_MGR_CONCURRENCY, "2");
+
+        DelegatingSecurityFilter filter = createFilter(params);
+
+        try {
+            AsyncRequest request = new AsyncRequest("/secured", "Aladdin:Open Sesame");
+            StatusResponse response = new StatusResponse();
+
+            filter.doFilter(request, response, this.chain);
+
+            assertTrue(request.asyncContext.done.await(5, TimeUnit.SECONDS));
+
+            // resumed by the thread of the asynchronous authentication manager, not by the executor of the filter
+            assertEquals(1, request.asyncContext.dispatches);
+            assertTrue(request.asyncContext.thread.startsWith("picketbox-authentication"));
+            // logged in
+            assertNotNull(request.getSession(false));
+
+            request = new AsyncRequest("/secured", "Aladdin:wrong");
+            response = new StatusResponse();
+
+            filter.doFilter(request, response, this.chain);
+
+            assertTrue(request.asyncContext.done.await(5, TimeUnit.SECONDS));
+            assertEquals(0, request.asyncContext.dispatches);
+            assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.status);
+        } finally {
+            filter.destroy();
+        }
+    }
+
+    @Test
+    public void testBlockingAuthenticationRunsOnTheExecutor() throws Exception {
+        DelegatingSecurityFilter filter = createFilter(newParams());
+
+        try {
+            AsyncRequest request = new AsyncRequest("/secured", "Aladdin:Open Sesame");
+
+            filter.doFilter(request, new StatusResponse(), this.chain);
+
+            assertTrue(request.asyncContext.done.await(5, TimeUnit.SECONDS));
+            assertEquals(1, request.asyncContext.dispatches);
+            assertTrue(request.asyncContext.thread.startsWith("picketbox-filter"));
+        } finally {
+            filter.destroy();
+        }
+    }
+
+    @Test
+    public void testTimedOutRequestIsLeftAlone() throws Exception {
+        DelegatingSecurityFilter filter = createFilter(newParams());
+
+        AsyncRequest request = new AsyncRequest("/secured", "Aladdin:Open Sesame");
+        request.asyncContext.timeOut = true;
+        StatusResponse response = new StatusResponse();
+
+        filter.doFilter(request, response, this.chain);
+
+        // waits for the queued authentications
+        filter.destroy();
+
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.status);
+        assertEquals(1, request.asyncContext.completions);
+        assertEquals(0, request.asyncContext.dispatches);
+        assertNull(request.getSession(false));
+    }
+
+    @Test
+    public void testLoginRequestsStayOnTheContainerThread() throws Exception {
+        DelegatingSecurityFilter filter = createFilter(newParams());
+
+        try {
+            AsyncRequest request = new AsyncRequest("/j_security_check", "Aladdin:Open Sesame");
+
+            filter.doFilter(request, new StatusResponse(), this.chain);
+
+            assertFalse(request.asyncStarted);
+            assertEquals(1, this.chainCalls);
+        } finally {
+            filter.destroy();
+        }
+    }
+
+    private HashMap<String, String> newParams() {
+        HashMap<String, String> params = new HashMap<String, String>();
+        params.put(PicketBoxConstants.AUTHENTICATION_KEY, PicketBoxConstants.BASIC);
+        params.put(PicketBoxConstants.AUTH_MGR, "Properties");
+        params.put(PicketBoxConstants.HTTP_ASYNC, "true");
+        return params;
+    }
+
+    private DelegatingSecurityFilter createFilter(HashMap<String, String> params) throws ServletException {
+        final TestServletContext context = new TestServletContext(params);
+
+        DelegatingSecurityFilter filter = new DelegatingSecurityFilter();
+        filter.init(new FilterConfig() {
+            @Override
+            public String getFilterName() {
+                return "picketbox";
+            }
+
+            @Override
+            public ServletContext getServletContext() {
+                return context;
+            }
+
+            @Override
+            public String getInitParameter(String name) {
+                return null;
+            }
+
+            @Override
+            public Enumeration<String> getInitParameterNames() {
+                return null;
+            }
+        });
+
+        return filter;
+    }
+
+    private static class AsyncRequest extends TestServletRequest {
+        private final TestAsyncContext asyncContext = new TestAsyncContext();
+        private boolean asyncStarted;
+        private HttpSession session;
+
+        AsyncRequest(String uri, String credentials) {
+            super(null);
+            setMethod("GET");
+            setRequestURI(uri);
+            addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER, "Basic " + Base64.encodeBytes(credentials.getBytes()));
+        }
+
+        @Override
+        public synchronized HttpSession getSession(boolean create) {
+            if (session == null && create) {
+                session = new TestHttpSession();
+            }
+
+            return session;
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return true;
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+            asyncStarted = true;
+            return asyncContext;
+        }
+    }
+
+    /**
+     * Records how the request is handed back, and times it out as soon as the filter listens if asked to
+     */
+    private static class TestAsyncContext implements AsyncContext {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+        private volatile boolean timeOut;
+        private volatile int dispatches;
+        private volatile int completions;
+        private volatile String thread;
+
+        @Override
+        public void addListener(AsyncListener listener) {
+            listeners.add(listener);
+
+            if (timeOut) {
+                try {
+                    listener.onTimeout(new AsyncEvent(this));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        @Override
+        public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+            addListener(listener);
+        }
+
+        @Override
+        public void dispatch() {
+            dispatches++;
+            finish();
+        }
+
+        @Override
+        public void dispatch(String path) {
+            dispatch();
+        }
+
+        @Override
+        public void dispatch(ServletContext context, String path) {
+            dispatch();
+        }
+
+        @Override
+        public void complete() {
+            completions++;
+            finish();
+        }
+
+        private void finish() {
+            thread = Thread.currentThread().getName();
+            done.countDown();
+        }
+
+        @Override
+        public ServletRequest getRequest() {
+            return null;
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            return null;
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse() {
+            return true;
+        }
+
+        @Override
+        public void start(Runnable run) {
+            run.run();
+        }
+
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException {
+            return null;
+        }
+
+        @Override
+        public void setTimeout(long timeout) {
+        }
+
+        @Override
+        public long getTimeout() {
+            return 0;
+        }
+    }
+
+    private static class StatusResponse extends TestServletResponse {
+        private volatile int status;
+        private volatile boolean committed;
+
+        StatusResponse() {
+            super(new ByteArrayOutputStream());
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            this.status = sc;
+            this.committed = true;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return committed;
+        }
+    }
+}
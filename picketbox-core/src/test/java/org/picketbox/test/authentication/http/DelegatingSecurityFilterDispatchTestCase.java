@@ -0,0 +1,336 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authentication.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.http.PicketBoxHttpSessionListener;
+import org.picketbox.core.http.filters.DelegatingSecurityFilter;
+import org.picketbox.core.util.Base64;
+import org.picketbox.test.http.TestServletContext;
+import org.picketbox.test.http.TestServletRequest;
+import org.picketbox.test.http.TestServletResponse;
+
+/**
+ * Unit test how the {@link DelegatingSecurityFilter} handles internal dispatches
+ *
+ * @author Stefan Guilhen
+ */
+public class DelegatingSecurityFilterDispatchTestCase {
+
+    private DelegatingSecurityFilter filter;
+
+    private int chainCalls;
+
+    private FilterChain chain = new FilterChain() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            chainCalls++;
+        }
+    };
+
+    @Before
+    public void onSetup() throws Exception {
+        HashMap<String, String> params = new HashMap<String, String>();
+        params.put(PicketBoxConstants.AUTHENTICATION_KEY, PicketBoxConstants.BASIC);
+        params.put(PicketBoxConstants.AUTH_MGR, "Properties");
+        params.put(PicketBoxConstants.HTTP_PUBLIC_PATHS, "/static/*, *.png");
+        params.put(PicketBoxConstants.HTTP_LOGOUT_PATHS, "*/picketbox_logout, /signout");
+
+        this.filter = createFilter(params);
+    }
+
+    private DelegatingSecurityFilter createFilter(HashMap<String, String> params) throws ServletException {
+        return createFilter(new TestServletContext(params));
+    }
+
+    private DelegatingSecurityFilter createFilter(final TestServletContext context) throws ServletException {
+        DelegatingSecurityFilter filter = new DelegatingSecurityFilter();
+        filter.init(new FilterConfig() {
+            @Override
+            public String getFilterName() {
+                return "picketbox";
+            }
+
+            @Override
+            public ServletContext getServletContext() {
+                return context;
+            }
+
+            @Override
+            public String getInitParameter(String name) {
+                return null;
+            }
+
+            @Override
+            public Enumeration<String> getInitParameterNames() {
+                return null;
+            }
+        });
+
+        return filter;
+    }
+
+    @After
+    public void onTearDown() throws Exception {
+        this.filter.destroy();
+    }
+
+    @Test
+    public void testErrorDispatchAfterChallenge() throws Exception {
+        DispatchRequest request = new DispatchRequest("/secured/page.jsp");
+        StatusResponse response = new StatusResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.status);
+        assertEquals(0, this.chainCalls);
+
+        // the error page is rendered without challenging the client again
+        request.dispatcherType = DispatcherType.ERROR;
+        response = new StatusResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        assertEquals(0, response.status);
+        assertEquals(1, this.chainCalls);
+    }
+
+    @Test
+    public void testForwardAfterAuthentication() throws Exception {
+        DispatchRequest request = new DispatchRequest("/secured/page.jsp");
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                "Basic " + Base64.encodeBytes("Aladdin:Open Sesame".getBytes()));
+        StatusResponse response = new StatusResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        assertEquals(1, this.chainCalls);
+
+        int lookups = request.lookups;
+
+        request.clearHeaders();
+        request.dispatcherType = DispatcherType.FORWARD;
+
+        this.filter.doFilter(request, response, this.chain);
+
+        request.dispatcherType = DispatcherType.INCLUDE;
+
+        this.filter.doFilter(request, response, this.chain);
+
+        assertEquals(0, response.status);
+        assertEquals(3, this.chainCalls);
+        assertEquals(lookups, request.lookups);
+    }
+
+    @Test
+    public void testPublicRequest() throws Exception {
+        DispatchRequest request = new DispatchRequest("/static/logo.png");
+        StatusResponse response = new StatusResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        request.dispatcherType = DispatcherType.FORWARD;
+
+        this.filter.doFilter(request, response, this.chain);
+
+        assertEquals(2, this.chainCalls);
+        assertEquals(0, request.lookups);
+        assertFalse(response.committed);
+    }
+
+    @Test
+    public void testClientRequestsAreChecked() throws Exception {
+        DispatchRequest request = new DispatchRequest("/secured/page.jsp");
+        StatusResponse response = new StatusResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        // a new client request is processed again
+        request = new DispatchRequest("/secured/page.jsp");
+        response = new StatusResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        assertTrue(response.committed);
+        assertEquals(0, this.chainCalls);
+    }
+
+    @Test
+    public void testPublicPatternsCannotBeBypassed() throws Exception {
+        for (String uri : new String[] { "/static/../secured/page.jsp", "/static/%2e%2e/secured/page.jsp",
+                "/secured/page.jsp;.png", "/static/..;/secured/page.jsp", "/static%2f../secured/page.jsp" }) {
+            StatusResponse response = new StatusResponse();
+
+            this.filter.doFilter(new DispatchRequest(uri), response, this.chain);
+
+            assertEquals(uri, HttpServletResponse.SC_UNAUTHORIZED, response.status);
+        }
+
+        assertEquals(0, this.chainCalls);
+    }
+
+    @Test
+    public void testLogoutPathsLogOut() throws Exception {
+        // matches the logout patterns but not the logout URL of the logout manager
+        for (String uri : new String[] { "/app/signout", "/app/reports/picketbox_logout" }) {
+            DispatchRequest request = new DispatchRequest(uri);
+            request.setContextPath("/app");
+            StatusResponse response = new StatusResponse();
+
+            this.filter.doFilter(request, response, this.chain);
+
+            assertEquals(uri, "/app", response.getSendRedirectedURI());
+            assertEquals(uri, 0, response.status);
+        }
+
+        assertEquals(0, this.chainCalls);
+    }
+
+    @Test
+    public void testLogoutRequestsWithoutSessionAreProtected() throws Exception {
+        // nothing to log out without a session
+        DispatchRequest request = new DispatchRequest("/signout");
+        request.withoutSession = true;
+        StatusResponse response = new StatusResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.status);
+        assertNull(response.getSendRedirectedURI());
+        assertEquals(0, this.chainCalls);
+    }
+
+    @Test
+    public void testLoginPathsAreAuthorized() throws Exception {
+        HashMap<String, String> params = new HashMap<String, String>();
+        params.put(PicketBoxConstants.AUTHENTICATION_KEY, PicketBoxConstants.BASIC);
+        params.put(PicketBoxConstants.AUTH_MGR, "Properties");
+        params.put(PicketBoxConstants.AUTHZ_MGR, "URL");
+        params.put(PicketBoxConstants.AUTHZ_URL_CONSTRAINTS, "/admin/*=admin");
+
+        DelegatingSecurityFilter filter = createFilter(params);
+
+        try {
+            // classified as a login request, the authenticated user still needs the admin role
+            DispatchRequest request = new DispatchRequest("/admin/users/j_security_check");
+            request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                    "Basic " + Base64.encodeBytes("Aladdin:Open Sesame".getBytes()));
+            StatusResponse response = new StatusResponse();
+
+            filter.doFilter(request, response, this.chain);
+
+            assertEquals(HttpServletResponse.SC_FORBIDDEN, response.status);
+            assertEquals(0, this.chainCalls);
+        } finally {
+            filter.destroy();
+        }
+    }
+
+    @Test
+    public void testSessionListenerIsRegistered() throws Exception {
+        HashMap<String, String> params = new HashMap<String, String>();
+        params.put(PicketBoxConstants.AUTHENTICATION_KEY, PicketBoxConstants.BASIC);
+        params.put(PicketBoxConstants.AUTH_MGR, "Properties");
+
+        TestServletContext context = new TestServletContext(params);
+        DelegatingSecurityFilter filter = createFilter(context);
+
+        try {
+            assertEquals(1, context.getListeners().size());
+            assertEquals(PicketBoxHttpSessionListener.class, context.getListeners().get(0));
+        } finally {
+            filter.destroy();
+        }
+    }
+
+    private static class DispatchRequest extends TestServletRequest {
+        private DispatcherType dispatcherType = DispatcherType.REQUEST;
+        private int lookups;
+        private boolean withoutSession;
+
+        DispatchRequest(String uri) {
+            super(null);
+            setMethod("GET");
+            setRequestURI(uri);
+        }
+
+        @Override
+        public DispatcherType getDispatcherType() {
+            return dispatcherType;
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            lookups++;
+            return withoutSession && !create ? null : super.getSession(create);
+        }
+    }
+
+    private static class StatusResponse extends TestServletResponse {
+        private int status;
+        private boolean committed;
+
+        StatusResponse() {
+            super(new ByteArrayOutputStream());
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            this.status = sc;
+            this.committed = true;
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            super.sendRedirect(location);
+            this.committed = true;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return committed;
+        }
+    }
+}
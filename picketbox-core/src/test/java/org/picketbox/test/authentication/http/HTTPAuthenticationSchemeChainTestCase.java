@@ -0,0 +1,180 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authentication.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpSessionEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.authentication.AuthenticationManager;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.HTTPAuthenticationScheme;
+import org.picketbox.core.authentication.http.HTTPAuthenticationSchemeChain;
+import org.picketbox.core.authentication.http.HTTPBasicAuthentication;
+import org.picketbox.core.authentication.http.HTTPClientCertAuthentication;
+import org.picketbox.core.authentication.http.HTTPDigestAuthentication;
+import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.exceptions.AuthenticationException;
+import org.picketbox.core.util.Base64;
+import org.picketbox.test.http.TestServletRequest;
+import org.picketbox.test.http.TestServletResponse;
+
+/**
+ * Unit test the {@link HTTPAuthenticationSchemeChain}
+ *
+ * @author Stefan Guilhen
+ */
+public class HTTPAuthenticationSchemeChainTestCase {
+
+    private HTTPAuthenticationSchemeChain chain;
+
+    private HTTPBasicAuthentication basic;
+
+    private HTTPDigestAuthentication digest;
+
+    private HTTPClientCertAuthentication clientCert;
+
+    private RecordingScheme form;
+
+    private RecordingScheme api;
+
+    @Before
+    public void onSetup() throws Exception {
+        this.basic = new HTTPBasicAuthentication();
+        this.digest = new HTTPDigestAuthentication();
+        this.clientCert = new HTTPClientCertAuthentication();
+        this.form = new RecordingScheme();
+        this.api = new RecordingScheme();
+
+        this.chain = new HTTPAuthenticationSchemeChain().add(this.form).add(this.basic).add(this.digest).add(this.clientCert)
+                .addPathScheme("/api/*", this.api);
+        this.chain.setAuthManager(new PropertiesFileBasedAuthenticationManager());
+    }
+
+    @Test
+    public void testSelection() throws Exception {
+        TestServletRequest request = request("/app/page.jsp");
+        assertSame(this.form, this.chain.select(request));
+
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER, "BASIC abc");
+        assertSame(this.basic, this.chain.select(request));
+
+        request.clearHeaders();
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER, "Digest username=\"Aladdin\"");
+        assertSame(this.digest, this.chain.select(request));
+
+        request.clearHeaders();
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER, "Bearer token");
+        assertSame(this.form, this.chain.select(request));
+
+        request.setAttribute(PicketBoxConstants.HTTP_CERTIFICATE, new X509Certificate[0]);
+        assertSame(this.clientCert, this.chain.select(request));
+
+        assertSame(this.api, this.chain.select(request("/api/users")));
+        assertEquals(5, this.chain.getSchemes().size());
+    }
+
+    @Test
+    public void testOnlySelectedSchemeChallenges() throws Exception {
+        TestServletRequest request = request("/app/page.jsp");
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                "Basic " + Base64.encodeBytes("Aladdin:Open Sesame".getBytes()));
+        TestServletResponse response = new TestServletResponse(new ByteArrayOutputStream());
+
+        Principal principal = this.chain.authenticate(request, response);
+
+        assertNotNull(principal);
+        assertEquals(0, this.form.calls);
+
+        request.clearHeaders();
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                "Basic " + Base64.encodeBytes("Aladdin:bad".getBytes()));
+
+        assertNull(this.chain.authenticate(request, response));
+        assertNotNull(response.getHeader(PicketBoxConstants.HTTP_WWW_AUTHENTICATE));
+        assertEquals(0, this.form.calls);
+
+        request.clearHeaders();
+        response = new TestServletResponse(new ByteArrayOutputStream());
+
+        assertNull(this.chain.authenticate(request, response));
+        assertEquals(1, this.form.calls);
+        assertNull(response.getHeader(PicketBoxConstants.HTTP_WWW_AUTHENTICATE));
+    }
+
+    @Test
+    public void testChainWithoutDefaultSchemeChallenges() throws Exception {
+        HTTPAuthenticationSchemeChain chain = new HTTPAuthenticationSchemeChain().add(this.basic).add(this.digest);
+        chain.setAuthManager(new PropertiesFileBasedAuthenticationManager());
+
+        // a first request without credentials is challenged by the first scheme added
+        TestServletRequest request = request("/app/page.jsp");
+        TestServletResponse response = new TestServletResponse(new ByteArrayOutputStream());
+
+        assertSame(this.basic, chain.select(request));
+        assertNull(chain.authenticate(request, response));
+        assertNotNull(response.getHeader(PicketBoxConstants.HTTP_WWW_AUTHENTICATE));
+
+        // an empty chain selects nothing
+        assertNull(new HTTPAuthenticationSchemeChain().select(request));
+    }
+
+    private TestServletRequest request(String uri) {
+        TestServletRequest request = new TestServletRequest(null);
+        request.setMethod("GET");
+        request.setRequestURI(uri);
+        return request;
+    }
+
+    private static class RecordingScheme implements HTTPAuthenticationScheme {
+        private int calls;
+
+        @Override
+        public Principal authenticate(ServletRequest servletReq, ServletResponse servletResp) throws AuthenticationException {
+            calls++;
+            return null;
+        }
+
+        @Override
+        public void setAuthManager(AuthenticationManager authMgr) {
+        }
+
+        @Override
+        public void sessionCreated(HttpSessionEvent se) {
+        }
+
+        @Override
+        public void sessionDestroyed(HttpSessionEvent se) {
+        }
+    }
+}
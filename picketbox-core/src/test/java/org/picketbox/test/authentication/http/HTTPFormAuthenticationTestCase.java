@@ -31,11 +31,14 @@ import java.io.OutputStream;
 import java.security.Principal;
 import java.util.HashMap;
 
+import javax.servlet.http.HttpSession;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.picketbox.core.authentication.PicketBoxConstants;
 import org.picketbox.core.authentication.http.HTTPFormAuthentication;
 import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.util.Base64;
 import org.picketbox.test.http.TestServletContext;
 import org.picketbox.test.http.TestServletContext.TestRequestDispatcher;
 import org.picketbox.test.http.TestServletRequest;
@@ -114,4 +117,91 @@ public class HTTPFormAuthenticationTestCase {
         // After authentication, we should be redirected to the default page
         assertEquals(resp.getSendRedirectedURI(), orig);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFastPath() throws Exception {
+        TestServletResponse resp = new TestServletResponse(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+            }
+        });
+
+        // parameters and the Authorization header are not read outside of j_security_check
+        AccessTrackingRequest req = new AccessTrackingRequest();
+        req.setMethod("POST");
+        req.setRequestURI("http://msite/orders");
+
+        assertNull(httpForm.authenticate(req, resp));
+        assertEquals(0, req.parameterReads);
+        assertEquals(0, req.headerReads);
+        assertEquals("/login.jsp", sc.getLast().getRequestUri());
+
+        // unless the Basic fallback is enabled
+        httpForm.setBasicFallback(true);
+        req.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                "Basic " + Base64.encodeBytes("Aladdin:Open Sesame".getBytes()));
+        assertNotNull(httpForm.authenticate(req, resp));
+        assertEquals(1, req.headerReads);
+
+        // a failed login is sent to the error page without creating a session
+        AccessTrackingRequest login = new AccessTrackingRequest();
+        login.setRequestURI("http://msite" + PicketBoxConstants.HTTP_FORM_J_SECURITY_CHECK);
+        login.setParameter(PicketBoxConstants.HTTP_FORM_J_USERNAME, "Aladdin");
+        login.setParameter(PicketBoxConstants.HTTP_FORM_J_PASSWORD, "bad");
+
+        assertNull(httpForm.authenticate(login, resp));
+        assertEquals(2, login.parameterReads);
+        assertEquals(0, login.sessionLookups);
+        assertEquals("/error.jsp", sc.getLast().getRequestUri());
+    }
+
+    @Test
+    public void testSecurityCheckWithRewrittenSession() throws Exception {
+        TestServletResponse resp = new TestServletResponse(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+            }
+        });
+
+        TestServletRequest login = new TestServletRequest(null);
+        login.setMethod("POST");
+        login.setContextPath("/msite");
+        login.setRequestURI("/msite" + PicketBoxConstants.HTTP_FORM_J_SECURITY_CHECK + ";jsessionid=1234");
+        login.setParameter(PicketBoxConstants.HTTP_FORM_J_USERNAME, "Aladdin");
+        login.setParameter(PicketBoxConstants.HTTP_FORM_J_PASSWORD, "Open Sesame");
+
+        // the credentials are checked instead of the login page being shown again
+        assertNotNull(httpForm.authenticate(login, resp));
+        assertEquals("/msite/", resp.getSendRedirectedURI());
+    }
+
+    private static class AccessTrackingRequest extends TestServletRequest {
+        private int parameterReads;
+        private int headerReads;
+        private int sessionLookups;
+
+        AccessTrackingRequest() {
+            super(null);
+        }
+
+        @Override
+        public String getParameter(String name) {
+            parameterReads++;
+            return super.getParameter(name);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (PicketBoxConstants.HTTP_AUTHORIZATION_HEADER.equals(name)) {
+                headerReads++;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            sessionLookups++;
+            return super.getSession(create);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authentication.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionEvent;
+
+import org.junit.Test;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.HTTPFormAuthentication;
+import org.picketbox.core.authentication.http.RequestCache;
+import org.picketbox.core.authentication.http.SavedRequest;
+import org.picketbox.test.http.TestHttpSession;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Unit test the bounds of the {@link RequestCache}
+ *
+ * @author Stefan Guilhen
+ */
+public class RequestCacheTestCase {
+
+    @Test
+    public void testSaveAndRemove() throws Exception {
+        RequestCache cache = new RequestCache();
+        SessionRequest request = new SessionRequest("s1", "/app/secured/page.jsp");
+
+        cache.saveRequest(request);
+
+        assertEquals(1, cache.getEntryCount());
+        assertTrue(cache.getEstimatedBytes() > 0);
+
+        SavedRequest savedRequest = cache.removeAndStoreSavedRequestInSession(request);
+
+        assertNotNull(savedRequest);
+        assertEquals("/app/secured/page.jsp", savedRequest.getRequestURI());
+        assertEquals(savedRequest, request.session.getAttribute(PicketBoxConstants.SAVED_REQUEST));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getEstimatedBytes());
+    }
+
+    @Test
+    public void testSavingTwiceReplacesTheEntry() throws Exception {
+        RequestCache cache = new RequestCache();
+
+        cache.saveRequest(new SessionRequest("s1", "/app/first"));
+        long bytes = cache.getEstimatedBytes();
+        cache.saveRequest(new SessionRequest("s1", "/app/other"));
+
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(bytes, cache.getEstimatedBytes());
+        assertEquals("/app/other", cache.removeSavedRequest("s1").getRequestURI());
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception {
+        RequestCache cache = new RequestCache();
+
+        cache.setMaxEntries(3);
+
+        for (int i = 0; i < 10; i++) {
+            cache.saveRequest(new SessionRequest("s" + i, "/app/page" + i));
+        }
+
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(7, cache.getEvictionCount());
+        assertNull(cache.removeSavedRequest("s0"));
+        assertNotNull(cache.removeSavedRequest("s9"));
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        RequestCache cache = new RequestCache();
+
+        cache.setTimeToLive(50);
+
+        SessionRequest request = new SessionRequest("s1", "/app/page");
+
+        cache.saveRequest(request);
+        cache.saveRequest(new SessionRequest("s2", "/app/page"));
+
+        Thread.sleep(100);
+
+        assertNull(cache.removeAndStoreSavedRequestInSession(request));
+        assertEquals(1, cache.getEntryCount());
+
+        cache.purgeExpired();
+
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getEstimatedBytes());
+        assertEquals(2, cache.getExpirationCount());
+    }
+
+    @Test
+    public void testSessionDestroyed() throws Exception {
+        HTTPFormAuthentication formAuthentication = new HTTPFormAuthentication();
+        RequestCache cache = formAuthentication.getRequestCache();
+        SessionRequest request = new SessionRequest("s1", "/app/page");
+
+        cache.saveRequest(request);
+        cache.saveRequest(new SessionRequest("s2", "/app/page"));
+
+        formAuthentication.sessionDestroyed(new HttpSessionEvent(request.session));
+
+        assertEquals(1, cache.getEntryCount());
+        assertNull(cache.removeSavedRequest("s1"));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testInvalidMaxEntries() throws Exception {
+        new RequestCache().setMaxEntries(0);
+    }
+
+    private static class SessionRequest extends TestServletRequest {
+
+        private final AttributeSession session;
+
+        SessionRequest(String sessionId, String requestURI) {
+            super(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    return 0;
+                }
+            });
+            this.session = new AttributeSession(sessionId);
+            setMethod("GET");
+            setRequestURI(requestURI);
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return this.session;
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            return this.session;
+        }
+    }
+
+    private static class AttributeSession extends TestHttpSession {
+        private final String id;
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        AttributeSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authentication.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpSession;
+
+import org.junit.Test;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.SavedRequest;
+import org.picketbox.core.authentication.http.SavedRequestPolicy;
+import org.picketbox.core.authentication.http.SavedRequestWrapper;
+import org.picketbox.test.http.TestHttpSession;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Unit test the capture of a {@link SavedRequest} and its replay by a {@link SavedRequestWrapper}
+ *
+ * @author Stefan Guilhen
+ */
+public class SavedRequestTestCase {
+
+    @Test
+    public void testDefaultPolicyCapturesOnlyAllowedState() throws Exception {
+        CapturingRequest request = new CapturingRequest("GET", "/app/secured/page.jsp", null, null);
+        request.addHeader("Accept", "text/html");
+        request.addHeader("X-Forwarded-For", "10.0.0.1");
+        request.getCookieList().add(new Cookie("JSESSIONID", "xyz"));
+
+        SavedRequest savedRequest = new SavedRequest(request);
+
+        assertEquals(1, savedRequest.getHeaders().size());
+        assertEquals("text/html", savedRequest.getHeaders().get("Accept"));
+        assertTrue(savedRequest.getCookies().isEmpty());
+        assertTrue(savedRequest.getParameters().isEmpty());
+        assertFalse(savedRequest.hasBody());
+        assertEquals(0, request.parameterReads);
+    }
+
+    @Test
+    public void testCaps() throws Exception {
+        SavedRequestPolicy policy = new SavedRequestPolicy();
+        policy.setHeaderNames("Accept", "Referer");
+        policy.setParameterNames("page");
+        policy.setMaxHeaderLength(16);
+        policy.setMaxParameterLength(4);
+
+        CapturingRequest request = new CapturingRequest("GET", "/app/list", null, null);
+        request.addHeader("Accept", "text/html");
+        request.addHeader("Referer", "http://localhost/a/very/long/referer");
+        request.parameters.put("page", new String[] { "2", "12345" });
+        request.parameters.put("sort", new String[] { "name" });
+
+        SavedRequest savedRequest = new SavedRequest(request, policy);
+
+        assertEquals(1, savedRequest.getHeaders().size());
+        assertArrayEquals(new String[] { "2" }, savedRequest.getParameters().get("page"));
+        assertNull(savedRequest.getParameters().get("sort"));
+    }
+
+    @Test
+    public void testReplayFormPost() throws Exception {
+        CapturingRequest request = new CapturingRequest("POST", "/app/orders", "application/x-www-form-urlencoded",
+                "item=book&quantity=2&note=gift+wrap");
+        request.addHeader("Content-Type", "application/x-www-form-urlencoded");
+
+        SavedRequest savedRequest = new SavedRequest(request);
+
+        assertTrue(savedRequest.hasBody());
+        assertEquals(0, request.parameterReads);
+
+        CapturingRequest redirected = new CapturingRequest("GET", "/app/orders", null, null);
+        redirected.session.setAttribute(PicketBoxConstants.SAVED_REQUEST, savedRequest);
+
+        SavedRequestWrapper wrapper = SavedRequestWrapper.restore(redirected);
+
+        assertNotNull(wrapper);
+        assertNull(redirected.session.getAttribute(PicketBoxConstants.SAVED_REQUEST));
+        assertEquals("POST", wrapper.getMethod());
+        assertEquals("application/x-www-form-urlencoded", wrapper.getContentType());
+        assertEquals("book", wrapper.getParameter("item"));
+        assertEquals("gift wrap", wrapper.getParameter("note"));
+        assertEquals("item=book&quantity=2&note=gift+wrap", read(wrapper.getInputStream()));
+
+        assertNull(SavedRequestWrapper.restore(redirected));
+    }
+
+    @Test
+    public void testRestoreOnlyTheSavedRequest() throws Exception {
+        CapturingRequest redirected = new CapturingRequest("GET", "/app/other", null, null);
+        redirected.session.setAttribute(PicketBoxConstants.SAVED_REQUEST,
+                new SavedRequest(new CapturingRequest("GET", "/app/orders", null, null)));
+
+        assertNull(SavedRequestWrapper.restore(redirected));
+        assertNotNull(redirected.session.getAttribute(PicketBoxConstants.SAVED_REQUEST));
+    }
+
+    @Test
+    public void testLargeBodySpillsToDisk() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "picketbox-saved-request-" + System.nanoTime());
+        assertTrue(directory.mkdirs());
+
+        try {
+            SavedRequestPolicy policy = new SavedRequestPolicy();
+            policy.setBodyMemoryThreshold(16);
+            policy.setTempDirectory(directory);
+
+            String body = repeat("0123456789", 1000);
+            SavedRequest savedRequest = new SavedRequest(new CapturingRequest("PUT", "/app/upload", "text/plain", body), policy);
+
+            assertTrue(savedRequest.hasBody());
+            assertEquals(body.length(), savedRequest.getBodyLength());
+            assertEquals(1, directory.list().length);
+            assertTrue(savedRequest.getEstimatedSize() < body.length());
+
+            SavedRequestWrapper wrapper = new SavedRequestWrapper(new CapturingRequest("GET", "/app/upload", null, null),
+                    savedRequest);
+
+            assertEquals("PUT", wrapper.getMethod());
+            assertEquals(body, read(wrapper.getInputStream()));
+
+            assertEquals(body.length(), policy.getSpilledSize());
+
+            wrapper.release();
+
+            assertFalse(savedRequest.hasBody());
+            assertEquals(0, directory.list().length);
+            assertEquals(0, policy.getSpilledSize());
+        } finally {
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testSpilledSizeIsCapped() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "picketbox-saved-request-" + System.nanoTime());
+        assertTrue(directory.mkdirs());
+
+        try {
+            SavedRequestPolicy policy = new SavedRequestPolicy();
+            policy.setBodyMemoryThreshold(16);
+            policy.setMaxSpilledSize(15000);
+            policy.setTempDirectory(directory);
+
+            String body = repeat("0123456789", 1000);
+            SavedRequest first = new SavedRequest(new CapturingRequest("PUT", "/app/upload", "text/plain", body), policy);
+            SavedRequest second = new SavedRequest(new CapturingRequest("PUT", "/app/upload", "text/plain", body), policy);
+
+            assertTrue(first.hasBody());
+            assertTrue(second.isBodyDiscarded());
+            assertEquals(1, directory.list().length);
+            assertEquals(body.length(), policy.getSpilledSize());
+
+            // room is made when a body is released
+            first.release();
+
+            SavedRequest third = new SavedRequest(new CapturingRequest("PUT", "/app/upload", "text/plain", body), policy);
+
+            assertTrue(third.hasBody());
+
+            third.release();
+
+            assertEquals(0, policy.getSpilledSize());
+            assertEquals(0, directory.list().length);
+        } finally {
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testBodyOverTheCapIsDiscarded() throws Exception {
+        SavedRequestPolicy policy = new SavedRequestPolicy();
+        policy.setMaxBodySize(64);
+
+        SavedRequest savedRequest = new SavedRequest(new CapturingRequest("POST", "/app/upload", "text/plain", repeat("x",
+                65)), policy);
+
+        assertFalse(savedRequest.hasBody());
+        assertTrue(savedRequest.isBodyDiscarded());
+
+        SavedRequestWrapper wrapper = new SavedRequestWrapper(new CapturingRequest("GET", "/app/upload", null, null),
+                savedRequest);
+
+        assertEquals("GET", wrapper.getMethod());
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int read;
+
+        while ((read = in.read()) != -1) {
+            out.write(read);
+        }
+
+        return out.toString("ISO-8859-1");
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+
+        return builder.toString();
+    }
+
+    private static class CapturingRequest extends TestServletRequest {
+
+        private final AttributeSession session = new AttributeSession();
+        private final Map<String, String[]> parameters = new HashMap<String, String[]>();
+        private final List<Cookie> cookieList = new ArrayList<Cookie>();
+        private final String contentType;
+        private final int contentLength;
+        private int parameterReads;
+
+        CapturingRequest(String method, String requestURI, String contentType, String body) {
+            super(new ByteArrayInputStream(body == null ? new byte[0] : body.getBytes()));
+            this.contentType = contentType;
+            this.contentLength = body == null ? 0 : body.length();
+            setMethod(method);
+            setRequestURI(requestURI);
+        }
+
+        List<Cookie> getCookieList() {
+            return this.cookieList;
+        }
+
+        @Override
+        public Cookie[] getCookies() {
+            return this.cookieList.toArray(new Cookie[this.cookieList.size()]);
+        }
+
+        @Override
+        public int getContentLength() {
+            return this.contentLength;
+        }
+
+        @Override
+        public String getContentType() {
+            return this.contentType;
+        }
+
+        @Override
+        public String getParameter(String name) {
+            this.parameterReads++;
+            String[] values = this.parameters.get(name);
+            return values != null ? values[0] : null;
+        }
+
+        @Override
+        public String[] getParameterValues(String name) {
+            this.parameterReads++;
+            return this.parameters.get(name);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Map getParameterMap() {
+            this.parameterReads++;
+            return this.parameters;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return this.session;
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            return this.session;
+        }
+    }
+
+    private static class AttributeSession extends TestHttpSession {
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+        }
+    }
+}
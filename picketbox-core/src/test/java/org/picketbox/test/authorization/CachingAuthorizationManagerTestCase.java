@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.CacheableAuthorizationManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.impl.CachingAuthorizationManager;
+import org.picketbox.core.authorization.impl.URLAuthorizationManager;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.exceptions.AuthorizationException;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Unit test the {@link CachingAuthorizationManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class CachingAuthorizationManagerTestCase {
+
+    private CountingAuthorizationManager delegate;
+
+    private CachingAuthorizationManager cache;
+
+    @Before
+    public void setup() throws Exception {
+        delegate = new CountingAuthorizationManager();
+        cache = new CachingAuthorizationManager(delegate);
+        cache.start();
+    }
+
+    @Test
+    public void testSameRolesShareDecisions() throws Exception {
+        assertTrue(cache.authorize(newResource("GET", "/admin/users"), newSubject("admin", "user")));
+        assertTrue(cache.authorize(newResource("GET", "/admin/users"), newSubject("user", "admin")));
+
+        assertEquals(1, delegate.calls);
+        assertEquals(1, cache.getHitCount());
+
+        assertFalse(cache.authorize(newResource("GET", "/admin/users"), newSubject("user")));
+        assertFalse(cache.authorize(newResource("POST", "/admin/users"), newSubject("user")));
+
+        assertEquals(3, delegate.calls);
+        assertEquals(3, cache.getEntryCount());
+    }
+
+    @Test
+    public void testHitSetsResourceFlag() throws Exception {
+        cache.authorize(newResource("GET", "/admin/users"), newSubject("admin"));
+
+        WebResource resource = newResource("GET", "/admin/users");
+
+        assertTrue(cache.authorize(resource, newSubject("admin")));
+        assertTrue(resource.isAuthorized());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        cache.setTimeToLive(20);
+
+        cache.authorize(newResource("GET", "/admin/users"), newSubject("admin"));
+        Thread.sleep(50);
+        cache.authorize(newResource("GET", "/admin/users"), newSubject("admin"));
+
+        assertEquals(2, delegate.calls);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        cache.authorize(newResource("GET", "/admin/users"), newSubject("admin"));
+        cache.invalidate();
+
+        assertEquals(0, cache.getEntryCount());
+
+        cache.authorize(newResource("GET", "/admin/users"), newSubject("admin"));
+
+        assertEquals(2, delegate.calls);
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception {
+        cache.setMaxEntries(10);
+
+        for (int i = 0; i < 100; i++) {
+            cache.authorize(newResource("GET", "/page" + i), newSubject("admin"));
+        }
+
+        assertTrue(cache.getEntryCount() <= 10);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        cache.setMaxEntries(2);
+
+        cache.authorize(newResource("GET", "/a"), newSubject("admin"));
+        cache.authorize(newResource("GET", "/b"), newSubject("admin"));
+        cache.authorize(newResource("GET", "/a"), newSubject("admin"));
+        cache.authorize(newResource("GET", "/c"), newSubject("admin"));
+
+        assertEquals(3, delegate.calls);
+
+        // /b was the least recently used
+        cache.authorize(newResource("GET", "/a"), newSubject("admin"));
+
+        assertEquals(3, delegate.calls);
+
+        cache.authorize(newResource("GET", "/b"), newSubject("admin"));
+
+        assertEquals(4, delegate.calls);
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    @Test
+    public void testNonCacheableDecisions() throws Exception {
+        CountingAuthorizationManager selective = new CountingAuthorizationManager();
+        CachingAuthorizationManager selectiveCache = new CachingAuthorizationManager(selective);
+        selectiveCache.start();
+
+        selectiveCache.authorize(newResource("GET", "/admin/users"), newSubject("admin"));
+        selectiveCache.authorize(newResource("GET", "/admin/users"), newSubject("admin"));
+        selectiveCache.authorize(newResource("GET", "/live/feed"), newSubject("admin"));
+        selectiveCache.authorize(newResource("GET", "/live/feed"), newSubject("admin"));
+
+        assertEquals(3, selective.calls);
+    }
+
+    @Test
+    public void testPatternKeyedDecisions() throws Exception {
+        URLAuthorizationManager urlAuthorizationManager = new URLAuthorizationManager();
+        urlAuthorizationManager.addConstraints("/admin/*=admin");
+
+        CachingAuthorizationManager urlCache = new CachingAuthorizationManager(urlAuthorizationManager);
+        urlCache.start();
+
+        assertTrue(urlCache.authorize(newResource("GET", "/admin/users"), newSubject("admin")));
+        assertTrue(urlCache.authorize(newResource("GET", "/admin/groups"), newSubject("admin")));
+        assertFalse(urlCache.authorize(newResource("GET", "/admin/groups"), newSubject("user")));
+
+        assertEquals(2, urlCache.getEntryCount());
+        assertEquals(1, urlCache.getHitCount());
+    }
+
+    @Test
+    public void testBulkDecisions() throws Exception {
+        List<WebResource> resources = Arrays.asList(newResource("GET", "/admin/users"), newResource("GET", "/admin/users"),
+                newResource("POST", "/admin/users"), newResource("GET", "/live/feed"), newResource("GET", "/live/feed"));
+
+        BitSet decisions = cache.authorize(resources, newSubject("admin"));
+
+        assertEquals("{0, 1, 3, 4}", decisions.toString());
+        assertTrue(resources.get(1).isAuthorized());
+        assertFalse(resources.get(2).isAuthorized());
+        assertEquals(4, delegate.calls);
+
+        assertEquals(decisions, cache.authorize(resources, newSubject("admin")));
+        assertEquals(6, delegate.calls);
+    }
+
+    private WebResource newResource(String method, String uri) {
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+        request.setMethod(method);
+        request.setRequestURI(uri);
+
+        WebResource resource = new WebResource();
+        resource.setRequest(request);
+
+        return resource;
+    }
+
+    private PicketBoxSubject newSubject(String... roles) {
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList(roles));
+        return subject;
+    }
+
+    /**
+     * Permits the GET requests of admins, and marks the decisions of /live/* as not cacheable
+     */
+    private static class CountingAuthorizationManager implements CacheableAuthorizationManager {
+        private int calls;
+        private boolean started;
+
+        @Override
+        public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+            calls++;
+            return subject.hasRole("admin") && "GET".equals(((WebResource) resource).getRequest().getMethod());
+        }
+
+        @Override
+        public Object getDecisionKey(Resource resource) {
+            TestServletRequest request = (TestServletRequest) ((WebResource) resource).getRequest();
+
+            if (request.getRequestURI().startsWith("/live/")) {
+                return null;
+            }
+
+            return request.getMethod() + " " + request.getRequestURI();
+        }
+
+        @Override
+        public boolean started() {
+            return started;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public boolean stopped() {
+            return !started;
+        }
+
+        @Override
+        public void stop() {
+            started = false;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.DescriptorAuthorizationManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.impl.CompositeAuthorizationManager;
+import org.picketbox.core.authorization.impl.CompositeAuthorizationManager.CombiningAlgorithm;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.core.exceptions.AuthorizationException;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Unit test the {@link CompositeAuthorizationManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class CompositeAuthorizationManagerTestCase {
+
+    private CompositeAuthorizationManager composite;
+
+    @After
+    public void tearDown() throws Exception {
+        if (composite != null && composite.started()) {
+            composite.stop();
+        }
+    }
+
+    @Test
+    public void testDenyOverridesCheapestFirst() throws Exception {
+        StubAuthorizationManager expensive = new StubAuthorizationManager(true, 0);
+        StubAuthorizationManager cheap = new StubAuthorizationManager(false, 0);
+
+        composite = new CompositeAuthorizationManager(CombiningAlgorithm.DENY_OVERRIDES);
+        composite.addMember(expensive, 10);
+        composite.addMember(cheap, 1);
+        composite.start();
+
+        assertTrue(expensive.started() && cheap.started());
+        assertFalse(authorize());
+        assertEquals(1, cheap.calls.get());
+        assertEquals(0, expensive.calls.get());
+
+        cheap.decision = true;
+
+        assertTrue(authorize());
+        assertEquals(1, expensive.calls.get());
+    }
+
+    @Test
+    public void testPermitOverrides() throws Exception {
+        StubAuthorizationManager first = new StubAuthorizationManager(true, 0);
+        StubAuthorizationManager second = new StubAuthorizationManager(false, 0);
+
+        composite = new CompositeAuthorizationManager(CombiningAlgorithm.PERMIT_OVERRIDES);
+        composite.addMember(first, 1);
+        composite.addMember(second, 2);
+        composite.start();
+
+        assertTrue(authorize());
+        assertEquals(0, second.calls.get());
+
+        first.decision = false;
+
+        assertFalse(authorize());
+        assertEquals(1, second.calls.get());
+    }
+
+    @Test
+    public void testParallelMembers() throws Exception {
+        // both members wait for each other, they only permit if they are evaluated concurrently
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        StubAuthorizationManager first = new StubAuthorizationManager(true, 0);
+        StubAuthorizationManager second = new StubAuthorizationManager(true, 0);
+        first.barrier = barrier;
+        second.barrier = barrier;
+
+        composite = new CompositeAuthorizationManager();
+        composite.addParallelMember(first, 10000);
+        composite.addParallelMember(second, 10000);
+        composite.addMember(new StubAuthorizationManager(true, 0), 1);
+        composite.start();
+
+        assertTrue(authorize());
+        assertEquals(1, first.calls.get());
+        assertEquals(1, second.calls.get());
+    }
+
+    @Test
+    public void testParallelMembersAreGivenADescriptor() throws Exception {
+        StubAuthorizationManager parallel = new StubAuthorizationManager(true, 0);
+        StubAuthorizationManager inline = new StubAuthorizationManager(true, 0);
+
+        composite = new CompositeAuthorizationManager();
+        composite.addParallelMember(parallel, 5000);
+        composite.addMember(inline, 1);
+        composite.start();
+
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+        request.setMethod("GET");
+        request.setContextPath("/app");
+        request.setRequestURI("/app/admin/./users");
+
+        WebResource resource = new WebResource();
+        resource.setRequest(request);
+
+        assertTrue(composite.authorize(resource, new PicketBoxSubject()));
+        assertTrue(resource.isAuthorized());
+        assertSame(resource, inline.resource);
+
+        // no servlet object reaches the executor threads
+        WebResourceDescriptor descriptor = (WebResourceDescriptor) parallel.resource;
+
+        assertEquals("GET", descriptor.getMethod());
+        assertEquals("/admin/users", descriptor.getPath());
+
+        // a path rejected by the normalization is denied
+        request.setRequestURI("/app/../admin");
+
+        assertFalse(composite.authorize(resource, new PicketBoxSubject()));
+        assertEquals(1, parallel.calls.get());
+    }
+
+    @Test
+    public void testInlineMembersAreGivenTheWebResource() throws Exception {
+        final StubAuthorizationManager parallel = new StubAuthorizationManager(true, 0);
+        AuthorizationManager inline = new StubAuthorizationManager(true, 0) {
+            @Override
+            public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+                // like the managers reading the servlet request
+                WebResource webResource = (WebResource) resource;
+
+                return "GET".equals(webResource.getRequest().getMethod()) && super.authorize(resource, subject);
+            }
+        };
+
+        composite = new CompositeAuthorizationManager();
+        composite.addParallelMember(parallel, 5000);
+        composite.addMember(inline, 1);
+        composite.start();
+
+        // the composite is given a web resource by the PicketBoxManager
+        assertFalse(composite instanceof DescriptorAuthorizationManager);
+
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+        request.setMethod("GET");
+        request.setContextPath("/app");
+        request.setRequestURI("/app/admin");
+
+        WebResource resource = new WebResource();
+        resource.setRequest(request);
+
+        assertTrue(composite.authorize(resource, new PicketBoxSubject()));
+        assertTrue(parallel.resource instanceof WebResourceDescriptor);
+    }
+
+    @Test
+    public void testShortCircuitCancelsParallelMembers() throws Exception {
+        StubAuthorizationManager slow = new StubAuthorizationManager(true, 10000);
+
+        composite = new CompositeAuthorizationManager();
+        composite.addParallelMember(slow, 20000);
+        composite.addMember(new StubAuthorizationManager(false, 0), 1);
+        composite.start();
+
+        long start = System.nanoTime();
+
+        assertFalse(authorize());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertCancelled(slow);
+    }
+
+    @Test
+    public void testParallelDecisiveMemberEndsEvaluation() throws Exception {
+        StubAuthorizationManager fast = new StubAuthorizationManager(true, 10);
+        StubAuthorizationManager slow = new StubAuthorizationManager(false, 10000);
+
+        composite = new CompositeAuthorizationManager(CombiningAlgorithm.PERMIT_OVERRIDES);
+        composite.addParallelMember(slow, 20000);
+        composite.addParallelMember(fast, 20000);
+        composite.start();
+
+        long start = System.nanoTime();
+
+        assertTrue(authorize());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertCancelled(slow);
+    }
+
+    @Test
+    public void testTimeouts() throws Exception {
+        StubAuthorizationManager slow = new StubAuthorizationManager(true, 10000);
+
+        composite = new CompositeAuthorizationManager();
+        composite.addParallelMember(slow, 50);
+        composite.addMember(new StubAuthorizationManager(true, 0), 1);
+        composite.start();
+
+        long start = System.nanoTime();
+
+        assertFalse(authorize());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        composite.stop();
+
+        composite = new CompositeAuthorizationManager(CombiningAlgorithm.PERMIT_OVERRIDES);
+        composite.addParallelMember(new StubAuthorizationManager(true, 10000), 50);
+        composite.addParallelMember(new StubAuthorizationManager(true, 100), 5000);
+        composite.start();
+
+        assertTrue(authorize());
+    }
+
+    @Test
+    public void testFailingMemberDenies() throws Exception {
+        StubAuthorizationManager failing = new StubAuthorizationManager(true, 0);
+        failing.failure = new AuthorizationException(new IllegalStateException("unavailable"));
+
+        composite = new CompositeAuthorizationManager();
+        composite.addMember(failing, 1);
+        composite.addParallelMember(new StubAuthorizationManager(true, 0), 1000);
+        composite.start();
+
+        assertFalse(authorize());
+
+        composite.stop();
+
+        StubAuthorizationManager parallelFailing = new StubAuthorizationManager(true, 0);
+        parallelFailing.failure = new AuthorizationException(new IllegalStateException("unavailable"));
+
+        composite = new CompositeAuthorizationManager(CombiningAlgorithm.PERMIT_OVERRIDES);
+        composite.addParallelMember(parallelFailing, 1000);
+        composite.addMember(new StubAuthorizationManager(false, 0), 1);
+        composite.start();
+
+        assertFalse(authorize());
+    }
+
+    @Test
+    public void testNoMembersDenies() throws Exception {
+        composite = new CompositeAuthorizationManager();
+        composite.start();
+
+        assertFalse(authorize());
+
+        composite.stop();
+
+        composite = new CompositeAuthorizationManager(CombiningAlgorithm.PERMIT_OVERRIDES);
+        composite.start();
+
+        assertFalse(authorize());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotStarted() throws Exception {
+        composite = new CompositeAuthorizationManager();
+        composite.addMember(new StubAuthorizationManager(true, 0), 1);
+        authorize();
+    }
+
+    /**
+     * The member was either never run or interrupted
+     */
+    private void assertCancelled(StubAuthorizationManager member) throws InterruptedException {
+        assertTrue(member.interrupted.await(500, TimeUnit.MILLISECONDS) || member.calls.get() == 0);
+    }
+
+    private boolean authorize() {
+        WebResourceDescriptor resource = new WebResourceDescriptor("GET", "/admin", "", null);
+        boolean authorized = composite.authorize(resource, new PicketBoxSubject());
+
+        assertEquals(authorized, resource.isAuthorized());
+
+        return authorized;
+    }
+
+    /**
+     * Returns a fixed decision after some delay
+     */
+    private static class StubAuthorizationManager implements AuthorizationManager {
+        private volatile boolean decision;
+        private volatile AuthorizationException failure;
+        private final long delay;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private volatile Resource resource;
+        private volatile CyclicBarrier barrier;
+        private boolean started;
+
+        StubAuthorizationManager(boolean decision, long delay) {
+            this.decision = decision;
+            this.delay = delay;
+        }
+
+        @Override
+        public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+            this.resource = resource;
+            calls.incrementAndGet();
+
+            if (barrier != null) {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    return false;
+                }
+            }
+
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    return decision;
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            return decision;
+        }
+
+        @Override
+        public boolean started() {
+            return started;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public boolean stopped() {
+            return !started;
+        }
+
+        @Override
+        public void stop() {
+            started = false;
+        }
+    }
+}
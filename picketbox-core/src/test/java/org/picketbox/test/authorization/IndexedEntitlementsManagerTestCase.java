@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.EntitlementsManager.Entitlement;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.impl.IndexedEntitlementsManager;
+import org.picketbox.core.authorization.resource.AbstractPicketBoxResource;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.core.util.ThreadPools;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Unit test the {@link IndexedEntitlementsManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class IndexedEntitlementsManagerTestCase {
+
+    private IndexedEntitlementsManager manager;
+
+    @Before
+    public void setup() throws Exception {
+        manager = new IndexedEntitlementsManager();
+
+        manager.grant(new MenuItem("reports"), Action.VIEW, "user", "manager");
+        manager.grant(new MenuItem("reports"), Action.EDIT, "manager");
+        manager.grant(new MenuItem("admin"), Action.VIEW, "admin");
+        manager.grant("/orders", Action.EDIT, "user");
+
+        manager.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        manager.stop();
+    }
+
+    @Test
+    public void testEntitlements() throws Exception {
+        assertArrayEquals(new Entitlement[] { Action.VIEW }, manager.entitlements(new MenuItem("reports"), newSubject("user")));
+        assertArrayEquals(new Entitlement[] { Action.VIEW, Action.EDIT },
+                manager.entitlements(new MenuItem("reports"), newSubject("manager", "user")));
+        assertEquals(0, manager.entitlements(new MenuItem("admin"), newSubject("user")).length);
+        assertEquals(0, manager.entitlements(new MenuItem("unknown"), newSubject("admin")).length);
+        assertEquals(0, manager.entitlements(new MenuItem("reports"), null).length);
+
+        TestServletRequest request = new TestServletRequest(null);
+        request.setContextPath("/app");
+        request.setRequestURI("/app/orders");
+
+        WebResource resource = new WebResource();
+        resource.setRequest(request);
+
+        assertArrayEquals(new Entitlement[] { Action.EDIT }, manager.entitlements(resource, newSubject("user")));
+    }
+
+    @Test
+    public void testWebResourceKeys() throws Exception {
+        final List<Object> keys = new ArrayList<Object>();
+
+        IndexedEntitlementsManager recording = new IndexedEntitlementsManager() {
+            @Override
+            protected Object getResourceKey(Resource resource) {
+                Object key = super.getResourceKey(resource);
+                keys.add(key);
+                return key;
+            }
+        };
+
+        recording.grant("/orders/list", Action.VIEW, "user");
+        recording.start();
+
+        try {
+            TestServletRequest request = new TestServletRequest(null);
+            request.setMethod("GET");
+            request.setContextPath("/app");
+            request.setRequestURI("/app/orders;jsessionid=1/./%6Cist");
+
+            WebResource resource = new WebResource();
+            resource.setRequest(request);
+
+            WebResourceDescriptor descriptor = WebResourceDescriptor.from(request);
+
+            assertArrayEquals(new Entitlement[] { Action.VIEW }, recording.entitlements(resource, newSubject("user")));
+            assertArrayEquals(new Entitlement[] { Action.VIEW }, recording.entitlements(descriptor, newSubject("user")));
+            assertEquals(Arrays.<Object> asList("/orders/list", "/orders/list"), keys);
+
+            // a rejected path has no entitlements
+            request.setRequestURI("/app/orders%2Flist");
+
+            assertEquals(0, recording.entitlements(resource, newSubject("user")).length);
+        } finally {
+            recording.stop();
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        List<Resource> resources = Arrays.<Resource> asList(new MenuItem("admin"), new MenuItem("reports"),
+                new MenuItem("unknown"), new MenuItem("reports"));
+
+        List<Entitlement[]> entitlements = manager.entitlements(resources, newSubject("manager"));
+
+        // equal resources each get their entry
+        assertEquals(4, entitlements.size());
+        assertEquals(0, entitlements.get(0).length);
+        assertArrayEquals(new Entitlement[] { Action.VIEW, Action.EDIT }, entitlements.get(1));
+        assertEquals(0, entitlements.get(2).length);
+        assertArrayEquals(new Entitlement[] { Action.VIEW, Action.EDIT }, entitlements.get(3));
+
+        assertEquals(0, manager.entitlements(Collections.<Resource> emptyList(), newSubject("manager")).size());
+    }
+
+    @Test
+    public void testParallelBatch() throws Exception {
+        final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        ExecutorService executor = ThreadPools.newBoundedExecutor("entitlements-test", 4, 16);
+
+        IndexedEntitlementsManager parallel = new IndexedEntitlementsManager(executor) {
+            @Override
+            protected Object getResourceKey(Resource resource) {
+                threads.add(Thread.currentThread().getName());
+                return super.getResourceKey(resource);
+            }
+        };
+
+        List<Resource> resources = new ArrayList<Resource>();
+
+        for (int i = 0; i < 1000; i++) {
+            parallel.grant(new MenuItem("item" + i), Action.VIEW, "role" + (i % 10));
+            resources.add(new MenuItem("item" + i));
+        }
+
+        parallel.setParallelism(4);
+        parallel.setParallelThreshold(100);
+        parallel.start();
+
+        try {
+            List<Entitlement[]> entitlements = parallel.entitlements(resources, newSubject("role3"));
+
+            assertEquals(1000, entitlements.size());
+
+            for (int i = 0; i < entitlements.size(); i++) {
+                assertEquals(i % 10 == 3 ? 1 : 0, entitlements.get(i).length);
+            }
+
+            assertEquals(4, threads.size());
+        } finally {
+            parallel.stop();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        manager.grant(new MenuItem("admin"), Action.VIEW, "user");
+
+        assertEquals(0, manager.entitlements(new MenuItem("admin"), newSubject("user")).length);
+
+        manager.start();
+
+        assertArrayEquals(new Entitlement[] { Action.VIEW }, manager.entitlements(new MenuItem("admin"), newSubject("user")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotStarted() throws Exception {
+        manager.stop();
+        manager.entitlements(new MenuItem("reports"), newSubject("user"));
+    }
+
+    private PicketBoxSubject newSubject(String... roles) {
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList(roles));
+        return subject;
+    }
+
+    private enum Action implements Entitlement {
+        VIEW, EDIT
+    }
+
+    private static class MenuItem extends AbstractPicketBoxResource {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        MenuItem(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof MenuItem && ((MenuItem) obj).name.equals(name);
+        }
+    }
+}
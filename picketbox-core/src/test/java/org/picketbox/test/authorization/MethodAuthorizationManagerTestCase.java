@@ -0,0 +1,301 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSecurityContext;
+import org.picketbox.core.PicketBoxSecurityContextAssociation;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.annotation.DenyAll;
+import org.picketbox.core.authorization.annotation.PermitAll;
+import org.picketbox.core.authorization.annotation.RolesAllowed;
+import org.picketbox.core.authorization.impl.MethodAuthorizationInterceptor;
+import org.picketbox.core.authorization.impl.MethodAuthorizationManager;
+import org.picketbox.core.authorization.resource.MethodResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+
+/**
+ * Unit test the {@link MethodAuthorizationManager} and the {@link MethodAuthorizationInterceptor}
+ *
+ * @author Stefan Guilhen
+ */
+public class MethodAuthorizationManagerTestCase {
+
+    private MethodAuthorizationManager authorizationManager;
+
+    private AccountService service;
+
+    @Before
+    public void setup() throws Exception {
+        authorizationManager = new MethodAuthorizationManager();
+        authorizationManager.start();
+
+        service = MethodAuthorizationInterceptor.secure(new DefaultAccountService(), AccountService.class,
+                authorizationManager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        PicketBoxSecurityContextAssociation.setSecurityContext(null);
+        authorizationManager.stop();
+    }
+
+    @Test
+    public void testRolesAllowed() throws Exception {
+        login("user");
+
+        assertEquals(100, service.getBalance("jduke"));
+        assertDenied("transfer");
+
+        login("manager");
+
+        assertEquals(100, service.getBalance("jduke"));
+        assertEquals("done", service.transfer(10));
+    }
+
+    @Test
+    public void testImplementationAnnotationsTakePrecedence() throws Exception {
+        login("user");
+
+        assertEquals("closed", service.close());
+        assertDenied("audit");
+    }
+
+    @Test
+    public void testPermitAllAndUnannotated() throws Exception {
+        assertEquals("pong", service.ping());
+        assertDenied("getBalance");
+
+        final int[] runs = new int[1];
+
+        Runnable unannotated = MethodAuthorizationInterceptor.secure(new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        }, Runnable.class, authorizationManager);
+
+        unannotated.run();
+
+        authorizationManager.setDefaultPermit(false);
+
+        try {
+            unannotated.run();
+            fail();
+        } catch (SecurityException e) {
+            assertEquals(1, runs[0]);
+        }
+
+        assertEquals("pong", service.ping());
+    }
+
+    @Test
+    public void testAnyAuthenticated() throws Exception {
+        assertDenied("profile");
+
+        login("guest");
+
+        assertEquals("profile", service.profile());
+    }
+
+    @Test
+    public void testTargetExceptionsArePropagated() throws Exception {
+        login("manager");
+
+        try {
+            service.transfer(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("negative", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRequirementsAreCached() throws Exception {
+        login("manager");
+
+        for (int i = 0; i < 1000; i++) {
+            service.getBalance("jduke");
+            service.transfer(1);
+        }
+
+        assertEquals(2, authorizationManager.getCachedMethodCount());
+
+        MethodResource balance = new MethodResource(AccountService.class.getMethod("getBalance", String.class),
+                new DefaultAccountService(), new Object[] { "jduke" });
+        MethodResource otherBalance = new MethodResource(AccountService.class.getMethod("getBalance", String.class),
+                new DefaultAccountService(), new Object[] { "other" });
+
+        assertSame(authorizationManager.getDecisionKey(balance), authorizationManager.getDecisionKey(otherBalance));
+
+        authorizationManager.stop();
+
+        assertEquals(0, authorizationManager.getCachedMethodCount());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        MethodResource resource = new MethodResource(AccountService.class.getMethod("getBalance", String.class),
+                new DefaultAccountService(), new Object[] { "jduke" });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+
+        output.writeObject(resource);
+        output.close();
+
+        MethodResource copy = (MethodResource) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+                .readObject();
+
+        assertEquals(DefaultAccountService.class.getName(), copy.getClassName());
+        assertEquals("getBalance", copy.getMethodName());
+        assertEquals(Arrays.asList(String.class.getName()), Arrays.asList(copy.getParameterTypes()));
+        assertEquals(resource.toString(), copy.toString());
+        assertEquals(null, copy.getMethod());
+        assertFalse(authorizationManager.getDecisionKey(copy) == null);
+
+        // the method of a copy is unknown, it cannot be checked
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList("manager"));
+
+        assertFalse(authorizationManager.authorize(copy, subject));
+    }
+
+    @Test
+    public void testOtherResourcesAreDenied() throws Exception {
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList("manager"));
+
+        assertFalse(authorizationManager.authorize(new WebResourceDescriptor("GET", "/admin", "", null), subject));
+    }
+
+    private void login(String... roles) {
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList(roles));
+
+        PicketBoxSecurityContext securityContext = new PicketBoxSecurityContext();
+        securityContext.setSubject(subject);
+
+        PicketBoxSecurityContextAssociation.setSecurityContext(securityContext);
+    }
+
+    private void assertDenied(String method) throws Exception {
+        try {
+            if (method.equals("transfer")) {
+                service.transfer(1);
+            } else if (method.equals("audit")) {
+                service.audit();
+            } else if (method.equals("getBalance")) {
+                service.getBalance("jduke");
+            } else {
+                service.profile();
+            }
+
+            fail();
+        } catch (SecurityException e) {
+            assertTrue(e.getMessage().contains(method));
+        }
+    }
+
+    /**
+     * The secured interface
+     */
+    @RolesAllowed({ "user", "manager" })
+    public interface AccountService {
+
+        int getBalance(String account);
+
+        @RolesAllowed("manager")
+        String transfer(int amount);
+
+        @RolesAllowed("manager")
+        String close();
+
+        String audit();
+
+        @PermitAll
+        String ping();
+
+        @RolesAllowed("*")
+        String profile();
+    }
+
+    /**
+     * The implementation, its annotations override the ones of the interface
+     */
+    @DenyAll
+    public static class DefaultAccountService implements AccountService {
+
+        @Override
+        @RolesAllowed({ "user", "manager" })
+        public int getBalance(String account) {
+            return 100;
+        }
+
+        @Override
+        @RolesAllowed("manager")
+        public String transfer(int amount) {
+            if (amount < 0) {
+                throw new IllegalArgumentException("negative");
+            }
+
+            return "done";
+        }
+
+        @Override
+        @RolesAllowed("user")
+        public String close() {
+            return "closed";
+        }
+
+        @Override
+        public String audit() {
+            return "audited";
+        }
+
+        @Override
+        @PermitAll
+        public String ping() {
+            return "pong";
+        }
+
+        @Override
+        @RolesAllowed("*")
+        public String profile() {
+            return "profile";
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.impl.PolicyAuthorizationManager;
+import org.picketbox.core.authorization.impl.PolicyAuthorizationManager.Effect;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+
+/**
+ * Measure the indexing and decision time of the {@link PolicyAuthorizationManager}. Not part of the unit tests, run with
+ * <code>mvn test -Pbenchmark</code>.
+ *
+ * @author Stefan Guilhen
+ */
+public class PolicyAuthorizationManagerBenchmark {
+
+    @Test
+    public void testDecisionTime() throws Exception {
+        for (int policies : new int[] { 1000, 10000, 100000 }) {
+            PolicyAuthorizationManager authorizationManager = new PolicyAuthorizationManager();
+
+            for (int i = 0; i < policies; i++) {
+                authorizationManager.addPolicy(Effect.PERMIT, "/resource" + i,
+                        Collections.singleton(i % 2 == 0 ? "GET" : "POST"), "role" + (i % 100));
+            }
+
+            authorizationManager.addPolicy(Effect.DENY, PolicyAuthorizationManager.ANY, null, "suspended");
+
+            long loadStart = System.nanoTime();
+
+            authorizationManager.start();
+
+            long loadMillis = (System.nanoTime() - loadStart) / 1000000;
+
+            WebResourceDescriptor[] resources = new WebResourceDescriptor[1000];
+
+            for (int i = 0; i < resources.length; i++) {
+                int target = (i * 7919) % policies;
+                resources[i] = newResource(target % 2 == 0 ? "GET" : "POST", "/resource" + target);
+            }
+
+            PicketBoxSubject subject = newSubject("role7", "role42");
+            int iterations = 1000000;
+
+            for (int i = 0; i < iterations / 10; i++) {
+                authorizationManager.authorize(resources[i % resources.length], subject);
+            }
+
+            long start = System.nanoTime();
+            int permitted = 0;
+
+            for (int i = 0; i < iterations; i++) {
+                if (authorizationManager.authorize(resources[i % resources.length], subject)) {
+                    permitted++;
+                }
+            }
+
+            long nanosPerDecision = (System.nanoTime() - start) / iterations;
+
+            System.out.println("PolicyAuthorizationManager: " + nanosPerDecision + " ns per decision with " + policies
+                    + " policies, indexed in " + loadMillis + " ms");
+
+            assertTrue(permitted > 0);
+        }
+    }
+
+    private WebResourceDescriptor newResource(String method, String path) {
+        return new WebResourceDescriptor(method, path, "", null);
+    }
+
+    private PicketBoxSubject newSubject(String... roles) {
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList(roles));
+        return subject;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.impl.PolicyAuthorizationManager;
+import org.picketbox.core.authorization.impl.PolicyAuthorizationManager.Effect;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Unit test the {@link PolicyAuthorizationManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class PolicyAuthorizationManagerTestCase {
+
+    private PolicyAuthorizationManager authorizationManager;
+
+    @Before
+    public void setup() throws Exception {
+        authorizationManager = new PolicyAuthorizationManager();
+
+        authorizationManager.addPolicy(Effect.PERMIT, "/reports", new HashSet<String>(Arrays.asList("GET", "HEAD")), "manager",
+                "auditor");
+        authorizationManager.addPolicy(Effect.PERMIT, "/reports", Collections.singleton("POST"), "manager");
+        authorizationManager.addPolicy(Effect.DENY, "/reports", null, "suspended");
+        authorizationManager.addPolicy(Effect.PERMIT, "/public", null);
+        authorizationManager.addPolicy(Effect.PERMIT, PolicyAuthorizationManager.ANY, Collections.singleton("GET"), "admin");
+        authorizationManager.addPolicy(Effect.DENY, PolicyAuthorizationManager.ANY, Collections.singleton("DELETE"), "auditor");
+
+        authorizationManager.start();
+    }
+
+    @Test
+    public void testTargets() throws Exception {
+        assertTrue(authorize("GET", "/reports", "auditor"));
+        assertTrue(authorize("HEAD", "/reports", "auditor"));
+        assertFalse(authorize("POST", "/reports", "auditor"));
+        assertTrue(authorize("POST", "/reports", "manager"));
+        assertFalse(authorize("GET", "/reports", "user"));
+        assertFalse(authorize("GET", "/reports"));
+    }
+
+    @Test
+    public void testAnyResourceAndAnySubject() throws Exception {
+        assertTrue(authorize("GET", "/reports", "admin"));
+        assertTrue(authorize("GET", "/unknown", "admin"));
+        assertFalse(authorize("POST", "/unknown", "admin"));
+        assertTrue(authorize("PUT", "/public"));
+        assertTrue(authorize("PUT", "/public", "user"));
+    }
+
+    @Test
+    public void testDenyOverrides() throws Exception {
+        assertFalse(authorize("GET", "/reports", "manager", "suspended"));
+        assertFalse(authorize("DELETE", "/public", "auditor"));
+        assertTrue(authorize("DELETE", "/public", "manager"));
+    }
+
+    @Test
+    public void testDefaultPermit() throws Exception {
+        assertFalse(authorize("GET", "/unknown", "user"));
+
+        authorizationManager.setDefaultPermit(true);
+
+        assertTrue(authorize("GET", "/unknown", "user"));
+        assertFalse(authorize("DELETE", "/unknown", "auditor"));
+    }
+
+    @Test
+    public void testNormalizedResourceIds() throws Exception {
+        authorizationManager.addPolicy(Effect.DENY, "/admin", null);
+        authorizationManager.setDefaultPermit(true);
+        authorizationManager.start();
+
+        for (String uri : new String[] { "/app/admin", "/app/admin;x", "/app/admin/", "/app/%61dmin", "/app/public/../admin",
+                "/app/admin%2f", "/app/../admin" }) {
+            TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+            request.setMethod("GET");
+            request.setContextPath("/app");
+            request.setRequestURI(uri);
+
+            WebResource resource = new WebResource();
+            resource.setRequest(request);
+
+            assertFalse(uri, authorizationManager.authorize(resource, newSubject("admin")));
+        }
+
+        assertFalse(authorize("GET", "/admin/", "user"));
+        assertTrue(authorize("GET", "/administration", "user"));
+    }
+
+    @Test
+    public void testDecisionKeys() throws Exception {
+        assertEquals(authorizationManager.getDecisionKey(newResource("GET", "/reports")),
+                authorizationManager.getDecisionKey(newResource("GET", "/reports")));
+        assertNotSame(authorizationManager.getDecisionKey(newResource("GET", "/reports")),
+                authorizationManager.getDecisionKey(newResource("POST", "/reports")));
+        assertEquals(authorizationManager.getDecisionKey(newResource("GET", "/a")),
+                authorizationManager.getDecisionKey(newResource("GET", "/b")));
+    }
+
+    @Test
+    public void testPolicyDocuments() throws Exception {
+        String policy = "<Policy xmlns=\"urn:oasis:names:tc:xacml:2.0:policy:schema:os\" PolicyId=\"audit\" "
+                + "RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable\"><Target>"
+                + "<Resources><Resource><ResourceMatch MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\">"
+                + "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">/audit</AttributeValue>"
+                + "<ResourceAttributeDesignator AttributeId=\"" + PolicyAuthorizationManager.RESOURCE_ID
+                + "\" DataType=\"http://www.w3.org/2001/XMLSchema#string\"/></ResourceMatch></Resource></Resources>"
+                + "</Target><Rule RuleId=\"audit:rule\" Effect=\"Permit\"><Target><Subjects><Subject>"
+                + "<SubjectMatch MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\">"
+                + "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">auditor</AttributeValue>"
+                + "<SubjectAttributeDesignator AttributeId=\"" + PolicyAuthorizationManager.ROLE
+                + "\" DataType=\"http://www.w3.org/2001/XMLSchema#string\"/></SubjectMatch></Subject></Subjects>"
+                + "</Target></Rule></Policy>";
+
+        authorizationManager.addPolicy(new ByteArrayInputStream(policy.getBytes("UTF-8")));
+        authorizationManager.start();
+
+        assertTrue(authorize("GET", "/audit", "auditor"));
+        assertTrue(authorize("POST", "/audit/", "auditor"));
+        assertFalse(authorize("GET", "/audit", "manager"));
+        assertFalse(authorize("GET", "/reports", "user"));
+    }
+
+    @Test
+    public void testPolicyDocumentWithTrailingSlash() throws Exception {
+        String policy = "<Policy xmlns=\"urn:oasis:names:tc:xacml:2.0:policy:schema:os\" PolicyId=\"admin\" "
+                + "RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable\"><Target>"
+                + "<Resources><Resource><ResourceMatch MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\">"
+                + "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">/admin/</AttributeValue>"
+                + "<ResourceAttributeDesignator AttributeId=\"" + PolicyAuthorizationManager.RESOURCE_ID
+                + "\" DataType=\"http://www.w3.org/2001/XMLSchema#string\"/></ResourceMatch></Resource></Resources>"
+                + "</Target><Rule RuleId=\"admin:rule\" Effect=\"Deny\"/></Policy>";
+
+        authorizationManager.addPolicy(new ByteArrayInputStream(policy.getBytes("UTF-8")));
+        authorizationManager.setDefaultPermit(true);
+        authorizationManager.start();
+
+        // the PDP is given the document without the trailing slash
+        assertFalse(authorize("GET", "/admin", "user"));
+        assertFalse(authorize("GET", "/admin/", "user"));
+        assertTrue(authorize("GET", "/reports", "user"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPolicyDocument() throws Exception {
+        authorizationManager.addPolicy(new ByteArrayInputStream("<PolicySet/>".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotStarted() throws Exception {
+        authorizationManager.stop();
+        authorize("GET", "/reports", "manager");
+    }
+
+    private boolean authorize(String method, String path, String... roles) {
+        return authorizationManager.authorize(newResource(method, path), roles.length == 0 ? null : newSubject(roles));
+    }
+
+    private WebResourceDescriptor newResource(String method, String path) {
+        return new WebResourceDescriptor(method, path, "", null);
+    }
+
+    private PicketBoxSubject newSubject(String... roles) {
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList(roles));
+        return subject;
+    }
+}
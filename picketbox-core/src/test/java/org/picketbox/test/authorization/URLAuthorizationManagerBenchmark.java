@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authorization.impl.URLAuthorizationManager;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Measure the decision time of the {@link URLAuthorizationManager}. Not part of the unit tests, run with
+ * <code>mvn test -Pbenchmark</code>.
+ *
+ * @author Stefan Guilhen
+ */
+public class URLAuthorizationManagerBenchmark {
+
+    @Test
+    public void testDecisionTime() throws Exception {
+        URLAuthorizationManager authorizationManager = new URLAuthorizationManager();
+
+        for (int i = 0; i < 500; i++) {
+            authorizationManager.addConstraint("/module" + i + "/*", null, "role" + i);
+        }
+
+        authorizationManager.start();
+
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+        request.setMethod("GET");
+        request.setRequestURI("/module250/page/view");
+
+        WebResource resource = new WebResource();
+        resource.setRequest(request);
+
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList("role1", "role250"));
+
+        int iterations = 1000000;
+
+        for (int i = 0; i < iterations / 10; i++) {
+            authorizationManager.authorize(resource, subject);
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            assertTrue(authorizationManager.authorize(resource, subject));
+        }
+
+        long nanosPerDecision = (System.nanoTime() - start) / iterations;
+
+        System.out.println("URLAuthorizationManager: " + nanosPerDecision + " ns per decision with 500 constraints");
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxConfiguration;
+import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authentication.http.HTTPBasicAuthentication;
+import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.authorization.impl.URLAuthorizationManager;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Unit test the {@link URLAuthorizationManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class URLAuthorizationManagerTestCase {
+
+    private URLAuthorizationManager authorizationManager;
+
+    private PicketBoxSubject admin;
+
+    private PicketBoxSubject auditor;
+
+    private PicketBoxSubject user;
+
+    @Before
+    public void setup() throws Exception {
+        authorizationManager = new URLAuthorizationManager();
+        authorizationManager.addConstraints("/admin/*=admin, GET|HEAD /reports/*=manager|auditor, "
+                + "/reports/*=manager, /account/*=*, /closed/*=, *.pdf=manager, /admin/status=*");
+        authorizationManager.start();
+
+        admin = newSubject("admin");
+        auditor = newSubject("auditor");
+        user = newSubject("user");
+    }
+
+    @Test
+    public void testRoles() throws Exception {
+        assertTrue(authorize("GET", "/admin/users", admin));
+        assertFalse(authorize("GET", "/admin/users", user));
+        assertFalse(authorize("GET", "/admin/users", null));
+    }
+
+    @Test
+    public void testMethods() throws Exception {
+        assertTrue(authorize("GET", "/reports/2012", auditor));
+        assertTrue(authorize("HEAD", "/reports/2012", auditor));
+        assertFalse(authorize("POST", "/reports/2012", auditor));
+    }
+
+    @Test
+    public void testAnyAuthenticatedAndDenyAll() throws Exception {
+        assertTrue(authorize("GET", "/account/profile", user));
+        assertFalse(authorize("GET", "/account/profile", null));
+        assertFalse(authorize("GET", "/closed/anything", admin));
+    }
+
+    @Test
+    public void testPrecedence() throws Exception {
+        // exact wins over prefix, prefix over suffix
+        assertTrue(authorize("GET", "/admin/status", user));
+        assertFalse(authorize("GET", "/admin/report.pdf", auditor));
+        assertFalse(authorize("GET", "/docs/guide.pdf", user));
+    }
+
+    @Test
+    public void testDefaultPermit() throws Exception {
+        assertFalse(authorize("GET", "/index.html", user));
+
+        authorizationManager.setDefaultPermit(true);
+
+        assertTrue(authorize("GET", "/index.html", null));
+    }
+
+    @Test
+    public void testNormalizedPaths() throws Exception {
+        authorizationManager.setDefaultPermit(true);
+
+        assertFalse(authorize("GET", "/admin;x/secret", user));
+        assertFalse(authorize("GET", "/%61dmin/secret", user));
+        assertFalse(authorize("GET", "/public/../admin/secret", user));
+        assertFalse(authorize("GET", "//admin/secret", user));
+        assertTrue(authorize("GET", "/%61dmin/secret", admin));
+
+        // /admin/* also constrains /admin
+        assertFalse(authorize("GET", "/admin", user));
+        assertTrue(authorize("GET", "/admin", admin));
+
+        // rejected paths are denied to everyone
+        assertFalse(authorize("GET", "/admin%2fsecret", admin));
+        assertFalse(authorize("GET", "/../admin/secret", admin));
+    }
+
+    @Test
+    public void testContextPath() throws Exception {
+        WebResource resource = newResource("GET", "/app/admin/users");
+        ((TestServletRequest) resource.getRequest()).setContextPath("/app");
+
+        assertTrue(authorizationManager.authorize(resource, admin));
+        assertTrue(resource.isAuthorized());
+        assertFalse(authorizationManager.authorize(resource, user));
+        assertFalse(resource.isAuthorized());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotStarted() throws Exception {
+        authorizationManager.stop();
+        authorize("GET", "/admin/users", admin);
+    }
+
+    @Test
+    public void testBulkDecisions() throws Exception {
+        List<WebResource> resources = Arrays.asList(newResource("GET", "/admin/users"), newResource("GET", "/reports/2012"),
+                newResource("POST", "/reports/2012"), newResource("GET", "/account/profile"), newResource("GET", "/public"),
+                newResource("GET", "/admin/groups"));
+
+        authorizationManager.setDefaultPermit(true);
+
+        BitSet decisions = authorizationManager.authorize(resources, auditor);
+
+        assertEquals("{1, 3, 4}", decisions.toString());
+
+        for (int i = 0; i < resources.size(); i++) {
+            assertEquals(decisions.get(i), resources.get(i).isAuthorized());
+            assertEquals(decisions.get(i), authorize(resources.get(i).getRequest().getMethod(),
+                    resources.get(i).getRequest().getRequestURI(), auditor));
+        }
+
+        assertEquals("{3, 4}", authorizationManager.authorize(resources, user).toString());
+        assertEquals("{4}", authorizationManager.authorize(resources, null).toString());
+    }
+
+    @Test
+    public void testBulkDecisionsWithoutSubject() throws Exception {
+        HTTPBasicAuthentication scheme = new HTTPBasicAuthentication();
+        scheme.setAuthManager(new PropertiesFileBasedAuthenticationManager());
+
+        PicketBoxManager manager = new PicketBoxConfiguration().authentication(scheme).authorization(authorizationManager)
+                .buildAndStart();
+
+        List<WebResource> resources = Arrays.asList(newResource("GET", "/admin/users"), newResource("GET", "/account/profile"),
+                newResource("GET", "/index.html"));
+
+        assertEquals("{}", manager.authorize(resources, null).toString());
+        assertEquals("{0, 1}", manager.authorize(resources, admin).toString());
+
+        authorizationManager.setDefaultPermit(true);
+
+        assertEquals("{2}", manager.authorize(resources, null).toString());
+
+        manager.stop();
+    }
+
+    private boolean authorize(String method, String uri, PicketBoxSubject subject) {
+        return authorizationManager.authorize(newResource(method, uri), subject);
+    }
+
+    private WebResource newResource(String method, String uri) {
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+        request.setMethod(method);
+        request.setRequestURI(uri);
+
+        WebResource resource = new WebResource();
+        resource.setRequest(request);
+
+        return resource;
+    }
+
+    private PicketBoxSubject newSubject(String... roles) {
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList(roles));
+        return subject;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.authorization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxConfiguration;
+import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.HTTPBasicAuthentication;
+import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.authorization.AuthorizationManager;
+import org.picketbox.core.authorization.Resource;
+import org.picketbox.core.authorization.impl.CachingAuthorizationManager;
+import org.picketbox.core.authorization.impl.URLAuthorizationManager;
+import org.picketbox.core.authorization.resource.WebResource;
+import org.picketbox.core.authorization.resource.WebResourceDescriptor;
+import org.picketbox.core.exceptions.AuthorizationException;
+import org.picketbox.core.util.Base64;
+import org.picketbox.test.http.TestServletRequest;
+import org.picketbox.test.http.TestServletResponse;
+
+/**
+ * Unit test the {@link WebResourceDescriptor}
+ *
+ * @author Stefan Guilhen
+ */
+public class WebResourceDescriptorTestCase {
+
+    @Test
+    public void testFromRequest() throws Exception {
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0])) {
+            @Override
+            public Object getAttribute(String name) {
+                if (name.equals("tenant")) {
+                    return "acme";
+                }
+
+                return name.equals("stream") ? new Object() : null;
+            }
+        };
+
+        request.setMethod("GET");
+        request.setContextPath("/app");
+        request.setRequestURI("/app/admin/users");
+
+        WebResourceDescriptor descriptor = WebResourceDescriptor.from(request, "tenant", "stream", "missing");
+
+        assertEquals("GET", descriptor.getMethod());
+        assertEquals("/admin/users", descriptor.getPath());
+        assertEquals("/app", descriptor.getContextPath());
+        assertEquals(Collections.<String, Serializable> singletonMap("tenant", "acme"), descriptor.getAttributes());
+    }
+
+    @Test
+    public void testNormalizedPath() throws Exception {
+        assertEquals("/admin/users", newDescriptor("/admin/users").getPath());
+        assertEquals("/admin/users", newDescriptor("/admin//./users;jsessionid=42").getPath());
+        assertEquals("/admin/users", newDescriptor("/public/../admin/users").getPath());
+        assertEquals("/admin/", newDescriptor("/admin/users/..").getPath());
+        assertEquals("/admin/", newDescriptor("/admin;x=1/").getPath());
+        assertEquals("/admin/users", newDescriptor("/%61dmin/us%65rs").getPath());
+        assertEquals("/admin/users", newDescriptor("/public/%2e%2e/admin/users").getPath());
+        assertEquals("/admin/a b", newDescriptor("/admin/a%20b").getPath());
+        assertEquals("", newDescriptor(null).getPath());
+    }
+
+    @Test
+    public void testRejectedPaths() throws Exception {
+        for (String path : new String[] { "/admin%2fusers", "/admin%5Cusers", "/admin\\users", "/../..", "/admin/%zz",
+                "/admin%00" }) {
+            try {
+                newDescriptor(path);
+                fail("Path should be rejected: " + path);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+        request.setMethod("GET");
+        request.setRequestURI("/public/..%2fadmin/users");
+
+        assertNull(WebResourceDescriptor.from(request));
+    }
+
+    @Test
+    public void testWebResourceForOtherManagers() throws Exception {
+        final List<Resource> resources = new ArrayList<Resource>();
+
+        AuthorizationManager authorizationManager = new AuthorizationManager() {
+            @Override
+            public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+                resources.add(resource);
+                return ((WebResource) resource).getRequest().getRequestURI().equals("/app/public");
+            }
+
+            @Override
+            public boolean started() {
+                return true;
+            }
+
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public boolean stopped() {
+                return false;
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+
+        URLAuthorizationManager urlAuthorizationManager = new URLAuthorizationManager();
+        urlAuthorizationManager.addConstraints("/public/*=*");
+
+        assertTrue(authorize(authorizationManager, "/app/public"));
+        assertTrue(resources.get(0) instanceof WebResource);
+
+        assertTrue(authorize(urlAuthorizationManager, "/app/public"));
+        assertFalse(authorize(urlAuthorizationManager, "/app/public%2f..%2fadmin"));
+    }
+
+    @Test
+    public void testEquality() throws Exception {
+        WebResourceDescriptor descriptor = newDescriptor("/admin/users");
+
+        assertEquals(descriptor, newDescriptor("/admin//users"));
+        assertEquals(descriptor.hashCode(), newDescriptor("/admin//users").hashCode());
+        assertFalse(descriptor.equals(newDescriptor("/admin/groups")));
+        assertFalse(descriptor.equals(new WebResourceDescriptor("POST", "/admin/users", "/app", null)));
+
+        descriptor.setAuthorized(true);
+
+        assertEquals(descriptor, newDescriptor("/admin/users"));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        WebResourceDescriptor descriptor = new WebResourceDescriptor("GET", "/admin/users", "/app",
+                Collections.<String, Serializable> singletonMap("tenant", "acme"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+
+        output.writeObject(descriptor);
+        output.close();
+
+        Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        assertEquals(descriptor, copy);
+        assertEquals(descriptor.hashCode(), copy.hashCode());
+    }
+
+    @Test
+    public void testTamperedSerializedForm() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+
+        output.writeObject(new WebResourceDescriptor("GET", "/admin/users", "/app", null));
+        output.close();
+
+        // a path of the same length that was never normalized
+        byte[] serialized = bytes.toByteArray();
+        String form = new String(serialized, "ISO-8859-1").replace("/admin/users", "/ab/../admin");
+
+        try {
+            new ObjectInputStream(new ByteArrayInputStream(form.getBytes("ISO-8859-1"))).readObject();
+            fail("Path should be rejected");
+        } catch (InvalidObjectException expected) {
+        }
+    }
+
+    @Test
+    public void testAuthorization() throws Exception {
+        URLAuthorizationManager authorizationManager = new URLAuthorizationManager();
+        authorizationManager.addConstraints("/admin/*=admin, /public/*=*");
+
+        final AuthorizationManager delegate = authorizationManager;
+
+        CachingAuthorizationManager cache = new CachingAuthorizationManager(new AuthorizationManager() {
+            @Override
+            public boolean authorize(Resource resource, PicketBoxSubject subject) throws AuthorizationException {
+                return delegate.authorize(resource, subject);
+            }
+
+            @Override
+            public boolean started() {
+                return delegate.started();
+            }
+
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public boolean stopped() {
+                return delegate.stopped();
+            }
+
+            @Override
+            public void stop() {
+            }
+        });
+
+        authorizationManager.start();
+        cache.start();
+
+        PicketBoxSubject admin = newSubject("admin");
+        PicketBoxSubject user = newSubject("user");
+
+        assertTrue(authorizationManager.authorize(newDescriptor("/admin/users"), admin));
+        assertFalse(authorizationManager.authorize(newDescriptor("/public/../admin/users"), user));
+        assertTrue(authorizationManager.authorize(newDescriptor("/public/users"), user));
+
+        assertTrue(cache.authorize(newDescriptor("/admin/users"), admin));
+        assertTrue(cache.authorize(newDescriptor("/admin//users"), admin));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    private boolean authorize(AuthorizationManager authorizationManager, String uri) throws Exception {
+        HTTPBasicAuthentication scheme = new HTTPBasicAuthentication();
+        scheme.setAuthManager(new PropertiesFileBasedAuthenticationManager());
+
+        PicketBoxManager manager = new PicketBoxConfiguration().authentication(scheme).authorization(authorizationManager)
+                .buildAndStart();
+
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+        request.setMethod("GET");
+        request.setContextPath("/app");
+        request.setRequestURI(uri);
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                "Basic " + Base64.encodeBytes("Aladdin:Open Sesame".getBytes()));
+
+        TestServletResponse response = new TestServletResponse(new ByteArrayOutputStream());
+
+        try {
+            manager.authenticate(request, response);
+
+            return manager.authorize(request, response);
+        } finally {
+            manager.stop();
+        }
+    }
+
+    private WebResourceDescriptor newDescriptor(String path) {
+        return new WebResourceDescriptor("GET", path, "/app", null);
+    }
+
+    private PicketBoxSubject newSubject(String... roles) {
+        PicketBoxSubject subject = new PicketBoxSubject();
+        subject.setRoleNames(Arrays.asList(roles));
+        return subject;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.http.HttpSession;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxConfiguration;
+import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.PicketBoxSecurityContext;
+import org.picketbox.core.PicketBoxSecurityContextAssociation;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.HTTPBasicAuthentication;
+import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.util.Base64;
+import org.picketbox.test.http.TestHttpSession;
+import org.picketbox.test.http.TestServletRequest;
+import org.picketbox.test.http.TestServletResponse;
+
+/**
+ * Unit test the request scoped {@link PicketBoxSecurityContext}
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSecurityContextTestCase {
+
+    @Test
+    public void testResolvedOncePerRequest() throws Exception {
+        HTTPBasicAuthentication scheme = new HTTPBasicAuthentication();
+        scheme.setAuthManager(new PropertiesFileBasedAuthenticationManager());
+
+        PicketBoxManager manager = new PicketBoxConfiguration().authentication(scheme).buildAndStart();
+
+        SessionCountingRequest request = new SessionCountingRequest();
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                "Basic " + Base64.encodeBytes("Aladdin:Open Sesame".getBytes()));
+
+        TestServletResponse response = new TestServletResponse(new ByteArrayOutputStream());
+
+        manager.authenticate(request, response);
+
+        int lookups = request.lookups;
+
+        assertTrue(manager.isAuthenticated(request));
+        assertEquals("Aladdin", manager.getAuthenticatedUser(request).getUser().getName());
+        assertTrue(manager.authorize(request, response));
+        assertEquals(lookups, request.lookups);
+
+        PicketBoxSecurityContext context = manager.getSecurityContext(request);
+        assertEquals("Aladdin", context.getPrincipal().getName());
+
+        // a new request of the same session reads the subject from the session once
+        SessionCountingRequest next = new SessionCountingRequest();
+        next.session = request.session;
+
+        assertTrue(manager.isAuthenticated(next));
+        assertTrue(manager.isAuthenticated(next));
+        assertEquals(1, next.lookups);
+
+        manager.stop();
+    }
+
+    @Test
+    public void testPropagation() throws Exception {
+        final PicketBoxSecurityContext context = new PicketBoxSecurityContext();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        PicketBoxSecurityContext previous = PicketBoxSecurityContextAssociation.setSecurityContext(context);
+
+        try {
+            Callable<PicketBoxSecurityContext> task = new Callable<PicketBoxSecurityContext>() {
+                @Override
+                public PicketBoxSecurityContext call() throws Exception {
+                    return PicketBoxSecurityContextAssociation.getSecurityContext();
+                }
+            };
+
+            assertNull(executor.submit(task).get());
+            assertSame(context, executor.submit(PicketBoxSecurityContextAssociation.wrap(task)).get());
+
+            // the worker thread is left as it was
+            assertNull(executor.submit(task).get());
+        } finally {
+            PicketBoxSecurityContextAssociation.setSecurityContext(previous);
+            executor.shutdown();
+        }
+
+        assertNull(PicketBoxSecurityContextAssociation.getSecurityContext());
+    }
+
+    /**
+     * A request bound to a single session that counts how many times it is looked up.
+     */
+    private static class SessionCountingRequest extends TestServletRequest {
+        private HttpSession session;
+        private int lookups;
+
+        SessionCountingRequest() {
+            super(null);
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            lookups++;
+
+            if (session == null && create) {
+                session = new AttributeSession();
+            }
+
+            return session;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return getSession(true);
+        }
+    }
+
+    /**
+     * A session that keeps its attributes.
+     */
+    private static class AttributeSession extends TestHttpSession {
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+    }
+}
@@ -25,9 +25,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.EventListener;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -93,6 +95,12 @@ public class TestServletContext implements ServletContext {
 
     private HashMap<String, String> params = new HashMap<String, String>();
 
+    private List<Class<? extends EventListener>> listeners = new ArrayList<Class<? extends EventListener>>();
+
+    public List<Class<? extends EventListener>> getListeners() {
+        return listeners;
+    }
+
     public TestServletContext(HashMap<String, String> map) {
         this.params = map;
     }
@@ -325,8 +333,7 @@ public class TestServletContext implements ServletContext {
 
     @Override
     public void addListener(Class<? extends EventListener> listenerClass) {
-        // TODO Auto-generated method stub
-
+        listeners.add(listenerClass);
     }
 
     @Override
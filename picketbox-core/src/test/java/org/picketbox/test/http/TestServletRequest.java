@@ -104,7 +104,7 @@ public class TestServletRequest implements HttpServletRequest {
     }
 
     public Enumeration getHeaderNames() {
-        return ((new Vector(headers.entrySet())).elements());
+        return ((new Vector(headers.keySet())).elements());
     }
 
     public Enumeration getHeaders(String name) {
@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.identity;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.identity.DefaultIdentityManager;
+
+/**
+ * Unit test the {@link DefaultIdentityManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class DefaultIdentityManagerTestCase {
+
+    @Test
+    public void testRolesFileIsOptIn() throws Exception {
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+        identityManager.addUserRoles("Aladdin", "guest");
+        identityManager.start();
+
+        // roles.properties is on the test classpath, it grants manager to Aladdin
+        PicketBoxSubject subject = identityManager.getIdentity(newPrincipal("Aladdin"));
+
+        assertTrue(subject.hasRole("guest"));
+        assertFalse(subject.hasRole("manager"));
+
+        identityManager.stop();
+        identityManager.setRolesFile(PicketBoxConstants.ROLES_PROPERTIES);
+        identityManager.start();
+
+        subject = identityManager.getIdentity(newPrincipal("Aladdin"));
+
+        assertTrue(subject.hasRole("guest"));
+        assertTrue(subject.hasRole("manager"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMissingRolesFile() throws Exception {
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+        identityManager.setRolesFile("missing-roles.properties");
+        identityManager.start();
+    }
+
+    private Principal newPrincipal(final String name) {
+        return new Principal() {
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+}
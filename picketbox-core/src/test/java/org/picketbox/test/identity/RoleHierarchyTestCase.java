@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.identity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxConfiguration;
+import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.HTTPBasicAuthentication;
+import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.identity.DefaultIdentityManager;
+import org.picketbox.core.identity.RoleHierarchy;
+import org.picketbox.core.identity.RoleSet;
+import org.picketbox.core.util.Base64;
+import org.picketbox.test.http.TestServletRequest;
+import org.picketbox.test.http.TestServletResponse;
+
+/**
+ * Unit test the {@link RoleHierarchy}
+ *
+ * @author Stefan Guilhen
+ */
+public class RoleHierarchyTestCase {
+
+    private RoleHierarchy hierarchy;
+
+    @Before
+    public void setup() throws Exception {
+        hierarchy = new RoleHierarchy();
+        hierarchy.addDefinitions("admin=manager, manager=user|auditor, ,guest=");
+        hierarchy.start();
+    }
+
+    @Test
+    public void testTransitiveClosure() throws Exception {
+        assertEquals(Arrays.asList("admin", "manager", "user", "auditor"), hierarchy.getEffectiveRoles(Arrays.asList("admin")));
+        assertEquals(Arrays.asList("manager", "user", "auditor"), hierarchy.getEffectiveRoles(Arrays.asList("manager")));
+        assertEquals(Arrays.asList("user"), hierarchy.getEffectiveRoles(Arrays.asList("user")));
+        assertEquals(Arrays.asList("guest"), hierarchy.getEffectiveRoles(Arrays.asList("guest")));
+        assertEquals(Arrays.asList("other"), hierarchy.getEffectiveRoles(Arrays.asList("other")));
+        assertEquals(RoleSet.of("user", "auditor", "other"), hierarchy.getEffectiveRoles(RoleSet.of("auditor", "other", "user")));
+    }
+
+    @Test
+    public void testExpansionsAreShared() throws Exception {
+        RoleSet roles = RoleSet.of("admin");
+
+        assertSame(hierarchy.getEffectiveRoles(roles), hierarchy.getEffectiveRoles(roles));
+        assertSame(RoleSet.of("user", "admin", "manager", "auditor"), hierarchy.getEffectiveRoles(roles));
+
+        RoleSet user = RoleSet.of("user");
+
+        assertSame(user, hierarchy.getEffectiveRoles(user));
+    }
+
+    @Test
+    public void testCycles() throws Exception {
+        hierarchy.addRole("user", "admin");
+        hierarchy.start();
+
+        assertEquals(RoleSet.of("admin", "manager", "user", "auditor"), hierarchy.getEffectiveRoles(RoleSet.of("user")));
+        assertEquals(RoleSet.of("auditor"), hierarchy.getEffectiveRoles(RoleSet.of("auditor")));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        assertFalse(hierarchy.getEffectiveRoles(RoleSet.of("admin")).contains("operator"));
+
+        hierarchy.addRole("admin", "operator");
+
+        assertFalse(hierarchy.getEffectiveRoles(RoleSet.of("admin")).contains("operator"));
+
+        hierarchy.start();
+
+        assertTrue(hierarchy.getEffectiveRoles(RoleSet.of("admin")).contains("operator"));
+
+        hierarchy.stop();
+
+        assertSame(RoleSet.of("admin"), hierarchy.getEffectiveRoles(RoleSet.of("admin")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDefinition() throws Exception {
+        hierarchy.addDefinitions("admin");
+    }
+
+    @Test
+    public void testEffectiveRolesAtLogin() throws Exception {
+        DefaultIdentityManager identityManager = new DefaultIdentityManager() {
+            @Override
+            protected List<String> getRoleNames(Principal principal) {
+                return Arrays.asList("manager");
+            }
+        };
+
+        identityManager.setRoleHierarchy(hierarchy);
+        identityManager.start();
+
+        PicketBoxSubject subject = identityManager.getIdentity(new Principal() {
+            @Override
+            public String getName() {
+                return "jduke";
+            }
+        });
+
+        assertEquals("jduke", subject.getUser().getName());
+        assertTrue(subject.hasRole("manager"));
+        assertTrue(subject.hasRole("user"));
+        assertTrue(subject.hasRole("auditor"));
+        assertFalse(subject.hasRole("admin"));
+        assertEquals(3, subject.getRoleNames().size());
+
+        identityManager.stop();
+
+        assertTrue(hierarchy.stopped());
+    }
+
+    @Test
+    public void testEffectiveRolesThroughAuthentication() throws Exception {
+        HTTPBasicAuthentication scheme = new HTTPBasicAuthentication();
+        scheme.setAuthManager(new PropertiesFileBasedAuthenticationManager());
+
+        // Aladdin is granted manager by roles.properties
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+        identityManager.addUserRoles("Aladdin", "guest");
+        identityManager.setRolesFile(PicketBoxConstants.ROLES_PROPERTIES);
+        identityManager.setRoleHierarchy(hierarchy);
+
+        PicketBoxManager manager = new PicketBoxConfiguration().authentication(scheme).identityManager(identityManager)
+                .buildAndStart();
+
+        TestServletRequest request = new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                "Basic " + Base64.encodeBytes("Aladdin:Open Sesame".getBytes()));
+
+        manager.authenticate(request, new TestServletResponse(new ByteArrayOutputStream()));
+
+        PicketBoxSubject subject = manager.getAuthenticatedUser(request);
+
+        assertEquals("Aladdin", subject.getUser().getName());
+        assertEquals(RoleSet.of("manager", "user", "auditor", "guest"), subject.getRoleSet());
+
+        manager.stop();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.identity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxSubject;
+import org.picketbox.core.identity.RoleDictionary;
+import org.picketbox.core.identity.RoleSet;
+
+/**
+ * Unit test the {@link RoleDictionary} and the {@link RoleSet}
+ *
+ * @author Stefan Guilhen
+ */
+public class RoleSetTestCase {
+
+    @Test
+    public void testRoleIds() throws Exception {
+        RoleDictionary dictionary = RoleDictionary.getDefault();
+
+        int id = dictionary.getId("roleset-test-manager");
+
+        assertEquals(id, dictionary.getId("roleset-test-manager"));
+        assertEquals(id, dictionary.lookup("roleset-test-manager"));
+        assertEquals("roleset-test-manager", dictionary.getName(id));
+        assertEquals(-1, dictionary.lookup("roleset-test-unknown"));
+    }
+
+    @Test
+    public void testMembership() throws Exception {
+        RoleSet roles = RoleSet.of("admin", "user", "admin");
+
+        assertEquals(2, roles.size());
+        assertEquals(Arrays.asList("admin", "user"), roles.getRoleNames());
+        assertTrue(roles.contains("admin"));
+        assertTrue(roles.contains(RoleDictionary.getDefault().lookup("user")));
+        assertFalse(roles.contains("guest"));
+        assertFalse(roles.contains("roleset-test-never-registered"));
+
+        assertTrue(roles.intersects(RoleSet.of("guest", "user")));
+        assertFalse(roles.intersects(RoleSet.of("guest")));
+        assertFalse(roles.intersects(RoleSet.EMPTY));
+
+        assertTrue(roles.containsAll(RoleSet.of("user")));
+        assertTrue(roles.containsAll(RoleSet.EMPTY));
+        assertFalse(roles.containsAll(RoleSet.of("user", "guest")));
+
+        assertTrue(RoleSet.of().isEmpty());
+        assertSame(RoleSet.EMPTY, RoleSet.of(new ArrayList<String>()));
+    }
+
+    @Test
+    public void testManyRoles() throws Exception {
+        List<String> names = new ArrayList<String>();
+
+        for (int i = 0; i < 200; i++) {
+            names.add("roleset-test-" + i);
+        }
+
+        RoleSet roles = RoleSet.of(names);
+        RoleSet last = RoleSet.of("roleset-test-199");
+
+        assertEquals(200, roles.size());
+        assertTrue(roles.contains("roleset-test-0"));
+        assertTrue(roles.contains("roleset-test-199"));
+        assertTrue(roles.containsAll(last));
+        assertTrue(last.intersects(roles));
+        assertFalse(last.containsAll(roles));
+    }
+
+    @Test
+    public void testSetsAreShared() throws Exception {
+        PicketBoxSubject first = newSubject("user", "admin");
+        PicketBoxSubject second = newSubject("admin", "user");
+
+        assertSame(first.getRoleSet(), second.getRoleSet());
+        assertNotSame(first.getRoleSet(), newSubject("admin").getRoleSet());
+
+        first.setRoleNames(Arrays.asList("guest"));
+
+        assertTrue(first.hasRole("guest"));
+        assertFalse(first.hasRole("admin"));
+        assertSame(RoleSet.EMPTY, new PicketBoxSubject().getRoleSet());
+        assertTrue(new PicketBoxSubject().getRoleNames().isEmpty());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        PicketBoxSubject subject = newSubject("admin", "user");
+
+        assertTrue(subject.hasRole("admin"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+
+        output.writeObject(subject);
+        output.close();
+
+        PicketBoxSubject copy = (PicketBoxSubject) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+                .readObject();
+
+        assertTrue(copy.hasRole("admin"));
+        assertFalse(copy.hasRole("guest"));
+        assertSame(subject.getRoleSet(), copy.getRoleSet());
+    }
+
+    private PicketBoxSubject newSubject(String... roles) {
+        PicketBoxSubject subject = new PicketBoxSubject();
+
+        subject.setRoleNames(new ArrayList<String>(Arrays.asList(roles)));
+
+        return subject;
+    }
+}
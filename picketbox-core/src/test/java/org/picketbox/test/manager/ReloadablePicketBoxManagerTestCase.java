@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.picketbox.core.PicketBoxConfiguration;
+import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.PicketBoxSnapshot;
+import org.picketbox.core.ReloadablePicketBoxManager;
+import org.picketbox.core.authentication.http.HTTPBasicAuthentication;
+import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.authorization.impl.URLAuthorizationManager;
+
+/**
+ * Unit test the {@link ReloadablePicketBoxManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class ReloadablePicketBoxManagerTestCase {
+
+    @Test
+    public void testReload() throws Exception {
+        PicketBoxManager first = newConfiguration().buildAndStart();
+        ReloadablePicketBoxManager reloadable = new ReloadablePicketBoxManager(first);
+
+        PicketBoxSnapshot inFlight = reloadable.acquire();
+        assertSame(first, inFlight.getManager());
+        assertEquals(1, inFlight.getVersion());
+
+        long version = reloadable.reload(newConfiguration());
+        assertEquals(2, version);
+
+        PicketBoxSnapshot next = reloadable.acquire();
+        assertEquals(2, next.getVersion());
+        assertTrue(next.getManager().started());
+        next.release();
+
+        // the previous snapshot is drained before being stopped
+        assertTrue(inFlight.isRetired());
+        assertTrue(first.started());
+
+        inFlight.release();
+
+        assertTrue(first.stopped());
+        assertTrue(reloadable.getSnapshot().getManager().started());
+    }
+
+    @Test
+    public void testReloadUnderLoad() throws Exception {
+        final ReloadablePicketBoxManager reloadable = new ReloadablePicketBoxManager(newConfiguration().buildAndStart());
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger stoppedLeases = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+
+        List<Thread> workers = new ArrayList<Thread>();
+
+        for (int i = 0; i < 4; i++) {
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        PicketBoxSnapshot snapshot = reloadable.acquire();
+
+                        try {
+                            if (!snapshot.getManager().started()) {
+                                stoppedLeases.incrementAndGet();
+                            }
+                            requests.incrementAndGet();
+                        } finally {
+                            snapshot.release();
+                        }
+                    }
+                }
+            };
+
+            worker.start();
+            workers.add(worker);
+        }
+
+        List<PicketBoxSnapshot> retired = new ArrayList<PicketBoxSnapshot>();
+
+        for (int i = 0; i < 50; i++) {
+            retired.add(reloadable.getSnapshot());
+            reloadable.reload(newConfiguration());
+            Thread.sleep(1);
+        }
+
+        running.set(false);
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(0, stoppedLeases.get());
+        assertTrue(requests.get() > 0);
+        assertEquals(51, reloadable.getSnapshot().getVersion());
+
+        for (PicketBoxSnapshot snapshot : retired) {
+            assertTrue(snapshot.getManager().stopped());
+            assertEquals(0, snapshot.getLeaseCount());
+        }
+
+        assertFalse(reloadable.getSnapshot().getManager().stopped());
+    }
+
+    @Test(timeout = 5000)
+    public void testAcquireAfterStop() throws Exception {
+        PicketBoxManager manager = newConfiguration().buildAndStart();
+        ReloadablePicketBoxManager reloadable = new ReloadablePicketBoxManager(manager);
+        reloadable.start();
+
+        PicketBoxSnapshot inFlight = reloadable.acquire();
+
+        reloadable.stop();
+
+        // neither while the last request finishes nor once the snapshot is stopped
+        assertAcquireFails(reloadable);
+        assertTrue(manager.started());
+
+        inFlight.release();
+
+        assertTrue(manager.stopped());
+        assertAcquireFails(reloadable);
+        assertEquals(0, inFlight.getLeaseCount());
+    }
+
+    @Test
+    public void testSharedComponentsOutliveRetiredSnapshots() throws Exception {
+        URLAuthorizationManager shared = new URLAuthorizationManager();
+        URLAuthorizationManager replaced = new URLAuthorizationManager();
+
+        ReloadablePicketBoxManager reloadable = new ReloadablePicketBoxManager(newConfiguration().authorization(shared)
+                .buildAndStart());
+        PicketBoxManager first = reloadable.getSnapshot().getManager();
+
+        reloadable.reload(newConfiguration().authorization(shared));
+
+        // the first manager is stopped, the authorization manager it shares with the new one is not
+        assertTrue(first.stopped());
+        assertTrue(shared.started());
+
+        reloadable.reload(newConfiguration().authorization(replaced));
+        assertTrue(shared.stopped());
+        assertTrue(replaced.started());
+
+        reloadable.stop();
+        assertTrue(replaced.stopped());
+    }
+
+    private void assertAcquireFails(ReloadablePicketBoxManager reloadable) {
+        try {
+            reloadable.acquire();
+            fail("The manager is stopped");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    private PicketBoxConfiguration newConfiguration() {
+        HTTPBasicAuthentication scheme = new HTTPBasicAuthentication();
+        scheme.setAuthManager(new PropertiesFileBasedAuthenticationManager());
+
+        return new PicketBoxConfiguration().authentication(scheme);
+    }
+}
@@ -24,8 +24,11 @@ package org.picketbox.test.nonce;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.UUID;
+
 import org.junit.Test;
 import org.picketbox.core.nonce.UUIDNonceGenerator;
+import org.picketbox.core.util.Base64;
 
 /**
  * Unit test the {@link UUIDNonceGenerator}
@@ -44,7 +47,22 @@ public class UUIDNonceGeneratorTestCase {
     public void testExpiry() throws Exception {
         UUIDNonceGenerator uuid = new UUIDNonceGenerator();
         String nonce = uuid.get();
+        // make sure the clock moved past the 1ms validity
+        Thread.sleep(5);
         assertTrue(uuid.hasExpired(nonce, 1));
         assertFalse(uuid.hasExpired(nonce, 1000));
     }
+
+    /**
+     * Nonces issued in the previous base64 encoded {current_time:uuid-level4} format are still understood
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLegacyNonce() throws Exception {
+        UUIDNonceGenerator uuid = new UUIDNonceGenerator();
+        String nonce = Base64.encodeBytes((System.currentTimeMillis() + ":" + UUID.randomUUID()).getBytes());
+        assertFalse(uuid.hasExpired(nonce, 1000));
+        assertTrue(uuid.hasExpired(nonce, -1));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.PicketBoxSessionBatchListener;
+import org.picketbox.core.session.PicketBoxSessionEvent;
+import org.picketbox.core.session.PicketBoxSessionEventBus;
+import org.picketbox.core.session.PicketBoxSessionEventBus.DeliveryMode;
+import org.picketbox.core.session.PicketBoxSessionEventMetrics;
+import org.picketbox.core.session.PicketBoxSessionListener;
+import org.picketbox.core.session.PicketBoxSessionManager;
+
+/**
+ * Unit test the {@link PicketBoxSessionEventBus}
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionEventBusTestCase {
+
+    private PicketBoxSessionEventBus bus = PicketBoxSessionManager.getEventBus();
+
+    @Test
+    public void testAsynchronousDelivery() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        PicketBoxSessionListener slowListener = new TestListener() {
+            @Override
+            public void onSetAttribute(PicketBoxSession session, String key, Object value) {
+                await(release);
+            }
+        };
+
+        bus.register(slowListener, DeliveryMode.ASYNCHRONOUS, 2, 1, 0);
+
+        PicketBoxSession session = PicketBoxSessionManager.create(slowListener);
+
+        // the listener is blocked but the session is not
+        for (int i = 0; i < 10; i++) {
+            session.setAttribute("a" + i, "b");
+        }
+        session.invalidate();
+
+        PicketBoxSessionEventMetrics metrics = bus.getMetrics(slowListener);
+        assertTrue(metrics.getDropped() > 0);
+        assertEquals(2, metrics.getQueueCapacity());
+        assertTrue(metrics.getHighWaterMark() <= 2);
+
+        release.countDown();
+        bus.unregister(slowListener);
+        assertNull(bus.getMetrics(slowListener));
+    }
+
+    @Test
+    public void testBatchedDelivery() throws Exception {
+        final List<PicketBoxSessionEvent> received = new ArrayList<PicketBoxSessionEvent>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        TestBatchListener listener = new TestBatchListener() {
+            @Override
+            public void onEvents(List<PicketBoxSessionEvent> events) {
+                received.addAll(events);
+                if (received.size() == 4) {
+                    done.countDown();
+                }
+            }
+        };
+
+        bus.register(listener, DeliveryMode.BATCHED, 100, 10, 20);
+
+        PicketBoxSession session = PicketBoxSessionManager.create(listener);
+        session.setAttribute("a", "1");
+        session.setAttribute("b", "2");
+        session.invalidate();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(PicketBoxSessionEvent.Type.CREATE, received.get(0).getType());
+        assertEquals("a", received.get(1).getKey());
+        assertEquals("2", received.get(2).getValue());
+        assertEquals(PicketBoxSessionEvent.Type.INVALIDATE, received.get(3).getType());
+
+        bus.unregister(listener);
+    }
+
+    @Test
+    public void testQueuedEventsDeliveredOnReplace() throws Exception {
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release = new CountDownLatch(1);
+
+        PicketBoxSessionListener listener = new TestListener() {
+            @Override
+            public void onSetAttribute(PicketBoxSession session, String key, Object value) {
+                await(release);
+                received.add(key);
+            }
+        };
+
+        bus.register(listener, DeliveryMode.ASYNCHRONOUS, 100, 1, 0);
+
+        PicketBoxSession session = PicketBoxSessionManager.create(listener);
+
+        for (int i = 0; i < 5; i++) {
+            session.setAttribute("a" + i, "b");
+        }
+
+        releaseLater(release);
+
+        // returns once the queued events are delivered
+        bus.register(listener, DeliveryMode.SYNCHRONOUS);
+
+        assertEquals(Arrays.asList("a0", "a1", "a2", "a3", "a4"), received);
+
+        session.setAttribute("a5", "b");
+
+        assertEquals(6, received.size());
+
+        bus.unregister(listener);
+    }
+
+    @Test
+    public void testQueuedEventsDeliveredOnStop() throws Exception {
+        final List<PicketBoxSessionEvent> received = Collections.synchronizedList(new ArrayList<PicketBoxSessionEvent>());
+        final CountDownLatch release = new CountDownLatch(1);
+
+        TestBatchListener listener = new TestBatchListener() {
+            @Override
+            public void onEvents(List<PicketBoxSessionEvent> events) {
+                await(release);
+                received.addAll(events);
+            }
+        };
+
+        bus.register(listener, DeliveryMode.BATCHED, 100, 2, 1000);
+
+        PicketBoxSession session = PicketBoxSessionManager.create(listener);
+        session.setAttribute("a", "1");
+        session.setAttribute("b", "2");
+        session.invalidate();
+
+        releaseLater(release);
+        bus.stop();
+
+        assertEquals(4, received.size());
+        assertEquals(PicketBoxSessionEvent.Type.INVALIDATE, received.get(3).getType());
+        assertNull(bus.getMetrics(listener));
+    }
+
+    private static void releaseLater(final CountDownLatch latch) {
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latch.countDown();
+            }
+        }.start();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class TestListener implements PicketBoxSessionListener {
+        @Override
+        public void onCreate(PicketBoxSession session) {
+        }
+
+        @Override
+        public void onSetAttribute(PicketBoxSession session, String key, Object value) {
+        }
+
+        @Override
+        public void onInvalidate(PicketBoxSession session) {
+        }
+
+        @Override
+        public void onExpiration(PicketBoxSession session) {
+        }
+    }
+
+    private abstract static class TestBatchListener extends TestListener implements PicketBoxSessionBatchListener {
+    }
+}
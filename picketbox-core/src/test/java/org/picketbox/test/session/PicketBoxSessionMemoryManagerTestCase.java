@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.PicketBoxSessionManager;
+import org.picketbox.core.session.PicketBoxSessionMemoryManager;
+import org.picketbox.core.session.PicketBoxSessionStore;
+
+/**
+ * Unit test the {@link PicketBoxSessionMemoryManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionMemoryManagerTestCase {
+
+    private PicketBoxSessionMemoryManager memoryManager = PicketBoxSessionManager.getMemoryManager();
+
+    @After
+    public void tearDown() throws Exception {
+        memoryManager.setMemoryBudget(Long.MAX_VALUE);
+        memoryManager.setMinIdleTime(30 * 1000);
+        memoryManager.setStore(null);
+    }
+
+    @Test
+    public void testSizeAccounting() throws Exception {
+        long initialSize = memoryManager.getTotalSize();
+
+        PicketBoxSession session = PicketBoxSessionManager.create();
+        session.setAttribute("a", new byte[1000]);
+
+        long size = session.getEstimatedSize();
+        assertTrue(size > 1000);
+        assertEquals(initialSize + size, memoryManager.getTotalSize());
+
+        // replacing the attribute only accounts for the difference
+        session.setAttribute("a", new byte[10]);
+        assertTrue(session.getEstimatedSize() < 1000);
+
+        session.invalidate();
+        assertEquals(0, session.getEstimatedSize());
+        assertEquals(initialSize, memoryManager.getTotalSize());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        memoryManager.setMinIdleTime(0);
+
+        PicketBoxSession oldest = PicketBoxSessionManager.create();
+        oldest.setAttribute("a", new byte[10000]);
+        Thread.sleep(5);
+        PicketBoxSession newest = PicketBoxSessionManager.create();
+        newest.setAttribute("a", new byte[10000]);
+
+        memoryManager.setMemoryBudget(memoryManager.getTotalSize() - 5000);
+        memoryManager.evict();
+
+        assertFalse(oldest.isValid());
+        assertTrue(newest.isValid());
+        assertTrue(memoryManager.getTotalSize() <= memoryManager.getMemoryBudget());
+
+        newest.invalidate();
+    }
+
+    @Test
+    public void testEvictionRetriedOnceSessionsAreIdle() throws Exception {
+        memoryManager.setMinIdleTime(200);
+
+        PicketBoxSession session = PicketBoxSessionManager.create();
+        memoryManager.setMemoryBudget(memoryManager.getTotalSize());
+
+        // over the budget, but the session was just used and cannot be evicted yet
+        session.setAttribute("a", new byte[10000]);
+        memoryManager.evict();
+
+        assertTrue(session.isValid());
+
+        // evicted without any other attribute being set
+        for (int i = 0; i < 100 && session.isValid(); i++) {
+            Thread.sleep(50);
+        }
+
+        assertFalse(session.isValid());
+    }
+
+    @Test
+    public void testPassivation() throws Exception {
+        final Map<String, Map<String, Object>> stored = new HashMap<String, Map<String, Object>>();
+
+        memoryManager.setMinIdleTime(0);
+        memoryManager.setStore(new PicketBoxSessionStore() {
+            @Override
+            public void store(String sessionId, Map<String, Object> attributes) {
+                stored.put(sessionId, attributes);
+            }
+
+            @Override
+            public Map<String, Object> load(String sessionId) {
+                return stored.remove(sessionId);
+            }
+
+            @Override
+            public void remove(String sessionId) {
+                stored.remove(sessionId);
+            }
+        });
+
+        PicketBoxSession session = PicketBoxSessionManager.create();
+        session.setAttribute("a", "b");
+
+        memoryManager.setMemoryBudget(0);
+        memoryManager.evict();
+
+        assertTrue(session.isPassivated());
+        assertEquals(0, session.getEstimatedSize());
+        assertTrue(stored.containsKey(session.getId()));
+
+        memoryManager.setMemoryBudget(Long.MAX_VALUE);
+
+        assertEquals("b", session.getAttribute("a"));
+        assertFalse(session.isPassivated());
+        assertTrue(session.getEstimatedSize() > 0);
+
+        session.invalidate();
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import javax.servlet.http.HttpSessionEvent;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketbox.core.PicketBoxConfiguration;
+import org.picketbox.core.PicketBoxManager;
+import org.picketbox.core.authentication.PicketBoxConstants;
+import org.picketbox.core.authentication.http.HTTPBasicAuthentication;
+import org.picketbox.core.authentication.http.HTTPDigestAuthentication;
+import org.picketbox.core.authentication.http.RequestCache;
+import org.picketbox.core.authentication.impl.PropertiesFileBasedAuthenticationManager;
+import org.picketbox.core.http.PicketBoxHttpSessionListener;
+import org.picketbox.core.logout.LogoutManager;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.PicketBoxSessionManager;
+import org.picketbox.core.session.PicketBoxSessionResource;
+import org.picketbox.core.session.PicketBoxSessionResourceRegistry;
+import org.picketbox.core.util.Base64;
+import org.picketbox.test.http.TestHttpSession;
+import org.picketbox.test.http.TestServletRequest;
+import org.picketbox.test.http.TestServletResponse;
+
+/**
+ * Unit test the {@link PicketBoxSessionResourceRegistry}
+ *
+ * @author Stefan Guilhen
+ */
+public class PicketBoxSessionResourceRegistryTestCase {
+
+    @After
+    public void releaseAll() {
+        PicketBoxSessionManager.getResourceRegistry().releaseAll();
+    }
+
+    @Test
+    public void testReleaseInOnePass() throws Exception {
+        PicketBoxSessionResourceRegistry registry = new PicketBoxSessionResourceRegistry();
+        CountingResource first = new CountingResource();
+        CountingResource second = new CountingResource();
+
+        registry.register("s1", first);
+        registry.register("s1", first);
+        registry.register("s1", second);
+        registry.register("s2", second);
+
+        assertEquals(2, registry.getSessionCount());
+        assertEquals(3, registry.getResourceCount());
+
+        assertEquals(2, registry.release("s1"));
+        assertEquals(0, registry.release("s1"));
+
+        assertEquals(1, first.released.get());
+        assertEquals(1, second.released.get());
+        assertEquals(1, registry.getSessionCount());
+        assertEquals(1, registry.getResourceCount());
+    }
+
+    @Test
+    public void testUnregister() throws Exception {
+        PicketBoxSessionResourceRegistry registry = new PicketBoxSessionResourceRegistry();
+        CountingResource resource = new CountingResource();
+
+        registry.register("s1", resource);
+        registry.unregister("s1", resource);
+
+        assertEquals(0, registry.getSessionCount());
+        assertEquals(0, registry.release("s1"));
+        assertEquals(0, resource.released.get());
+    }
+
+    @Test
+    public void testFailingResourceDoesNotStopRelease() throws Exception {
+        PicketBoxSessionResourceRegistry registry = new PicketBoxSessionResourceRegistry();
+        CountingResource resource = new CountingResource();
+
+        registry.register("s1", new PicketBoxSessionResource() {
+            @Override
+            public void release(String sessionId) {
+                throw new IllegalStateException();
+            }
+        });
+        registry.register("s1", resource);
+
+        assertEquals(2, registry.release("s1"));
+        assertEquals(1, resource.released.get());
+    }
+
+    @Test
+    public void testHttpSessionStateReleasedWhenDestroyed() throws Exception {
+        PicketBoxSessionResourceRegistry registry = PicketBoxSessionManager.getResourceRegistry();
+        DigestAuthentication digest = new DigestAuthentication();
+        RequestCache requestCache = new RequestCache();
+
+        allocate(digest, requestCache);
+
+        assertEquals(1, digest.getSessionCount());
+        assertEquals(1, requestCache.getEntryCount());
+        assertEquals(1, registry.getSessionCount());
+
+        new PicketBoxHttpSessionListener().sessionDestroyed(new HttpSessionEvent(new TestHttpSession()));
+
+        assertEquals(0, digest.getSessionCount());
+        assertEquals(0, requestCache.getEntryCount());
+        assertEquals(0, registry.getSessionCount());
+    }
+
+    @Test
+    public void testHttpSessionStateReleasedOnLogout() throws Exception {
+        PicketBoxSessionResourceRegistry registry = PicketBoxSessionManager.getResourceRegistry();
+        DigestAuthentication digest = new DigestAuthentication();
+        RequestCache requestCache = new RequestCache();
+
+        allocate(digest, requestCache);
+
+        TestServletRequest request = newRequest();
+        request.setRequestURI("/app" + PicketBoxConstants.LOGOUT_URI);
+        request.setContextPath("/app");
+
+        new LogoutManager().logout(request, new TestServletResponse(new ByteArrayOutputStream()));
+
+        assertEquals(0, digest.getSessionCount());
+        assertEquals(0, requestCache.getEntryCount());
+        assertEquals(0, registry.getSessionCount());
+    }
+
+    @Test
+    public void testChangeSessionId() throws Exception {
+        PicketBoxSessionResourceRegistry registry = new PicketBoxSessionResourceRegistry();
+        CountingResource first = new CountingResource();
+        CountingResource second = new CountingResource();
+
+        registry.register("s1", first);
+        registry.register("s2", second);
+
+        registry.changeSessionId("s1", "s3");
+
+        assertEquals(0, registry.release("s1"));
+        assertEquals(2, registry.getSessionCount());
+
+        // merged with the resources already registered with the new id
+        registry.changeSessionId("s2", "s3");
+
+        assertEquals(1, registry.getSessionCount());
+        assertEquals(2, registry.getResourceCount());
+        assertEquals(2, registry.release("s3"));
+        assertEquals(1, first.released.get());
+        assertEquals(1, second.released.get());
+    }
+
+    @Test
+    public void testSessionSubjectReleasedWithoutListener() throws Exception {
+        PicketBoxSessionResourceRegistry registry = PicketBoxSessionManager.getResourceRegistry();
+        HTTPBasicAuthentication scheme = new HTTPBasicAuthentication();
+        scheme.setAuthManager(new PropertiesFileBasedAuthenticationManager());
+
+        PicketBoxManager manager = new PicketBoxConfiguration().authentication(scheme).buildAndStart();
+        ContainerSession session = new ContainerSession("s1");
+
+        SessionRequest request = new SessionRequest(session);
+        request.addHeader(PicketBoxConstants.HTTP_AUTHORIZATION_HEADER,
+                "Basic " + Base64.encodeBytes("Aladdin:Open Sesame".getBytes()));
+
+        manager.authenticate(request, new TestServletResponse(new ByteArrayOutputStream()));
+
+        assertEquals(1, registry.getSessionCount());
+
+        // the container changes the session id, picked up on the next request of the session
+        session.id = "s2";
+        CountingResource resource = new CountingResource();
+
+        assertTrue(manager.isAuthenticated(new SessionRequest(session)));
+        registry.register("s2", resource);
+
+        assertEquals(1, registry.getSessionCount());
+
+        // no session listener, the container unbinds the attributes
+        session.invalidate();
+
+        assertEquals(0, registry.getSessionCount());
+        assertEquals(1, resource.released.get());
+        assertNull(session.getAttribute(PicketBoxConstants.SUBJECT));
+        assertFalse(manager.isAuthenticated(new SessionRequest(session)));
+
+        manager.stop();
+    }
+
+    @Test
+    public void testNoLeakAfterManyShortSessions() throws Exception {
+        PicketBoxSessionResourceRegistry registry = PicketBoxSessionManager.getResourceRegistry();
+        final Map<String, byte[]> componentState = new ConcurrentHashMap<String, byte[]>();
+        final AtomicInteger released = new AtomicInteger();
+        PicketBoxSessionResource resource = new PicketBoxSessionResource() {
+            @Override
+            public void release(String sessionId) {
+                componentState.remove(sessionId);
+                released.incrementAndGet();
+            }
+        };
+
+        for (int i = 0; i < 10000; i++) {
+            PicketBoxSession session = PicketBoxSessionManager.create();
+
+            session.setAttribute("user", "user" + i);
+            componentState.put(session.getId(), new byte[64]);
+            registry.register(session.getId(), resource);
+
+            session.invalidate();
+        }
+
+        // nothing is kept for the destroyed sessions
+        assertEquals(10000, released.get());
+        assertEquals(0, registry.getSessionCount());
+        assertEquals(0, registry.getResourceCount());
+        assertTrue(componentState.isEmpty());
+    }
+
+    private void allocate(DigestAuthentication digest, RequestCache requestCache) throws Exception {
+        TestServletRequest request = newRequest();
+        request.setMethod("GET");
+        request.setRequestURI("/app/secured");
+
+        digest.authenticate(request, new TestServletResponse(new ByteArrayOutputStream()));
+        requestCache.saveRequest(request);
+    }
+
+    private TestServletRequest newRequest() {
+        return new TestServletRequest(new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static class DigestAuthentication extends HTTPDigestAuthentication {
+        int getSessionCount() {
+            return idVersusNonce.size();
+        }
+    }
+
+    /**
+     * A request bound to a session.
+     */
+    private static class SessionRequest extends TestServletRequest {
+        private final HttpSession session;
+
+        SessionRequest(HttpSession session) {
+            super(new ByteArrayInputStream(new byte[0]));
+            this.session = session;
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            return this.session;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return this.session;
+        }
+    }
+
+    /**
+     * A session that notifies its bound attributes like a container does.
+     */
+    private static class ContainerSession extends TestHttpSession {
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+        private String id;
+
+        ContainerSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return this.id;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return this.attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            unbound(name, this.attributes.put(name, value));
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            unbound(name, this.attributes.remove(name));
+        }
+
+        @Override
+        public void invalidate() {
+            for (String name : new ArrayList<String>(this.attributes.keySet())) {
+                removeAttribute(name);
+            }
+        }
+
+        private void unbound(String name, Object value) {
+            if (value instanceof HttpSessionBindingListener) {
+                ((HttpSessionBindingListener) value).valueUnbound(new HttpSessionBindingEvent(this, name, value));
+            }
+        }
+    }
+
+    private static class CountingResource implements PicketBoxSessionResource {
+        private final AtomicInteger released = new AtomicInteger();
+
+        @Override
+        public void release(String sessionId) {
+            released.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.core.session.PicketBoxSession;
+import org.picketbox.core.session.PicketBoxSessionEventBus;
+import org.picketbox.core.session.PicketBoxSessionEventBus.DeliveryMode;
+import org.picketbox.core.session.PicketBoxSessionManager;
+import org.picketbox.core.session.replication.LoopbackReplicationTransport;
+import org.picketbox.core.session.replication.SessionReplicationManager;
+import org.picketbox.core.session.replication.SessionReplicationReceiver;
+
+/**
+ * Unit test the {@link SessionReplicationManager}
+ *
+ * @author Stefan Guilhen
+ */
+public class SessionReplicationTestCase {
+
+    private SessionReplicationManager nodeA;
+    private SessionReplicationManager nodeB;
+
+    @Before
+    public void setup() throws Exception {
+        nodeA = new SessionReplicationManager("nodeA", new LoopbackReplicationTransport("test"));
+        nodeB = new SessionReplicationManager("nodeB", new LoopbackReplicationTransport("test"));
+
+        // flushes are triggered by the test
+        nodeA.setFlushInterval(60 * 1000);
+        nodeB.setFlushInterval(60 * 1000);
+
+        nodeA.start();
+        nodeB.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        nodeA.stop();
+        nodeB.stop();
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        PicketBoxSession session = PicketBoxSessionManager.create(nodeA);
+        session.setAttribute("a", "1");
+        session.setAttribute("a", "2");
+        session.setAttribute("b", "3");
+
+        assertNull(nodeB.getSession(session.getId()));
+
+        nodeA.flush();
+
+        PicketBoxSession replica = nodeB.getSession(session.getId());
+        assertNotNull(replica);
+        assertEquals("2", replica.getAttribute("a"));
+        assertEquals("3", replica.getAttribute("b"));
+
+        // changes made on the replica go back to the original node
+        replica.setAttribute("c", "4");
+        nodeB.flush();
+        assertEquals("4", session.getAttribute("c"));
+
+        session.invalidate();
+        nodeA.flush();
+
+        assertFalse(replica.isValid());
+        assertNull(nodeB.getSession(session.getId()));
+    }
+
+    @Test
+    public void testOrdering() throws Exception {
+        final List<byte[]> captured = new ArrayList<byte[]>();
+
+        LoopbackReplicationTransport capturing = new LoopbackReplicationTransport("ordering");
+        SessionReplicationManager producer = new SessionReplicationManager("producer", capturing);
+        producer.setFlushInterval(60 * 1000);
+        producer.start();
+
+        LoopbackReplicationTransport spy = new LoopbackReplicationTransport("ordering");
+        spy.setReceiver(new SessionReplicationReceiver() {
+            @Override
+            public void receive(byte[] payload) {
+                captured.add(payload);
+            }
+        });
+        spy.start();
+
+        PicketBoxSession session = PicketBoxSessionManager.create(producer);
+        session.setAttribute("a", "1");
+        producer.flush();
+        session.setAttribute("a", "2");
+        producer.flush();
+
+        assertEquals(2, captured.size());
+
+        // deliver the second batch first, then a duplicate of the first one
+        nodeB.receive(captured.get(1));
+        assertNull(nodeB.getSession(session.getId()));
+
+        nodeB.receive(captured.get(0));
+        nodeB.receive(captured.get(0));
+        assertEquals("2", nodeB.getSession(session.getId()).getAttribute("a"));
+
+        spy.stop();
+        producer.stop();
+    }
+
+    @Test
+    public void testAttributeTypesAreFiltered() throws Exception {
+        PicketBoxSession session = PicketBoxSessionManager.create(nodeA);
+        session.setAttribute("allowed", new ArrayList<String>());
+        session.setAttribute("custom", new CustomValue());
+        nodeA.flush();
+
+        PicketBoxSession replica = nodeB.getSession(session.getId());
+        assertNotNull(replica);
+        assertTrue(replica.getAttribute("allowed") instanceof ArrayList);
+        assertNull(replica.getAttribute("custom"));
+        assertFalse(CustomValue.deserialized);
+
+        nodeB.addAllowedAttributeType(CustomValue.class.getPackage().getName() + ".*");
+        session.setAttribute("custom", new CustomValue());
+        nodeA.flush();
+
+        assertTrue(replica.getAttribute("custom") instanceof CustomValue);
+        assertTrue(CustomValue.deserialized);
+    }
+
+    @Test
+    public void testInvalidatedSessionIsNotResurrected() throws Exception {
+        final List<byte[]> captured = new ArrayList<byte[]>();
+
+        LoopbackReplicationTransport capturing = new LoopbackReplicationTransport("tombstones");
+        SessionReplicationManager producer = new SessionReplicationManager("producer", capturing);
+        producer.setFlushInterval(60 * 1000);
+        producer.start();
+
+        LoopbackReplicationTransport spy = new LoopbackReplicationTransport("tombstones");
+        spy.setReceiver(new SessionReplicationReceiver() {
+            @Override
+            public void receive(byte[] payload) {
+                captured.add(payload);
+            }
+        });
+        spy.start();
+
+        PicketBoxSession session = PicketBoxSessionManager.create(producer);
+        session.setAttribute("a", "1");
+        producer.flush();
+        session.invalidate();
+        producer.flush();
+
+        nodeB.receive(captured.get(0));
+        assertNotNull(nodeB.getSession(session.getId()));
+
+        nodeB.receive(captured.get(1));
+        assertNull(nodeB.getSession(session.getId()));
+
+        // a redelivered delta that predates the invalidation is discarded
+        nodeB.receive(captured.get(0));
+        assertNull(nodeB.getSession(session.getId()));
+
+        // the same delta from another node, or reaching a node that never saw the session, is discarded too
+        nodeA.receive(captured.get(1));
+        nodeA.receive(captured.get(0));
+        assertNull(nodeA.getSession(session.getId()));
+
+        spy.stop();
+        producer.stop();
+    }
+
+    @Test
+    public void testReplicatedChangesAreNotShippedBack() throws Exception {
+        final List<byte[]> captured = new ArrayList<byte[]>();
+
+        LoopbackReplicationTransport spy = new LoopbackReplicationTransport("test");
+        spy.setReceiver(new SessionReplicationReceiver() {
+            @Override
+            public void receive(byte[] payload) {
+                captured.add(payload);
+            }
+        });
+        spy.start();
+
+        // the replica receives its events on the bus thread, not on the thread applying the changes
+        PicketBoxSessionEventBus bus = PicketBoxSessionManager.getEventBus();
+        bus.register(nodeB, DeliveryMode.ASYNCHRONOUS);
+
+        try {
+            PicketBoxSession session = PicketBoxSessionManager.create(nodeA);
+            session.setAttribute("a", "1");
+            nodeA.flush();
+            assertEquals(1, captured.size());
+
+            PicketBoxSession replica = nodeB.getSession(session.getId());
+            assertEquals("1", replica.getAttribute("a"));
+
+            session.invalidate();
+            nodeA.flush();
+            assertEquals(2, captured.size());
+            assertFalse(replica.isValid());
+
+            // wait for the bus to deliver everything, then check nothing was queued to be sent back
+            long deadline = System.currentTimeMillis() + 5000;
+            while (bus.getMetrics(nodeB).getQueueSize() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+
+            nodeB.flush();
+            assertEquals(2, captured.size());
+        } finally {
+            bus.unregister(nodeB);
+            spy.stop();
+        }
+    }
+
+    @Test
+    public void testFailedSendsAreRetried() throws Exception {
+        FailingTransport transport = new FailingTransport("test");
+        SessionReplicationManager producer = new SessionReplicationManager("producer", transport);
+        producer.setFlushInterval(60 * 1000);
+        producer.start();
+
+        try {
+            PicketBoxSession session = PicketBoxSessionManager.create(producer);
+            session.setAttribute("a", "1");
+
+            transport.failing = true;
+            producer.flush();
+            assertNull(nodeB.getSession(session.getId()));
+
+            transport.failing = false;
+            session.setAttribute("b", "2");
+            producer.flush();
+
+            PicketBoxSession replica = nodeB.getSession(session.getId());
+            assertNotNull(replica);
+            assertEquals("1", replica.getAttribute("a"));
+            assertEquals("2", replica.getAttribute("b"));
+        } finally {
+            producer.stop();
+        }
+    }
+
+    @Test
+    public void testMissingDeltasAreResynchronized() throws Exception {
+        FailingTransport transport = new FailingTransport("test");
+        SessionReplicationManager producer = new SessionReplicationManager("producer", transport);
+        producer.setFlushInterval(60 * 1000);
+        producer.setMaxUnsentDeltas(0);
+        producer.start();
+
+        nodeB.setGapTimeout(0);
+
+        try {
+            PicketBoxSession session = PicketBoxSessionManager.create(producer);
+            session.setAttribute("a", "1");
+
+            // the first delta is lost for good
+            transport.failing = true;
+            producer.flush();
+            transport.failing = false;
+
+            session.setAttribute("b", "2");
+            producer.flush();
+            assertNull(nodeB.getSession(session.getId()));
+
+            // the receiver gives up waiting, applies what it has and asks for the full state
+            nodeB.flush();
+
+            PicketBoxSession replica = nodeB.getSession(session.getId());
+            assertNotNull(replica);
+            assertNull(replica.getAttribute("a"));
+            assertEquals("2", replica.getAttribute("b"));
+
+            producer.flush();
+
+            assertEquals("1", replica.getAttribute("a"));
+
+            // later deltas are applied in order again
+            session.setAttribute("c", "3");
+            producer.flush();
+
+            assertEquals("3", replica.getAttribute("c"));
+        } finally {
+            producer.stop();
+        }
+    }
+
+    @Test
+    public void testBufferedDeltasAreBounded() throws Exception {
+        final List<byte[]> captured = new ArrayList<byte[]>();
+
+        SessionReplicationManager producer = new SessionReplicationManager("producer", new LoopbackReplicationTransport(
+                "bounded"));
+        producer.setFlushInterval(60 * 1000);
+        producer.start();
+
+        LoopbackReplicationTransport spy = new LoopbackReplicationTransport("bounded");
+        spy.setReceiver(new SessionReplicationReceiver() {
+            @Override
+            public void receive(byte[] payload) {
+                captured.add(payload);
+            }
+        });
+        spy.start();
+
+        nodeB.setMaxBufferedDeltas(2);
+
+        try {
+            PicketBoxSession session = PicketBoxSessionManager.create(producer);
+
+            for (int i = 0; i < 4; i++) {
+                session.setAttribute("a", String.valueOf(i));
+                producer.flush();
+            }
+
+            // the first delta never arrives
+            nodeB.receive(captured.get(1));
+            nodeB.receive(captured.get(2));
+            assertNull(nodeB.getSession(session.getId()));
+
+            nodeB.receive(captured.get(3));
+            assertEquals("3", nodeB.getSession(session.getId()).getAttribute("a"));
+        } finally {
+            spy.stop();
+            producer.stop();
+        }
+    }
+
+    @Test
+    public void testRestartedNodeIsNotIgnored() throws Exception {
+        SessionReplicationManager producer = new SessionReplicationManager("producer", new LoopbackReplicationTransport("test"));
+        producer.setFlushInterval(60 * 1000);
+        producer.start();
+
+        PicketBoxSession session = PicketBoxSessionManager.create(producer);
+
+        for (int i = 0; i < 3; i++) {
+            session.setAttribute("a", "before");
+            producer.flush();
+        }
+
+        producer.stop();
+        Thread.sleep(10);
+
+        // the same node id and session, numbered from the start again
+        SessionReplicationManager restarted = new SessionReplicationManager("producer", new LoopbackReplicationTransport(
+                "test"));
+        restarted.setFlushInterval(60 * 1000);
+        restarted.start();
+
+        try {
+            PicketBoxSession again = PicketBoxSessionManager.create(session.getId(), restarted);
+            again.setAttribute("a", "after");
+            restarted.flush();
+
+            assertEquals("after", nodeB.getSession(session.getId()).getAttribute("a"));
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    public void testStopBeforeStart() throws Exception {
+        SessionReplicationManager manager = new SessionReplicationManager("unstarted", new LoopbackReplicationTransport(
+                "test"));
+
+        manager.stop();
+
+        assertTrue(manager.stopped());
+    }
+
+    private static class FailingTransport extends LoopbackReplicationTransport {
+        private volatile boolean failing;
+
+        FailingTransport(String channel) {
+            super(channel);
+        }
+
+        @Override
+        public void send(byte[] payload) {
+            if (failing) {
+                throw new IllegalStateException("unreachable");
+            }
+
+            super.send(payload);
+        }
+    }
+
+    public static class CustomValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static volatile boolean deserialized;
+
+        private Object readResolve() {
+            deserialized = true;
+            return this;
+        }
+    }
+}
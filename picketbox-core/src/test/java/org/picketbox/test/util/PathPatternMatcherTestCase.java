@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.picketbox.core.http.RequestClassifier;
+import org.picketbox.core.http.RequestClassifier.RequestType;
+import org.picketbox.core.util.PathPatternMatcher;
+import org.picketbox.test.http.TestServletRequest;
+
+/**
+ * Unit test the {@link PathPatternMatcher} and the {@link RequestClassifier}
+ *
+ * @author Stefan Guilhen
+ */
+public class PathPatternMatcherTestCase {
+
+    @Test
+    public void testMatch() throws Exception {
+        PathPatternMatcher<String> matcher = new PathPatternMatcher<String>();
+
+        matcher.add("/static/*", "static");
+        matcher.add("/static/images/*", "images");
+        matcher.add("/static/index.html", "index");
+        matcher.add("*.css", "css");
+        matcher.add("*/j_security_check", "login");
+        matcher.add("/health", Collections.singleton("GET"), "health");
+
+        assertEquals("static", matcher.match("/static/app.js", "GET"));
+        assertEquals("images", matcher.match("/static/images/logo.png", "GET"));
+        assertEquals("images", matcher.match("/static/images", "GET"));
+        assertEquals("static", matcher.match("/static", "GET"));
+        assertEquals("css", matcher.match("/statics.css", "GET"));
+        assertEquals("index", matcher.match("/static/index.html", "GET"));
+        assertEquals("static", matcher.match("/static/style.css", "GET"));
+        assertEquals("css", matcher.match("/theme/style.css", "GET"));
+        assertEquals("login", matcher.match("/app/j_security_check", "POST"));
+        assertEquals("health", matcher.match("/health", "GET"));
+        assertNull(matcher.match("/health", "POST"));
+        assertNull(matcher.match("/healthz", "GET"));
+        assertNull(matcher.match("/secured/page.jsp", "GET"));
+
+        matcher.add("*", "all");
+        assertEquals("all", matcher.match("/secured/page.jsp", "GET"));
+    }
+
+    @Test
+    public void testInvalidPatterns() throws Exception {
+        PathPatternMatcher<String> matcher = new PathPatternMatcher<String>();
+
+        for (String pattern : new String[] { "", "/a*b", "*/a*", "**" }) {
+            try {
+                matcher.add(pattern, "invalid");
+                fail("Pattern should be rejected: " + pattern);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testClassifier() throws Exception {
+        RequestClassifier classifier = new RequestClassifier();
+
+        classifier.addPatterns("/static/*, *.css , GET|HEAD /health", RequestType.PUBLIC);
+        classifier.addPatterns("*/j_security_check", RequestType.LOGIN);
+        classifier.addPatterns("*/picketbox_logout", RequestType.LOGOUT);
+
+        assertEquals(RequestType.PUBLIC, classifier.classify(request("GET", "/app", "/app/static/app.js")));
+        assertEquals(RequestType.PUBLIC, classifier.classify(request("HEAD", "/app", "/app/health")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("POST", "/app", "/app/health")));
+        assertEquals(RequestType.LOGIN, classifier.classify(request("POST", "/app", "/app/j_security_check")));
+        assertEquals(RequestType.LOGOUT, classifier.classify(request("GET", "/app", "/app/picketbox_logout")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", "/app", "/app/secured/page.jsp")));
+        assertEquals(RequestType.PUBLIC, classifier.classify(request("GET", null, "/static")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", null, "/statics")));
+    }
+
+    @Test
+    public void testClassifierNormalizesPaths() throws Exception {
+        RequestClassifier classifier = new RequestClassifier();
+
+        classifier.addPatterns("/static/*, *.css", RequestType.PUBLIC);
+        classifier.addPatterns("*/j_security_check", RequestType.LOGIN);
+
+        // path parameters and dot segments cannot turn a protected path into a public one
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", "/app", "/app/admin/secret;.css")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", "/app", "/app/static/../admin")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", "/app", "/app/static/%2e%2e/admin")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", "/app", "/app/static/..;x/admin")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", "/app", "/app/static%2f..%2fadmin")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", "/app", "/app/static/..\\admin")));
+        assertEquals(RequestType.PROTECTED, classifier.classify(request("GET", "/app", "/app/../../static/a.js")));
+
+        // while equivalent spellings of public paths stay public
+        assertEquals(RequestType.PUBLIC, classifier.classify(request("GET", "/app", "/app/static/a.js;jsessionid=1")));
+        assertEquals(RequestType.PUBLIC, classifier.classify(request("GET", "/app", "/app//static/./a.js")));
+        assertEquals(RequestType.PUBLIC, classifier.classify(request("GET", "/app", "/app/%73tatic/a.js")));
+        assertEquals(RequestType.PUBLIC, classifier.classify(request("GET", "/app", "/app/admin/../static/a.js")));
+        assertEquals(RequestType.LOGIN, classifier.classify(request("POST", "/app", "/app/j_security_check;jsessionid=1")));
+    }
+
+    @Test
+    public void testNormalize() throws Exception {
+        assertEquals("/a/b", RequestClassifier.normalize("/a/b"));
+        assertEquals("/a/b/", RequestClassifier.normalize("/a/./b/"));
+        assertEquals("/b", RequestClassifier.normalize("/a/../b"));
+        assertEquals("/a/", RequestClassifier.normalize("/a/b/.."));
+        assertEquals("/a/b", RequestClassifier.normalize("/a;x=1/b;jsessionid=2"));
+        assertEquals("/admin/x", RequestClassifier.normalize("/%61dmin/x"));
+        assertEquals("/caf\u00e9", RequestClassifier.normalize("/caf%C3%A9"));
+        assertEquals("/", RequestClassifier.normalize("/a/.."));
+        assertNull(RequestClassifier.normalize("/a/%2F/b"));
+        assertNull(RequestClassifier.normalize("/a/%5cb"));
+        assertNull(RequestClassifier.normalize("/a\\b"));
+        assertNull(RequestClassifier.normalize("/a/%zz"));
+        assertNull(RequestClassifier.normalize("/a/%2"));
+        assertNull(RequestClassifier.normalize("/a/%00"));
+        assertNull(RequestClassifier.normalize("/.."));
+    }
+
+    private TestServletRequest request(String method, String contextPath, String uri) {
+        TestServletRequest request = new TestServletRequest(null);
+
+        request.setMethod(method);
+        request.setContextPath(contextPath);
+        request.setRequestURI(uri);
+
+        return request;
+    }
+}
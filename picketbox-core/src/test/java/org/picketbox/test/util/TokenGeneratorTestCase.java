@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketbox.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.picketbox.core.util.TokenGenerator;
+import org.picketbox.core.util.TokenGenerator.Encoding;
+
+/**
+ * Unit test the {@link TokenGenerator}
+ *
+ * @author Stefan Guilhen
+ */
+public class TokenGeneratorTestCase {
+
+    @Test
+    public void testEncoding() throws Exception {
+        char[] dest = new char[8];
+
+        byte[] bytes = "foob".getBytes("US-ASCII");
+        int written = TokenGenerator.encode(bytes, 0, bytes.length, Encoding.BASE64URL, dest, 0);
+        assertEquals("Zm9vYg", new String(dest, 0, written));
+
+        bytes = new byte[] { (byte) 0xfb, (byte) 0xff };
+        written = TokenGenerator.encode(bytes, 0, bytes.length, Encoding.BASE64URL, dest, 0);
+        assertEquals("-_8", new String(dest, 0, written));
+
+        written = TokenGenerator.encode(bytes, 0, bytes.length, Encoding.HEX, dest, 0);
+        assertEquals("fbff", new String(dest, 0, written));
+    }
+
+    @Test
+    public void testTokens() throws Exception {
+        TokenGenerator generator = TokenGenerator.getDefault();
+
+        assertEquals(32, generator.generate(16, Encoding.HEX).length());
+        assertEquals(TokenGenerator.encodedLength(20, Encoding.BASE64URL), generator.generate(20, Encoding.BASE64URL).length());
+
+        String id = generator.generateId();
+        assertEquals(4, UUID.fromString(id).version());
+        assertEquals(id, UUID.fromString(id).toString());
+    }
+
+    @Test
+    public void testConcurrentGeneration() throws Exception {
+        final TokenGenerator generator = new TokenGenerator(null, 4, 64);
+        final Set<String> tokens = Collections.synchronizedSet(new HashSet<String>());
+
+        Thread[] threads = new Thread[8];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        tokens.add(generator.generate(16, Encoding.BASE64URL));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(8000, tokens.size());
+        assertTrue(tokens.iterator().next().matches("[A-Za-z0-9_-]{22}"));
+    }
+}